@@ -0,0 +1,141 @@
+package com.ecommerce.API;
+
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.utils.LongIntHashMap;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Contract for the backend holding carts and their lines.
+ * CartService checks products and stock, the store only keeps the lines.
+ * The implementation is selected with the ecommerce.cart.store property (jpa by default).
+ */
+public interface CartStore {
+
+    /**
+     * @return the cart with its items, empty if the owner has no cart
+     */
+    Optional<Cart> find(CartKey key);
+
+    /**
+     * Add units of a product, creating the cart and the line if needed
+     * @param line productId, quantity to add, unit price and image of the product
+     * @param sessionId kept on a new guest cart
+     * @param checkQuantity called with the quantity of the line after the addition, before anything is
+     *                      written; throws to abort
+     */
+    void addItem(CartKey key, CartItem line, String sessionId, IntConsumer checkQuantity);
+
+    /**
+     * @return false if the cart has no line for the product (nothing is changed)
+     * @throws IllegalArgumentException if the owner has no cart
+     */
+    boolean updateQuantity(CartKey key, Long productId, int quantity);
+
+    /**
+     * @return false if the cart has no line for the product
+     * @throws IllegalArgumentException if the owner has no cart
+     */
+    boolean removeItem(CartKey key, Long productId);
+
+    /**
+     * @return false if the owner has no cart
+     */
+    boolean clear(CartKey key);
+
+    /**
+     * Applies a batch of changes, in order, as a single write: nothing is written if a change or the check fails.
+     * @param sessionId kept on a new guest cart
+     * @param checkQuantities called with the quantity each changed product ends up with (0 once its line is
+     *                        removed, see {@link LineChange#resultingQuantities}), before anything is written;
+     *                        throws to abort
+     * @throws IllegalArgumentException if a change sets a positive quantity on a product the cart does not hold
+     */
+    void applyAll(CartKey key, List<LineChange> changes, String sessionId, Consumer<LongIntHashMap> checkQuantities);
+
+    /**
+     * Deletes the cart and its lines
+     * @return false if the owner has no cart
+     */
+    boolean delete(CartKey key);
+
+    boolean exists(CartKey key);
+
+    /**
+     * The cart as stored in Postgres, for checkout. Stores keeping carts elsewhere write it through first.
+     */
+    Optional<Cart> persist(CartKey key);
+
+    /**
+     * One change of a batch: adds {@code line.quantity} units of the product (price and image are kept for a
+     * new line), or sets the quantity of its line, 0 removing it.
+     */
+    record LineChange(CartItem line, boolean adding) {
+
+        public static LineChange add(CartItem line) {
+            return new LineChange(line, true);
+        }
+
+        public static LineChange set(Long productId, int quantity) {
+            return new LineChange(CartItem.builder().productId(productId).quantity(quantity).build(), false);
+        }
+
+        public Long productId() {
+            return line.getProductId();
+        }
+
+        public int quantity() {
+            return line.getQuantity();
+        }
+
+        /**
+         * @param cart the cart before the changes, null if the owner has none
+         * @return productId -> quantity of each changed product once all changes are applied, 0 for no line
+         * @throws IllegalArgumentException if a change sets a positive quantity on a product with no line
+         */
+        public static LongIntHashMap resultingQuantities(Cart cart, List<LineChange> changes) {
+            LongIntHashMap quantities = new LongIntHashMap(changes.size());
+            for (LineChange change : changes) {
+                long productId = change.productId();
+                int current = quantities.containsKey(productId)
+                        ? quantities.getOrDefault(productId, 0)
+                        : cart == null ? 0 : cart.findItem(productId).map(CartItem::getQuantity).orElse(0);
+                if (change.adding()) {
+                    quantities.put(productId, current + change.quantity());
+                } else if (current > 0 || change.quantity() == 0) {
+                    quantities.put(productId, change.quantity());
+                } else {
+                    throw new IllegalArgumentException("Item not found in cart: " + productId);
+                }
+            }
+            return quantities;
+        }
+    }
+
+    /**
+     * Owner of a cart: a user, or a guest identified by its guestCartId.
+     */
+    record CartKey(Long userId, String guestCartId) {
+
+        public static CartKey user(Long userId) {
+            return new CartKey(userId, null);
+        }
+
+        public static CartKey guest(String guestCartId) {
+            return new CartKey(null, guestCartId);
+        }
+
+        public boolean isGuest() {
+            return guestCartId != null;
+        }
+
+        @Override
+        public String toString() {
+            return isGuest() ? "guest:" + guestCartId : "user:" + userId;
+        }
+    }
+}
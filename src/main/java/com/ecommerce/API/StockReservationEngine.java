@@ -0,0 +1,160 @@
+package com.ecommerce.API;
+
+import com.ecommerce.models.Stock;
+import com.ecommerce.utils.LongIntHashMap;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * Contract for the backend holding available/reserved stock counters.
+ * StockService keeps the reservation records, the engine only moves quantities.
+ * The implementation is selected with the ecommerce.stock.engine property (jpa by default).
+ */
+public interface StockReservationEngine {
+
+    /**
+     * Reserve a quantity for one product
+     * @throws com.ecommerce.exceptions.StockNotFound if the product has no stock record
+     * @throws com.ecommerce.exceptions.InsufficientStockException if not enough units are available
+     */
+    void reserve(Long productId, int quantity);
+
+    /**
+     * Reserve every line or none of them, lines being processed in productId order
+     * @throws com.ecommerce.exceptions.InsufficientStockException listing every short product
+     */
+    void reserveAll(SortedMap<Long, Integer> quantitiesByProduct);
+
+    /**
+     * Move a reserved quantity back to available
+     * @return false if fewer units than requested are reserved (nothing is changed)
+     * @throws com.ecommerce.exceptions.StockNotFound if the product has no stock record
+     */
+    boolean release(Long productId, int quantity);
+
+    /**
+     * Turn a reserved quantity into a sale (reserved and total both decrease)
+     * @return false if fewer units than requested are reserved (nothing is changed)
+     * @throws com.ecommerce.exceptions.StockNotFound if the product has no stock record
+     */
+    boolean confirm(Long productId, int quantity);
+
+    /**
+     * Release several products at once, in productId order (an order's reservations)
+     * @return productIds left unchanged because fewer units than requested are reserved
+     */
+    default Set<Long> releaseAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        Set<Long> notReleased = new TreeSet<>();
+        quantitiesByProduct.forEach((productId, quantity) -> {
+            if (!release(productId, quantity)) {
+                notReleased.add(productId);
+            }
+        });
+        return notReleased;
+    }
+
+    /**
+     * Confirm several products at once, in productId order (an order's reservations)
+     * @return productIds left unchanged because fewer units than requested are reserved
+     */
+    default Set<Long> confirmAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        Set<Long> notConfirmed = new TreeSet<>();
+        quantitiesByProduct.forEach((productId, quantity) -> {
+            if (!confirm(productId, quantity)) {
+                notConfirmed.add(productId);
+            }
+        });
+        return notConfirmed;
+    }
+
+    /**
+     * Add units to total and available after a supplier delivery
+     */
+    void restock(Long productId, int quantity);
+
+    /**
+     * Set the available quantity, total moves by the same difference
+     */
+    void adjustAvailable(Long productId, int newAvailableQuantity);
+
+    /**
+     * @return the available quantity, or null if the product has no stock record
+     */
+    Integer getAvailableQuantity(Long productId);
+
+    /**
+     * Available quantities of several products, read in as few round-trips as the backend allows.
+     * The caller bounds the size of the collection.
+     * @return productId -> available quantity, products without a stock record are absent
+     */
+    default LongIntHashMap getAvailableQuantities(Collection<Long> productIds) {
+        LongIntHashMap available = new LongIntHashMap(productIds.size());
+        for (Long productId : productIds) {
+            Integer quantity = getAvailableQuantity(productId);
+            if (quantity != null) {
+                available.put(productId, quantity);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Stock row with the engine's current counters, for backends whose row lags behind them.
+     * The default returns the row itself.
+     * @return a copy when the counters differ (the row itself is not modified), null if stock is null
+     */
+    default Stock currentStock(Stock stock) {
+        return stock;
+    }
+
+    /**
+     * Apply restock deltas and absolute available quantities of many products at once (bulk import).
+     * The default applies them one product at a time through restock/adjustAvailable.
+     * @return productIds left unchanged: no stock record, or available would become negative
+     */
+    default Set<Long> applyQuantityChanges(SortedMap<Long, QuantityChange> changes) {
+        Set<Long> rejected = new TreeSet<>();
+        changes.forEach((productId, change) -> {
+            Integer available = getAvailableQuantity(productId);
+            if (available == null || change.applyTo(available) < 0) {
+                rejected.add(productId);
+            } else if (change.absolute()) {
+                adjustAvailable(productId, change.quantity());
+            } else if (change.quantity() != 0) {
+                restock(productId, change.quantity());
+            }
+        });
+        return rejected;
+    }
+
+    /**
+     * Change of the available quantity of one product: a signed delta (total moves with it) or an absolute value.
+     * @param reason why the quantity changed (recorded on the movement by the ledger engine), may be null
+     */
+    record QuantityChange(boolean absolute, int quantity, String reason) {
+
+        public QuantityChange(boolean absolute, int quantity) {
+            this(absolute, quantity, null);
+        }
+
+        public int applyTo(int available) {
+            return absolute ? quantity : available + quantity;
+        }
+
+        /**
+         * @return the single change equivalent to this one followed by {@code next}
+         */
+        public QuantityChange then(QuantityChange next) {
+            if (next.absolute) {
+                return next;
+            }
+            String reasons = reason == null ? next.reason
+                    : next.reason == null || next.reason.equals(reason) ? reason
+                    : reason + "; " + next.reason;
+            return new QuantityChange(absolute, quantity + next.quantity, reasons);
+        }
+    }
+}
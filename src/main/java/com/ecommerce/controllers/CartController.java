@@ -1,6 +1,7 @@
 package com.ecommerce.controllers;
 
 import com.ecommerce.dto.ApiResponse;
+import com.ecommerce.dto.CartBatchRequest;
 import com.ecommerce.dto.CartItemDto;
 import com.ecommerce.dto.CartSummary;
 import com.ecommerce.models.SecurityUser;
@@ -52,6 +53,16 @@ public class CartController {
         CartSummary summary = cartService.getUserCartSummary(userDetails.getUserId());
         return ResponseEntity.ok(ApiResponse.success(summary, "Item removed from cart successfully"));
     }
+    // Plusieurs opérations (ajout, mise à jour, suppression) appliquées en une seule transaction
+    @PatchMapping
+    public ResponseEntity<ApiResponse<CartSummary>> applyCartOperations(
+            @Valid @RequestBody CartBatchRequest request,
+            @AuthenticationPrincipal SecurityUser userDetails) {
+
+        cartService.applyUserCartOperations(userDetails.getUserId(), request.operations());
+        CartSummary summary = cartService.getUserCartSummary(userDetails.getUserId());
+        return ResponseEntity.ok(ApiResponse.success(summary, "Cart updated successfully"));
+    }
     @DeleteMapping
     public ResponseEntity<ApiResponse<Void>> clearCart(
             @AuthenticationPrincipal SecurityUser userDetails) {
@@ -16,7 +16,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @RestController
@@ -52,6 +54,14 @@ public class ProductController {
         return ResponseEntity.ok(response);
     }
 
+    // Disponibilité de plusieurs produits en une requête (ex: grille produits), les produits sans stock sont absents
+    @GetMapping("/availability")
+    public ResponseEntity<Map<Long, Integer>> getAvailability(@RequestParam List<Long> ids) {
+        Map<Long, Integer> availability = new LinkedHashMap<>();
+        stockService.getAvailableStock(ids).forEach(availability::put);
+        return ResponseEntity.ok(availability);
+    }
+
     @GetMapping
     public ResponseEntity<Page<Product>> getAllProducts(Pageable pageable) {
         Page<Product> products = productService.getAllProducts(pageable);
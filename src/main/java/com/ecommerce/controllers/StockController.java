@@ -1,15 +1,34 @@
 package com.ecommerce.controllers;
 
+import com.ecommerce.dto.LowStockEntry;
+import com.ecommerce.dto.StockImportReport;
 import com.ecommerce.models.Product;
+import com.ecommerce.models.ReplenishmentRun;
+import com.ecommerce.models.ReplenishmentSuggestion;
 import com.ecommerce.models.Stock;
+import com.ecommerce.models.StockMovement;
+import com.ecommerce.models.Warehouse;
+import com.ecommerce.services.LowStockIndex;
 import com.ecommerce.services.ProductService;
+import com.ecommerce.services.ReplenishmentService;
+import com.ecommerce.services.StockImportService;
 import com.ecommerce.services.StockService;
+import com.ecommerce.services.WarehouseStockService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -19,17 +38,23 @@ public class StockController {
 
     private final StockService stockService;
     private final ProductService productService;
+    private final StockImportService stockImportService;
+    private final LowStockIndex lowStockIndex;
+    private final ReplenishmentService replenishmentService;
+    private final WarehouseStockService warehouseStockService;
 
     /**
-     * Réapprovisionnement - INVENTORY_MANAGER ajoute du stock après livraison fournisseur
+     * Réapprovisionnement - INVENTORY_MANAGER ajoute du stock après livraison fournisseur.
+     * warehouseId obligatoire pour un produit stocké par entrepôt : les unités sont ajoutées à cet entrepôt
      */
     @PostMapping("/{productId}/restock")
     @PreAuthorize("hasRole('INVENTORY_MANAGER')")
     public ResponseEntity<?> restockProduct(
             @PathVariable Long productId,
-            @RequestParam Integer quantity) {
+            @RequestParam Integer quantity,
+            @RequestParam(required = false) Long warehouseId) {
 
-        log.info("Restocking product {}, adding quantity: {}", productId, quantity);
+        log.info("Restocking product {}, adding quantity: {}, warehouse: {}", productId, quantity, warehouseId);
         Product product = productService.getProductById(productId);
         Stock currentStock = stockService.getStockForProduct(product);
 
@@ -40,15 +65,33 @@ public class StockController {
                     .body("Le stock pour ce produit n'existe pas. La création initiale du stock doit être faite par un ADMIN lors de la création du produit.");
         }
 
-        // Ajouter au stock existant
-        currentStock.setTotalQuantity(currentStock.getTotalQuantity() + quantity);
-        currentStock.setAvailableQuantity(currentStock.getAvailableQuantity() + quantity);
-        Stock updatedStock = stockService.updateStock(currentStock);
-        return ResponseEntity.ok(updatedStock);
+        // Ajouter au stock existant (mise à jour atomique, sans lecture-modification-écriture)
+        stockService.restockProduct(productId, quantity, warehouseId);
+        return ResponseEntity.ok(stockService.getStockForProduct(product));
+    }
+
+    /**
+     * Import en masse (livraison fournisseur, inventaire) - corps CSV avec en-tête (productId ou sku, delta ou quantity, reason)
+     * ou NDJSON avec les mêmes clés, lu ligne par ligne sans charger le fichier en mémoire.
+     * Les lignes en erreur sont listées dans le rapport, les autres sont appliquées.
+     */
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE})
+    @PreAuthorize("hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<StockImportReport> importStock(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream body) throws IOException {
+
+        StockImportService.Format format = MediaType.parseMediaType(contentType)
+                .isCompatibleWith(MediaType.APPLICATION_NDJSON)
+                ? StockImportService.Format.NDJSON
+                : StockImportService.Format.CSV;
+        log.info("Importing stock changes ({})", format);
+        return ResponseEntity.ok(stockImportService.importStock(body, format));
     }
 
     /**
-     * Ajustement de stock - INVENTORY_MANAGER corrige les quantités (inventaire, casse, etc.)
+     * Ajustement de stock - INVENTORY_MANAGER corrige les quantités (inventaire, casse, etc.).
+     * Refusé pour un produit stocké par entrepôt : corriger la quantité de chaque entrepôt
      */
     @PutMapping("/{productId}/adjust")
     @PreAuthorize("hasRole('INVENTORY_MANAGER')")
@@ -70,11 +113,84 @@ public class StockController {
                     .body("Le stock pour ce produit n'existe pas. La création initiale du stock doit être faite par un ADMIN lors de la création du produit.");
         }
 
-        int difference = newQuantity - currentStock.getAvailableQuantity();
-        currentStock.setTotalQuantity(currentStock.getTotalQuantity() + difference);
-        currentStock.setAvailableQuantity(newQuantity);
-        Stock updatedStock = stockService.updateStock(currentStock);
-        return ResponseEntity.ok(updatedStock);
+        // Le total suit la même différence que la quantité disponible
+        stockService.adjustAvailableStock(productId, newQuantity);
+        return ResponseEntity.ok(stockService.getStockForProduct(product));
+    }
+
+    /**
+     * Produits sous leur seuil de stock bas, du plus critique au moins critique - accessible à ADMIN et INVENTORY_MANAGER
+     */
+    @GetMapping("/low")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<Page<LowStockEntry>> getLowStock(Pageable pageable) {
+        return ResponseEntity.ok(lowStockIndex.getLowStock(pageable));
+    }
+
+    /**
+     * Flux SSE des alertes : "low-stock" quand un produit passe sous son seuil, "restocked" quand il repasse au-dessus
+     */
+    @GetMapping(value = "/low/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public SseEmitter streamLowStock() {
+        return lowStockIndex.subscribe();
+    }
+
+    /**
+     * Suggestions de réapprovisionnement du dernier calcul (vitesse de vente, point de commande)
+     */
+    @GetMapping("/replenishment")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<Page<ReplenishmentSuggestion>> getReplenishmentSuggestions(Pageable pageable) {
+        return ResponseEntity.ok(replenishmentService.getLatestSuggestions(pageable));
+    }
+
+    /**
+     * Lance un calcul de réapprovisionnement sans attendre la planification
+     */
+    @PostMapping("/replenishment/run")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<ReplenishmentRun> runReplenishment() {
+        // Un calcul est déjà en cours sur une autre instance
+        return replenishmentService.replenish()
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.CONFLICT).build());
+    }
+
+    /**
+     * Liste des entrepôts - accessible à ADMIN et INVENTORY_MANAGER
+     */
+    @GetMapping("/warehouses")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<List<Warehouse>> getWarehouses() {
+        return ResponseEntity.ok(warehouseStockService.getWarehouses());
+    }
+
+    /**
+     * Création d'un entrepôt - ADMIN uniquement. shippingRank : ordre de préférence pour l'expédition
+     */
+    @PostMapping("/warehouses")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Warehouse> createWarehouse(@RequestBody Warehouse warehouse) {
+        warehouse.setWarehouseId(null);
+        log.info("Creating warehouse {}", warehouse.getCode());
+        return ResponseEntity.status(HttpStatus.CREATED).body(warehouseStockService.createWarehouse(warehouse));
+    }
+
+    /**
+     * Quantité d'un produit dans un entrepôt (inventaire, livraison) - INVENTORY_MANAGER.
+     * Le stock disponible du produit devient la somme de ses entrepôts, dans la même transaction
+     */
+    @PutMapping("/{productId}/warehouses/{warehouseId}")
+    @PreAuthorize("hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<Void> setWarehouseQuantity(
+            @PathVariable Long productId,
+            @PathVariable Long warehouseId,
+            @RequestParam Integer quantity) {
+
+        log.info("Setting {} units of product {} in warehouse {}", quantity, productId, warehouseId);
+        stockService.setWarehouseQuantity(productId, warehouseId, quantity);
+        return ResponseEntity.noContent().build();
     }
 
     /**
@@ -92,4 +208,29 @@ public class StockController {
 
         return ResponseEntity.ok(stock);
     }
+
+    /**
+     * Mode produit "chaud" - répartit le stock sur plusieurs lignes pour absorber les pics de réservations
+     * (lancements). count=1 désactive le mode.
+     */
+    @PutMapping("/{productId}/buckets")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<Stock> shardStock(
+            @PathVariable Long productId,
+            @RequestParam Integer count) {
+
+        log.info("Splitting stock of product {} over {} buckets", productId, count);
+        Product product = productService.getProductById(productId);
+        stockService.shardStock(productId, count);
+        return ResponseEntity.ok(stockService.getStockForProduct(product));
+    }
+
+    /**
+     * Historique des mouvements de stock (journal du moteur ledger) - accessible à ADMIN et INVENTORY_MANAGER
+     */
+    @GetMapping("/{productId}/movements")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('INVENTORY_MANAGER')")
+    public ResponseEntity<Page<StockMovement>> getStockMovements(@PathVariable Long productId, Pageable pageable) {
+        return ResponseEntity.ok(stockService.getStockMovements(productId, pageable));
+    }
 }
@@ -0,0 +1,29 @@
+package com.ecommerce.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Body of PATCH /api/cart: operations applied in order, all or none.
+ * ADD adds quantity units, UPDATE sets the quantity of a line (0 or less removes it), REMOVE removes a line.
+ */
+public record CartBatchRequest(
+        @NotEmpty(message = "operations must not be empty")
+        @Size(max = 200, message = "At most 200 operations per request")
+        List<@Valid @NotNull Operation> operations
+) {
+    public enum Type { ADD, UPDATE, REMOVE }
+
+    public record Operation(
+            @NotNull(message = "operation type must not be null")
+            Type type,
+            @NotNull(message = "product id must not be null")
+            Long productId,
+            Integer quantity
+    ) {
+    }
+}
@@ -11,6 +11,12 @@ public record LoginRequestDTO(
         String email,
 
         @NotBlank
-        String password
+        String password,
+
+        // panier invité à fusionner dans le panier de l'utilisateur à la connexion (optionnel)
+        String guestCartId
 ) {
+    public LoginRequestDTO(String email, String password) {
+        this(email, password, null);
+    }
 }
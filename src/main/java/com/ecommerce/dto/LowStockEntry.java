@@ -0,0 +1,7 @@
+package com.ecommerce.dto;
+
+/**
+ * A product at or below its low-stock threshold, as listed by GET /api/stock/low and pushed on its stream.
+ */
+public record LowStockEntry(long productId, int availableQuantity, int lowStockThreshold) {
+}
@@ -0,0 +1,18 @@
+package com.ecommerce.dto;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk stock import. Only the first errors are listed, {@code errorsTruncated} tells
+ * whether more lines failed than reported.
+ */
+public record StockImportReport(
+        int linesRead,
+        int linesApplied,
+        int linesFailed,
+        List<LineError> errors,
+        boolean errorsTruncated
+) {
+    public record LineError(long line, String message) {
+    }
+}
@@ -0,0 +1,14 @@
+package com.ecommerce.events;
+
+import java.util.Set;
+
+/**
+ * Published when the available quantity of products may have changed (reserve, release, restock, adjust).
+ * {@code remote} events relay a change committed on another node (received through Redis pub/sub).
+ */
+public record StockChangedEvent(Set<Long> productIds, boolean remote) {
+
+    public StockChangedEvent(Set<Long> productIds) {
+        this(productIds, false);
+    }
+}
@@ -0,0 +1,9 @@
+package com.ecommerce.events;
+
+import java.util.List;
+
+/**
+ * Published when stock reservations leave the ACTIVE status (confirmed, released or expired).
+ */
+public record StockReservationsClosedEvent(List<Long> reservationIds) {
+}
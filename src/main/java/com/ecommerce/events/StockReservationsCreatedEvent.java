@@ -0,0 +1,10 @@
+package com.ecommerce.events;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Published when stock reservations have been saved; maps each reservationId to its expiry.
+ */
+public record StockReservationsCreatedEvent(Map<Long, LocalDateTime> expiresAtByReservationId) {
+}
@@ -0,0 +1,7 @@
+package com.ecommerce.exceptions;
+
+public class CartChangesLostException extends RuntimeException {
+    public CartChangesLostException(String message) {
+        super(message);
+    }
+}
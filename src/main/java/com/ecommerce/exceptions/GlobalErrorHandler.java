@@ -1,6 +1,7 @@
 package com.ecommerce.exceptions;
 
 import com.ecommerce.dto.ErrorResponse;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -25,6 +26,16 @@ public class GlobalErrorHandler {
         return buildResponse(HttpStatus.CONFLICT, "Insufficient stock", ex.getMessage());
     }
 
+    @ExceptionHandler(CartChangesLostException.class)
+    public ResponseEntity<ErrorResponse> handleCartChangesLost(CartChangesLostException ex){
+        return buildResponse(HttpStatus.CONFLICT, "Cart changes lost", ex.getMessage());
+    }
+
+    @ExceptionHandler(ConcurrencyFailureException.class)
+    public ResponseEntity<ErrorResponse> handleConcurrencyFailure(ConcurrencyFailureException ex){
+        return buildResponse(HttpStatus.CONFLICT, "Concurrent update", ex.getMessage());
+    }
+
     @ExceptionHandler(OrderNotFound.class)
     public ResponseEntity<ErrorResponse> handleOrderNotFoundException(OrderNotFound ex){
         return buildResponse(HttpStatus.NOT_FOUND, "Order not found", ex.getMessage());
@@ -1,9 +1,23 @@
 package com.ecommerce.exceptions;
 
+import java.util.List;
+
 public class InsufficientStockException extends RuntimeException {
+    private final List<Long> productIds;
+
     public InsufficientStockException(String msg) {
-        super(msg);
+        this(msg, List.of());
     }
 
+    public InsufficientStockException(String msg, List<Long> productIds) {
+        super(msg);
+        this.productIds = List.copyOf(productIds);
+    }
 
+    /**
+     * @return ids of the products that could not be reserved, empty when unknown
+     */
+    public List<Long> getProductIds() {
+        return productIds;
+    }
 }
@@ -1,18 +1,29 @@
 package com.ecommerce.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 
 @Entity
-@Table(name = "carts")
+@Table(name = "carts", indexes = {
+        @Index(name = "idx_cart_guest_cart_id", columnList = "guest_CartId"),
+        @Index(name = "idx_cart_expires_at", columnList = "expires_at")
+})
 @Data
 @Builder
 @AllArgsConstructor
@@ -25,7 +36,8 @@ public class Cart {
     @Column(nullable = true)
     private Long userId;
 
-    @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    // orphanRemoval: a line taken out of the list is deleted, not left behind in cart_items
+    @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     @Builder.Default
     private List<CartItem> items = new ArrayList<>();
 
@@ -47,39 +59,91 @@ public class Cart {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // guest carts only: pushed back on every change, expired carts are purged (see GuestCartPurger)
     @Column(name = "expires_at")
     private LocalDateTime expiresAt;
 
+    // productId -> line; change lines through addItem/removeItem/clearItems to keep it in line with items
+    @Transient
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final transient ItemIndex itemIndex = new ItemIndex();
+
 
     public void addItem(CartItem item) {
         Objects.requireNonNull(item, "CartItem cannot be null");
         item.setCart(this);
         this.items.add(item);
+        itemIndex.of(items).put(item.getProductId(), item);
+    }
+
+    /**
+     * @return the line of the product, looked up in the index
+     */
+    public Optional<CartItem> findItem(Long productId) {
+        return Optional.ofNullable(itemIndex.of(items).get(productId));
     }
 
-    public void removeItem(Long productId) {
-        this.items.removeIf(item -> Objects.equals(item.getProductId(), productId));
+    /**
+     * @return the removed line, or null if the cart has none for the product
+     */
+    public CartItem removeItem(Long productId) {
+        CartItem removed = itemIndex.of(items).remove(productId);
+        if (removed != null) {
+            // by identity: lines not saved yet all have a null id
+            for (Iterator<CartItem> iterator = items.iterator(); iterator.hasNext(); ) {
+                if (iterator.next() == removed) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        return removed;
     }
 
     public void clearItems() {
         this.items.clear();
+        itemIndex.of(items).clear();
         this.totalItems = 0;
         this.totalAmount = 0.0;
         this.lastUpdatedAt = LocalDateTime.now();
     }
 
+    /**
+     * @return a new, unmanaged cart with the same owner and dates but no lines, e.g. to read an expired
+     *         cart as empty without deleting its rows
+     */
+    public Cart emptyCopy() {
+        return Cart.builder()
+                .cartId(cartId)
+                .userId(userId)
+                .guestCartId(guestCartId)
+                .sessionId(sessionId)
+                .isTemporary(isTemporary)
+                .totalItems(0)
+                .totalAmount(0.0)
+                .createdAt(createdAt)
+                .lastUpdatedAt(lastUpdatedAt)
+                .expiresAt(expiresAt)
+                .build();
+    }
+
     public void updateTotals(Integer totalItems, Double totalAmount) {
         this.totalItems = totalItems;
         this.totalAmount = totalAmount;
     }
 
+    public boolean isExpired(LocalDateTime now) {
+        return expiresAt != null && expiresAt.isBefore(now);
+    }
+
     public boolean isEmpty() {
         return items.isEmpty();
     }
 
     public boolean containsProduct(Long productId) {
-        return items.stream()
-                .anyMatch(item -> Objects.equals(item.getProductId(), productId));
+        return itemIndex.of(items).containsKey(productId);
     }
     @Override
     public boolean equals(Object o) {
@@ -94,5 +158,24 @@ public class Cart {
         return Objects.hash(cartId);
     }
 
-
-}
\ No newline at end of file
+    /**
+     * Index of the lines by productId, rebuilt whenever the list itself is replaced (loaded by
+     * Hibernate, set by the builder or setItems).
+     */
+    private static final class ItemIndex {
+
+        private final Map<Long, CartItem> byProduct = new HashMap<>();
+        private List<CartItem> indexed;
+
+        Map<Long, CartItem> of(List<CartItem> items) {
+            if (indexed != items) {
+                byProduct.clear();
+                for (CartItem item : items) {
+                    byProduct.put(item.getProductId(), item);
+                }
+                indexed = items;
+            }
+            return byProduct;
+        }
+    }
+}
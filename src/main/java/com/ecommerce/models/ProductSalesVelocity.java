@@ -0,0 +1,32 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Exponentially decayed count of the units sold of a product: every confirmed unit adds 1, and the sum
+ * decays continuously with the replenishment half-life. Divided by the decay time constant it is the
+ * exponentially weighted moving average of the daily sales, and it only changes when new sales arrive.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "product_sales_velocity")
+public class ProductSalesVelocity {
+    @Id
+    private Long productId;
+
+    // value of the decayed count at decayedAt
+    @Column(nullable = false)
+    private Double decayedUnits;
+
+    @Column(nullable = false)
+    private LocalDateTime decayedAt;
+}
@@ -0,0 +1,41 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One pass of the replenishment engine. {@link #salesThrough} is the time the sales velocities were
+ * brought forward to when the run folded the new confirmed sales.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "replenishment_runs", indexes = {
+        @Index(name = "idx_replenishment_run_sales_through", columnList = "salesThrough")
+})
+public class ReplenishmentRun {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long runId;
+
+    @Column(nullable = false)
+    private LocalDateTime salesThrough;
+
+    @Column(nullable = false)
+    private LocalDateTime startedAt;
+
+    private LocalDateTime finishedAt;
+
+    @Builder.Default
+    private Integer productsAnalyzed = 0;
+
+    @Builder.Default
+    private Integer suggestionsCreated = 0;
+}
@@ -0,0 +1,53 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Supplier order proposed by the last replenishment run for a product at or below its reorder point.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "replenishment_suggestions", indexes = {
+        @Index(name = "idx_suggestion_product", columnList = "productId")
+})
+public class ReplenishmentSuggestion {
+    // sequence (not identity) so that Hibernate can batch the inserts
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "replenishment_suggestion_seq")
+    @SequenceGenerator(name = "replenishment_suggestion_seq", sequenceName = "replenishment_suggestion_seq",
+            allocationSize = 50)
+    private Long suggestionId;
+
+    @Column(nullable = false)
+    private Long runId;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Integer availableQuantity;
+
+    // units per day
+    @Column(nullable = false)
+    private Double salesVelocity;
+
+    @Column(nullable = false)
+    private Integer reorderPoint;
+
+    @Column(nullable = false)
+    private Integer suggestedQuantity;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -10,7 +10,7 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
@@ -26,6 +26,11 @@ public class Stock {
     @JoinColumn(name="product_id",nullable = false)
     private Product product;
 
+    // optimistic lock for entity saves; the bulk counter updates increment it too
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
+
     @Column(nullable = false)
     private Integer totalQuantity;
 
@@ -43,6 +48,11 @@ public class Stock {
     @UpdateTimestamp
     private LocalDateTime lastUpdatedAt;
 
+    // highest stock_movements id already folded into the quantities above (ledger engine only)
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    @Builder.Default
+    private Long lastMovementId = 0L;
+
     public boolean isAvailable(Integer requestedQuantity) {
         return availableQuantity >= requestedQuantity;
     }
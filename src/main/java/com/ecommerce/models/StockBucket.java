@@ -0,0 +1,44 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Slice of the available/reserved counters of a hot product. While a product has buckets, current counters
+ * are the stock row plus its buckets, and total is the row total minus the units confirmed from the buckets
+ * since the last rebalance.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "stock_buckets", indexes = {
+        @Index(name = "idx_bucket_product", columnList = "productId, bucketNo", unique = true)
+})
+public class StockBucket {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long bucketId;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Integer bucketNo;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer availableQuantity = 0;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer reservedQuantity = 0;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer confirmedQuantity = 0;
+}
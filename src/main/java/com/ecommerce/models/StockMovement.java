@@ -0,0 +1,57 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Append-only entry of the stock ledger: one counter move of one product.
+ * The stock row is the snapshot of every movement up to {@link Stock#getLastMovementId()}.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "stock_movements", indexes = {
+        @Index(name = "idx_movement_product", columnList = "productId, movementId")
+})
+public class StockMovement {
+    public static final int REASON_LENGTH = 255;
+
+    // sequence (not identity) so that Hibernate can batch the inserts. No pooled ids: compaction relies on
+    // ids of a product growing in commit order, each id being drawn while the stock row lock is held
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_movement_seq")
+    @SequenceGenerator(name = "stock_movement_seq", sequenceName = "stock_movement_seq", allocationSize = 1)
+    private Long movementId;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StockMovementType type;
+
+    @Column(nullable = false)
+    private Integer totalDelta;
+
+    @Column(nullable = false)
+    private Integer availableDelta;
+
+    @Column(nullable = false)
+    private Integer reservedDelta;
+
+    // free text given with a manual change (stock import), null for reservation moves
+    @Column(length = REASON_LENGTH)
+    private String reason;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,9 @@
+package com.ecommerce.models;
+
+public enum StockMovementType {
+    RESERVE,
+    RELEASE,
+    CONFIRM,
+    RESTOCK,
+    ADJUST
+}
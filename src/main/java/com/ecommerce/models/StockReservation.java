@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
@@ -17,7 +18,8 @@ import java.time.LocalDateTime;
 @Table(name = "stock_reservations", indexes = {
         @Index(name = "idx_reservation_order", columnList = "orderId"),
         @Index(name = "idx_reservation_product", columnList = "productId"),
-        @Index(name = "idx_reservation_expiry", columnList = "expiresAt")
+        @Index(name = "idx_reservation_expiry", columnList = "expiresAt"),
+        @Index(name = "idx_reservation_sales_counted", columnList = "salesCounted, status")
 })
 public class StockReservation {
     @Id
@@ -34,6 +36,9 @@ public class StockReservation {
     @Column(nullable = false)
     private Integer quantity;
 
+    // warehouse the units were allocated from, null for products not tracked per warehouse
+    private Long warehouseId;
+
     @Enumerated(EnumType.STRING)
     @Builder.Default
     private ReservationStatus status = ReservationStatus.ACTIVE;
@@ -47,4 +52,10 @@ public class StockReservation {
 
     private LocalDateTime releasedAt;
     private LocalDateTime confirmedAt;
+
+    // set when the confirmed units are folded into the sales velocity, see ProductSalesVelocityRepository
+    @Builder.Default
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private Boolean salesCounted = false;
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A site stock is shipped from. Orders are allocated to the warehouses with the lowest
+ * {@link #shippingRank} first: order addresses are free text, so "nearest" is the configured rank.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "warehouses", indexes = {
+        @Index(name = "idx_warehouse_code", columnList = "code", unique = true)
+})
+public class Warehouse {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long warehouseId;
+
+    @Column(nullable = false)
+    private String code;
+
+    @Column(nullable = false)
+    private String name;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String address;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer shippingRank = 0;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Boolean active = true;
+}
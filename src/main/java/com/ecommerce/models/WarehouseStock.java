@@ -0,0 +1,36 @@
+package com.ecommerce.models;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Units of a product held by one warehouse and not yet allocated to an order. The stock row stays the
+ * product-wide counter the reservation engines check; this row tells which warehouse ships the units.
+ * Products without any row are not tracked per warehouse.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "warehouse_stock", indexes = {
+        @Index(name = "idx_warehouse_stock_product", columnList = "productId, warehouseId", unique = true)
+})
+public class WarehouseStock {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long warehouseStockId;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Long warehouseId;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer quantity = 0;
+}
@@ -1,19 +1,59 @@
 package com.ecommerce.repositories;
 
 import com.ecommerce.models.Cart;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 @Repository
 public interface CartRepository extends JpaRepository<Cart,Long> {
 
+    // items are fetched with the cart: every caller reads them
+    @EntityGraph(attributePaths = "items")
     Optional<Cart> findByUserId(Long userId);
 
+    @EntityGraph(attributePaths = "items")
     Optional<Cart> findByGuestCartId(String guestCartId);
 
     boolean existsByGuestCartId(String guestCartId);
 
     boolean existsByUserId(Long userId);
+
+    /**
+     * Deletes a guest cart and its items in one statement, whatever the number of items.
+     * Clears the persistence context: carts loaded before are detached.
+     * @return number of carts deleted
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "WITH items AS (DELETE FROM cart_items WHERE cart_id IN " +
+            "(SELECT cart_id FROM carts WHERE guest_cart_id = :guestCartId)) " +
+            "DELETE FROM carts WHERE guest_cart_id = :guestCartId", nativeQuery = true)
+    int deleteGuestCart(@Param("guestCartId") String guestCartId);
+
+    /**
+     * Deletes up to {@code limit} guest carts expired before {@code now}, oldest first, with their items,
+     * in one statement. Carts locked by another transaction are skipped, so purges can run on every instance.
+     * @return number of carts deleted
+     */
+    @Modifying
+    @Query(value = "WITH expired AS (SELECT cart_id FROM carts WHERE guest_cart_id IS NOT NULL " +
+            "AND expires_at < :now ORDER BY expires_at LIMIT :limit FOR UPDATE SKIP LOCKED), " +
+            "items AS (DELETE FROM cart_items WHERE cart_id IN (SELECT cart_id FROM expired)) " +
+            "DELETE FROM carts WHERE cart_id IN (SELECT cart_id FROM expired)", nativeQuery = true)
+    int deleteExpiredGuestCarts(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * Same as {@link #deleteGuestCart} for a user cart
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "WITH items AS (DELETE FROM cart_items WHERE cart_id IN " +
+            "(SELECT cart_id FROM carts WHERE user_id = :userId)) " +
+            "DELETE FROM carts WHERE user_id = :userId", nativeQuery = true)
+    int deleteUserCart(@Param("userId") Long userId);
 }
@@ -2,12 +2,27 @@ package com.ecommerce.repositories;
 
 import com.ecommerce.models.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product,Long> {
     List<Product> findByCategoryCategoryId(Long categoryId);
+
+    /**
+     * @return {@code [sku, productId]} pairs of the products carrying these SKUs
+     */
+    @Query("SELECT p.sku, p.productId FROM Product p WHERE p.sku IN :skus")
+    List<Object[]> findIdsBySkus(@Param("skus") Collection<String> skus);
+
+    /**
+     * {@code [productId, name, brand]} of the given products, without loading their category and stock.
+     */
+    @Query("SELECT p.productId, p.name, p.brand FROM Product p WHERE p.productId IN :productIds")
+    List<Object[]> findSummaries(@Param("productIds") Collection<Long> productIds);
 }
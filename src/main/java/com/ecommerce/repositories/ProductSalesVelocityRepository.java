@@ -0,0 +1,51 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.ProductSalesVelocity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+
+@Repository
+public interface ProductSalesVelocityRepository extends JpaRepository<ProductSalesVelocity, Long> {
+
+    /**
+     * Folds the confirmed reservations not counted yet into the decayed sales counts, and flags them in the
+     * same statement: a confirmation is counted once, whenever its transaction commits. Existing counts are
+     * decayed to {@code until} and the new units are added, each decayed from its own confirmation time.
+     * Products without new sales are not touched.
+     * @return number of products whose count changed
+     */
+    @Modifying
+    @Query(value = "WITH counted AS (UPDATE stock_reservations r SET sales_counted = true " +
+            "WHERE r.status = 'CONFIRMED' AND r.sales_counted = false " +
+            "RETURNING r.product_id, r.quantity, LEAST(r.confirmed_at, CAST(:until AS timestamp)) AS confirmed_at) " +
+            "INSERT INTO product_sales_velocity (product_id, decayed_units, decayed_at) " +
+            "SELECT c.product_id, SUM(c.quantity * EXP(-EXTRACT(EPOCH FROM (CAST(:until AS timestamp) - c.confirmed_at)) " +
+            "/ :decaySeconds)), CAST(:until AS timestamp) " +
+            "FROM counted c GROUP BY c.product_id " +
+            "ON CONFLICT (product_id) DO UPDATE SET " +
+            "decayed_units = product_sales_velocity.decayed_units " +
+            "* EXP(-EXTRACT(EPOCH FROM (EXCLUDED.decayed_at - product_sales_velocity.decayed_at)) / :decaySeconds) " +
+            "+ EXCLUDED.decayed_units, decayed_at = EXCLUDED.decayed_at", nativeQuery = true)
+    int accumulateConfirmedSales(@Param("until") LocalDateTime until,
+                                 @Param("decaySeconds") double decaySeconds);
+
+    /**
+     * One keyset page of the products with a stock row in {@code (afterProductId, upToProductId]}, in
+     * productId order, as {@code [productId, decayedUnits, decayedAt]}; the last two are null for products
+     * never sold.
+     */
+    @Query(value = "SELECT s.product_id, v.decayed_units, v.decayed_at FROM stock s " +
+            "LEFT JOIN product_sales_velocity v ON v.product_id = s.product_id " +
+            "WHERE s.product_id > :afterProductId AND s.product_id <= :upToProductId " +
+            "ORDER BY s.product_id LIMIT :limit", nativeQuery = true)
+    List<Object[]> findVelocityPage(@Param("afterProductId") long afterProductId,
+                                    @Param("upToProductId") long upToProductId,
+                                    @Param("limit") int limit);
+}
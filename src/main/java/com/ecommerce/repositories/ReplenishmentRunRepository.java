@@ -0,0 +1,14 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.ReplenishmentRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+
+@Repository
+public interface ReplenishmentRunRepository extends JpaRepository<ReplenishmentRun, Long> {
+
+    Optional<ReplenishmentRun> findTopByFinishedAtNotNullOrderBySalesThroughDesc();
+}
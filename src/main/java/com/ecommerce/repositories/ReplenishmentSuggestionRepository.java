@@ -0,0 +1,21 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.ReplenishmentSuggestion;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+
+@Repository
+public interface ReplenishmentSuggestionRepository extends JpaRepository<ReplenishmentSuggestion, Long> {
+
+    Page<ReplenishmentSuggestion> findByRunId(Long runId, Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM ReplenishmentSuggestion s WHERE s.runId <> :runId")
+    int deleteOtherRuns(@Param("runId") Long runId);
+}
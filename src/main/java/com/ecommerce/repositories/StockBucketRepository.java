@@ -0,0 +1,81 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.StockBucket;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+
+@Repository
+public interface StockBucketRepository extends JpaRepository<StockBucket, Long> {
+
+    @Query(value = "SELECT DISTINCT product_id FROM stock_buckets", nativeQuery = true)
+    List<Long> findShardedProductIds();
+
+    boolean existsByProductId(Long productId);
+
+    /**
+     * Applies a counter move to one random bucket of the product that holds at least {@code quantity} in the
+     * source counter (available when {@code fromAvailable}, reserved otherwise). Buckets locked by other
+     * transactions are skipped, so concurrent reservations of a hot product spread over its buckets.
+     * @return 1 if a bucket was moved, 0 if no unlocked bucket holds enough
+     */
+    @Modifying
+    @Query(value = "UPDATE stock_buckets SET available_quantity = available_quantity + :availableDelta, " +
+            "reserved_quantity = reserved_quantity + :reservedDelta, " +
+            "confirmed_quantity = confirmed_quantity + :confirmedDelta " +
+            "WHERE bucket_id = (SELECT bucket_id FROM stock_buckets WHERE product_id = :productId " +
+            "AND (CASE WHEN :fromAvailable THEN available_quantity ELSE reserved_quantity END) >= :quantity " +
+            "ORDER BY random() LIMIT 1 FOR UPDATE SKIP LOCKED)", nativeQuery = true)
+    int moveInFreeBucket(@Param("productId") Long productId,
+                         @Param("fromAvailable") boolean fromAvailable,
+                         @Param("quantity") int quantity,
+                         @Param("availableDelta") int availableDelta,
+                         @Param("reservedDelta") int reservedDelta,
+                         @Param("confirmedDelta") int confirmedDelta);
+
+    /**
+     * Write-locks every bucket of a product in bucket order and returns
+     * {@code [bucketId, availableQuantity, reservedQuantity, confirmedQuantity]}.
+     */
+    @Query(value = "SELECT bucket_id, available_quantity, reserved_quantity, confirmed_quantity FROM stock_buckets " +
+            "WHERE product_id = :productId ORDER BY bucket_no FOR UPDATE", nativeQuery = true)
+    List<Object[]> lockBuckets(@Param("productId") Long productId);
+
+    @Modifying
+    @Query(value = "UPDATE stock_buckets SET available_quantity = available_quantity + :availableDelta, " +
+            "reserved_quantity = reserved_quantity + :reservedDelta, " +
+            "confirmed_quantity = confirmed_quantity + :confirmedDelta WHERE bucket_id = :bucketId", nativeQuery = true)
+    int moveBucket(@Param("bucketId") Long bucketId,
+                   @Param("availableDelta") int availableDelta,
+                   @Param("reservedDelta") int reservedDelta,
+                   @Param("confirmedDelta") int confirmedDelta);
+
+    /**
+     * Sets the available quantity of a bucket and clears its confirmed units, once they are folded into the stock row.
+     */
+    @Modifying
+    @Query(value = "UPDATE stock_buckets SET available_quantity = :availableQuantity, confirmed_quantity = 0 " +
+            "WHERE bucket_id = :bucketId", nativeQuery = true)
+    int resetBucket(@Param("bucketId") Long bucketId, @Param("availableQuantity") int availableQuantity);
+
+    /**
+     * Counters of a product including its buckets, as {@code [totalQuantity, availableQuantity, reservedQuantity]};
+     * empty when the product has no stock row.
+     */
+    @Query(value = "SELECT s.total_quantity - COALESCE(SUM(b.confirmed_quantity), 0), " +
+            "s.available_quantity + COALESCE(SUM(b.available_quantity), 0), " +
+            "s.reserved_quantity + COALESCE(SUM(b.reserved_quantity), 0) " +
+            "FROM stock s LEFT JOIN stock_buckets b ON b.product_id = s.product_id " +
+            "WHERE s.product_id = :productId " +
+            "GROUP BY s.total_quantity, s.available_quantity, s.reserved_quantity", nativeQuery = true)
+    List<Object[]> sumQuantities(@Param("productId") Long productId);
+
+    @Modifying
+    @Query(value = "DELETE FROM stock_buckets WHERE product_id = :productId", nativeQuery = true)
+    int deleteBuckets(@Param("productId") Long productId);
+}
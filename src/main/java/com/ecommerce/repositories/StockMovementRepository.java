@@ -0,0 +1,61 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.StockMovement;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+
+@Repository
+public interface StockMovementRepository extends JpaRepository<StockMovement, Long> {
+
+    Page<StockMovement> findByProductIdOrderByMovementIdDesc(Long productId, Pageable pageable);
+
+    /**
+     * Current counters as {@code [productId, availableQuantity, reservedQuantity, totalQuantity]}: the stock
+     * row snapshot plus the movements appended since. Products without a stock row are absent.
+     */
+    @Query(value = "SELECT s.product_id, " +
+            "s.available_quantity + COALESCE(SUM(m.available_delta), 0), " +
+            "s.reserved_quantity + COALESCE(SUM(m.reserved_delta), 0), " +
+            "s.total_quantity + COALESCE(SUM(m.total_delta), 0) " +
+            "FROM stock s LEFT JOIN stock_movements m " +
+            "ON m.product_id = s.product_id AND m.movement_id > s.last_movement_id " +
+            "WHERE s.product_id IN (:productIds) " +
+            "GROUP BY s.product_id, s.available_quantity, s.reserved_quantity, s.total_quantity", nativeQuery = true)
+    List<Object[]> findCurrentQuantities(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Products whose stock row does not include their latest movements yet, in productId order.
+     */
+    @Query(value = "SELECT s.product_id FROM stock s WHERE EXISTS (SELECT 1 FROM stock_movements m " +
+            "WHERE m.product_id = s.product_id AND m.movement_id > s.last_movement_id) " +
+            "ORDER BY s.product_id LIMIT :limit", nativeQuery = true)
+    List<Long> findProductsWithPendingMovements(@Param("limit") int limit);
+
+    /**
+     * Folds the pending movements of the given products into their stock rows and moves the snapshot
+     * pointer. The caller must hold the stock row locks so no movement of these products is in flight.
+     * @return number of stock rows updated
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "WITH tail AS (SELECT m.product_id, MAX(m.movement_id) AS last_id, " +
+            "SUM(m.total_delta) AS total_delta, SUM(m.available_delta) AS available_delta, " +
+            "SUM(m.reserved_delta) AS reserved_delta " +
+            "FROM stock_movements m JOIN stock s ON s.product_id = m.product_id " +
+            "WHERE m.product_id IN (:productIds) AND m.movement_id > s.last_movement_id " +
+            "GROUP BY m.product_id) " +
+            "UPDATE stock s SET total_quantity = s.total_quantity + tail.total_delta, " +
+            "available_quantity = s.available_quantity + tail.available_delta, " +
+            "reserved_quantity = s.reserved_quantity + tail.reserved_delta, " +
+            "last_movement_id = tail.last_id, version = s.version + 1, last_updated_at = now() " +
+            "FROM tail WHERE s.product_id = tail.product_id", nativeQuery = true)
+    int compact(@Param("productIds") Collection<Long> productIds);
+}
@@ -2,14 +2,136 @@ package com.ecommerce.repositories;
 
 import com.ecommerce.models.Stock;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 
 @Repository
-public interface StockRepository extends JpaRepository<Stock,Long> {
+public interface StockRepository extends JpaRepository<Stock,Long>, StockRepositoryCustom {
     @Override
     Optional<Stock> findById(Long aLong);
     Optional<Stock> findByProduct_ProductId(Long productId);
+
+    /**
+     * Reads the available quantity of several products in one statement, without locking.
+     * @return {@code [productId, availableQuantity]} pairs, products without a stock row are absent
+     */
+    @Query(value = "SELECT product_id, available_quantity FROM stock WHERE product_id IN (:productIds)",
+            nativeQuery = true)
+    List<Object[]> findAvailableQuantities(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Write-locks the stock rows of several products in one statement and returns
+     * {@code [productId, availableQuantity]} pairs. Rows are locked in productId order
+     * so concurrent carts never deadlock on each other.
+     */
+    @Query(value = "SELECT product_id, available_quantity FROM stock " +
+            "WHERE product_id IN (:productIds) ORDER BY product_id FOR UPDATE", nativeQuery = true)
+    List<Object[]> lockAvailableQuantities(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Write-locks the stock rows of several products in productId order, like {@link #lockAvailableQuantities},
+     * and returns {@code [productId, reservedQuantity]} pairs.
+     */
+    @Query(value = "SELECT product_id, reserved_quantity FROM stock " +
+            "WHERE product_id IN (:productIds) ORDER BY product_id FOR UPDATE", nativeQuery = true)
+    List<Object[]> lockReservedQuantities(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Moves quantity from available to reserved in a single conditional statement.
+     * @return 1 if the units were reserved, 0 if the stock row is missing or does not hold enough available units
+     */
+    @Modifying
+    @Query("UPDATE Stock s SET s.availableQuantity = s.availableQuantity - :quantity, " +
+            "s.reservedQuantity = s.reservedQuantity + :quantity, s.version = s.version + 1, s.lastUpdatedAt = LOCAL DATETIME " +
+            "WHERE s.product.productId = :productId AND s.availableQuantity >= :quantity")
+    int reserveQuantity(@Param("productId") Long productId, @Param("quantity") int quantity);
+
+    /**
+     * Moves quantity from reserved back to available in a single conditional statement.
+     * @return 1 if the units were released, 0 if the stock row is missing or holds fewer reserved units
+     */
+    @Modifying
+    @Query("UPDATE Stock s SET s.availableQuantity = s.availableQuantity + :quantity, " +
+            "s.reservedQuantity = s.reservedQuantity - :quantity, s.version = s.version + 1, s.lastUpdatedAt = LOCAL DATETIME " +
+            "WHERE s.product.productId = :productId AND s.reservedQuantity >= :quantity")
+    int releaseQuantity(@Param("productId") Long productId, @Param("quantity") int quantity);
+
+    /**
+     * Converts reserved quantity into sold quantity (reserved and total both decrease).
+     * @return 1 if the sale was confirmed, 0 if the stock row is missing or holds fewer reserved units
+     */
+    @Modifying
+    @Query("UPDATE Stock s SET s.reservedQuantity = s.reservedQuantity - :quantity, " +
+            "s.totalQuantity = s.totalQuantity - :quantity, s.version = s.version + 1, s.lastUpdatedAt = LOCAL DATETIME " +
+            "WHERE s.product.productId = :productId AND s.reservedQuantity >= :quantity")
+    int confirmQuantity(@Param("productId") Long productId, @Param("quantity") int quantity);
+
+    /**
+     * Adds units to total and available after a supplier delivery.
+     * @return 1 if the stock row exists, 0 otherwise
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Stock s SET s.totalQuantity = s.totalQuantity + :quantity, " +
+            "s.availableQuantity = s.availableQuantity + :quantity, s.version = s.version + 1, s.lastUpdatedAt = LOCAL DATETIME " +
+            "WHERE s.product.productId = :productId")
+    int restockQuantity(@Param("productId") Long productId, @Param("quantity") int quantity);
+
+    /**
+     * Sets the available quantity; total moves by the same difference so reserved units are untouched.
+     * @return 1 if the stock row exists, 0 otherwise
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Stock s SET s.totalQuantity = s.totalQuantity + (:newAvailable - s.availableQuantity), " +
+            "s.availableQuantity = :newAvailable, s.version = s.version + 1, s.lastUpdatedAt = LOCAL DATETIME " +
+            "WHERE s.product.productId = :productId")
+    int adjustAvailableQuantity(@Param("productId") Long productId, @Param("newAvailable") int newAvailable);
+
+    /**
+     * {@code [productId, availableQuantity, lowStockThreshold]} of the rows at or below their low-stock threshold.
+     */
+    @Query(value = "SELECT product_id, available_quantity, low_stock_threshold FROM stock " +
+            "WHERE available_quantity <= low_stock_threshold", nativeQuery = true)
+    List<Object[]> findLowStockRows();
+
+    /**
+     * {@code [minProductId, maxProductId]} over the stock rows, both null when there is none.
+     */
+    @Query(value = "SELECT MIN(product_id), MAX(product_id) FROM stock", nativeQuery = true)
+    List<Object[]> findProductIdRange();
+
+    /**
+     * {@code [productId, lowStockThreshold]} pairs, products without a stock row are absent.
+     */
+    @Query(value = "SELECT product_id, low_stock_threshold FROM stock WHERE product_id IN (:productIds)",
+            nativeQuery = true)
+    List<Object[]> findLowStockThresholds(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Snapshot of every stock row as {@code [productId, availableQuantity, reservedQuantity]}.
+     */
+    @Query(value = "SELECT product_id, available_quantity, reserved_quantity FROM stock", nativeQuery = true)
+    List<Object[]> findAllQuantities();
+
+    /**
+     * Recomputes reserved quantities from the ACTIVE rows of stock_reservations and derives available
+     * from total. Used to recover counters whose writes were deferred and lost in a crash.
+     * @return number of stock rows that were corrected
+     */
+    @Modifying
+    @Query(value = "UPDATE stock s SET reserved_quantity = r.reserved, " +
+            "available_quantity = s.total_quantity - r.reserved, version = s.version + 1, last_updated_at = now() " +
+            "FROM (SELECT st.product_id, COALESCE(SUM(sr.quantity), 0) AS reserved FROM stock st " +
+            "LEFT JOIN stock_reservations sr ON sr.product_id = st.product_id AND sr.status = 'ACTIVE' " +
+            "GROUP BY st.product_id) r " +
+            "WHERE s.product_id = r.product_id " +
+            "AND (s.reserved_quantity <> r.reserved OR s.available_quantity <> s.total_quantity - r.reserved)",
+            nativeQuery = true)
+    int reconcileWithActiveReservations();
 }
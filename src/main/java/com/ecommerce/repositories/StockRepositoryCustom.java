@@ -0,0 +1,65 @@
+package com.ecommerce.repositories;
+
+import java.util.Collection;
+import java.util.SortedMap;
+
+/**
+ * Multi-row stock statements that cannot be expressed with derived or annotated queries.
+ */
+public interface StockRepositoryCustom {
+
+    /**
+     * Moves quantities from available to reserved for several products in a single UPDATE.
+     * A product is only updated when it holds enough available units.
+     *
+     * @param quantitiesByProduct requested quantity per productId
+     * @return number of products actually updated
+     */
+    int reserveQuantities(SortedMap<Long, Integer> quantitiesByProduct);
+
+    /**
+     * Moves quantities from reserved back to available for several products in a single UPDATE.
+     * A product is only updated when it holds enough reserved units.
+     *
+     * @return number of products actually updated
+     */
+    int releaseQuantities(SortedMap<Long, Integer> quantitiesByProduct);
+
+    /**
+     * Turns reserved quantities into sales (reserved and total both decrease) for several products in a
+     * single UPDATE. A product is only updated when it holds enough reserved units.
+     *
+     * @return number of products actually updated
+     */
+    int confirmQuantities(SortedMap<Long, Integer> quantitiesByProduct);
+
+    /**
+     * Adds signed deltas to the counters of several products in a single unconditional UPDATE.
+     *
+     * @return number of products actually updated
+     */
+    int applyDeltas(Collection<QuantityDelta> deltas);
+
+    /**
+     * Overwrites available and reserved quantities of several products in a single UPDATE.
+     * Total is left untouched.
+     *
+     * @return number of products actually updated
+     */
+    int overwriteQuantities(Collection<QuantitySnapshot> snapshots);
+
+    /**
+     * Signed change of the three counters of one stock row.
+     */
+    record QuantityDelta(Long productId, int total, int available, int reserved) {
+        public boolean isZero() {
+            return total == 0 && available == 0 && reserved == 0;
+        }
+    }
+
+    /**
+     * Absolute available/reserved quantities of one stock row.
+     */
+    record QuantitySnapshot(Long productId, int available, int reserved) {
+    }
+}
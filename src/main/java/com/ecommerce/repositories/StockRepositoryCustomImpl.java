@@ -0,0 +1,133 @@
+package com.ecommerce.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+public class StockRepositoryCustomImpl implements StockRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int reserveQuantities(SortedMap<Long, Integer> quantitiesByProduct) {
+        return updateFromValues(
+                "available_quantity = s.available_quantity - v.quantity, " +
+                        "reserved_quantity = s.reserved_quantity + v.quantity",
+                "s.available_quantity >= v.quantity",
+                quantitiesByProduct);
+    }
+
+    @Override
+    public int releaseQuantities(SortedMap<Long, Integer> quantitiesByProduct) {
+        return updateFromValues(
+                "available_quantity = s.available_quantity + v.quantity, " +
+                        "reserved_quantity = s.reserved_quantity - v.quantity",
+                "s.reserved_quantity >= v.quantity",
+                quantitiesByProduct);
+    }
+
+    @Override
+    public int confirmQuantities(SortedMap<Long, Integer> quantitiesByProduct) {
+        return updateFromValues(
+                "reserved_quantity = s.reserved_quantity - v.quantity, " +
+                        "total_quantity = s.total_quantity - v.quantity",
+                "s.reserved_quantity >= v.quantity",
+                quantitiesByProduct);
+    }
+
+    @Override
+    public int applyDeltas(Collection<QuantityDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < deltas.size(); i++) {
+            values.append(i == 0 ? "" : ", ")
+                    .append("(?").append(4 * i + 1)
+                    .append(", ?").append(4 * i + 2)
+                    .append(", ?").append(4 * i + 3)
+                    .append(", ?").append(4 * i + 4).append(")");
+        }
+
+        Query query = entityManager.createNativeQuery(
+                "UPDATE stock s SET total_quantity = s.total_quantity + v.total, " +
+                        "available_quantity = s.available_quantity + v.available, " +
+                        "reserved_quantity = s.reserved_quantity + v.reserved, version = s.version + 1, last_updated_at = now() " +
+                        "FROM (VALUES " + values + ") AS v(product_id, total, available, reserved) " +
+                        "WHERE s.product_id = v.product_id");
+
+        int position = 1;
+        for (QuantityDelta delta : deltas) {
+            query.setParameter(position++, delta.productId());
+            query.setParameter(position++, delta.total());
+            query.setParameter(position++, delta.available());
+            query.setParameter(position++, delta.reserved());
+        }
+        return query.executeUpdate();
+    }
+
+    @Override
+    public int overwriteQuantities(Collection<QuantitySnapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < snapshots.size(); i++) {
+            values.append(i == 0 ? "" : ", ")
+                    .append("(?").append(3 * i + 1)
+                    .append(", ?").append(3 * i + 2)
+                    .append(", ?").append(3 * i + 3).append(")");
+        }
+
+        Query query = entityManager.createNativeQuery(
+                "UPDATE stock s SET available_quantity = v.available, reserved_quantity = v.reserved, " +
+                        "version = s.version + 1, last_updated_at = now() " +
+                        "FROM (VALUES " + values + ") AS v(product_id, available, reserved) " +
+                        "WHERE s.product_id = v.product_id " +
+                        "AND (s.available_quantity <> v.available OR s.reserved_quantity <> v.reserved)");
+
+        int position = 1;
+        for (QuantitySnapshot snapshot : snapshots) {
+            query.setParameter(position++, snapshot.productId());
+            query.setParameter(position++, snapshot.available());
+            query.setParameter(position++, snapshot.reserved());
+        }
+        return query.executeUpdate();
+    }
+
+    /**
+     * Runs {@code UPDATE stock ... FROM (VALUES (productId, quantity), ...)} so that every
+     * product of the map is updated by one statement, whatever the number of lines.
+     */
+    private int updateFromValues(String setClause, String condition, Map<Long, Integer> quantitiesByProduct) {
+        if (quantitiesByProduct.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < quantitiesByProduct.size(); i++) {
+            values.append(i == 0 ? "" : ", ")
+                    .append("(?").append(2 * i + 1)
+                    .append(", ?").append(2 * i + 2).append(")");
+        }
+
+        Query query = entityManager.createNativeQuery(
+                "UPDATE stock s SET " + setClause + ", version = s.version + 1, last_updated_at = now() " +
+                        "FROM (VALUES " + values + ") AS v(product_id, quantity) " +
+                        "WHERE s.product_id = v.product_id AND " + condition);
+
+        int position = 1;
+        for (Map.Entry<Long, Integer> entry : quantitiesByProduct.entrySet()) {
+            query.setParameter(position++, entry.getKey());
+            query.setParameter(position++, entry.getValue());
+        }
+        return query.executeUpdate();
+    }
+}
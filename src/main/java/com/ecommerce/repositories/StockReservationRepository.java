@@ -3,13 +3,77 @@ package com.ecommerce.repositories;
 import com.ecommerce.models.ReservationStatus;
 import com.ecommerce.models.StockReservation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 
 @Repository
-public interface StockReservationRepository extends JpaRepository<StockReservation,Long> {
+public interface StockReservationRepository extends JpaRepository<StockReservation,Long>, StockReservationRepositoryCustom {
     List<StockReservation> findByStatusAndExpiresAtBefore(ReservationStatus reservationStatus, LocalDateTime now);
+
+    /**
+     * Same filter as {@link #findByStatusAndExpiresAtBefore} for ACTIVE reservations, but bounded, walked along
+     * idx_reservation_expiry and write-locked with SKIP LOCKED so several nodes can sweep concurrently
+     * without waiting on each other. Returns {@code [reservationId, productId, quantity, expiresAt, warehouseId]},
+     * oldest first, without loading the reservations and their orders.
+     */
+    @Query(value = "SELECT reservation_id, product_id, quantity, expires_at, warehouse_id FROM stock_reservations " +
+            "WHERE status = 'ACTIVE' AND expires_at < :now " +
+            "ORDER BY expires_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Object[]> lockExpiredActive(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * Write-locks the given reservations that are still ACTIVE and expired at {@code now}, skipping rows
+     * another transaction is confirming or releasing. Same projection as {@link #lockExpiredActive}.
+     */
+    @Query(value = "SELECT reservation_id, product_id, quantity, expires_at, warehouse_id FROM stock_reservations " +
+            "WHERE reservation_id IN (:reservationIds) AND status = 'ACTIVE' AND expires_at <= :now " +
+            "ORDER BY expires_at FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Object[]> lockExpiredActiveByIds(@Param("reservationIds") Collection<Long> reservationIds,
+                                          @Param("now") LocalDateTime now);
+
+    /**
+     * Write-locks the given reservations that are still ACTIVE, in reservationId order. Same projection as
+     * {@link #lockExpiredActive}. Used to confirm or release an order's reservations without loading them,
+     * and without racing the expiry timer or sweeper.
+     */
+    @Query(value = "SELECT reservation_id, product_id, quantity, expires_at, warehouse_id FROM stock_reservations " +
+            "WHERE reservation_id IN (:reservationIds) AND status = 'ACTIVE' " +
+            "ORDER BY reservation_id FOR UPDATE", nativeQuery = true)
+    List<Object[]> lockActiveByIds(@Param("reservationIds") Collection<Long> reservationIds);
+
+    /**
+     * {@code [reservationId, expiresAt]} of every ACTIVE reservation, used to rebuild in-memory expiry timers.
+     */
+    @Query(value = "SELECT reservation_id, expires_at FROM stock_reservations WHERE status = 'ACTIVE'",
+            nativeQuery = true)
+    List<Object[]> findActiveExpiries();
+
+    /**
+     * Marks a batch of ACTIVE reservations as RELEASED in one statement.
+     * @return number of reservations released
+     */
+    @Modifying
+    @Query("UPDATE StockReservation r SET r.status = com.ecommerce.models.ReservationStatus.RELEASED, " +
+            "r.releasedAt = :releasedAt " +
+            "WHERE r.reservationId IN :reservationIds AND r.status = com.ecommerce.models.ReservationStatus.ACTIVE")
+    int markReleased(@Param("reservationIds") Collection<Long> reservationIds,
+                     @Param("releasedAt") LocalDateTime releasedAt);
+
+    /**
+     * Marks a batch of ACTIVE reservations as CONFIRMED in one statement.
+     * @return number of reservations confirmed
+     */
+    @Modifying
+    @Query("UPDATE StockReservation r SET r.status = com.ecommerce.models.ReservationStatus.CONFIRMED, " +
+            "r.confirmedAt = :confirmedAt " +
+            "WHERE r.reservationId IN :reservationIds AND r.status = com.ecommerce.models.ReservationStatus.ACTIVE")
+    int markConfirmed(@Param("reservationIds") Collection<Long> reservationIds,
+                      @Param("confirmedAt") LocalDateTime confirmedAt);
 }
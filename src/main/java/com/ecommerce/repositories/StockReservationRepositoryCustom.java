@@ -0,0 +1,19 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.ReservationStatus;
+import com.ecommerce.models.StockReservation;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/**
+ * Persistence-context operations on stock reservations that Spring Data cannot derive.
+ */
+public interface StockReservationRepositoryCustom {
+
+    /**
+     * Mirrors a status already written by a bulk statement ({@code markConfirmed}/{@code markReleased})
+     * on loaded reservations, without the flush writing every row a second time.
+     */
+    void syncClosedStatus(Collection<StockReservation> reservations, ReservationStatus status, LocalDateTime closedAt);
+}
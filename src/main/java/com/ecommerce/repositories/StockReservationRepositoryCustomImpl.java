@@ -0,0 +1,33 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.ReservationStatus;
+import com.ecommerce.models.StockReservation;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+public class StockReservationRepositoryCustomImpl implements StockReservationRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void syncClosedStatus(Collection<StockReservation> reservations, ReservationStatus status, LocalDateTime closedAt) {
+        Session session = entityManager.unwrap(Session.class);
+        for (StockReservation reservation : reservations) {
+            reservation.setStatus(status);
+            if (status == ReservationStatus.CONFIRMED) {
+                reservation.setConfirmedAt(closedAt);
+            } else {
+                reservation.setReleasedAt(closedAt);
+            }
+            // a closed reservation does not change again: read-only drops its snapshot, so no dirty-check UPDATE
+            if (session.contains(reservation)) {
+                session.setReadOnly(reservation, true);
+            }
+        }
+    }
+}
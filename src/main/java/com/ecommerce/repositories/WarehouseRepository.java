@@ -0,0 +1,16 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.Warehouse;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+
+@Repository
+public interface WarehouseRepository extends JpaRepository<Warehouse, Long> {
+
+    List<Warehouse> findByActiveTrueOrderByShippingRankAscWarehouseIdAsc();
+
+    boolean existsByCode(String code);
+}
@@ -0,0 +1,54 @@
+package com.ecommerce.repositories;
+
+import com.ecommerce.models.WarehouseStock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+
+@Repository
+public interface WarehouseStockRepository extends JpaRepository<WarehouseStock, Long>, WarehouseStockRepositoryCustom {
+
+    /**
+     * Every row as {@code [productId, warehouseId, quantity]}, to build the in-memory allocation index.
+     */
+    @Query(value = "SELECT product_id, warehouse_id, quantity FROM warehouse_stock", nativeQuery = true)
+    List<Object[]> findAllQuantities();
+
+    /**
+     * Same projection as {@link #findAllQuantities()} for some products.
+     */
+    @Query(value = "SELECT product_id, warehouse_id, quantity FROM warehouse_stock " +
+            "WHERE product_id IN (:productIds)", nativeQuery = true)
+    List<Object[]> findQuantities(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Locks the rows of one product, in warehouseId order, as {@code [warehouseId, quantity]}.
+     */
+    @Query(value = "SELECT warehouse_id, quantity FROM warehouse_stock WHERE product_id = :productId " +
+            "ORDER BY warehouse_id FOR UPDATE", nativeQuery = true)
+    List<Object[]> lockQuantities(@Param("productId") Long productId);
+
+    /**
+     * The products among these with at least one warehouse row.
+     */
+    @Query(value = "SELECT DISTINCT product_id FROM warehouse_stock WHERE product_id IN (:productIds)", nativeQuery = true)
+    Set<Long> findTrackedProductIds(@Param("productIds") Collection<Long> productIds);
+
+    /**
+     * Sets the quantity of a product in a warehouse, creating the row if needed.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO warehouse_stock (product_id, warehouse_id, quantity) " +
+            "VALUES (:productId, :warehouseId, :quantity) " +
+            "ON CONFLICT (product_id, warehouse_id) DO UPDATE SET quantity = EXCLUDED.quantity", nativeQuery = true)
+    int upsertQuantity(@Param("productId") Long productId,
+                       @Param("warehouseId") Long warehouseId,
+                       @Param("quantity") int quantity);
+}
@@ -0,0 +1,30 @@
+package com.ecommerce.repositories;
+
+import java.util.Collection;
+
+/**
+ * Multi-row warehouse stock statements that cannot be expressed with derived or annotated queries.
+ */
+public interface WarehouseStockRepositoryCustom {
+
+    /**
+     * Takes the allocated units out of their warehouses in a single UPDATE. A row is only updated when
+     * the warehouse still holds enough units. Callers pass the lines in (productId, warehouseId) order.
+     *
+     * @return number of rows actually updated
+     */
+    int takeQuantities(Collection<WarehouseQuantity> quantities);
+
+    /**
+     * Puts released units back into their warehouses in a single unconditional UPDATE.
+     *
+     * @return number of rows actually updated
+     */
+    int returnQuantities(Collection<WarehouseQuantity> quantities);
+
+    /**
+     * Units of one product allocated to, or given back to, one warehouse.
+     */
+    record WarehouseQuantity(long productId, long warehouseId, int quantity) {
+    }
+}
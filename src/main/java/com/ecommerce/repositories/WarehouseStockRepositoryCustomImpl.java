@@ -0,0 +1,54 @@
+package com.ecommerce.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+import java.util.Collection;
+
+public class WarehouseStockRepositoryCustomImpl implements WarehouseStockRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int takeQuantities(Collection<WarehouseQuantity> quantities) {
+        return updateFromValues("quantity = w.quantity - v.quantity", "w.quantity >= v.quantity", quantities);
+    }
+
+    @Override
+    public int returnQuantities(Collection<WarehouseQuantity> quantities) {
+        return updateFromValues("quantity = w.quantity + v.quantity", "TRUE", quantities);
+    }
+
+    /**
+     * Runs {@code UPDATE warehouse_stock ... FROM (VALUES (productId, warehouseId, quantity), ...)} so that
+     * every line is applied by one statement.
+     */
+    private int updateFromValues(String setClause, String condition, Collection<WarehouseQuantity> quantities) {
+        if (quantities.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < quantities.size(); i++) {
+            values.append(i == 0 ? "" : ", ")
+                    .append("(?").append(3 * i + 1)
+                    .append(", ?").append(3 * i + 2)
+                    .append(", ?").append(3 * i + 3).append(")");
+        }
+
+        Query query = entityManager.createNativeQuery(
+                "UPDATE warehouse_stock w SET " + setClause + " " +
+                        "FROM (VALUES " + values + ") AS v(product_id, warehouse_id, quantity) " +
+                        "WHERE w.product_id = v.product_id AND w.warehouse_id = v.warehouse_id AND " + condition);
+
+        int position = 1;
+        for (WarehouseQuantity quantity : quantities) {
+            query.setParameter(position++, quantity.productId());
+            query.setParameter(position++, quantity.warehouseId());
+            query.setParameter(position++, quantity.quantity());
+        }
+        return query.executeUpdate();
+    }
+}
@@ -5,6 +5,7 @@ import com.ecommerce.API.JwtTokenService;
 import com.ecommerce.dto.CreateUserDTO;
 import com.ecommerce.dto.LoginRequestDTO;
 import com.ecommerce.mappers.AuthMapper;
+import com.ecommerce.models.SecurityUser;
 import com.ecommerce.models.User;
 import com.ecommerce.models.UserRole;
 import com.ecommerce.repositories.UserRepository;
@@ -26,6 +27,7 @@ public class AuthService {
     private final PasswordEncoder passwordEncoder;
     private final AuthenticationManager authenticationManager;
     private final JwtTokenService tokenService;
+    private final CartService cartService;
 
     @Transactional
     public String registerUser(CreateUserDTO dto) {
@@ -50,8 +52,20 @@ public class AuthService {
                 )
         );
         log.info("[USER] : User Authenticated with email {}",authentication.getName());
+        if (loginRequest.guestCartId() != null && authentication.getPrincipal() instanceof SecurityUser user) {
+            mergeGuestCart(loginRequest.guestCartId(), user.getUserId());
+        }
         return tokenService.generateToken(authentication);
     }
+
+    // la connexion réussit même si la fusion échoue : le panier invité est alors conservé
+    private void mergeGuestCart(String guestCartId, Long userId) {
+        try {
+            cartService.mergeGuestCart(guestCartId, userId);
+        } catch (RuntimeException e) {
+            log.warn("[CART] : Guest cart {} not merged into cart of user {}", guestCartId, userId, e);
+        }
+    }
     @Transactional
     public String registerUser(CreateUserDTO dto,String role) {
         User user = AuthMapper.fromDTO(dto);
@@ -0,0 +1,169 @@
+package com.ecommerce.services;
+
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.utils.LongIntHashMap;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Per-node near-cache of available quantities, bounded in size and with a short TTL, for display reads
+ * (product pages, grids, cart summaries). Reservations never read it: the engine stays authoritative,
+ * so a stale entry can only show a wrong figure, never oversell.
+ *
+ * Entries are dropped after commit of every stock mutation ({@link StockChangedEvent}) and the product
+ * ids are broadcast on a Redis channel so other nodes drop theirs too. A load that started before an
+ * invalidation is not cached, so a value read before a commit cannot outlive it; a lost broadcast is
+ * bounded by the TTL. A received broadcast is republished locally as a remote {@link StockChangedEvent}
+ * for the other listeners.
+ */
+@Slf4j
+@Component
+public class AvailabilityNearCache implements MessageListener {
+
+    static final String CHANNEL = "stock:availability:invalidate";
+
+    private final Cache<Long, Integer> cache;
+    private final StringRedisTemplate redisTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final boolean broadcast;
+    private final String nodeId = UUID.randomUUID().toString();
+    // bumped on every invalidation: a load racing one is served but not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public AvailabilityNearCache(StringRedisTemplate redisTemplate,
+                                 RedisMessageListenerContainer listenerContainer,
+                                 ApplicationEventPublisher eventPublisher,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${ecommerce.stock.availability-cache.enabled:true}") boolean enabled,
+                                 @Value("${ecommerce.stock.availability-cache.max-size:10000}") long maxSize,
+                                 @Value("${ecommerce.stock.availability-cache.ttl-ms:2000}") long ttlMs,
+                                 @Value("${ecommerce.stock.availability-cache.broadcast:true}") boolean broadcast) {
+        this.redisTemplate = redisTemplate;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.broadcast = broadcast;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "stock.availability");
+        if (enabled && broadcast) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+        }
+    }
+
+    /**
+     * @param loader reads the quantity from the engine, null when the product has no stock (not cached)
+     */
+    public Integer get(Long productId, LongFunction<Integer> loader) {
+        if (!enabled) {
+            return loader.apply(productId);
+        }
+        Integer cached = cache.getIfPresent(productId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = invalidations.get();
+        Integer loaded = loader.apply(productId);
+        if (loaded != null && generation == invalidations.get()) {
+            cache.put(productId, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Serves the cached products and loads the others with one call to {@code loader}.
+     */
+    public LongIntHashMap getAll(List<Long> productIds, Function<List<Long>, LongIntHashMap> loader) {
+        if (!enabled) {
+            return loader.apply(productIds);
+        }
+        LongIntHashMap available = new LongIntHashMap(productIds.size());
+        List<Long> misses = new ArrayList<>();
+        for (Long productId : productIds) {
+            Integer cached = cache.getIfPresent(productId);
+            if (cached != null) {
+                available.put(productId, cached);
+            } else {
+                misses.add(productId);
+            }
+        }
+        if (misses.isEmpty()) {
+            return available;
+        }
+
+        long generation = invalidations.get();
+        LongIntHashMap loaded = loader.apply(misses);
+        available.putAll(loaded);
+        if (generation == invalidations.get()) {
+            loaded.forEach(cache::put);
+        }
+        return available;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        if (event.remote()) {
+            // already invalidated when the broadcast was received
+            return;
+        }
+        invalidate(event.productIds());
+        if (!enabled || !broadcast) {
+            return;
+        }
+        StringJoiner message = new StringJoiner(",", nodeId + ":", "");
+        event.productIds().forEach(productId -> message.add(productId.toString()));
+        try {
+            redisTemplate.convertAndSend(CHANNEL, message.toString());
+        } catch (RuntimeException e) {
+            // other nodes serve their entries until the TTL expires
+            log.warn("Could not broadcast availability invalidation of {} products", event.productIds().size(), e);
+        }
+    }
+
+    /**
+     * Invalidation broadcast by another node: {@code <nodeId>:<productId>,<productId>,...}
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(':');
+        if (separator < 0 || body.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        Set<Long> productIds = new HashSet<>();
+        for (String productId : body.substring(separator + 1).split(",")) {
+            if (!productId.isEmpty()) {
+                productIds.add(Long.valueOf(productId));
+            }
+        }
+        invalidate(productIds);
+        eventPublisher.publishEvent(new StockChangedEvent(productIds, true));
+    }
+
+    void invalidate(Collection<Long> productIds) {
+        invalidations.incrementAndGet();
+        cache.invalidateAll(productIds);
+    }
+}
@@ -0,0 +1,197 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore.CartKey;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Two-tier cache of cart reads (summary, item count): an on-heap L1 per node in front of a Redis L2
+ * shared by the nodes.
+ *
+ * Each cart has a version counter in Redis, bumped by every mutation once it is committed; L2 entries
+ * are stored under the version read before loading them, so an entry loaded before a mutation is never
+ * found afterwards. The mutation also drops the cart from the local L1 and broadcasts its key on a Redis
+ * channel so other nodes drop theirs. The L1 entry of a cart carries a generation bumped by each of its
+ * invalidations: a load racing an invalidation of the same cart is served but not kept in L1, loads of
+ * other carts are unaffected. A lost broadcast is bounded by the L1 TTL. L2 values are plain JSON read
+ * back as the caller's type.
+ *
+ * Metrics: cart.cache.requests{cache, result=l1|l2|miss}
+ */
+@Slf4j
+@Component
+public class CartCache implements MessageListener {
+
+    static final String CHANNEL = "cart:cache:invalidate";
+    private static final String VERSION_PREFIX = "cart:version:";
+    private static final String ENTRY_PREFIX = "cart:cache:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, LocalEntry> local;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final Duration remoteTtl;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public CartCache(StringRedisTemplate redisTemplate,
+                     RedisMessageListenerContainer listenerContainer,
+                     ObjectMapper objectMapper,
+                     MeterRegistry meterRegistry,
+                     @Value("${ecommerce.cart.cache.enabled:true}") boolean enabled,
+                     @Value("${ecommerce.cart.cache.local-max-size:10000}") long localMaxSize,
+                     @Value("${ecommerce.cart.cache.local-ttl-ms:30000}") long localTtlMs,
+                     @Value("${ecommerce.cart.cache.remote-ttl-seconds:300}") long remoteTtlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.remoteTtl = Duration.ofSeconds(remoteTtlSeconds);
+        this.local = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(Duration.ofMillis(localTtlMs))
+                .build();
+        if (enabled) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+        }
+    }
+
+    /**
+     * Cached reads of one cart, by cache name. Invalidating the cart bumps the generation and empties
+     * the values, the entry itself is kept so loads started before can tell.
+     */
+    private static final class LocalEntry {
+        final AtomicLong generation = new AtomicLong();
+        final Map<String, Object> values = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param cache name of the cached read, e.g. "summary"
+     * @param loader reads the value from the cart store on a miss in both tiers
+     */
+    public <T> T get(String cache, CartKey key, Class<T> type, Supplier<T> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        String cartKey = key.toString();
+        LocalEntry entry = local.get(cartKey, k -> new LocalEntry());
+        Object cached = entry.values.get(cache);
+        if (cached != null) {
+            count(cache, "l1");
+            return type.cast(cached);
+        }
+
+        long generation = entry.generation.get();
+        String remoteKey = null;
+        try {
+            String version = redisTemplate.opsForValue().get(VERSION_PREFIX + key);
+            remoteKey = ENTRY_PREFIX + cache + ":" + cartKey + ":" + (version != null ? version : "0");
+            String json = redisTemplate.opsForValue().get(remoteKey);
+            if (json != null) {
+                T value = objectMapper.readValue(json, type);
+                count(cache, "l2");
+                keepLocally(entry, cache, value, generation);
+                return value;
+            }
+        } catch (DataAccessException | JsonProcessingException e) {
+            log.debug("Cart cache L2 unavailable for {}, reading the store", key, e);
+        }
+
+        count(cache, "miss");
+        T value = loader.get();
+        if (value != null && remoteKey != null) {
+            try {
+                redisTemplate.opsForValue().set(remoteKey, objectMapper.writeValueAsString(value), remoteTtl);
+            } catch (DataAccessException | JsonProcessingException e) {
+                log.debug("Could not write cart cache L2 entry {}", remoteKey, e);
+            }
+        }
+        keepLocally(entry, cache, value, generation);
+        return value;
+    }
+
+    /**
+     * Drops every cached read of a cart, on this node and the others, once the current transaction
+     * (if any) commits.
+     */
+    public void invalidate(CartKey key) {
+        if (!enabled) {
+            return;
+        }
+        TransactionCallbacks.onCompletion(() -> {
+            invalidateLocally(key.toString());
+            try {
+                redisTemplate.opsForValue().increment(VERSION_PREFIX + key);
+                redisTemplate.convertAndSend(CHANNEL, nodeId + ":" + key);
+            } catch (RuntimeException e) {
+                // other nodes serve their L1 entries until the TTL expires
+                log.warn("Could not invalidate cart cache of {} on other nodes", key, e);
+            }
+        }, () -> { });
+    }
+
+    /**
+     * Invalidation broadcast by another node: {@code <nodeId>:<cart key>}
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(':');
+        if (separator < 0 || body.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        invalidateLocally(body.substring(separator + 1));
+    }
+
+    private void invalidateLocally(String cartKey) {
+        LocalEntry entry = local.getIfPresent(cartKey);
+        if (entry != null) {
+            entry.generation.incrementAndGet();
+            entry.values.clear();
+        }
+    }
+
+    /**
+     * Keeps the value unless the cart was invalidated since the load began; checked again after the put
+     * so an invalidation landing in between removes it.
+     */
+    private static void keepLocally(LocalEntry entry, String cache, Object value, long generation) {
+        if (value == null || entry.generation.get() != generation) {
+            return;
+        }
+        entry.values.put(cache, value);
+        if (entry.generation.get() != generation) {
+            entry.values.remove(cache, value);
+        }
+    }
+
+    private void count(String cache, String result) {
+        counters.computeIfAbsent(cache + "|" + result, name -> Counter.builder("cart.cache.requests")
+                .description("Cart cache reads by tier serving them")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(meterRegistry)).increment();
+    }
+}
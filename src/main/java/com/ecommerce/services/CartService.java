@@ -1,5 +1,9 @@
 package com.ecommerce.services;
 
+import com.ecommerce.API.CartStore;
+import com.ecommerce.API.CartStore.CartKey;
+import com.ecommerce.API.CartStore.LineChange;
+import com.ecommerce.dto.CartBatchRequest;
 import com.ecommerce.dto.CartItemDto;
 import com.ecommerce.dto.CartItemSummary;
 import com.ecommerce.dto.CartSummary;
@@ -7,20 +11,16 @@ import com.ecommerce.exceptions.StockNotFound;
 import com.ecommerce.models.Cart;
 import com.ecommerce.models.CartItem;
 import com.ecommerce.models.Product;
-import com.ecommerce.models.Stock;
-import com.ecommerce.repositories.CartRepository;
-import com.ecommerce.repositories.StockRepository;
 import com.ecommerce.repositories.ProductRepository;
 import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.LongIntHashMap;
 import com.ecommerce.utils.StockValidator;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 @Service
@@ -28,17 +28,19 @@ import java.util.stream.Collectors;
 public class CartService {
 
     private static final Logger logger = LoggerFactory.getLogger(CartService.class);
+    private static final String SUMMARY_CACHE = "summary";
+    private static final String COUNT_CACHE = "count";
 
-    private final CartRepository cartRepository;
-    private final StockRepository stockRepository;
     private final ProductRepository productRepository;
     private final StockValidator stockValidator;
     private final CartCalculator cartCalculator;
+    private final StockService stockService;
+    private final CartStore cartStore;
+    private final CartCache cartCache;
 
 
-    @Cacheable(value = "UserCart",key="#userId")
     public Cart getCartForUser(Long userId){
-        Cart cart = cartRepository.findByUserId(userId)
+        Cart cart = cartStore.persist(CartKey.user(userId))
                 .orElseThrow(() -> new IllegalStateException("Cart not found for user: " + userId));
 
         if (cart.isEmpty()) {
@@ -47,193 +49,249 @@ public class CartService {
         return cart;
     };
 
-    @CacheEvict(value = "guestCartItems", key = "#guestCartId")
     public void addItemToGuestCart(String guestCartId, CartItemDto itemDto, String sessionId) {
         validateCartItemDto(itemDto);
 
         Product product = findProductOrThrow(itemDto.getProductId());
-        Stock stock = findStockOrThrow(product.getProductId());
-        stockValidator.validateAvailableQuantity(stock, itemDto.getQuantity());
-
-        Cart cart = findOrCreateGuestCart(guestCartId, sessionId);
-        addOrUpdateCartItem(cart, itemDto, product, stock);
-        saveCartWithUpdatedTotals(cart);
+        LongIntHashMap available = findAvailableStockOrThrow(product.getProductId());
+        cartStore.addItem(CartKey.guest(guestCartId), newCartItem(product, itemDto.getQuantity()), sessionId,
+                quantity -> stockValidator.validateAvailableQuantity(available, product.getProductId(), quantity));
+        cartCache.invalidate(CartKey.guest(guestCartId));
 
         logger.info("Item added to guest cart: guestCartId={}, productId={}, quantity={}",
                 guestCartId, itemDto.getProductId(), itemDto.getQuantity());
     }
 
 
-    @CacheEvict(value = "guestCartItems", key = "#guestCartId")
     public void clearGuestCart(String guestCartId) {
-        cartRepository.findByGuestCartId(guestCartId).ifPresent(cart -> {
-            cart.clearItems();
-            cartRepository.save(cart);
+        if (cartStore.clear(CartKey.guest(guestCartId))) {
+            cartCache.invalidate(CartKey.guest(guestCartId));
             logger.info("Guest cart cleared: guestCartId={}", guestCartId);
-        });
+        }
     }
 
-    @Cacheable(value = "guestCartItems", key = "#guestCartId")
     public CartSummary getGuestCartSummary(String guestCartId) {
-        return cartRepository.findByGuestCartId(guestCartId)
+        CartKey key = CartKey.guest(guestCartId);
+        return cartCache.get(SUMMARY_CACHE, key, CartSummary.class, () -> cartStore.find(key)
                 .map(this::buildCartSummary)
-                .orElse(CartSummary.emptyGuest(guestCartId));
+                .orElse(CartSummary.emptyGuest(guestCartId)));
     }
 
-    @CacheEvict(value = "userCartItems", key = "#userId")
     public void addItemToUserCart(Long userId, CartItemDto itemDto) {
         validateCartItemDto(itemDto);
 
         Product product = findProductOrThrow(itemDto.getProductId());
-        Stock stock = findStockOrThrow(product.getProductId());
-        stockValidator.validateAvailableQuantity(stock, itemDto.getQuantity());
-
-        Cart cart = findOrCreateUserCart(userId);
-        addOrUpdateCartItem(cart, itemDto, product, stock);
-        saveCartWithUpdatedTotals(cart);
+        LongIntHashMap available = findAvailableStockOrThrow(product.getProductId());
+        cartStore.addItem(CartKey.user(userId), newCartItem(product, itemDto.getQuantity()), null,
+                quantity -> stockValidator.validateAvailableQuantity(available, product.getProductId(), quantity));
+        cartCache.invalidate(CartKey.user(userId));
 
         logger.info("Item added to user cart: userId={}, productId={}, quantity={}",
                 userId, itemDto.getProductId(), itemDto.getQuantity());
     }
 
-    @CacheEvict(value = "userCartItems", key = "#userId")
     public void removeItemFromUserCart(Long userId, Long productId) {
-        Cart cart = findUserCartOrThrow(userId);
-
-        boolean itemRemoved = cart.getItems().removeIf(item ->
-                Objects.equals(item.getProductId(), productId));
-
-        if (!itemRemoved) {
+        if (!cartStore.removeItem(CartKey.user(userId), productId)) {
             logger.warn("Attempted to remove non-existent item from user cart: userId={}, productId={}",
                     userId, productId);
             return;
         }
+        cartCache.invalidate(CartKey.user(userId));
 
-        saveCartWithUpdatedTotals(cart);
         logger.info("Item removed from user cart: userId={}, productId={}", userId, productId);
     }
 
-    @CacheEvict(value = "userCartItems", key = "#userId")
     public void clearUserCart(Long userId) {
-        cartRepository.findByUserId(userId).ifPresent(cart -> {
-            cart.clearItems();
-            cartRepository.save(cart);
+        if (cartStore.clear(CartKey.user(userId))) {
+            cartCache.invalidate(CartKey.user(userId));
             logger.info("User cart cleared: userId={}", userId);
-        });
+        }
     }
 
-    @Cacheable(value = "userCartItems", key = "#userId")
     public CartSummary getUserCartSummary(Long userId) {
-        return cartRepository.findByUserId(userId)
+        CartKey key = CartKey.user(userId);
+        return cartCache.get(SUMMARY_CACHE, key, CartSummary.class, () -> cartStore.find(key)
                 .map(this::buildCartSummary)
-                .orElse(CartSummary.emptyUser(userId));
+                .orElse(CartSummary.emptyUser(userId)));
     }
 
-    @CacheEvict(value = "userCartItems", key = "#userId")
     public void updateUserCartItemQuantity(Long userId, Long productId, Integer newQuantity) {
         if (isQuantityInvalid(newQuantity)) {
             removeItemFromUserCart(userId, productId);
             return;
         }
 
-        Cart cart = findUserCartOrThrow(userId);
-        CartItem item = findCartItemOrThrow(cart, productId);
-        Stock stock = findStockOrThrow(productId);
-
-        stockValidator.validateAvailableQuantity(stock, newQuantity);
+        stockValidator.validateAvailableQuantity(findAvailableStockOrThrow(productId), productId, newQuantity);
 
-        item.updateQuantity(newQuantity);
-        saveCartWithUpdatedTotals(cart);
+        if (!cartStore.updateQuantity(CartKey.user(userId), productId, newQuantity)) {
+            throw new IllegalArgumentException("Item not found in cart");
+        }
+        cartCache.invalidate(CartKey.user(userId));
 
         logger.info("User cart item quantity updated: userId={}, productId={}, newQuantity={}",
                 userId, productId, newQuantity);
     }
 
-    @Cacheable(value = "userCartItemCount", key = "#userId")
+    /**
+     * Applies a batch of operations to the user's cart in one transaction, with a constant number of
+     * queries whatever the batch size: one for the products added, one stock engine lookup for every product
+     * whose line grows or is set (buckets of hot products included), then a single store write.
+     */
+    @Transactional
+    public void applyUserCartOperations(Long userId, List<CartBatchRequest.Operation> operations) {
+        Set<Long> addedProductIds = new HashSet<>();
+        Set<Long> checkedProductIds = new HashSet<>();
+        for (CartBatchRequest.Operation operation : operations) {
+            if (operation == null || operation.type() == null || operation.productId() == null) {
+                throw new IllegalArgumentException("Invalid cart operation");
+            }
+            if (operation.type() == CartBatchRequest.Type.ADD) {
+                if (isQuantityInvalid(operation.quantity())) {
+                    throw new IllegalArgumentException("Invalid cart item data");
+                }
+                addedProductIds.add(operation.productId());
+                checkedProductIds.add(operation.productId());
+            } else if (operation.type() == CartBatchRequest.Type.UPDATE && !isQuantityInvalid(operation.quantity())) {
+                checkedProductIds.add(operation.productId());
+            }
+        }
+
+        Map<Long, Product> products = new HashMap<>();
+        if (!addedProductIds.isEmpty()) {
+            productRepository.findAllById(addedProductIds)
+                    .forEach(product -> products.put(product.getProductId(), product));
+        }
+        List<LineChange> changes = new ArrayList<>(operations.size());
+        for (CartBatchRequest.Operation operation : operations) {
+            switch (operation.type()) {
+                case ADD -> {
+                    Product product = products.get(operation.productId());
+                    if (product == null) {
+                        throw new IllegalArgumentException("Product not found: " + operation.productId());
+                    }
+                    changes.add(LineChange.add(newCartItem(product, operation.quantity())));
+                }
+                case UPDATE -> changes.add(LineChange.set(operation.productId(),
+                        isQuantityInvalid(operation.quantity()) ? 0 : operation.quantity()));
+                case REMOVE -> changes.add(LineChange.set(operation.productId(), 0));
+            }
+        }
+
+        LongIntHashMap availableQuantities = checkedProductIds.isEmpty()
+                ? new LongIntHashMap()
+                : stockService.getAvailableStock(checkedProductIds);
+        CartKey key = CartKey.user(userId);
+        cartStore.applyAll(key, changes, null,
+                quantities -> stockValidator.validateAvailableQuantities(availableQuantities, quantities));
+        cartCache.invalidate(key);
+
+        logger.info("Operations applied to user cart: userId={}, operations={}", userId, operations.size());
+    }
+
     public Integer getUserCartItemCount(Long userId) {
-        return cartRepository.findByUserId(userId)
+        CartKey key = CartKey.user(userId);
+        return cartCache.get(COUNT_CACHE, key, Integer.class, () -> cartStore.find(key)
                 .map(Cart::getTotalItems)
-                .orElse(0);
+                .orElse(0));
     }
 
     public boolean userCartExists(Long userId) {
-        return cartRepository.existsByUserId(userId);
+        return cartStore.exists(CartKey.user(userId));
     }
 
 
 
-    @CacheEvict(value = {"userCartItems", "userCartItemCount"}, key = "#userId")
     public void evictUserCartCache(Long userId) {
+        cartCache.invalidate(CartKey.user(userId));
         logger.debug("User cart cache evicted: userId={}", userId);
     }
 
-    // ===== PRIVATE HELPER METHODS =====
-
-    private Cart findOrCreateGuestCart(String guestCartId, String sessionId) {
-        return cartRepository.findByGuestCartId(guestCartId)
-                .orElseGet(() -> createNewGuestCart(guestCartId, sessionId));
-    }
-
-    private Cart findOrCreateUserCart(Long userId) {
-        return cartRepository.findByUserId(userId)
-                .orElseGet(() -> createNewUserCart(userId));
-    }
-
-
-    private Cart findUserCartOrThrow(Long userId) {
-        return cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new IllegalArgumentException("User cart not found: " + userId));
-    }
+    /**
+     * Moves the lines of a guest cart into the user's cart on login, in one transaction and with a constant
+     * number of queries whatever the size of either cart: both carts are read once, the stock of all guest
+     * products is read in one lookup, the user cart is written once and the guest cart deleted with its
+     * items in one statement.
+     *
+     * The guest cart is deleted before the merge, and only the transaction whose delete removed it merges
+     * its lines: a concurrent login with the same guest cart waits on the deleted rows, then finds nothing
+     * to delete and leaves the user cart alone instead of adding the quantities a second time.
+     *
+     * Quantities of a product in both carts add up; a line is capped to the stock available (dropped if none
+     * is left) rather than failing the merge.
+     */
+    @Transactional
+    public void mergeGuestCart(String guestCartId, Long userId) {
+        CartKey guestKey = CartKey.guest(guestCartId);
+        CartKey userKey = CartKey.user(userId);
+        Optional<Cart> guestCart = cartStore.find(guestKey);
+        if (guestCart.isEmpty()) {
+            return;
+        }
+        if (!cartStore.delete(guestKey)) {
+            logger.info("Guest cart already merged by a concurrent login: guestCartId={}, userId={}",
+                    guestCartId, userId);
+            return;
+        }
+        cartCache.invalidate(guestKey);
+
+        List<CartItem> guestItems = guestCart.get().getItems();
+        if (!guestItems.isEmpty()) {
+            Cart userCart = cartStore.find(userKey).orElse(null);
+            List<Long> productIds = guestItems.stream().map(CartItem::getProductId).toList();
+            LongIntHashMap availableQuantities = stockService.getAvailableStock(productIds);
+
+            List<LineChange> changes = new ArrayList<>(guestItems.size());
+            for (CartItem guestItem : guestItems) {
+                long productId = guestItem.getProductId();
+                int inUserCart = userCart == null ? 0
+                        : userCart.findItem(productId).map(CartItem::getQuantity).orElse(0);
+                int merged = Math.min(inUserCart + guestItem.getQuantity(),
+                        availableQuantities.getOrDefault(productId, 0));
+                if (merged > inUserCart) {
+                    changes.add(LineChange.add(CartItem.builder()
+                            .productId(productId)
+                            .quantity(merged - inUserCart)
+                            .price(guestItem.getPrice())
+                            .imageId(guestItem.getImageId())
+                            .build()));
+                }
+                if (merged < inUserCart + guestItem.getQuantity()) {
+                    logger.info("Guest cart line capped to available stock on merge: userId={}, productId={}",
+                            userId, productId);
+                }
+            }
+            if (!changes.isEmpty()) {
+                cartStore.applyAll(userKey, changes, null,
+                        quantities -> stockValidator.validateAvailableQuantities(availableQuantities, quantities));
+                cartCache.invalidate(userKey);
+            }
+        }
 
-    private Cart createNewGuestCart(String guestCartId, String sessionId) {
-        Cart newCart = Cart.builder()
-                .guestCartId(guestCartId)
-                .userId(null)
-                .sessionId(sessionId)
-                .isTemporary(true)
-                .totalItems(0)
-                .totalAmount(0.0)
-                .lastUpdatedAt(LocalDateTime.now())
-                .createdAt(LocalDateTime.now())
-                .items(new ArrayList<>())
-                .build();
-        return cartRepository.save(newCart);
+        logger.info("Guest cart merged into user cart: guestCartId={}, userId={}, lines={}",
+                guestCartId, userId, guestItems.size());
     }
 
-    private Cart createNewUserCart(Long userId) {
-        Cart newCart = Cart.builder()
-                .guestCartId(null)
-                .userId(userId)
-                .sessionId(null)
-                .isTemporary(false)
-                .totalItems(0)
-                .totalAmount(0.0)
-                .lastUpdatedAt(LocalDateTime.now())
-                .createdAt(LocalDateTime.now())
-                .items(new ArrayList<>())
-                .build();
-        return cartRepository.save(newCart);
-    }
+    // ===== PRIVATE HELPER METHODS =====
 
-    private void mergeCartItems(Cart guestCart, Cart userCart) {
-        for (CartItem guestItem : guestCart.getItems()) {
-            Optional<CartItem> existingUserItem = userCart.getItems().stream()
-                    .filter(item -> item.getProductId().equals(guestItem.getProductId()))
-                    .findFirst();
-
-            if (existingUserItem.isPresent()) {
-                existingUserItem.get().addQuantity(guestItem.getQuantity());
-            } else {
-                guestItem.setCart(userCart);
-                userCart.getItems().add(guestItem);
-            }
+    /**
+     * Builds the summary with a constant number of queries whatever the cart size: one for the names and
+     * brands of all its products, one availability lookup (served from the near-cache when warm).
+     */
+    private CartSummary buildCartSummary(Cart cart) {
+        List<Long> productIds = cart.getItems().stream()
+                .map(CartItem::getProductId)
+                .distinct()
+                .toList();
+        List<Object[]> products = productIds.isEmpty() ? List.of() : productRepository.findSummaries(productIds);
+        // productId -> index of its [productId, name, brand] row
+        LongIntHashMap productRows = new LongIntHashMap(products.size());
+        for (int i = 0; i < products.size(); i++) {
+            productRows.put(((Number) products.get(i)[0]).longValue(), i);
         }
-        cartRepository.save(userCart);
-    }
+        LongIntHashMap availableQuantities = stockService.getAvailableStock(productIds);
 
-    private CartSummary buildCartSummary(Cart cart) {
         List<CartItemSummary> itemSummaries = cart.getItems().stream()
-                .map(this::buildCartItemSummary)
+                .map(item -> buildCartItemSummary(item, products, productRows, availableQuantities))
                 .collect(Collectors.toList());
 
         return CartSummary.builder()
@@ -248,25 +306,28 @@ public class CartService {
                 .build();
     }
 
-    private CartItemSummary buildCartItemSummary(CartItem cartItem) {
-        return productRepository.findById(cartItem.getProductId())
-                .map(product -> CartItemSummary.builder()
-                        .productId(cartItem.getProductId())
-                        .productName(product.getName())
-                        .productBrand(product.getBrand())
-                        .quantity(cartItem.getQuantity())
-                        .price(cartItem.getPrice())
-                        .subtotal(cartItem.calculateSubtotal())
-                        .imageId(cartItem.getImageId())
-                        .isAvailable(isProductAvailable(product, cartItem.getQuantity()))
-                        .build())
-                .orElse(CartItemSummary.unavailable(cartItem.getProductId()));
+    private CartItemSummary buildCartItemSummary(CartItem cartItem, List<Object[]> products,
+                                                 LongIntHashMap productRows, LongIntHashMap availableQuantities) {
+        long productId = cartItem.getProductId();
+        if (!productRows.containsKey(productId)) {
+            return CartItemSummary.unavailable(cartItem.getProductId());
+        }
+        Object[] product = products.get(productRows.getOrDefault(productId, -1));
+        return CartItemSummary.builder()
+                .productId(cartItem.getProductId())
+                .productName((String) product[1])
+                .productBrand((String) product[2])
+                .quantity(cartItem.getQuantity())
+                .price(cartItem.getPrice())
+                .subtotal(cartItem.calculateSubtotal())
+                .imageId(cartItem.getImageId())
+                .isAvailable(isProductAvailable(availableQuantities, productId, cartItem.getQuantity()))
+                .build();
     }
 
-    private boolean isProductAvailable(Product product, Integer requestedQuantity) {
-        return stockRepository.findByProduct_ProductId(product.getProductId())
-                .map(stock -> stock.getAvailableQuantity() >= requestedQuantity)
-                .orElse(false);
+    private boolean isProductAvailable(LongIntHashMap availableQuantities, long productId, Integer requestedQuantity) {
+        return availableQuantities.containsKey(productId)
+                && availableQuantities.getOrDefault(productId, 0) >= requestedQuantity;
     }
 
     private void validateCartItemDto(CartItemDto itemDto) {
@@ -280,55 +341,26 @@ public class CartService {
                 .orElseThrow(() -> new IllegalArgumentException("Product not found: " + productId));
     }
 
-    private Stock findStockOrThrow(Long productId) {
-        return stockRepository.findByProduct_ProductId(productId)
-                .orElseThrow(() -> new StockNotFound("Stock not found for product: " + productId));
-    }
-
-    private CartItem findCartItemOrThrow(Cart cart, Long productId) {
-        return cart.getItems().stream()
-                .filter(item -> Objects.equals(item.getProductId(), productId))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("Item not found in cart"));
-    }
-
-    private void addOrUpdateCartItem(Cart cart, CartItemDto itemDto, Product product, Stock stock) {
-        Optional<CartItem> existingItem = findExistingCartItem(cart, itemDto.getProductId());
-
-        if (existingItem.isPresent()) {
-            updateExistingCartItem(existingItem.get(), itemDto, stock);
-        } else {
-            addNewCartItem(cart, itemDto, product);
+    /**
+     * Available quantity as the stock engine counts it: a hot product's buckets, or counters held outside
+     * the stock row by the memory, redis and ledger engines.
+     * @return productId -> available quantity
+     */
+    private LongIntHashMap findAvailableStockOrThrow(Long productId) {
+        LongIntHashMap available = stockService.getAvailableStock(List.of(productId));
+        if (!available.containsKey(productId)) {
+            throw new StockNotFound("Stock not found for product: " + productId);
         }
+        return available;
     }
 
-    private Optional<CartItem> findExistingCartItem(Cart cart, Long productId) {
-        return cart.getItems().stream()
-                .filter(item -> Objects.equals(item.getProductId(), productId))
-                .findFirst();
-    }
-
-    private void updateExistingCartItem(CartItem existingItem, CartItemDto itemDto, Stock stock) {
-        int newTotalQuantity = existingItem.getQuantity() + itemDto.getQuantity();
-        stockValidator.validateAvailableQuantity(stock, newTotalQuantity);
-        existingItem.addQuantity(itemDto.getQuantity());
-    }
-
-    private void addNewCartItem(Cart cart, CartItemDto itemDto, Product product) {
-        CartItem newItem = CartItem.builder()
-                .productId(itemDto.getProductId())
-                .cart(cart)
-                .price(product.getPrice())
-                .quantity(itemDto.getQuantity())
+    private CartItem newCartItem(Product product, Integer quantity) {
+        return CartItem.builder()
+                .productId(product.getProductId())
+                .price(cartCalculator.unitPrice(product))
+                .quantity(quantity)
                 .imageId(product.getImageUrl())
                 .build();
-        cart.addItem(newItem);
-    }
-
-    private void saveCartWithUpdatedTotals(Cart cart) {
-        cartCalculator.updateTotals(cart);
-        cart.setLastUpdatedAt(LocalDateTime.now());
-        cartRepository.save(cart);
     }
 
     private boolean isQuantityInvalid(Integer quantity) {
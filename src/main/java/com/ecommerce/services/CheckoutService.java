@@ -31,11 +31,13 @@ public class CheckoutService {
     private final PaymentService paymentService;
     private final ShippingService shippingService;
     private final NotificationService notificationService;
+    private final StockUpdateRetry stockUpdateRetry;
 
     /**
-     * Point d'entrée principal pour créer une commande pour un utilisateur
+     * Point d'entrée principal pour créer une commande pour un utilisateur.
+     * Les mouvements de stock rejoignent la transaction de la commande : en cas de conflit (stock modifié
+     * en parallèle), le checkout entier est annulé puis rejoué dans une nouvelle transaction.
      */
-    @Transactional
     public Order createOrderForUser(Long userId, CreateOrderRequest request) {
         // Validation d'entrée
         if (userId == null) {
@@ -45,6 +47,10 @@ public class CheckoutService {
             throw new IllegalArgumentException("Create order request cannot be null");
         }
 
+        return stockUpdateRetry.execute("checkout", null, () -> createOrderForUserOnce(userId, request));
+    }
+
+    private Order createOrderForUserOnce(Long userId, CreateOrderRequest request) {
         Cart cart = cartService.getCartForUser(userId);
 
         // Validation du panier
@@ -120,8 +126,7 @@ public class CheckoutService {
             return savedOrder;
 
         } catch (Exception e) {
-            // Rollback: libérer les réservations en cas d'échec
-            stockService.releaseReservations(reservations);
+            // Rollback: les réservations sont annulées avec la transaction de la commande
             throw new RuntimeException("Order creation failed: " + e.getMessage(), e);
         }
     }
@@ -0,0 +1,344 @@
+package com.ecommerce.services;
+
+import com.ecommerce.exceptions.CartChangesLostException;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Jpa store coalescing bursts of mutations (a +/+/+ quantity clicker): a mutation changes the cart held
+ * in memory on this node and marks it dirty; dirty carts are saved once per flush window
+ * (ecommerce.cart.coalescing.flush-interval-ms), so N mutations in a window cost one save.
+ * Checkout flushes the cart before reading it back from the database.
+ *
+ * Reads are served from the cart in memory, so a user sees their own writes across requests only if the
+ * requests of a cart reach the same node: another node reads the database copy, up to a window behind, and
+ * its writes race with the held cart. The prod profile refuses to start this store unless the load balancer
+ * routes by cart and ecommerce.cart.coalescing.sticky-sessions says so; use the redis store otherwise.
+ * Mutations of one cart are serialized, and hold the cart while it is flushed. A clean cart is dropped
+ * from memory once left untouched for ecommerce.cart.coalescing.idle-ms. A flush that fails keeps the
+ * cart dirty, it is retried on the next window; after ecommerce.cart.coalescing.max-flush-failures failures
+ * in a row the cart is dropped from memory with its unsaved mutations. The next call on that cart fails
+ * once with {@link CartChangesLostException} (409), so the user reviews the cart, which is then read back
+ * from the database.
+ *
+ * Metrics: cart.store.coalesced.mutations, cart.store.flushes (mutations / flushes is the coalescing ratio),
+ * cart.store.flush.dropped
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ecommerce.cart.store", havingValue = "coalescing")
+public class CoalescingCartStore extends JpaCartStore {
+
+    private final CartRepository cartRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Environment environment;
+    private final Map<CartKey, Held> carts = new ConcurrentHashMap<>();
+    // mutations dropped after repeated flush failures, by cart, until reported to the cart's next caller
+    private final Map<CartKey, Integer> lostMutations = new ConcurrentHashMap<>();
+    private final Counter mutations;
+    private final Counter flushes;
+    private final Counter dropped;
+
+    @Value("${ecommerce.cart.coalescing.idle-ms:10000}")
+    private long idleMs = 10000;
+
+    @Value("${ecommerce.cart.coalescing.max-flush-failures:5}")
+    private int maxFlushFailures = 5;
+
+    // the load balancer sends every request of a cart to the same node
+    @Value("${ecommerce.cart.coalescing.sticky-sessions:false}")
+    private boolean stickySessions = false;
+
+    public CoalescingCartStore(CartRepository cartRepository,
+                               CartCalculator cartCalculator,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               Environment environment) {
+        super(cartRepository, cartCalculator);
+        this.cartRepository = cartRepository;
+        this.environment = environment;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.mutations = Counter.builder("cart.store.coalesced.mutations")
+                .description("Cart mutations applied in memory")
+                .register(meterRegistry);
+        this.flushes = Counter.builder("cart.store.flushes")
+                .description("Carts saved to the database by the coalescing store")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("cart.store.flush.dropped")
+                .description("Carts dropped from memory with unsaved mutations after repeated flush failures")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void checkRouting() {
+        if (stickySessions) {
+            return;
+        }
+        if (environment.acceptsProfiles(Profiles.of("prod"))) {
+            throw new IllegalStateException("The coalescing cart store needs the requests of a cart routed to one " +
+                    "node: configure sticky sessions and set ecommerce.cart.coalescing.sticky-sessions, " +
+                    "or use the redis store");
+        }
+        log.warn("Coalescing cart store without sticky sessions: a cart read on another node may miss its " +
+                "latest changes");
+    }
+
+    /**
+     * Cart held in memory; guarded by its own monitor.
+     */
+    private static final class Held {
+        // null until loaded, or while the owner has no cart
+        Cart cart;
+        int unflushed;
+        // flushes failed in a row
+        int failures;
+        long lastTouched;
+        // dropped from the map: callers holding it look it up again
+        boolean evicted;
+    }
+
+    /**
+     * @return a copy of the cart held in memory, so readers never see a mutation half applied
+     */
+    @Override
+    public Optional<Cart> find(CartKey key) {
+        return locked(key, held -> load(key).map(CoalescingCartStore::copyOf));
+    }
+
+    @Override
+    public void addItem(CartKey key, CartItem line, String sessionId, IntConsumer checkQuantity) {
+        locked(key, held -> {
+            super.addItem(key, line, sessionId, checkQuantity);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean updateQuantity(CartKey key, Long productId, int quantity) {
+        return locked(key, held -> super.updateQuantity(key, productId, quantity));
+    }
+
+    @Override
+    public boolean removeItem(CartKey key, Long productId) {
+        return locked(key, held -> super.removeItem(key, productId));
+    }
+
+    @Override
+    public void applyAll(CartKey key, List<LineChange> changes, String sessionId,
+                         Consumer<LongIntHashMap> checkQuantities) {
+        locked(key, held -> {
+            super.applyAll(key, changes, sessionId, checkQuantities);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean clear(CartKey key) {
+        return locked(key, held -> super.clear(key));
+    }
+
+    /**
+     * Drops the cart from memory, pending writes included, then deletes it from the database.
+     */
+    @Override
+    public boolean delete(CartKey key) {
+        lostMutations.remove(key);
+        return locked(key, held -> {
+            boolean inMemory = held.cart != null;
+            evict(key, held);
+            return super.delete(key) || inMemory;
+        });
+    }
+
+    @Override
+    public boolean exists(CartKey key) {
+        return locked(key, held -> held.cart != null || super.exists(key));
+    }
+
+    /**
+     * Flushes the cart if it is dirty and drops it from memory, then reads it back from the database.
+     */
+    @Override
+    public Optional<Cart> persist(CartKey key) {
+        locked(key, held -> {
+            flush(held);
+            evict(key, held);
+            return null;
+        });
+        return super.load(key);
+    }
+
+    /**
+     * Saves the carts changed since the last window, one transaction per cart, and drops the clean
+     * carts left idle. A cart whose save fails stays dirty for the next window, up to maxFlushFailures
+     * windows in a row (see {@link #flushFailed}).
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.cart.coalescing.flush-interval-ms:500}")
+    public void flush() {
+        long idleSince = System.currentTimeMillis() - idleMs;
+        int flushed = 0;
+        for (Map.Entry<CartKey, Held> entry : carts.entrySet()) {
+            Held held = entry.getValue();
+            synchronized (held) {
+                if (held.evicted) {
+                    continue;
+                }
+                try {
+                    if (flush(held)) {
+                        flushed++;
+                    }
+                } catch (RuntimeException e) {
+                    flushFailed(entry.getKey(), held, e);
+                    continue;
+                }
+                if (held.lastTouched < idleSince) {
+                    evict(entry.getKey(), held);
+                }
+            }
+        }
+        if (flushed > 0) {
+            log.debug("{} carts flushed to the database", flushed);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    @Override
+    protected Optional<Cart> load(CartKey key) {
+        return locked(key, held -> {
+            if (held.cart == null) {
+                held.cart = super.load(key).orElse(null);
+            }
+            held.lastTouched = System.currentTimeMillis();
+            return Optional.ofNullable(held.cart);
+        });
+    }
+
+    /**
+     * The new cart is only held in memory, it is inserted by the first flush.
+     */
+    @Override
+    protected Cart createCart(CartKey key, String sessionId) {
+        Cart cart = newCart(key, sessionId);
+        return locked(key, held -> held.cart = cart);
+    }
+
+    @Override
+    protected void save(CartKey key, Cart cart) {
+        touch(key, cart);
+        locked(key, held -> ++held.unflushed);
+        mutations.increment();
+    }
+
+    /**
+     * Runs the action holding the cart's monitor. Reentrant: the mutations of the parent store call
+     * load and save while the lock is held.
+     * @throws CartChangesLostException once, if mutations of this cart were dropped since its last call
+     */
+    private <T> T locked(CartKey key, Function<Held, T> action) {
+        Integer lost = lostMutations.remove(key);
+        if (lost != null) {
+            throw new CartChangesLostException(lost + " recent changes to the cart could not be saved: " +
+                    "check its content and apply them again");
+        }
+        while (true) {
+            Held held = carts.computeIfAbsent(key, k -> new Held());
+            synchronized (held) {
+                if (!held.evicted) {
+                    return action.apply(held);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caller holds the cart's monitor.
+     * @return true if the cart was dirty and has been saved
+     */
+    private boolean flush(Held held) {
+        if (held.unflushed == 0 || held.cart == null) {
+            return false;
+        }
+        // save merges the detached cart: keep the merged copy, whose new lines have their ids
+        held.cart = transactionTemplate.execute(status -> cartRepository.save(held.cart));
+        held.unflushed = 0;
+        held.failures = 0;
+        flushes.increment();
+        return true;
+    }
+
+    /**
+     * Caller holds the cart's monitor. Keeps the cart dirty until it failed maxFlushFailures times in a row,
+     * then drops it with its unsaved mutations, recorded for the cart's next caller.
+     */
+    private void flushFailed(CartKey key, Held held, RuntimeException e) {
+        if (++held.failures < maxFlushFailures) {
+            log.debug("Flush of cart {} failed ({} in a row), kept dirty", key, held.failures, e);
+            return;
+        }
+        evict(key, held);
+        lostMutations.merge(key, held.unflushed, Integer::sum);
+        dropped.increment();
+        log.error("Flush of cart {} failed {} times in a row, {} unsaved mutations dropped",
+                key, held.failures, held.unflushed, e);
+    }
+
+    private void evict(CartKey key, Held held) {
+        held.evicted = true;
+        carts.remove(key, held);
+    }
+
+    private static Cart copyOf(Cart cart) {
+        Cart copy = Cart.builder()
+                .cartId(cart.getCartId())
+                .userId(cart.getUserId())
+                .guestCartId(cart.getGuestCartId())
+                .sessionId(cart.getSessionId())
+                .isTemporary(cart.getIsTemporary())
+                .totalItems(cart.getTotalItems())
+                .totalAmount(cart.getTotalAmount())
+                .createdAt(cart.getCreatedAt())
+                .lastUpdatedAt(cart.getLastUpdatedAt())
+                .expiresAt(cart.getExpiresAt())
+                .items(new ArrayList<>(cart.getItems().size()))
+                .build();
+        for (CartItem item : cart.getItems()) {
+            copy.addItem(CartItem.builder()
+                    .id(item.getId())
+                    .productId(item.getProductId())
+                    .quantity(item.getQuantity())
+                    .price(item.getPrice())
+                    .imageId(item.getImageId())
+                    .build());
+        }
+        return copy;
+    }
+}
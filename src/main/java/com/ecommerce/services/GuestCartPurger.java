@@ -0,0 +1,80 @@
+package com.ecommerce.services;
+
+import com.ecommerce.repositories.CartRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Periodically deletes guest carts past their expiry (stamped on every change by the cart stores) with
+ * their items. Each chunk is one set-based DELETE of at most batch-size carts in its own transaction, so
+ * locks stay short; chunks use SKIP LOCKED, so every instance can run the purge.
+ *
+ * Metrics:
+ * - cart.guest.purged: guest carts deleted
+ * - cart.guest.purge.duration: duration of a purge run
+ */
+@Slf4j
+@Component
+public class GuestCartPurger {
+
+    private final CartRepository cartRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter purgedCarts;
+    private final Timer purgeDuration;
+
+    @Value("${ecommerce.cart.guest-purge.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Value("${ecommerce.cart.guest-purge.max-batches-per-run:50}")
+    private int maxBatchesPerRun = 50;
+
+    public GuestCartPurger(CartRepository cartRepository,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry) {
+        this.cartRepository = cartRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.purgedCarts = Counter.builder("cart.guest.purged")
+                .description("Expired guest carts deleted")
+                .register(meterRegistry);
+        this.purgeDuration = Timer.builder("cart.guest.purge.duration")
+                .description("Duration of a guest cart purge run")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${ecommerce.cart.guest-purge.interval-ms:300000}")
+    public void purge() {
+        LocalDateTime now = LocalDateTime.now();
+        long start = System.nanoTime();
+        int purged = 0;
+
+        for (int i = 0; i < maxBatchesPerRun; i++) {
+            int deleted;
+            try {
+                deleted = transactionTemplate.execute(status -> cartRepository.deleteExpiredGuestCarts(now, batchSize));
+            } catch (RuntimeException e) {
+                log.error("Guest cart purge failed after {} carts", purged, e);
+                break;
+            }
+            purgedCarts.increment(deleted);
+            purged += deleted;
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+
+        purgeDuration.record(Duration.ofNanos(System.nanoTime() - start));
+        if (purged > 0) {
+            log.info("Purged {} expired guest carts", purged);
+        }
+    }
+}
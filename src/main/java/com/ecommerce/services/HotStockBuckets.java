@@ -0,0 +1,296 @@
+package com.ecommerce.services;
+
+import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.models.Stock;
+import com.ecommerce.models.StockBucket;
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Opt-in hot-product mode of the jpa stock engine.
+ *
+ * The available/reserved counters of a hot product are split over N stock_buckets rows. A move goes to
+ * one random bucket that holds enough, skipping buckets locked by other transactions, so N reservations
+ * of the same product run in parallel instead of queueing on its stock row. When no single bucket can
+ * serve a move, every bucket is locked and the move is spread over them, the stock row remainder
+ * covering the rest. A rebalancer periodically evens out the available quantity across buckets.
+ *
+ * Confirmed units are counted on the bucket too and folded into the row's total_quantity by the rebalancer,
+ * so confirmations do not touch the stock row either. Readers see the row plus its buckets, so the Stock
+ * API is unchanged.
+ *
+ * Lock order is always buckets first, then the stock row; a cart takes the locks of its products in
+ * productId order (see JpaStockReservationEngine).
+ */
+@Slf4j
+@Component
+public class HotStockBuckets {
+
+    private final StockRepository stockRepository;
+    private final StockBucketRepository stockBucketRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // hint only: a move on a product wrongly believed cold or hot still ends up on the right rows
+    private volatile Set<Long> hotProductIds = Set.of();
+
+    @Value("${ecommerce.stock.engine:jpa}")
+    private String engine = "jpa";
+
+    public HotStockBuckets(StockRepository stockRepository,
+                           StockBucketRepository stockBucketRepository,
+                           PlatformTransactionManager transactionManager) {
+        this.stockRepository = stockRepository;
+        this.stockBucketRepository = stockBucketRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    boolean isHot(Long productId) {
+        return hotProductIds.contains(productId);
+    }
+
+    /**
+     * @return true if the product has buckets, refreshing the hint when another node sharded it
+     */
+    boolean isSharded(Long productId) {
+        if (isHot(productId)) {
+            return true;
+        }
+        if (stockBucketRepository.existsByProductId(productId)) {
+            markHot(productId, true);
+            return true;
+        }
+        return false;
+    }
+
+    boolean reserve(Long productId, int quantity) {
+        return move(productId, quantity, Move.RESERVE);
+    }
+
+    boolean release(Long productId, int quantity) {
+        return move(productId, quantity, Move.RELEASE);
+    }
+
+    boolean confirm(Long productId, int quantity) {
+        return move(productId, quantity, Move.CONFIRM);
+    }
+
+    /**
+     * Puts the available quantity and the confirmed units of every bucket back on the stock row, so an
+     * absolute adjustment can be applied there; the rebalancer spreads it again afterwards.
+     */
+    void collapse(Long productId) {
+        int available = 0;
+        int confirmed = 0;
+        for (Object[] bucket : stockBucketRepository.lockBuckets(productId)) {
+            int bucketAvailable = ((Number) bucket[1]).intValue();
+            int bucketConfirmed = ((Number) bucket[3]).intValue();
+            if (bucketAvailable != 0 || bucketConfirmed != 0) {
+                stockBucketRepository.resetBucket(((Number) bucket[0]).longValue(), 0);
+                available += bucketAvailable;
+                confirmed += bucketConfirmed;
+            }
+        }
+        if (available != 0 || confirmed != 0) {
+            stockRepository.applyDeltas(List.of(new QuantityDelta(productId, -confirmed, available, 0)));
+        }
+    }
+
+    /**
+     * @return {@code [total, available, reserved]} including buckets, or null when the product has no stock
+     */
+    int[] currentQuantities(Long productId) {
+        List<Object[]> rows = stockBucketRepository.sumQuantities(productId);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        return new int[]{((Number) row[0]).intValue(), ((Number) row[1]).intValue(), ((Number) row[2]).intValue()};
+    }
+
+    /**
+     * Copy of a stock row whose counters include the buckets (the row itself is not modified).
+     */
+    Stock withBuckets(Stock stock) {
+        if (stock == null || !isHot(stock.getProduct().getProductId())) {
+            return stock;
+        }
+        int[] quantities = currentQuantities(stock.getProduct().getProductId());
+        if (quantities == null) {
+            return stock;
+        }
+        return stock.toBuilder()
+                .totalQuantity(quantities[0])
+                .availableQuantity(quantities[1])
+                .reservedQuantity(quantities[2])
+                .build();
+    }
+
+    /**
+     * Splits the counters of a product over {@code bucketCount} buckets (1 turns hot mode off).
+     */
+    public void shard(Long productId, int bucketCount) {
+        if (!"jpa".equals(engine)) {
+            throw new IllegalStateException("Hot product buckets require the jpa stock engine");
+        }
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("Bucket count must be at least 1");
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Object[]> buckets = stockBucketRepository.lockBuckets(productId);
+            if (stockRepository.lockAvailableQuantities(List.of(productId)).isEmpty()) {
+                throw new StockNotFound("Stock not found for product: " + productId);
+            }
+            unshard(productId, buckets);
+            if (bucketCount > 1) {
+                stockBucketRepository.saveAll(IntStream.range(0, bucketCount)
+                        .mapToObj(bucketNo -> StockBucket.builder().productId(productId).bucketNo(bucketNo).build())
+                        .toList());
+                stockBucketRepository.flush();
+                rebalanceLocked(productId);
+            }
+        });
+        markHot(productId, bucketCount > 1);
+        log.info("Stock of product {} split over {} buckets", productId, bucketCount);
+    }
+
+    /**
+     * Evens out the available quantity of every hot product across its buckets, one transaction per product.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.stock.buckets.rebalance-interval-ms:5000}")
+    public void rebalance() {
+        if (!"jpa".equals(engine)) {
+            return;
+        }
+        hotProductIds = Set.copyOf(stockBucketRepository.findShardedProductIds());
+        for (Long productId : hotProductIds) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> rebalanceLocked(productId));
+            } catch (RuntimeException e) {
+                log.warn("Could not rebalance stock buckets of product {}", productId, e);
+            }
+        }
+    }
+
+    private boolean move(Long productId, int quantity, Move move) {
+        if (stockBucketRepository.moveInFreeBucket(productId, move.fromAvailable, quantity,
+                move.availableUnit * quantity, move.reservedUnit * quantity, move.confirmedUnit * quantity) == 1) {
+            return true;
+        }
+        return spread(productId, quantity, move);
+    }
+
+    /**
+     * Slow path: locks every bucket and takes the quantity from as many buckets as needed, then from the
+     * stock row. Nothing is written unless the whole quantity can be moved.
+     */
+    private boolean spread(Long productId, int quantity, Move move) {
+        Map<Long, Integer> taken = new LinkedHashMap<>();
+        int remaining = quantity;
+        for (Object[] bucket : stockBucketRepository.lockBuckets(productId)) {
+            int take = Math.min(((Number) bucket[move.fromAvailable ? 1 : 2]).intValue(), remaining);
+            if (take > 0) {
+                taken.put(((Number) bucket[0]).longValue(), take);
+                remaining -= take;
+            }
+            if (remaining == 0) {
+                break;
+            }
+        }
+
+        if (remaining > 0 && move.onStockRow(stockRepository, productId, remaining) == 0) {
+            return false;
+        }
+        taken.forEach((bucketId, take) -> stockBucketRepository.moveBucket(bucketId,
+                move.availableUnit * take, move.reservedUnit * take, move.confirmedUnit * take));
+        return true;
+    }
+
+    private void rebalanceLocked(Long productId) {
+        List<Object[]> buckets = stockBucketRepository.lockBuckets(productId);
+        List<Object[]> stockRows = stockRepository.lockAvailableQuantities(List.of(productId));
+        if (stockRows.isEmpty() || buckets.isEmpty()) {
+            return;
+        }
+        int rowAvailable = ((Number) stockRows.get(0)[1]).intValue();
+        int pool = rowAvailable;
+        int confirmed = 0;
+        for (Object[] bucket : buckets) {
+            pool += ((Number) bucket[1]).intValue();
+            confirmed += ((Number) bucket[3]).intValue();
+        }
+
+        int share = pool / buckets.size();
+        int extra = pool % buckets.size();
+        for (int i = 0; i < buckets.size(); i++) {
+            Object[] bucket = buckets.get(i);
+            int target = share + (i < extra ? 1 : 0);
+            if (((Number) bucket[1]).intValue() != target || ((Number) bucket[3]).intValue() != 0) {
+                stockBucketRepository.resetBucket(((Number) bucket[0]).longValue(), target);
+            }
+        }
+        if (rowAvailable != 0 || confirmed != 0) {
+            stockRepository.applyDeltas(List.of(new QuantityDelta(productId, -confirmed, -rowAvailable, 0)));
+        }
+    }
+
+    private void unshard(Long productId, List<Object[]> buckets) {
+        int available = 0;
+        int reserved = 0;
+        int confirmed = 0;
+        for (Object[] bucket : buckets) {
+            available += ((Number) bucket[1]).intValue();
+            reserved += ((Number) bucket[2]).intValue();
+            confirmed += ((Number) bucket[3]).intValue();
+        }
+        stockBucketRepository.deleteBuckets(productId);
+        if (available != 0 || reserved != 0 || confirmed != 0) {
+            stockRepository.applyDeltas(List.of(new QuantityDelta(productId, -confirmed, available, reserved)));
+        }
+    }
+
+    private void markHot(Long productId, boolean hot) {
+        Set<Long> updated = new HashSet<>(hotProductIds);
+        if (hot ? updated.add(productId) : updated.remove(productId)) {
+            hotProductIds = Set.copyOf(updated);
+        }
+    }
+
+    /**
+     * Per-unit effect of a move on the available, reserved and confirmed counters of a bucket.
+     */
+    private enum Move {
+        RESERVE(true, -1, 1, 0),
+        RELEASE(false, 1, -1, 0),
+        CONFIRM(false, 0, -1, 1);
+
+        final boolean fromAvailable;
+        final int availableUnit;
+        final int reservedUnit;
+        final int confirmedUnit;
+
+        Move(boolean fromAvailable, int availableUnit, int reservedUnit, int confirmedUnit) {
+            this.fromAvailable = fromAvailable;
+            this.availableUnit = availableUnit;
+            this.reservedUnit = reservedUnit;
+            this.confirmedUnit = confirmedUnit;
+        }
+
+        int onStockRow(StockRepository stockRepository, Long productId, int quantity) {
+            return switch (this) {
+                case RESERVE -> stockRepository.reserveQuantity(productId, quantity);
+                case RELEASE -> stockRepository.releaseQuantity(productId, quantity);
+                case CONFIRM -> stockRepository.confirmQuantity(productId, quantity);
+            };
+        }
+    }
+}
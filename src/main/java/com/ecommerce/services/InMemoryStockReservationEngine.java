@@ -0,0 +1,327 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import com.ecommerce.utils.LongIntHashMap;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stock engine for single-instance deployments with hot SKUs.
+ *
+ * Available/reserved counters live in memory, one lock-free counter per product, so reservations
+ * and releases never wait on Postgres. Counters are found through a primitive-keyed index
+ * (productId -> slot) that is never modified once published: a product added after startup
+ * publishes a new copy, so lookups take no lock and box nothing. Their deltas are written back to the stock table in batches
+ * by a scheduled flush. Operations that change the total (confirm, restock, adjust) are written
+ * through in the caller's transaction.
+ *
+ * Crash recovery: total_quantity is always durable and every checkout reservation has a
+ * stock_reservations row, so on startup reserved is recomputed from the ACTIVE reservations
+ * and available is derived as total - reserved before the counters are loaded.
+ *
+ * Counters are local to the JVM: do not enable this engine when several instances share the database.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ecommerce.stock.engine", havingValue = "memory")
+public class InMemoryStockReservationEngine implements StockReservationEngine {
+
+    private final StockRepository stockRepository;
+    private final TransactionTemplate transactionTemplate;
+    private volatile CounterTable counters = CounterTable.EMPTY;
+
+    @Value("${ecommerce.stock.memory.flush-batch-size:500}")
+    private int flushBatchSize = 500;
+
+    public InMemoryStockReservationEngine(StockRepository stockRepository,
+                                          PlatformTransactionManager transactionManager) {
+        this.stockRepository = stockRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void load() {
+        transactionTemplate.executeWithoutResult(status -> {
+            int recovered = stockRepository.reconcileWithActiveReservations();
+            if (recovered > 0) {
+                log.warn("Recovered reserved/available counters of {} stock rows from active reservations", recovered);
+            }
+            List<Object[]> rows = stockRepository.findAllQuantities();
+            LongIntHashMap index = new LongIntHashMap(rows.size());
+            StockCounter[] loaded = new StockCounter[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                Object[] row = rows.get(i);
+                index.put(((Number) row[0]).longValue(), i);
+                loaded[i] = new StockCounter(((Number) row[1]).intValue(), ((Number) row[2]).intValue());
+            }
+            counters = new CounterTable(index, loaded);
+        });
+        log.info("In-memory stock engine loaded {} products", counters.size());
+    }
+
+    @Override
+    public void reserve(Long productId, int quantity) {
+        StockCounter counter = counterOrThrow(productId);
+        if (!counter.tryMove(-quantity, quantity)) {
+            throw new InsufficientStockException(
+                    "Insufficient stock for product " + productId +
+                            ". Available: " + counter.available() +
+                            ", Requested: " + quantity
+            );
+        }
+        deferWrite(counter, -quantity, quantity);
+    }
+
+    /**
+     * Lines are moved in productId order; if one of them is short, the lines already moved are put back
+     * so the reservation stays all-or-nothing.
+     */
+    @Override
+    public void reserveAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        Map<StockCounter, Integer> moved = new LinkedHashMap<>();
+        ReservationShortages shortages = new ReservationShortages();
+
+        quantitiesByProduct.forEach((productId, quantity) -> {
+            StockCounter counter = counterFor(productId);
+            if (counter != null && counter.tryMove(-quantity, quantity)) {
+                moved.put(counter, quantity);
+            } else {
+                shortages.check(productId, counter != null ? counter.available() : 0, quantity);
+            }
+        });
+
+        if (!shortages.isEmpty()) {
+            moved.forEach((counter, quantity) -> counter.forceMove(quantity, -quantity));
+            shortages.throwIfAny();
+        }
+        moved.forEach((counter, quantity) -> deferWrite(counter, -quantity, quantity));
+    }
+
+    @Override
+    public boolean release(Long productId, int quantity) {
+        StockCounter counter = counterOrThrow(productId);
+        if (!counter.tryMove(quantity, -quantity)) {
+            return false;
+        }
+        deferWrite(counter, quantity, -quantity);
+        return true;
+    }
+
+    @Override
+    public boolean confirm(Long productId, int quantity) {
+        StockCounter counter = counterOrThrow(productId);
+        if (!counter.tryMove(0, -quantity)) {
+            return false;
+        }
+        writeThrough(counter, new QuantityDelta(productId, -quantity, 0, -quantity));
+        return true;
+    }
+
+    @Override
+    public void restock(Long productId, int quantity) {
+        StockCounter counter = counterOrThrow(productId);
+        counter.forceMove(quantity, 0);
+        writeThrough(counter, new QuantityDelta(productId, quantity, quantity, 0));
+    }
+
+    @Override
+    public void adjustAvailable(Long productId, int newAvailableQuantity) {
+        StockCounter counter = counterOrThrow(productId);
+        int difference = counter.setAvailable(newAvailableQuantity);
+        writeThrough(counter, new QuantityDelta(productId, difference, difference, 0));
+    }
+
+    @Override
+    public Integer getAvailableQuantity(Long productId) {
+        StockCounter counter = counterFor(productId);
+        return counter != null ? counter.available() : null;
+    }
+
+    /**
+     * Writes the committed reserve/release deltas back to the stock table, one multi-row UPDATE per batch.
+     * A batch that fails is kept pending and retried on the next run.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.stock.memory.flush-interval-ms:1000}")
+    public void flush() {
+        CounterTable table = counters;
+        List<QuantityDelta> deltas = new ArrayList<>();
+        table.index.forEach((productId, slot) -> {
+            QuantityDelta delta = table.counters[slot].drainPending(productId);
+            if (!delta.isZero()) {
+                deltas.add(delta);
+            }
+        });
+
+        for (int from = 0; from < deltas.size(); from += flushBatchSize) {
+            List<QuantityDelta> batch = deltas.subList(from, Math.min(from + flushBatchSize, deltas.size()));
+            try {
+                transactionTemplate.executeWithoutResult(status -> stockRepository.applyDeltas(batch));
+            } catch (RuntimeException e) {
+                log.error("Stock write-behind flush failed, {} products kept pending", deltas.size() - from, e);
+                deltas.subList(from, deltas.size()).forEach(delta ->
+                        table.get(delta.productId()).addPending(delta.available(), delta.reserved()));
+                return;
+            }
+        }
+        if (!deltas.isEmpty()) {
+            log.debug("Flushed stock counters of {} products", deltas.size());
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private StockCounter counterFor(Long productId) {
+        StockCounter counter = counters.get(productId);
+        if (counter != null) {
+            return counter;
+        }
+        // stock created after startup: nothing is pending for it yet, so the row is up to date
+        return stockRepository.findByProduct_ProductId(productId)
+                .map(stock -> addCounter(productId, new StockCounter(stock.getAvailableQuantity(),
+                        stock.getReservedQuantity())))
+                .orElse(null);
+    }
+
+    /**
+     * Publishes a copy of the table with the new counter, unless another thread added one first.
+     */
+    private synchronized StockCounter addCounter(long productId, StockCounter counter) {
+        StockCounter existing = counters.get(productId);
+        if (existing != null) {
+            return existing;
+        }
+        counters = counters.with(productId, counter);
+        return counter;
+    }
+
+    private StockCounter counterOrThrow(Long productId) {
+        StockCounter counter = counterFor(productId);
+        if (counter == null) {
+            throw new StockNotFound("Stock not found for product: " + productId);
+        }
+        return counter;
+    }
+
+    /**
+     * The move is already visible in memory; it becomes a pending delta once the caller's transaction
+     * commits, and is undone if it rolls back.
+     */
+    private void deferWrite(StockCounter counter, int availableDelta, int reservedDelta) {
+        TransactionCallbacks.onCompletion(
+                () -> counter.addPending(availableDelta, reservedDelta),
+                () -> counter.forceMove(-availableDelta, -reservedDelta));
+    }
+
+    private void writeThrough(StockCounter counter, QuantityDelta delta) {
+        stockRepository.applyDeltas(List.of(delta));
+        TransactionCallbacks.onRollback(() -> counter.forceMove(-delta.available(), -delta.reserved()));
+    }
+
+    /**
+     * productId -> slot in {@code counters}. Read-only once published.
+     */
+    private record CounterTable(LongIntHashMap index, StockCounter[] counters) {
+
+        static final CounterTable EMPTY = new CounterTable(new LongIntHashMap(), new StockCounter[0]);
+
+        StockCounter get(long productId) {
+            int slot = index.getOrDefault(productId, -1);
+            return slot >= 0 ? counters[slot] : null;
+        }
+
+        int size() {
+            return counters.length;
+        }
+
+        CounterTable with(long productId, StockCounter counter) {
+            LongIntHashMap copy = new LongIntHashMap(counters.length + 1);
+            copy.putAll(index);
+            copy.put(productId, counters.length);
+            StockCounter[] grown = Arrays.copyOf(counters, counters.length + 1);
+            grown[counters.length] = counter;
+            return new CounterTable(copy, grown);
+        }
+    }
+
+    /**
+     * Available and reserved packed in one long (high and low 32 bits) so both move with a single CAS.
+     */
+    static final class StockCounter {
+        private final AtomicLong state;
+        private final AtomicInteger pendingAvailable = new AtomicInteger();
+        private final AtomicInteger pendingReserved = new AtomicInteger();
+
+        StockCounter(int available, int reserved) {
+            this.state = new AtomicLong(pack(available, reserved));
+        }
+
+        int available() {
+            return (int) (state.get() >> 32);
+        }
+
+        int reserved() {
+            return (int) state.get();
+        }
+
+        /**
+         * @return false, leaving the counter untouched, if a counter would become negative
+         */
+        boolean tryMove(int availableDelta, int reservedDelta) {
+            while (true) {
+                long current = state.get();
+                int available = (int) (current >> 32) + availableDelta;
+                int reserved = (int) current + reservedDelta;
+                if (available < 0 || reserved < 0) {
+                    return false;
+                }
+                if (state.compareAndSet(current, pack(available, reserved))) {
+                    return true;
+                }
+            }
+        }
+
+        void forceMove(int availableDelta, int reservedDelta) {
+            state.accumulateAndGet(0L, (current, ignored) ->
+                    pack((int) (current >> 32) + availableDelta, (int) current + reservedDelta));
+        }
+
+        /**
+         * @return the difference between the new and the previous available quantity
+         */
+        int setAvailable(int newAvailable) {
+            long previous = state.getAndUpdate(current -> pack(newAvailable, (int) current));
+            return newAvailable - (int) (previous >> 32);
+        }
+
+        void addPending(int availableDelta, int reservedDelta) {
+            pendingAvailable.addAndGet(availableDelta);
+            pendingReserved.addAndGet(reservedDelta);
+        }
+
+        QuantityDelta drainPending(Long productId) {
+            return new QuantityDelta(productId, 0, pendingAvailable.getAndSet(0), pendingReserved.getAndSet(0));
+        }
+
+        private static long pack(int available, int reserved) {
+            return ((long) available << 32) | (reserved & 0xFFFFFFFFL);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.LongIntHashMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Default store: carts and their lines are the carts/cart_items rows, every mutation saves the cart.
+ * Totals move by the changed line only (see {@link CartCalculator}).
+ * Every change of a guest cart pushes its expiry back by ecommerce.cart.guest-ttl-seconds; an expired guest
+ * cart not purged yet reads as empty (its rows are left to the purge), and restarts empty on its next change.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "ecommerce.cart.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaCartStore implements CartStore {
+
+    private final CartRepository cartRepository;
+    private final CartCalculator cartCalculator;
+
+    @Value("${ecommerce.cart.guest-ttl-seconds:604800}")
+    private long guestTtlSeconds = 604800;
+
+    @Override
+    public Optional<Cart> find(CartKey key) {
+        return findRow(key).map(cart -> {
+            if (key.isGuest() && cart.isExpired(LocalDateTime.now())) {
+                return cart.emptyCopy();
+            }
+            cartCalculator.ensureTotals(cart);
+            return cart;
+        });
+    }
+
+    @Override
+    public void addItem(CartKey key, CartItem line, String sessionId, IntConsumer checkQuantity) {
+        Cart cart = load(key).orElseGet(() -> createCart(key, sessionId));
+        checkQuantity.accept(cart.findItem(line.getProductId()).map(CartItem::getQuantity).orElse(0)
+                + line.getQuantity());
+        addLine(cart, line);
+        save(key, cart);
+    }
+
+    @Override
+    public boolean updateQuantity(CartKey key, Long productId, int quantity) {
+        Cart cart = findOrThrow(key);
+        if (!setLine(cart, productId, quantity)) {
+            return false;
+        }
+        save(key, cart);
+        return true;
+    }
+
+    @Override
+    public boolean removeItem(CartKey key, Long productId) {
+        Cart cart = findOrThrow(key);
+        if (!setLine(cart, productId, 0)) {
+            return false;
+        }
+        save(key, cart);
+        return true;
+    }
+
+    /**
+     * One load and one save for the whole batch
+     */
+    @Override
+    public void applyAll(CartKey key, List<LineChange> changes, String sessionId,
+                         Consumer<LongIntHashMap> checkQuantities) {
+        Cart cart = load(key).orElse(null);
+        checkQuantities.accept(LineChange.resultingQuantities(cart, changes));
+        if (cart == null) {
+            if (changes.stream().noneMatch(LineChange::adding)) {
+                return;
+            }
+            cart = createCart(key, sessionId);
+        }
+        for (LineChange change : changes) {
+            if (change.adding()) {
+                addLine(cart, change.line());
+            } else {
+                setLine(cart, change.productId(), change.quantity());
+            }
+        }
+        save(key, cart);
+    }
+
+    @Override
+    public boolean clear(CartKey key) {
+        return load(key).map(cart -> {
+            cart.clearItems();
+            save(key, cart);
+            return true;
+        }).orElse(false);
+    }
+
+    /**
+     * One statement deleting the cart with its items
+     */
+    @Override
+    public boolean delete(CartKey key) {
+        int deleted = key.isGuest()
+                ? cartRepository.deleteGuestCart(key.guestCartId())
+                : cartRepository.deleteUserCart(key.userId());
+        return deleted > 0;
+    }
+
+    @Override
+    public boolean exists(CartKey key) {
+        return key.isGuest()
+                ? cartRepository.existsByGuestCartId(key.guestCartId())
+                : cartRepository.existsByUserId(key.userId());
+    }
+
+    @Override
+    public Optional<Cart> persist(CartKey key) {
+        return find(key);
+    }
+
+    /**
+     * The cart the mutations of this store change and save. The lines of an expired guest cart are dropped,
+     * the save of the mutation deletes them.
+     */
+    protected Optional<Cart> load(CartKey key) {
+        Optional<Cart> cart = findRow(key);
+        cart.ifPresent(found -> {
+            if (key.isGuest() && found.isExpired(LocalDateTime.now())) {
+                found.clearItems();
+            }
+            cartCalculator.ensureTotals(found);
+        });
+        return cart;
+    }
+
+    private Optional<Cart> findRow(CartKey key) {
+        return key.isGuest()
+                ? cartRepository.findByGuestCartId(key.guestCartId())
+                : cartRepository.findByUserId(key.userId());
+    }
+
+    private void addLine(Cart cart, CartItem line) {
+        Optional<CartItem> existingItem = cart.findItem(line.getProductId());
+        if (existingItem.isPresent()) {
+            existingItem.get().addQuantity(line.getQuantity());
+            cartCalculator.addUnits(cart, existingItem.get().getPrice(), line.getQuantity());
+        } else {
+            cart.addItem(line);
+            cartCalculator.addUnits(cart, line.getPrice(), line.getQuantity());
+        }
+    }
+
+    /**
+     * @param quantity 0 removes the line
+     * @return false if the cart has no line for the product
+     */
+    private boolean setLine(Cart cart, Long productId, int quantity) {
+        if (quantity == 0) {
+            CartItem removed = cart.removeItem(productId);
+            if (removed == null) {
+                return false;
+            }
+            cartCalculator.addUnits(cart, removed.getPrice(), -removed.getQuantity());
+            return true;
+        }
+        Optional<CartItem> item = cart.findItem(productId);
+        if (item.isEmpty()) {
+            return false;
+        }
+        int delta = quantity - item.get().getQuantity();
+        item.get().updateQuantity(quantity);
+        cartCalculator.addUnits(cart, item.get().getPrice(), delta);
+        return true;
+    }
+
+    private Cart findOrThrow(CartKey key) {
+        return load(key).orElseThrow(() -> new IllegalArgumentException("Cart not found: " + key));
+    }
+
+    protected Cart createCart(CartKey key, String sessionId) {
+        Cart cart = newCart(key, sessionId);
+        touch(key, cart);
+        return cartRepository.save(cart);
+    }
+
+    static Cart newCart(CartKey key, String sessionId) {
+        return Cart.builder()
+                .guestCartId(key.guestCartId())
+                .userId(key.userId())
+                .sessionId(key.isGuest() ? sessionId : null)
+                .isTemporary(key.isGuest())
+                .totalItems(0)
+                .totalAmount(0.0)
+                .lastUpdatedAt(LocalDateTime.now())
+                .createdAt(LocalDateTime.now())
+                .items(new ArrayList<>())
+                .build();
+    }
+
+    protected void save(CartKey key, Cart cart) {
+        touch(key, cart);
+        cartRepository.save(cart);
+    }
+
+    /**
+     * Stamps a change: last update, and the new expiry of a guest cart
+     */
+    protected void touch(CartKey key, Cart cart) {
+        LocalDateTime now = LocalDateTime.now();
+        cart.setLastUpdatedAt(now);
+        if (key.isGuest()) {
+            cart.setExpiresAt(now.plusSeconds(guestTtlSeconds));
+        }
+    }
+}
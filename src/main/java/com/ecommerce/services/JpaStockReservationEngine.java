@@ -0,0 +1,304 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.models.Stock;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import com.ecommerce.utils.LongIntHashMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Default engine: every counter move is a single conditional statement on the stock table.
+ * Products switched to hot mode go through {@link HotStockBuckets} instead.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "ecommerce.stock.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaStockReservationEngine implements StockReservationEngine {
+
+    private final StockRepository stockRepository;
+    private final HotStockBuckets hotStockBuckets;
+
+    @Override
+    public void reserve(Long productId, int quantity) {
+        boolean reserved = hotStockBuckets.isHot(productId)
+                ? hotStockBuckets.reserve(productId, quantity)
+                : stockRepository.reserveQuantity(productId, quantity) == 1
+                || hotStockBuckets.isSharded(productId) && hotStockBuckets.reserve(productId, quantity);
+        if (!reserved) {
+            findStockOrThrow(productId);
+            throw new InsufficientStockException(
+                    "Insufficient stock for product " + productId +
+                            ". Available: " + getAvailableQuantity(productId) +
+                            ", Requested: " + quantity
+            );
+        }
+    }
+
+    /**
+     * Lines are walked in productId order: each run of cold products is locked by one SELECT ... FOR UPDATE
+     * and validated, a hot product is reserved on its buckets when its turn comes. Every line is checked
+     * before anything is written to the stock rows, then they are all reserved by one multi-row UPDATE.
+     * A short line throws, which rolls the bucket moves back.
+     */
+    @Override
+    public void reserveAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        ReservationShortages shortages = new ReservationShortages();
+        SortedMap<Long, Integer> rowQuantities = new TreeMap<>();
+        inLockOrder(quantitiesByProduct, run -> {
+            Map<Long, Integer> availableQuantities = new HashMap<>();
+            lockAvailable(run.keySet(), availableQuantities);
+            run.forEach((productId, quantity) -> {
+                int available = availableQuantities.getOrDefault(productId, 0);
+                if (available >= quantity) {
+                    rowQuantities.put(productId, quantity);
+                    return;
+                }
+                failIfShardedConcurrently(productId);
+                shortages.check(productId, available, quantity);
+            });
+        }, (productId, quantity) -> {
+            if (!hotStockBuckets.reserve(productId, quantity)) {
+                shortages.check(productId, availableOrZero(productId), quantity);
+            }
+        });
+        shortages.throwIfAny();
+        if (rowQuantities.isEmpty()) {
+            return;
+        }
+
+        int reservedProducts = stockRepository.reserveQuantities(rowQuantities);
+        if (reservedProducts != rowQuantities.size()) {
+            // rows are locked above, so this only happens if the stock table was changed outside a transaction
+            throw new IllegalStateException("Reserved " + reservedProducts + " of "
+                    + rowQuantities.size() + " products");
+        }
+    }
+
+    @Override
+    public boolean release(Long productId, int quantity) {
+        if (hotStockBuckets.isHot(productId)) {
+            return hotStockBuckets.release(productId, quantity);
+        }
+        if (stockRepository.releaseQuantity(productId, quantity) == 0) {
+            if (hotStockBuckets.isSharded(productId)) {
+                return hotStockBuckets.release(productId, quantity);
+            }
+            findStockOrThrow(productId);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean confirm(Long productId, int quantity) {
+        if (hotStockBuckets.isHot(productId)) {
+            return hotStockBuckets.confirm(productId, quantity);
+        }
+        if (stockRepository.confirmQuantity(productId, quantity) == 0) {
+            if (hotStockBuckets.isSharded(productId)) {
+                return hotStockBuckets.confirm(productId, quantity);
+            }
+            findStockOrThrow(productId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Same shape as {@link #reserveAll}: lines are walked in productId order, hot products move on their
+     * buckets, runs of cold rows are locked together and all of them are released by one multi-row UPDATE.
+     */
+    @Override
+    public Set<Long> releaseAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        return moveAll(quantitiesByProduct, hotStockBuckets::release, stockRepository::releaseQuantities);
+    }
+
+    @Override
+    public Set<Long> confirmAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        return moveAll(quantitiesByProduct, hotStockBuckets::confirm, stockRepository::confirmQuantities);
+    }
+
+    @Override
+    public void restock(Long productId, int quantity) {
+        if (stockRepository.restockQuantity(productId, quantity) == 0) {
+            throw new StockNotFound("Stock not found for product: " + productId);
+        }
+    }
+
+    @Override
+    public void adjustAvailable(Long productId, int newAvailableQuantity) {
+        if (hotStockBuckets.isSharded(productId)) {
+            // the absolute value applies to the row plus its buckets
+            hotStockBuckets.collapse(productId);
+        }
+        if (stockRepository.adjustAvailableQuantity(productId, newAvailableQuantity) == 0) {
+            throw new StockNotFound("Stock not found for product: " + productId);
+        }
+    }
+
+    @Override
+    public Integer getAvailableQuantity(Long productId) {
+        if (hotStockBuckets.isHot(productId)) {
+            int[] quantities = hotStockBuckets.currentQuantities(productId);
+            return quantities != null ? quantities[1] : null;
+        }
+        return stockRepository.findByProduct_ProductId(productId)
+                .map(Stock::getAvailableQuantity)
+                .orElse(null);
+    }
+
+    /**
+     * One IN query on the stock table; hot products are then read with their buckets.
+     */
+    @Override
+    public LongIntHashMap getAvailableQuantities(Collection<Long> productIds) {
+        LongIntHashMap available = new LongIntHashMap(productIds.size());
+        for (Object[] row : stockRepository.findAvailableQuantities(productIds)) {
+            long productId = ((Number) row[0]).longValue();
+            if (!hotStockBuckets.isHot(productId)) {
+                available.put(productId, ((Number) row[1]).intValue());
+                continue;
+            }
+            int[] quantities = hotStockBuckets.currentQuantities(productId);
+            if (quantities != null) {
+                available.put(productId, quantities[1]);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Rows are locked in productId order, a hot product being collapsed onto its row when its turn comes.
+     * Every change is then turned into a delta against the locked value and all of them are written by one
+     * multi-row UPDATE.
+     */
+    @Override
+    public Set<Long> applyQuantityChanges(SortedMap<Long, QuantityChange> changes) {
+        Map<Long, Integer> availableQuantities = new HashMap<>();
+        inLockOrder(changes, run -> lockAvailable(run.keySet(), availableQuantities), (productId, change) -> {
+            hotStockBuckets.collapse(productId);
+            lockAvailable(List.of(productId), availableQuantities);
+        });
+
+        Set<Long> rejected = new TreeSet<>();
+        List<QuantityDelta> deltas = new ArrayList<>(changes.size());
+        changes.forEach((productId, change) -> {
+            Integer available = availableQuantities.get(productId);
+            int target = available != null ? change.applyTo(available) : -1;
+            if (target < 0) {
+                rejected.add(productId);
+            } else if (target != available) {
+                deltas.add(new QuantityDelta(productId, target - available, target - available, 0));
+            }
+        });
+        stockRepository.applyDeltas(deltas);
+        return rejected;
+    }
+
+    /**
+     * Moves reserved units of several products: buckets for hot products, one statement for the others.
+     * @return products whose reserved units do not cover the quantity (nothing is moved for them)
+     */
+    private Set<Long> moveAll(SortedMap<Long, Integer> quantitiesByProduct,
+                              BiPredicate<Long, Integer> bucketMove,
+                              ToIntFunction<SortedMap<Long, Integer>> rowsMove) {
+        Set<Long> notMoved = new TreeSet<>();
+        SortedMap<Long, Integer> rowQuantities = new TreeMap<>();
+        inLockOrder(quantitiesByProduct, run -> {
+            Map<Long, Integer> reservedQuantities = new HashMap<>();
+            for (Object[] row : stockRepository.lockReservedQuantities(run.keySet())) {
+                reservedQuantities.put(((Number) row[0]).longValue(), ((Number) row[1]).intValue());
+            }
+            run.forEach((productId, quantity) -> {
+                if (reservedQuantities.getOrDefault(productId, 0) >= quantity) {
+                    rowQuantities.put(productId, quantity);
+                    return;
+                }
+                failIfShardedConcurrently(productId);
+                notMoved.add(productId);
+            });
+        }, (productId, quantity) -> {
+            if (!bucketMove.test(productId, quantity)) {
+                notMoved.add(productId);
+            }
+        });
+        if (rowQuantities.isEmpty()) {
+            return notMoved;
+        }
+
+        int movedProducts = rowsMove.applyAsInt(rowQuantities);
+        if (movedProducts != rowQuantities.size()) {
+            // rows are locked above, so this only happens if the stock table was changed outside a transaction
+            throw new IllegalStateException("Moved " + movedProducts + " of " + rowQuantities.size() + " products");
+        }
+        return notMoved;
+    }
+
+    /**
+     * Takes the locks of a multi-product move in one global order, productId ascending, buckets before the
+     * stock row within a hot product (as {@link HotStockBuckets} does), so two carts sharing products
+     * cannot wait on each other. Consecutive cold products are handed over as one run, locked by a single
+     * statement.
+     */
+    private <V> void inLockOrder(SortedMap<Long, V> linesByProduct,
+                                 Consumer<SortedMap<Long, V>> coldRun,
+                                 BiConsumer<Long, V> hotLine) {
+        SortedMap<Long, V> run = new TreeMap<>();
+        for (Map.Entry<Long, V> line : linesByProduct.entrySet()) {
+            if (!hotStockBuckets.isHot(line.getKey())) {
+                run.put(line.getKey(), line.getValue());
+                continue;
+            }
+            if (!run.isEmpty()) {
+                coldRun.accept(run);
+                run = new TreeMap<>();
+            }
+            hotLine.accept(line.getKey(), line.getValue());
+        }
+        if (!run.isEmpty()) {
+            coldRun.accept(run);
+        }
+    }
+
+    /**
+     * A cold row that falls short may have been split over buckets by another node since the last refresh
+     * of the hot product hint. Its row is already locked, and locking its buckets now would invert the
+     * lock order: the hint is refreshed and the transaction fails with a conflict, so it is retried with
+     * the product seen as hot.
+     */
+    private void failIfShardedConcurrently(Long productId) {
+        if (hotStockBuckets.isSharded(productId)) {
+            throw new CannotAcquireLockException("Stock of product " + productId
+                    + " was split over buckets concurrently, retry in lock order");
+        }
+    }
+
+    private void lockAvailable(Collection<Long> productIds, Map<Long, Integer> availableQuantities) {
+        for (Object[] row : stockRepository.lockAvailableQuantities(productIds)) {
+            availableQuantities.put(((Number) row[0]).longValue(), ((Number) row[1]).intValue());
+        }
+    }
+
+    private int availableOrZero(Long productId) {
+        Integer available = getAvailableQuantity(productId);
+        return available != null ? available : 0;
+    }
+
+    private Stock findStockOrThrow(Long productId) {
+        return stockRepository.findByProduct_ProductId(productId)
+                //this should NOT happen
+                .orElseThrow(() -> new StockNotFound("Stock not found for product: " + productId));
+    }
+}
@@ -0,0 +1,284 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.models.Stock;
+import com.ecommerce.models.StockMovement;
+import com.ecommerce.models.StockMovementType;
+import com.ecommerce.repositories.StockMovementRepository;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.utils.LongIntHashMap;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**
+ * Event-sourced stock engine: every counter move is appended to stock_movements instead of rewriting the
+ * stock row, which gives a replayable audit trail. The stock row is a snapshot; current quantities are
+ * the snapshot plus the movements appended since, and a scheduled compaction folds that tail back into
+ * the snapshot.
+ *
+ * Checks that must not oversell (reserve, release, confirm) still take the stock row lock, but only
+ * for the read and the insert: the hot row itself is no longer updated on every reservation.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ecommerce.stock.engine", havingValue = "ledger")
+public class LedgerStockReservationEngine implements StockReservationEngine {
+
+    private final StockRepository stockRepository;
+    private final StockMovementRepository stockMovementRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${ecommerce.stock.ledger.compact-batch-size:500}")
+    private int compactBatchSize = 500;
+
+    public LedgerStockReservationEngine(StockRepository stockRepository,
+                                        StockMovementRepository stockMovementRepository,
+                                        PlatformTransactionManager transactionManager) {
+        this.stockRepository = stockRepository;
+        this.stockMovementRepository = stockMovementRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void reserve(Long productId, int quantity) {
+        Counters counters = lockCounters(productId);
+        if (counters.available() < quantity) {
+            throw new InsufficientStockException(
+                    "Insufficient stock for product " + productId +
+                            ". Available: " + counters.available() +
+                            ", Requested: " + quantity
+            );
+        }
+        stockMovementRepository.save(movement(productId, StockMovementType.RESERVE, 0, -quantity, quantity));
+    }
+
+    /**
+     * The stock rows are locked in productId order, every line is validated against snapshot plus tail,
+     * then one movement per product is appended in a single insert batch.
+     */
+    @Override
+    public void reserveAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        stockRepository.lockAvailableQuantities(quantitiesByProduct.keySet());
+        Map<Long, Counters> counters = currentCounters(quantitiesByProduct.keySet());
+
+        ReservationShortages shortages = new ReservationShortages();
+        quantitiesByProduct.forEach((productId, quantity) -> shortages.check(productId,
+                counters.containsKey(productId) ? counters.get(productId).available() : 0, quantity));
+        shortages.throwIfAny();
+
+        List<StockMovement> movements = new ArrayList<>(quantitiesByProduct.size());
+        quantitiesByProduct.forEach((productId, quantity) ->
+                movements.add(movement(productId, StockMovementType.RESERVE, 0, -quantity, quantity)));
+        stockMovementRepository.saveAll(movements);
+    }
+
+    @Override
+    public boolean release(Long productId, int quantity) {
+        if (lockCounters(productId).reserved() < quantity) {
+            return false;
+        }
+        stockMovementRepository.save(movement(productId, StockMovementType.RELEASE, 0, quantity, -quantity));
+        return true;
+    }
+
+    @Override
+    public boolean confirm(Long productId, int quantity) {
+        if (lockCounters(productId).reserved() < quantity) {
+            return false;
+        }
+        stockMovementRepository.save(movement(productId, StockMovementType.CONFIRM, -quantity, 0, -quantity));
+        return true;
+    }
+
+    @Override
+    public Set<Long> releaseAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        return appendAll(quantitiesByProduct, StockMovementType.RELEASE);
+    }
+
+    @Override
+    public Set<Long> confirmAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        return appendAll(quantitiesByProduct, StockMovementType.CONFIRM);
+    }
+
+    @Override
+    public void restock(Long productId, int quantity) {
+        lockCounters(productId);
+        stockMovementRepository.save(movement(productId, StockMovementType.RESTOCK, quantity, quantity, 0));
+    }
+
+    @Override
+    public void adjustAvailable(Long productId, int newAvailableQuantity) {
+        int difference = newAvailableQuantity - lockCounters(productId).available();
+        stockMovementRepository.save(movement(productId, StockMovementType.ADJUST, difference, difference, 0));
+    }
+
+    /**
+     * Locks the stock rows in productId order and appends one RESTOCK or ADJUST movement per applicable
+     * product, carrying the reason of the change, in a single insert batch.
+     */
+    @Override
+    public Set<Long> applyQuantityChanges(SortedMap<Long, QuantityChange> changes) {
+        stockRepository.lockAvailableQuantities(changes.keySet());
+        Map<Long, Counters> counters = currentCounters(changes.keySet());
+
+        Set<Long> rejected = new TreeSet<>();
+        List<StockMovement> movements = new ArrayList<>(changes.size());
+        changes.forEach((productId, change) -> {
+            Counters current = counters.get(productId);
+            if (current == null || change.applyTo(current.available()) < 0) {
+                rejected.add(productId);
+                return;
+            }
+            StockMovement movement;
+            if (change.absolute()) {
+                int difference = change.quantity() - current.available();
+                movement = movement(productId, StockMovementType.ADJUST, difference, difference, 0);
+            } else if (change.quantity() != 0) {
+                movement = movement(productId, StockMovementType.RESTOCK, change.quantity(), change.quantity(), 0);
+            } else {
+                return;
+            }
+            movement.setReason(truncate(change.reason()));
+            movements.add(movement);
+        });
+        stockMovementRepository.saveAll(movements);
+        return rejected;
+    }
+
+    @Override
+    public Integer getAvailableQuantity(Long productId) {
+        Counters counters = currentCounters(List.of(productId)).get(productId);
+        return counters != null ? counters.available() : null;
+    }
+
+    @Override
+    public LongIntHashMap getAvailableQuantities(Collection<Long> productIds) {
+        LongIntHashMap available = new LongIntHashMap(productIds.size());
+        currentCounters(productIds).forEach((productId, counters) -> available.put(productId, counters.available()));
+        return available;
+    }
+
+    /**
+     * The stock row is only the last snapshot: its counters are replaced by snapshot plus tail.
+     */
+    @Override
+    public Stock currentStock(Stock stock) {
+        if (stock == null) {
+            return null;
+        }
+        Counters counters = currentCounters(List.of(stock.getProduct().getProductId()))
+                .get(stock.getProduct().getProductId());
+        if (counters == null) {
+            return stock;
+        }
+        return stock.toBuilder()
+                .totalQuantity(counters.total())
+                .availableQuantity(counters.available())
+                .reservedQuantity(counters.reserved())
+                .build();
+    }
+
+    /**
+     * Folds pending movements into the stock rows, one batch of products per transaction.
+     * Movements are kept: they remain the audit trail.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.stock.ledger.compact-interval-ms:5000}")
+    public void compact() {
+        int compacted = 0;
+        Integer batch;
+        do {
+            batch = transactionTemplate.execute(status -> {
+                List<Long> productIds = stockMovementRepository.findProductsWithPendingMovements(compactBatchSize);
+                if (productIds.isEmpty()) {
+                    return 0;
+                }
+                // waits for in-flight movements of these products, so none is committed behind the new snapshot
+                stockRepository.lockAvailableQuantities(productIds);
+                stockMovementRepository.compact(productIds);
+                return productIds.size();
+            });
+            compacted += batch != null ? batch : 0;
+        } while (batch != null && batch == compactBatchSize);
+
+        if (compacted > 0) {
+            log.debug("Compacted stock movements of {} products", compacted);
+        }
+    }
+
+    @PreDestroy
+    public void compactOnShutdown() {
+        compact();
+    }
+
+    /**
+     * Locks the stock rows in productId order and appends one RELEASE or CONFIRM movement per product that
+     * holds enough reserved units, in a single insert batch.
+     */
+    private Set<Long> appendAll(SortedMap<Long, Integer> quantitiesByProduct, StockMovementType type) {
+        stockRepository.lockAvailableQuantities(quantitiesByProduct.keySet());
+        Map<Long, Counters> counters = currentCounters(quantitiesByProduct.keySet());
+
+        Set<Long> notMoved = new TreeSet<>();
+        List<StockMovement> movements = new ArrayList<>(quantitiesByProduct.size());
+        quantitiesByProduct.forEach((productId, quantity) -> {
+            Counters current = counters.get(productId);
+            if (current == null || current.reserved() < quantity) {
+                notMoved.add(productId);
+            } else if (type == StockMovementType.RELEASE) {
+                movements.add(movement(productId, type, 0, quantity, -quantity));
+            } else {
+                movements.add(movement(productId, type, -quantity, 0, -quantity));
+            }
+        });
+        stockMovementRepository.saveAll(movements);
+        return notMoved;
+    }
+
+    private Counters lockCounters(Long productId) {
+        if (stockRepository.lockAvailableQuantities(List.of(productId)).isEmpty()) {
+            throw new StockNotFound("Stock not found for product: " + productId);
+        }
+        // read in a new statement, after the lock, so movements committed while waiting are included
+        return currentCounters(List.of(productId)).get(productId);
+    }
+
+    private Map<Long, Counters> currentCounters(Collection<Long> productIds) {
+        Map<Long, Counters> counters = new HashMap<>();
+        for (Object[] row : stockMovementRepository.findCurrentQuantities(productIds)) {
+            counters.put(((Number) row[0]).longValue(),
+                    new Counters(((Number) row[1]).intValue(), ((Number) row[2]).intValue(),
+                            ((Number) row[3]).intValue()));
+        }
+        return counters;
+    }
+
+    private static StockMovement movement(Long productId, StockMovementType type,
+                                          int totalDelta, int availableDelta, int reservedDelta) {
+        return StockMovement.builder()
+                .productId(productId)
+                .type(type)
+                .totalDelta(totalDelta)
+                .availableDelta(availableDelta)
+                .reservedDelta(reservedDelta)
+                .build();
+    }
+
+    private static String truncate(String reason) {
+        return reason == null || reason.length() <= StockMovement.REASON_LENGTH
+                ? reason
+                : reason.substring(0, StockMovement.REASON_LENGTH);
+    }
+
+    private record Counters(int available, int reserved, int total) {
+    }
+}
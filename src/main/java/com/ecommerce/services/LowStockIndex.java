@@ -0,0 +1,212 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.dto.LowStockEntry;
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * In-memory index of the products at or below their low-stock threshold, most critical first.
+ *
+ * It is built once from the stock table, then kept up to date from {@link StockChangedEvent}: only the
+ * changed products are read again (threshold from the stock row, available quantity from the engine) and
+ * a product entering or leaving the index is pushed to the SSE subscribers. Changes committed on other
+ * nodes arrive as remote events; a periodic rebuild catches anything missed.
+ *
+ * Refreshes and rebuilds go through one worker thread; events are sent from another one, after the index
+ * was updated, so a slow subscriber delays the stream but never the index.
+ */
+@Slf4j
+@Component
+public class LowStockIndex {
+
+    static final String LOW_STOCK_EVENT = "low-stock";
+    static final String RESTOCKED_EVENT = "restocked";
+
+    private static final Comparator<LowStockEntry> MOST_CRITICAL_FIRST =
+            Comparator.comparingInt(LowStockEntry::availableQuantity).thenComparingLong(LowStockEntry::productId);
+
+    private final StockRepository stockRepository;
+    private final StockReservationEngine stockReservationEngine;
+    private final NavigableSet<LowStockEntry> entries = new ConcurrentSkipListSet<>(MOST_CRITICAL_FIRST);
+    private final Map<Long, LowStockEntry> entriesByProduct = new ConcurrentHashMap<>();
+    private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+    // refreshes and rebuilds run off the committing thread, one at a time and in commit order
+    private final ExecutorService worker = daemonThread("low-stock-index");
+    // SSE sends, in the order the index changed
+    private final ExecutorService pusher = daemonThread("low-stock-push");
+
+    @Value("${ecommerce.stock.low-stock.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs = 1800000;
+
+    public LowStockIndex(StockRepository stockRepository,
+                         StockReservationEngine stockReservationEngine,
+                         MeterRegistry meterRegistry) {
+        this.stockRepository = stockRepository;
+        this.stockReservationEngine = stockReservationEngine;
+        meterRegistry.gaugeMapSize("stock.low.products", Tags.empty(), entriesByProduct);
+    }
+
+    public Page<LowStockEntry> getLowStock(Pageable pageable) {
+        List<LowStockEntry> content = entries.stream()
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .toList();
+        return new PageImpl<>(content, pageable, entriesByProduct.size());
+    }
+
+    /**
+     * Stream of {@value #LOW_STOCK_EVENT} / {@value #RESTOCKED_EVENT} events, one per product crossing its threshold.
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(error -> subscribers.remove(emitter));
+        subscribers.add(emitter);
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        Set<Long> productIds = event.productIds();
+        worker.execute(() -> {
+            try {
+                refresh(productIds);
+            } catch (RuntimeException e) {
+                // the next rebuild corrects the index
+                log.warn("Could not refresh low-stock index for {} products", productIds.size(), e);
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the index from the stock table; runs at startup, then as a safety net. Queued behind the
+     * pending refreshes, so a full scan never overwrites a newer change.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.stock.low-stock.resync-interval-ms:300000}")
+    public void rebuild() {
+        worker.execute(() -> {
+            try {
+                rebuildNow();
+            } catch (RuntimeException e) {
+                log.warn("Could not rebuild low-stock index", e);
+            }
+        });
+    }
+
+    void rebuildNow() {
+        Set<Long> productIds = new HashSet<>(entriesByProduct.keySet());
+        for (Object[] row : stockRepository.findLowStockRows()) {
+            productIds.add(((Number) row[0]).longValue());
+        }
+        // the row can lag the engine (buckets, ledger tail, deferred writes): candidates are read again
+        refresh(productIds);
+        log.debug("Low-stock index rebuilt: {} products", entriesByProduct.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.shutdownNow();
+        pusher.shutdownNow();
+        subscribers.forEach(SseEmitter::complete);
+    }
+
+    void refresh(Collection<Long> productIds) {
+        List<Push> pushes = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(productIds);
+        for (int from = 0; from < ids.size(); from += StockService.AVAILABILITY_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + StockService.AVAILABILITY_CHUNK_SIZE, ids.size()));
+            LongIntHashMap thresholds = new LongIntHashMap(chunk.size());
+            for (Object[] row : stockRepository.findLowStockThresholds(chunk)) {
+                thresholds.put(((Number) row[0]).longValue(), ((Number) row[1]).intValue());
+            }
+            LongIntHashMap available = stockReservationEngine.getAvailableQuantities(chunk);
+            for (Long productId : chunk) {
+                if (thresholds.containsKey(productId) && available.containsKey(productId)) {
+                    Push push = update(productId, available.getOrDefault(productId, 0),
+                            thresholds.getOrDefault(productId, 0));
+                    if (push != null) {
+                        pushes.add(push);
+                    }
+                } else {
+                    remove(productId);
+                }
+            }
+        }
+        if (!pushes.isEmpty() && !subscribers.isEmpty()) {
+            pusher.execute(() -> pushes.forEach(this::send));
+        }
+    }
+
+    /**
+     * @return the event announcing a threshold crossing, null when the product stays on the same side
+     */
+    private synchronized Push update(long productId, int available, int threshold) {
+        LowStockEntry previous = entriesByProduct.get(productId);
+        if (available > threshold) {
+            if (previous != null) {
+                remove(productId);
+                return new Push(RESTOCKED_EVENT, new LowStockEntry(productId, available, threshold));
+            }
+            return null;
+        }
+
+        LowStockEntry entry = new LowStockEntry(productId, available, threshold);
+        if (entry.equals(previous)) {
+            return null;
+        }
+        if (previous != null) {
+            entries.remove(previous);
+        }
+        entries.add(entry);
+        entriesByProduct.put(productId, entry);
+        return previous == null ? new Push(LOW_STOCK_EVENT, entry) : null;
+    }
+
+    private synchronized void remove(long productId) {
+        LowStockEntry previous = entriesByProduct.remove(productId);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+    }
+
+    private void send(Push push) {
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.send(SseEmitter.event().name(push.eventName()).data(push.entry()));
+            } catch (IOException | IllegalStateException e) {
+                // client gone: drop it, it reconnects and reads the page again
+                subscribers.remove(emitter);
+            }
+        }
+    }
+
+    private static ExecutorService daemonThread(String name) {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private record Push(String eventName, LowStockEntry entry) {
+    }
+}
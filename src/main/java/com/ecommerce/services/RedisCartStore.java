@@ -0,0 +1,570 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.LongIntHashMap;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Cart store for high-churn carts: each cart is one Redis hash, every mutation a single Lua script
+ * (quantities move with HINCRBY), so adding to a cart never touches Postgres.
+ *
+ * Hash fields: q:{productId} quantity, p:{productId} unit price in minor units, i:{productId} image,
+ * items and amount (cart totals in units and minor units, moved by each script with the line's delta),
+ * plus the cart's id, session, created and updated. Guest carts expire after ecommerce.cart.redis.guest-ttl-seconds
+ * without activity, user carts after ecommerce.cart.redis.user-ttl-seconds: a user cart keeps its snapshot and is
+ * seeded from it again on its next use.
+ *
+ * Postgres keeps a snapshot in carts/cart_items: carts changed on this node are written back by a
+ * periodic snapshot (and on shutdown), and a cart is written through when checkout reads it.
+ * A cart missing from Redis is seeded from its snapshot on first use.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ecommerce.cart.store", havingValue = "redis")
+public class RedisCartStore implements CartStore {
+
+    static final String KEY_PREFIX = "cart:";
+    private static final String QUANTITY = "q:";
+    private static final String PRICE = "p:";
+    private static final String IMAGE = "i:";
+    private static final String CART_ID = "id";
+    private static final String SESSION = "session";
+    private static final String CREATED = "created";
+    private static final String UPDATED = "updated";
+    private static final String ITEMS = "items";
+    private static final String AMOUNT = "amount";
+
+    /**
+     * KEYS[1]: cart hash, ARGV: productId, quantity to add, unit price in minor units, image ('' for none), now,
+     * ttl seconds (0: none). Returns the quantity of the line after the addition, or -1 when the hash does not exist.
+     * Price and image of an existing line are kept.
+     */
+    static final RedisScript<Long> ADD = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              return -1
+            end
+            local quantity = redis.call('HINCRBY', KEYS[1], 'q:' .. ARGV[1], ARGV[2])
+            redis.call('HSETNX', KEYS[1], 'p:' .. ARGV[1], ARGV[3])
+            local price = tonumber(redis.call('HGET', KEYS[1], 'p:' .. ARGV[1]))
+            redis.call('HINCRBY', KEYS[1], 'items', ARGV[2])
+            redis.call('HINCRBY', KEYS[1], 'amount', string.format('%d', price * tonumber(ARGV[2])))
+            if ARGV[4] ~= '' then
+              redis.call('HSETNX', KEYS[1], 'i:' .. ARGV[1], ARGV[4])
+            end
+            redis.call('HSET', KEYS[1], 'updated', ARGV[5])
+            if tonumber(ARGV[6]) > 0 then
+              redis.call('EXPIRE', KEYS[1], ARGV[6])
+            end
+            return quantity
+            """, Long.class);
+
+    /**
+     * KEYS[1]: cart hash, ARGV: productId, new quantity (0: remove the line), now, ttl seconds (0: none).
+     * Returns 1 when applied, 0 when the cart has no line for the product, -1 when the hash does not exist.
+     */
+    static final RedisScript<Long> SET_QUANTITY = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              return -1
+            end
+            local previous = redis.call('HGET', KEYS[1], 'q:' .. ARGV[1])
+            if not previous then
+              return 0
+            end
+            local delta = tonumber(ARGV[2]) - tonumber(previous)
+            local price = tonumber(redis.call('HGET', KEYS[1], 'p:' .. ARGV[1]) or '0')
+            redis.call('HINCRBY', KEYS[1], 'items', delta)
+            redis.call('HINCRBY', KEYS[1], 'amount', string.format('%d', price * delta))
+            if tonumber(ARGV[2]) > 0 then
+              redis.call('HSET', KEYS[1], 'q:' .. ARGV[1], ARGV[2], 'updated', ARGV[3])
+            else
+              redis.call('HDEL', KEYS[1], 'q:' .. ARGV[1], 'p:' .. ARGV[1], 'i:' .. ARGV[1])
+              redis.call('HSET', KEYS[1], 'updated', ARGV[3])
+            end
+            if tonumber(ARGV[4]) > 0 then
+              redis.call('EXPIRE', KEYS[1], ARGV[4])
+            end
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1]: cart hash, ARGV: now, ttl seconds (0: none). Drops every line, keeps the cart itself so it
+     * is not seeded again from an older snapshot. Returns 1, or -1 when the hash does not exist.
+     */
+    static final RedisScript<Long> CLEAR = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              return -1
+            end
+            local fields = redis.call('HKEYS', KEYS[1])
+            for _, field in ipairs(fields) do
+              local prefix = string.sub(field, 1, 2)
+              if prefix == 'q:' or prefix == 'p:' or prefix == 'i:' then
+                redis.call('HDEL', KEYS[1], field)
+              end
+            end
+            redis.call('HSET', KEYS[1], 'items', 0, 'amount', 0, 'updated', ARGV[1])
+            if tonumber(ARGV[2]) > 0 then
+              redis.call('EXPIRE', KEYS[1], ARGV[2])
+            end
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1]: cart hash, ARGV: now, ttl seconds (0: none), then per change: 'a' (add) or 's' (set, 0 removes),
+     * productId, quantity, unit price in minor units and image ('' for none) of a new line.
+     * Applies the changes in order; a set on a product with no line is skipped. Returns 1, or -1 when the hash
+     * does not exist.
+     */
+    static final RedisScript<Long> APPLY = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              return -1
+            end
+            for i = 3, #ARGV, 5 do
+              local id = ARGV[i + 1]
+              local previous = tonumber(redis.call('HGET', KEYS[1], 'q:' .. id) or '0')
+              local target = tonumber(ARGV[i + 2])
+              if ARGV[i] == 'a' then
+                target = previous + target
+                redis.call('HSETNX', KEYS[1], 'p:' .. id, ARGV[i + 3])
+                if ARGV[i + 4] ~= '' then
+                  redis.call('HSETNX', KEYS[1], 'i:' .. id, ARGV[i + 4])
+                end
+              elseif previous == 0 then
+                target = 0
+              end
+              local delta = target - previous
+              if delta ~= 0 then
+                local price = tonumber(redis.call('HGET', KEYS[1], 'p:' .. id) or '0')
+                redis.call('HINCRBY', KEYS[1], 'items', delta)
+                redis.call('HINCRBY', KEYS[1], 'amount', string.format('%d', price * delta))
+              end
+              if target > 0 then
+                redis.call('HSET', KEYS[1], 'q:' .. id, target)
+              elseif previous > 0 then
+                redis.call('HDEL', KEYS[1], 'q:' .. id, 'p:' .. id, 'i:' .. id)
+              end
+            end
+            redis.call('HSET', KEYS[1], 'updated', ARGV[1])
+            if tonumber(ARGV[2]) > 0 then
+              redis.call('EXPIRE', KEYS[1], ARGV[2])
+            end
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1]: cart hash, ARGV: ttl seconds (0: none), then field/value pairs.
+     * Creates the hash unless another node already did.
+     */
+    static final RedisScript<Long> SEED = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              redis.call('HSET', KEYS[1], unpack(ARGV, 2))
+              if tonumber(ARGV[1]) > 0 then
+                redis.call('EXPIRE', KEYS[1], ARGV[1])
+              end
+            end
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final CartRepository cartRepository;
+    private final CartCalculator cartCalculator;
+    private final TransactionTemplate transactionTemplate;
+    // carts changed on this node since the last snapshot
+    private final Set<CartKey> dirty = ConcurrentHashMap.newKeySet();
+
+    @Value("${ecommerce.cart.redis.guest-ttl-seconds:604800}")
+    private long guestTtlSeconds = 604800;
+
+    @Value("${ecommerce.cart.redis.user-ttl-seconds:2592000}")
+    private long userTtlSeconds = 2592000;
+
+    @Value("${ecommerce.cart.redis.snapshot-batch-size:200}")
+    private int snapshotBatchSize = 200;
+
+    public RedisCartStore(StringRedisTemplate redisTemplate,
+                          CartRepository cartRepository,
+                          CartCalculator cartCalculator,
+                          PlatformTransactionManager transactionManager) {
+        this.redisTemplate = redisTemplate;
+        this.cartRepository = cartRepository;
+        this.cartCalculator = cartCalculator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public Optional<Cart> find(CartKey key) {
+        Map<String, String> hash = entries(key);
+        if (!hash.isEmpty()) {
+            return Optional.of(toCart(key, hash));
+        }
+        Optional<Cart> snapshot = findSnapshot(key);
+        snapshot.ifPresent(cart -> seed(key, toHash(cart)));
+        return snapshot;
+    }
+
+    /**
+     * One HMGET to check the new quantity, then one ADD script call.
+     */
+    @Override
+    public void addItem(CartKey key, CartItem line, String sessionId, IntConsumer checkQuantity) {
+        List<Object> fields = List.of(QUANTITY + line.getProductId(), UPDATED);
+        List<Object> current = redisTemplate.opsForHash().multiGet(key(key), fields);
+        if (current.get(1) == null) {
+            seedOrCreate(key, sessionId);
+            current = redisTemplate.opsForHash().multiGet(key(key), fields);
+        }
+        int inCart = current.get(0) != null ? Integer.parseInt(current.get(0).toString()) : 0;
+        checkQuantity.accept(inCart + line.getQuantity());
+
+        String[] args = {String.valueOf(line.getProductId()), String.valueOf(line.getQuantity()),
+                String.valueOf(CartCalculator.toMinorUnits(line.getPrice())), line.getImageId() != null ? line.getImageId() : "",
+                LocalDateTime.now().toString(), String.valueOf(ttlSeconds(key))};
+        Long quantity = redisTemplate.execute(ADD, List.of(key(key)), (Object[]) args);
+        if (quantity != null && quantity == -1) {
+            // expired between the two calls
+            seedOrCreate(key, sessionId);
+            redisTemplate.execute(ADD, List.of(key(key)), (Object[]) args);
+        }
+        dirty.add(key);
+    }
+
+    @Override
+    public boolean updateQuantity(CartKey key, Long productId, int quantity) {
+        return setQuantity(key, productId, quantity);
+    }
+
+    @Override
+    public boolean removeItem(CartKey key, Long productId) {
+        return setQuantity(key, productId, 0);
+    }
+
+    /**
+     * One HGETALL to check the resulting quantities, then one APPLY script call for the whole batch.
+     */
+    @Override
+    public void applyAll(CartKey key, List<LineChange> changes, String sessionId,
+                         Consumer<LongIntHashMap> checkQuantities) {
+        Cart cart = find(key).orElse(null);
+        checkQuantities.accept(LineChange.resultingQuantities(cart, changes));
+        if (cart == null) {
+            if (changes.stream().noneMatch(LineChange::adding)) {
+                return;
+            }
+            seedOrCreate(key, sessionId);
+        }
+
+        List<String> args = new ArrayList<>(2 + 5 * changes.size());
+        args.add(LocalDateTime.now().toString());
+        args.add(String.valueOf(ttlSeconds(key)));
+        for (LineChange change : changes) {
+            CartItem line = change.line();
+            args.add(change.adding() ? "a" : "s");
+            args.add(String.valueOf(change.productId()));
+            args.add(String.valueOf(change.quantity()));
+            args.add(line.getPrice() != null ? String.valueOf(CartCalculator.toMinorUnits(line.getPrice())) : "0");
+            args.add(line.getImageId() != null ? line.getImageId() : "");
+        }
+        Long result = redisTemplate.execute(APPLY, List.of(key(key)), args.toArray());
+        if (result != null && result == -1) {
+            // expired between the two calls
+            seedOrCreate(key, sessionId);
+            redisTemplate.execute(APPLY, List.of(key(key)), args.toArray());
+        }
+        dirty.add(key);
+    }
+
+    @Override
+    public boolean clear(CartKey key) {
+        String[] args = {LocalDateTime.now().toString(), String.valueOf(ttlSeconds(key))};
+        Long result = redisTemplate.execute(CLEAR, List.of(key(key)), (Object[]) args);
+        if (result != null && result == -1) {
+            if (!seedFromSnapshot(key)) {
+                return false;
+            }
+            redisTemplate.execute(CLEAR, List.of(key(key)), (Object[]) args);
+        }
+        dirty.add(key);
+        return true;
+    }
+
+    /**
+     * Deletes the hash and the snapshot: one DEL, one delete statement.
+     */
+    @Override
+    public boolean delete(CartKey key) {
+        boolean inRedis = Boolean.TRUE.equals(redisTemplate.delete(key(key)));
+        dirty.remove(key);
+        int deleted = transactionTemplate.execute(status -> key.isGuest()
+                ? cartRepository.deleteGuestCart(key.guestCartId())
+                : cartRepository.deleteUserCart(key.userId()));
+        return inRedis || deleted > 0;
+    }
+
+    @Override
+    public boolean exists(CartKey key) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(key(key))) || findSnapshot(key).isPresent();
+    }
+
+    @Override
+    public Optional<Cart> persist(CartKey key) {
+        Map<String, String> hash = entries(key);
+        if (!hash.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> writeSnapshot(key, hash));
+        }
+        return findSnapshot(key);
+    }
+
+    /**
+     * Writes the carts changed on this node back to carts/cart_items: one pipelined HGETALL round-trip
+     * and one transaction per batch. A batch that fails is kept dirty and retried on the next run.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.cart.redis.snapshot-interval-ms:30000}")
+    public void snapshot() {
+        List<CartKey> keys = new ArrayList<>(dirty);
+        dirty.removeAll(keys);
+
+        for (int from = 0; from < keys.size(); from += snapshotBatchSize) {
+            List<CartKey> batch = keys.subList(from, Math.min(from + snapshotBatchSize, keys.size()));
+            List<Object> hashes = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (CartKey key : batch) {
+                    connection.hashCommands().hGetAll(key(key).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        Map<String, String> hash = toStringMap((Map<?, ?>) hashes.get(i));
+                        // an expired guest cart keeps its last snapshot
+                        if (!hash.isEmpty()) {
+                            writeSnapshot(batch.get(i), hash);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                log.error("Cart snapshot failed, {} carts kept dirty", keys.size() - from, e);
+                dirty.addAll(keys.subList(from, keys.size()));
+                return;
+            }
+        }
+        if (!keys.isEmpty()) {
+            log.debug("Snapshot of {} carts written to the database", keys.size());
+        }
+    }
+
+    @PreDestroy
+    public void snapshotOnShutdown() {
+        snapshot();
+    }
+
+    static String key(CartKey key) {
+        return key.isGuest() ? KEY_PREFIX + "guest:" + key.guestCartId() : KEY_PREFIX + "user:" + key.userId();
+    }
+
+    /**
+     * Runs the SET_QUANTITY script, seeding the hash from the snapshot first if it does not exist yet.
+     */
+    private boolean setQuantity(CartKey key, Long productId, int quantity) {
+        String[] args = {String.valueOf(productId), String.valueOf(quantity),
+                LocalDateTime.now().toString(), String.valueOf(ttlSeconds(key))};
+        Long result = redisTemplate.execute(SET_QUANTITY, List.of(key(key)), (Object[]) args);
+        if (result != null && result == -1) {
+            if (!seedFromSnapshot(key)) {
+                throw new IllegalArgumentException("Cart not found: " + key);
+            }
+            result = redisTemplate.execute(SET_QUANTITY, List.of(key(key)), (Object[]) args);
+        }
+        if (result == null || result != 1) {
+            return false;
+        }
+        dirty.add(key);
+        return true;
+    }
+
+    private Map<String, String> entries(CartKey key) {
+        return toStringMap(redisTemplate.opsForHash().entries(key(key)));
+    }
+
+    /**
+     * An expired guest snapshot not purged yet reads as empty, its rows are left to the purge
+     */
+    private Optional<Cart> findSnapshot(CartKey key) {
+        return findSnapshotRow(key)
+                .map(snapshot -> snapshot.isExpired(LocalDateTime.now()) ? snapshot.emptyCopy() : snapshot);
+    }
+
+    private Optional<Cart> findSnapshotRow(CartKey key) {
+        return key.isGuest()
+                ? cartRepository.findByGuestCartId(key.guestCartId())
+                : cartRepository.findByUserId(key.userId());
+    }
+
+    /**
+     * @return false if the owner has no cart in the database either
+     */
+    private boolean seedFromSnapshot(CartKey key) {
+        return findSnapshot(key).map(cart -> {
+            seed(key, toHash(cart));
+            return true;
+        }).orElse(false);
+    }
+
+    private void seedOrCreate(CartKey key, String sessionId) {
+        if (!seedFromSnapshot(key)) {
+            Map<String, String> hash = new LinkedHashMap<>();
+            String now = LocalDateTime.now().toString();
+            hash.put(CREATED, now);
+            hash.put(UPDATED, now);
+            hash.put(ITEMS, "0");
+            hash.put(AMOUNT, "0");
+            if (key.isGuest() && sessionId != null) {
+                hash.put(SESSION, sessionId);
+            }
+            seed(key, hash);
+        }
+    }
+
+    private void seed(CartKey key, Map<String, String> hash) {
+        List<String> args = new ArrayList<>(1 + 2 * hash.size());
+        args.add(String.valueOf(ttlSeconds(key)));
+        hash.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        redisTemplate.execute(SEED, List.of(key(key)), args.toArray());
+    }
+
+    private long ttlSeconds(CartKey key) {
+        return key.isGuest() ? guestTtlSeconds : userTtlSeconds;
+    }
+
+    /**
+     * Brings the cart rows in line with the hash: lines are updated in place, added or removed.
+     */
+    private void writeSnapshot(CartKey key, Map<String, String> hash) {
+        Cart cart = findSnapshotRow(key).orElseGet(() -> Cart.builder()
+                .userId(key.userId())
+                .guestCartId(key.guestCartId())
+                .sessionId(hash.get(SESSION))
+                .isTemporary(key.isGuest())
+                .createdAt(parseTime(hash.get(CREATED)))
+                .items(new ArrayList<>())
+                .build());
+
+        Map<Long, CartItem> lines = toLines(hash);
+        for (CartItem item : new ArrayList<>(cart.getItems())) {
+            CartItem line = lines.remove(item.getProductId());
+            if (line == null) {
+                cart.removeItem(item.getProductId());
+            } else {
+                item.setQuantity(line.getQuantity());
+            }
+        }
+        lines.values().forEach(cart::addItem);
+
+        setTotals(cart, hash);
+        cart.setLastUpdatedAt(parseTime(hash.get(UPDATED)));
+        if (key.isGuest()) {
+            // the hash expires guestTtlSeconds after its last change, so does the snapshot
+            cart.setExpiresAt(cart.getLastUpdatedAt().plusSeconds(guestTtlSeconds));
+        }
+        cartRepository.save(cart);
+    }
+
+    private Cart toCart(CartKey key, Map<String, String> hash) {
+        Cart cart = Cart.builder()
+                .cartId(hash.containsKey(CART_ID) ? Long.valueOf(hash.get(CART_ID)) : null)
+                .userId(key.userId())
+                .guestCartId(key.guestCartId())
+                .sessionId(hash.get(SESSION))
+                .isTemporary(key.isGuest())
+                .createdAt(parseTime(hash.get(CREATED)))
+                .lastUpdatedAt(parseTime(hash.get(UPDATED)))
+                .items(new ArrayList<>())
+                .build();
+        toLines(hash).values().forEach(cart::addItem);
+        setTotals(cart, hash);
+        return cart;
+    }
+
+    private static void setTotals(Cart cart, Map<String, String> hash) {
+        cart.updateTotals(Integer.valueOf(hash.getOrDefault(ITEMS, "0")),
+                CartCalculator.fromMinorUnits(Long.parseLong(hash.getOrDefault(AMOUNT, "0"))));
+    }
+
+    /**
+     * @return productId -> line, in productId order
+     */
+    private static Map<Long, CartItem> toLines(Map<String, String> hash) {
+        Map<Long, CartItem> lines = new TreeMap<>();
+        hash.forEach((field, value) -> {
+            if (field.startsWith(QUANTITY)) {
+                String productId = field.substring(QUANTITY.length());
+                lines.put(Long.valueOf(productId), CartItem.builder()
+                        .productId(Long.valueOf(productId))
+                        .quantity(Integer.valueOf(value))
+                        .price(CartCalculator.fromMinorUnits(Long.parseLong(hash.getOrDefault(PRICE + productId, "0"))))
+                        .imageId(hash.get(IMAGE + productId))
+                        .build());
+            }
+        });
+        return lines;
+    }
+
+    private Map<String, String> toHash(Cart cart) {
+        cartCalculator.ensureTotals(cart);
+        Map<String, String> hash = new LinkedHashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        if (cart.getCartId() != null) {
+            hash.put(CART_ID, cart.getCartId().toString());
+        }
+        if (cart.getSessionId() != null) {
+            hash.put(SESSION, cart.getSessionId());
+        }
+        hash.put(CREATED, (cart.getCreatedAt() != null ? cart.getCreatedAt() : now).toString());
+        hash.put(UPDATED, (cart.getLastUpdatedAt() != null ? cart.getLastUpdatedAt() : now).toString());
+        hash.put(ITEMS, cart.getTotalItems().toString());
+        hash.put(AMOUNT, String.valueOf(CartCalculator.toMinorUnits(cart.getTotalAmount())));
+        for (CartItem item : cart.getItems()) {
+            hash.put(QUANTITY + item.getProductId(), item.getQuantity().toString());
+            hash.put(PRICE + item.getProductId(), String.valueOf(CartCalculator.toMinorUnits(item.getPrice())));
+            if (item.getImageId() != null) {
+                hash.put(IMAGE + item.getProductId(), item.getImageId());
+            }
+        }
+        return hash;
+    }
+
+    private static Map<String, String> toStringMap(Map<?, ?> values) {
+        Map<String, String> map = new HashMap<>();
+        if (values != null) {
+            values.forEach((field, value) -> map.put(field.toString(), value.toString()));
+        }
+        return map;
+    }
+
+    private static LocalDateTime parseTime(String value) {
+        return value != null ? LocalDateTime.parse(value) : LocalDateTime.now();
+    }
+}
@@ -0,0 +1,371 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.models.Stock;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantitySnapshot;
+import com.ecommerce.utils.LongIntHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Stock engine for multi-instance deployments: available/reserved counters live in one Redis hash
+ * per product and every move is a Lua script, so it is atomic and consistent across nodes.
+ * A whole cart is reserved with a single script call.
+ *
+ * Postgres stays authoritative for total_quantity (confirm, restock and adjust are written through in
+ * the caller's transaction); available/reserved are copied back to the stock table by a periodic
+ * reconciliation. Every script that changes a hash adds it to the {stock}:dirty set, so a reconciliation
+ * only copies the products moved since the previous one. A product missing from Redis is seeded from
+ * its stock row on first use.
+ *
+ * All hashes share the {stock} hash tag so a cart script only touches one slot on Redis Cluster.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ecommerce.stock.engine", havingValue = "redis")
+public class RedisStockReservationEngine implements StockReservationEngine {
+
+    static final String KEY_PREFIX = "{stock}:";
+    static final String DIRTY_KEY = "{stock}:dirty";
+    private static final String AVAILABLE = "available";
+    private static final String RESERVED = "reserved";
+
+    /**
+     * KEYS: stock hashes in productId order then the dirty set, ARGV: requested quantities.
+     * Returns an empty list when every line was reserved, otherwise {lineIndex, available, ...} for
+     * each short line (available = -1 when the hash does not exist) and nothing is changed.
+     */
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> RESERVE_ALL = new DefaultRedisScript<>("""
+            local short = {}
+            local lines = #KEYS - 1
+            for i = 1, lines do
+              local available = redis.call('HGET', KEYS[i], 'available')
+              if not available then
+                table.insert(short, i)
+                table.insert(short, -1)
+              elseif tonumber(available) < tonumber(ARGV[i]) then
+                table.insert(short, i)
+                table.insert(short, tonumber(available))
+              end
+            end
+            if #short > 0 then
+              return short
+            end
+            for i = 1, lines do
+              redis.call('HINCRBY', KEYS[i], 'available', -tonumber(ARGV[i]))
+              redis.call('HINCRBY', KEYS[i], 'reserved', tonumber(ARGV[i]))
+              redis.call('SADD', KEYS[lines + 1], KEYS[i])
+            end
+            return short
+            """, List.class);
+
+    /**
+     * KEYS[1]: stock hash, KEYS[2]: dirty set, ARGV: available delta, reserved delta.
+     * Returns 1 when applied, 0 when a counter would become negative, -1 when the hash does not exist.
+     */
+    static final RedisScript<Long> MOVE = new DefaultRedisScript<>("""
+            local available = redis.call('HGET', KEYS[1], 'available')
+            if not available then
+              return -1
+            end
+            local newAvailable = tonumber(available) + tonumber(ARGV[1])
+            local newReserved = tonumber(redis.call('HGET', KEYS[1], 'reserved')) + tonumber(ARGV[2])
+            if newAvailable < 0 or newReserved < 0 then
+              return 0
+            end
+            redis.call('HSET', KEYS[1], 'available', newAvailable, 'reserved', newReserved)
+            redis.call('SADD', KEYS[2], KEYS[1])
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1]: stock hash, KEYS[2]: dirty set, ARGV[1]: new available quantity.
+     * Returns new - previous available quantity, or nil when the hash does not exist.
+     */
+    static final RedisScript<Long> SET_AVAILABLE = new DefaultRedisScript<>("""
+            local available = redis.call('HGET', KEYS[1], 'available')
+            if not available then
+              return false
+            end
+            redis.call('HSET', KEYS[1], 'available', ARGV[1])
+            redis.call('SADD', KEYS[2], KEYS[1])
+            return tonumber(ARGV[1]) - tonumber(available)
+            """, Long.class);
+
+    /**
+     * KEYS[1]: stock hash, ARGV: available, reserved. Creates the hash unless another node already did.
+     */
+    static final RedisScript<Long> SEED = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              redis.call('HSET', KEYS[1], 'available', ARGV[1], 'reserved', ARGV[2])
+            end
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final StockRepository stockRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${ecommerce.stock.redis.reconcile-batch-size:500}")
+    private int reconcileBatchSize = 500;
+
+    public RedisStockReservationEngine(StringRedisTemplate redisTemplate,
+                                       StockRepository stockRepository,
+                                       PlatformTransactionManager transactionManager) {
+        this.redisTemplate = redisTemplate;
+        this.stockRepository = stockRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void reserve(Long productId, int quantity) {
+        if (move(productId, -quantity, quantity) == 0) {
+            throw new InsufficientStockException(
+                    "Insufficient stock for product " + productId +
+                            ". Available: " + getAvailableQuantity(productId) +
+                            ", Requested: " + quantity
+            );
+        }
+        TransactionCallbacks.onRollback(() -> compensate(productId, quantity, -quantity));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void reserveAll(SortedMap<Long, Integer> quantitiesByProduct) {
+        List<Long> productIds = new ArrayList<>(quantitiesByProduct.keySet());
+        List<String> keys = new ArrayList<>(productIds.size() + 1);
+        productIds.forEach(productId -> keys.add(key(productId)));
+        keys.add(DIRTY_KEY);
+        String[] quantities = quantitiesByProduct.values().stream().map(String::valueOf).toArray(String[]::new);
+
+        List<Long> shortLines = redisTemplate.execute(RESERVE_ALL, keys, (Object[]) quantities);
+        if (seedMissing(productIds, shortLines)) {
+            shortLines = redisTemplate.execute(RESERVE_ALL, keys, (Object[]) quantities);
+        }
+
+        if (shortLines != null && !shortLines.isEmpty()) {
+            ReservationShortages shortages = new ReservationShortages();
+            for (int i = 0; i < shortLines.size(); i += 2) {
+                Long productId = productIds.get(shortLines.get(i).intValue() - 1);
+                shortages.check(productId, Math.max(0, shortLines.get(i + 1).intValue()),
+                        quantitiesByProduct.get(productId));
+            }
+            shortages.throwIfAny();
+        }
+
+        TransactionCallbacks.onRollback(() -> quantitiesByProduct.forEach((productId, quantity) ->
+                compensate(productId, quantity, -quantity)));
+    }
+
+    @Override
+    public boolean release(Long productId, int quantity) {
+        if (move(productId, quantity, -quantity) == 0) {
+            return false;
+        }
+        TransactionCallbacks.onRollback(() -> compensate(productId, -quantity, quantity));
+        return true;
+    }
+
+    @Override
+    public boolean confirm(Long productId, int quantity) {
+        if (move(productId, 0, -quantity) == 0) {
+            return false;
+        }
+        stockRepository.applyDeltas(List.of(new QuantityDelta(productId, -quantity, 0, -quantity)));
+        TransactionCallbacks.onRollback(() -> compensate(productId, 0, quantity));
+        return true;
+    }
+
+    @Override
+    public void restock(Long productId, int quantity) {
+        move(productId, quantity, 0);
+        stockRepository.applyDeltas(List.of(new QuantityDelta(productId, quantity, quantity, 0)));
+        TransactionCallbacks.onRollback(() -> compensate(productId, -quantity, 0));
+    }
+
+    @Override
+    public void adjustAvailable(Long productId, int newAvailableQuantity) {
+        List<String> keys = List.of(key(productId), DIRTY_KEY);
+        Long difference = redisTemplate.execute(SET_AVAILABLE, keys, String.valueOf(newAvailableQuantity));
+        if (difference == null) {
+            seed(productId);
+            difference = redisTemplate.execute(SET_AVAILABLE, keys, String.valueOf(newAvailableQuantity));
+        }
+        int delta = difference.intValue();
+        stockRepository.applyDeltas(List.of(new QuantityDelta(productId, delta, delta, 0)));
+        TransactionCallbacks.onRollback(() -> compensate(productId, -delta, 0));
+    }
+
+    @Override
+    public Integer getAvailableQuantity(Long productId) {
+        Object available = redisTemplate.opsForHash().get(key(productId), AVAILABLE);
+        if (available != null) {
+            return Integer.valueOf(available.toString());
+        }
+        return stockRepository.findByProduct_ProductId(productId)
+                .map(stock -> {
+                    seed(stock);
+                    return stock.getAvailableQuantity();
+                })
+                .orElse(null);
+    }
+
+    /**
+     * One pipelined HGET round-trip; products missing from Redis are read from the stock table in one
+     * IN query and seeded on their next move.
+     */
+    @Override
+    public LongIntHashMap getAvailableQuantities(Collection<Long> productIds) {
+        List<Long> ids = new ArrayList<>(productIds);
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long productId : ids) {
+                connection.hashCommands().hGet(key(productId).getBytes(StandardCharsets.UTF_8),
+                        AVAILABLE.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        LongIntHashMap available = new LongIntHashMap(ids.size());
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                available.put(ids.get(i), Integer.parseInt(value.toString()));
+            } else {
+                missing.add(ids.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Object[] row : stockRepository.findAvailableQuantities(missing)) {
+                available.put(((Number) row[0]).longValue(), ((Number) row[1]).intValue());
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Copies the counters of the products moved since the last run back to the stock table: the dirty
+     * set is drained by SPOP batches, each costing one pipelined HMGET round-trip and one multi-row
+     * UPDATE. Values are absolute, so concurrent runs on several nodes are harmless; a batch whose
+     * UPDATE fails is put back in the dirty set for the next run.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.stock.redis.reconcile-interval-ms:30000}")
+    public void reconcile() {
+        int updated = 0;
+        List<String> dirtyKeys;
+        while (!(dirtyKeys = popDirty()).isEmpty()) {
+            try {
+                updated += reconcile(dirtyKeys);
+            } catch (RuntimeException e) {
+                redisTemplate.opsForSet().add(DIRTY_KEY, dirtyKeys.toArray(String[]::new));
+                throw e;
+            }
+        }
+        if (updated > 0) {
+            log.debug("Reconciled stock counters of {} products from Redis", updated);
+        }
+    }
+
+    private List<String> popDirty() {
+        List<String> keys = redisTemplate.opsForSet().pop(DIRTY_KEY, reconcileBatchSize);
+        return keys != null ? keys : List.of();
+    }
+
+    /**
+     * @return number of stock rows overwritten
+     */
+    private int reconcile(List<String> dirtyKeys) {
+        List<Long> batch = dirtyKeys.stream()
+                .map(key -> Long.valueOf(key.substring(KEY_PREFIX.length())))
+                .toList();
+        List<Object> counters = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long productId : batch) {
+                connection.hashCommands().hMGet(key(productId).getBytes(StandardCharsets.UTF_8),
+                        AVAILABLE.getBytes(StandardCharsets.UTF_8), RESERVED.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        List<QuantitySnapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            List<?> values = (List<?>) counters.get(i);
+            if (values != null && values.get(0) != null && values.get(1) != null) {
+                snapshots.add(new QuantitySnapshot(batch.get(i),
+                        Integer.parseInt(values.get(0).toString()), Integer.parseInt(values.get(1).toString())));
+            }
+        }
+        Integer batchUpdated = transactionTemplate.execute(status -> stockRepository.overwriteQuantities(snapshots));
+        return batchUpdated != null ? batchUpdated : 0;
+    }
+
+    static String key(Long productId) {
+        return KEY_PREFIX + productId;
+    }
+
+    /**
+     * Runs the MOVE script, seeding the hash from the stock table first if it does not exist yet.
+     */
+    private long move(Long productId, int availableDelta, int reservedDelta) {
+        List<String> keys = List.of(key(productId), DIRTY_KEY);
+        Long result = redisTemplate.execute(MOVE, keys, String.valueOf(availableDelta), String.valueOf(reservedDelta));
+        if (result != null && result == -1) {
+            seed(productId);
+            result = redisTemplate.execute(MOVE, keys, String.valueOf(availableDelta), String.valueOf(reservedDelta));
+        }
+        return result != null ? result : 0;
+    }
+
+    /**
+     * Undoes a move after the database transaction rolled back.
+     */
+    private void compensate(Long productId, int availableDelta, int reservedDelta) {
+        if (move(productId, availableDelta, reservedDelta) != 1) {
+            log.warn("Could not undo stock move for product {} (available {}, reserved {}), reconciliation needed",
+                    productId, availableDelta, reservedDelta);
+        }
+    }
+
+    /**
+     * @return true if at least one line failed because its hash was missing (it has been seeded since)
+     */
+    private boolean seedMissing(List<Long> productIds, List<Long> shortLines) {
+        boolean seeded = false;
+        for (int i = 0; shortLines != null && i < shortLines.size(); i += 2) {
+            if (shortLines.get(i + 1) == -1) {
+                Long productId = productIds.get(shortLines.get(i).intValue() - 1);
+                if (stockRepository.findByProduct_ProductId(productId).map(this::seed).isPresent()) {
+                    seeded = true;
+                }
+            }
+        }
+        return seeded;
+    }
+
+    private Stock seed(Long productId) {
+        return seed(stockRepository.findByProduct_ProductId(productId)
+                .orElseThrow(() -> new StockNotFound("Stock not found for product: " + productId)));
+    }
+
+    private Stock seed(Stock stock) {
+        redisTemplate.execute(SEED, List.of(key(stock.getProduct().getProductId())),
+                String.valueOf(stock.getAvailableQuantity()), String.valueOf(stock.getReservedQuantity()));
+        return stock;
+    }
+}
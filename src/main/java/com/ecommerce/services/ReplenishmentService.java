@@ -0,0 +1,328 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.models.ReplenishmentRun;
+import com.ecommerce.models.ReplenishmentSuggestion;
+import com.ecommerce.repositories.ProductSalesVelocityRepository;
+import com.ecommerce.repositories.ReplenishmentRunRepository;
+import com.ecommerce.repositories.ReplenishmentSuggestionRepository;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inventory replenishment (the step declared by {@code OrchestratorServiceContract.orchestrateInventoryReplenishment}).
+ *
+ * A run has three phases:
+ * - the confirmed reservations not counted yet are folded into the per-product sales velocities and flagged
+ *   (one set-based upsert, see {@link com.ecommerce.models.ProductSalesVelocity}): sales history is never rescanned,
+ *   and a confirmation committed late is counted by the next run;
+ * - the catalog is split in productId ranges processed on a dedicated ForkJoin pool; each range is read in
+ *   keyset pages, its availability comes from the stock engine, and a suggestion is made for every product at
+ *   or below its reorder point;
+ * - the suggestions replace those of the previous run in one batch insert.
+ *
+ * With a velocity of v units/day: reorder point = v * (lead time + safety days), and the suggested quantity
+ * brings the available stock up to v * (lead time + safety days + cover days).
+ *
+ * The three phases run under a session-level advisory lock, held on a connection of its own until the run ends,
+ * so the runs of every instance are serialized and a run never deletes the suggestions of another one.
+ *
+ * Confirmed reservations are the sales source: every order line is reserved at checkout and confirmed on
+ * payment, so the order items of paid orders carry the same units and are not counted a second time.
+ */
+@Slf4j
+@Service
+public class ReplenishmentService {
+
+    private static final long RUN_LOCK_KEY = 0x5245504cL;
+    private static final int PAGE_SIZE = StockService.AVAILABILITY_CHUNK_SIZE;
+
+    private final ProductSalesVelocityRepository salesVelocityRepository;
+    private final ReplenishmentRunRepository runRepository;
+    private final ReplenishmentSuggestionRepository suggestionRepository;
+    private final StockRepository stockRepository;
+    private final StockReservationEngine stockReservationEngine;
+    private final TransactionTemplate transactionTemplate;
+    private final DataSource dataSource;
+    private final Timer runTimer;
+    private final ForkJoinPool pool;
+
+    @Value("${ecommerce.stock.replenishment.half-life-days:7}")
+    private double halfLifeDays = 7;
+
+    @Value("${ecommerce.stock.replenishment.lead-time-days:7}")
+    private double leadTimeDays = 7;
+
+    @Value("${ecommerce.stock.replenishment.safety-days:3}")
+    private double safetyDays = 3;
+
+    @Value("${ecommerce.stock.replenishment.cover-days:14}")
+    private double coverDays = 14;
+
+    public ReplenishmentService(ProductSalesVelocityRepository salesVelocityRepository,
+                                ReplenishmentRunRepository runRepository,
+                                ReplenishmentSuggestionRepository suggestionRepository,
+                                StockRepository stockRepository,
+                                StockReservationEngine stockReservationEngine,
+                                PlatformTransactionManager transactionManager,
+                                DataSource dataSource,
+                                MeterRegistry meterRegistry,
+                                @Value("${ecommerce.stock.replenishment.parallelism:4}") int parallelism) {
+        this.salesVelocityRepository = salesVelocityRepository;
+        this.runRepository = runRepository;
+        this.suggestionRepository = suggestionRepository;
+        this.stockRepository = stockRepository;
+        this.stockReservationEngine = stockReservationEngine;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dataSource = dataSource;
+        this.runTimer = Timer.builder("stock.replenishment.run")
+                .description("Duration of a replenishment run")
+                .register(meterRegistry);
+        // each worker holds a connection while it reads, next to the run lock's: keep it below the pool size
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @Scheduled(fixedDelayString = "${ecommerce.stock.replenishment.interval-ms:3600000}",
+            initialDelayString = "${ecommerce.stock.replenishment.initial-delay-ms:60000}")
+    public void scheduledRun() {
+        try {
+            replenish();
+        } catch (RuntimeException e) {
+            log.error("Replenishment run failed", e);
+        }
+    }
+
+    /**
+     * @return the run, or empty if another instance is running one
+     */
+    public Optional<ReplenishmentRun> replenish() {
+        try (Connection lockConnection = dataSource.getConnection()) {
+            if (!advisoryLock(lockConnection, "SELECT pg_try_advisory_lock(?)")) {
+                log.info("Replenishment run skipped: another run holds the lock");
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(run());
+            } finally {
+                advisoryLock(lockConnection, "SELECT pg_advisory_unlock(?)");
+            }
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Replenishment run lock unavailable", e);
+        }
+    }
+
+    public Page<ReplenishmentSuggestion> getLatestSuggestions(Pageable pageable) {
+        return runRepository.findTopByFinishedAtNotNullOrderBySalesThroughDesc()
+                .map(run -> suggestionRepository.findByRunId(run.getRunId(), pageable))
+                .orElse(Page.empty(pageable));
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Caller holds the run lock.
+     */
+    private ReplenishmentRun run() {
+        long started = System.nanoTime();
+        ReplenishmentRun run = transactionTemplate.execute(status -> startRun());
+
+        List<ReplenishmentSuggestion> suggestions = analyze(run);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            suggestionRepository.saveAll(suggestions);
+            suggestionRepository.deleteOtherRuns(run.getRunId());
+            run.setSuggestionsCreated(suggestions.size());
+            run.setFinishedAt(LocalDateTime.now());
+            runRepository.save(run);
+        });
+
+        runTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        log.info("Replenishment run {}: {} products analyzed, {} suggestions",
+                run.getRunId(), run.getProductsAnalyzed(), run.getSuggestionsCreated());
+        return run;
+    }
+
+    /**
+     * Folds the sales not counted yet into the velocities and records the run.
+     */
+    private ReplenishmentRun startRun() {
+        LocalDateTime startedAt = LocalDateTime.now();
+        int products = salesVelocityRepository.accumulateConfirmedSales(startedAt, decaySeconds());
+        log.debug("Sales velocity updated for {} products", products);
+        return runRepository.save(ReplenishmentRun.builder()
+                .salesThrough(startedAt)
+                .startedAt(startedAt)
+                .build());
+    }
+
+    /**
+     * Runs an advisory lock function on the lock connection; a session-level lock stays held by that
+     * connection across transactions, and is released by Postgres if the connection dies.
+     */
+    private static boolean advisoryLock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, RUN_LOCK_KEY);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private List<ReplenishmentSuggestion> analyze(ReplenishmentRun run) {
+        List<Object[]> range = stockRepository.findProductIdRange();
+        if (range.isEmpty() || range.get(0)[0] == null) {
+            return List.of();
+        }
+        long minProductId = ((Number) range.get(0)[0]).longValue();
+        long maxProductId = ((Number) range.get(0)[1]).longValue();
+        // a few ranges per worker so a dense range does not leave the others idle
+        long leafSpan = Math.max(PAGE_SIZE, (maxProductId - minProductId + 1) / (pool.getParallelism() * 4L));
+
+        RangeResult result = pool.invoke(new RangeTask(run, minProductId - 1, maxProductId, leafSpan));
+        run.setProductsAnalyzed(result.productsAnalyzed());
+        return result.suggestions();
+    }
+
+    /**
+     * Products in {@code (afterProductId, upToProductId]}, split in halves down to {@code leafSpan} ids.
+     */
+    private final class RangeTask extends RecursiveTask<RangeResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final ReplenishmentRun run;
+        private final long afterProductId;
+        private final long upToProductId;
+        private final long leafSpan;
+
+        RangeTask(ReplenishmentRun run, long afterProductId, long upToProductId, long leafSpan) {
+            this.run = run;
+            this.afterProductId = afterProductId;
+            this.upToProductId = upToProductId;
+            this.leafSpan = leafSpan;
+        }
+
+        @Override
+        protected RangeResult compute() {
+            if (upToProductId - afterProductId > leafSpan) {
+                long middle = afterProductId + (upToProductId - afterProductId) / 2;
+                RangeTask left = new RangeTask(run, afterProductId, middle, leafSpan);
+                left.fork();
+                RangeResult right = new RangeTask(run, middle, upToProductId, leafSpan).compute();
+                return left.join().merge(right);
+            }
+            return analyzeRange(run, afterProductId, upToProductId);
+        }
+    }
+
+    private RangeResult analyzeRange(ReplenishmentRun run, long afterProductId, long upToProductId) {
+        List<ReplenishmentSuggestion> suggestions = new ArrayList<>();
+        int analyzed = 0;
+        long after = afterProductId;
+        List<Object[]> page;
+        do {
+            page = salesVelocityRepository.findVelocityPage(after, upToProductId, PAGE_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Long> productIds = new ArrayList<>(page.size());
+            page.forEach(row -> productIds.add(((Number) row[0]).longValue()));
+            LongIntHashMap available = stockReservationEngine.getAvailableQuantities(productIds);
+
+            for (Object[] row : page) {
+                long productId = ((Number) row[0]).longValue();
+                double velocity = row[1] == null ? 0
+                        : dailyVelocity(((Number) row[1]).doubleValue(), toLocalDateTime(row[2]), run.getSalesThrough());
+                ReplenishmentSuggestion suggestion =
+                        suggest(run.getRunId(), productId, available.getOrDefault(productId, 0), velocity);
+                if (suggestion != null) {
+                    suggestions.add(suggestion);
+                }
+            }
+            analyzed += page.size();
+            after = productIds.get(productIds.size() - 1);
+        } while (page.size() == PAGE_SIZE);
+        return new RangeResult(analyzed, suggestions);
+    }
+
+    /**
+     * Units per day: the decayed count brought forward to {@code at}, divided by the decay time constant.
+     */
+    double dailyVelocity(double decayedUnits, LocalDateTime decayedAt, LocalDateTime at) {
+        double elapsedSeconds = Math.max(0, Duration.between(decayedAt, at).toSeconds());
+        return decayedUnits * Math.exp(-elapsedSeconds / decaySeconds()) / (decaySeconds() / 86400.0);
+    }
+
+    /**
+     * @return the suggestion for a product at or below its reorder point, null otherwise
+     */
+    ReplenishmentSuggestion suggest(Long runId, long productId, int availableQuantity, double dailyVelocity) {
+        if (dailyVelocity <= 0) {
+            return null;
+        }
+        int reorderPoint = (int) Math.ceil(dailyVelocity * (leadTimeDays + safetyDays));
+        if (availableQuantity > reorderPoint) {
+            return null;
+        }
+        int target = (int) Math.ceil(dailyVelocity * (leadTimeDays + safetyDays + coverDays));
+        int quantity = target - availableQuantity;
+        if (quantity <= 0) {
+            return null;
+        }
+        return ReplenishmentSuggestion.builder()
+                .runId(runId)
+                .productId(productId)
+                .availableQuantity(availableQuantity)
+                .salesVelocity(dailyVelocity)
+                .reorderPoint(reorderPoint)
+                .suggestedQuantity(quantity)
+                .build();
+    }
+
+    private double decaySeconds() {
+        // time constant of the decay: the count halves every half-life
+        return halfLifeDays * 86400.0 / Math.log(2);
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    private record RangeResult(int productsAnalyzed, List<ReplenishmentSuggestion> suggestions) {
+        RangeResult merge(RangeResult other) {
+            List<ReplenishmentSuggestion> merged = new ArrayList<>(suggestions.size() + other.suggestions.size());
+            merged.addAll(suggestions);
+            merged.addAll(other.suggestions);
+            return new RangeResult(productsAnalyzed + other.productsAnalyzed, merged);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.ecommerce.services;
+
+import com.ecommerce.services.StockService.ExpiredBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically releases expired stock reservations in bounded batches, each in its own transaction
+ * so row locks stay short. Batches use SKIP LOCKED, so every instance can run the sweeper.
+ * Runs every ecommerce.stock.reservation.sweep.interval-ms (one minute): the expiry timer releases each
+ * reservation on time, the sweeper only catches what it missed.
+ *
+ * Metrics:
+ * - stock.reservations.sweep.lag: how long the oldest expired reservation had been waiting at the last run
+ * - stock.reservations.sweep.batch.size: reservations released per batch
+ * - stock.reservations.expired: reservations released in total
+ */
+@Slf4j
+@Component
+public class ReservationExpirySweeper {
+
+    private final StockService stockService;
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final DistributionSummary batchSizes;
+    private final Counter expiredReservations;
+
+    @Value("${ecommerce.stock.reservation.sweep.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${ecommerce.stock.reservation.sweep.max-batches-per-run:20}")
+    private int maxBatchesPerRun = 20;
+
+    public ReservationExpirySweeper(StockService stockService, MeterRegistry meterRegistry) {
+        this.stockService = stockService;
+        TimeGauge.builder("stock.reservations.sweep.lag", lagMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Age of the oldest expired reservation found by the last sweep")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("stock.reservations.sweep.batch.size")
+                .description("Expired reservations released per batch")
+                .register(meterRegistry);
+        this.expiredReservations = Counter.builder("stock.reservations.expired")
+                .description("Expired reservations released")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${ecommerce.stock.reservation.sweep.interval-ms:60000}")
+    public void sweep() {
+        LocalDateTime now = LocalDateTime.now();
+        long lag = 0;
+        int released = 0;
+
+        for (int i = 0; i < maxBatchesPerRun; i++) {
+            ExpiredBatch batch;
+            try {
+                batch = stockService.releaseExpiredReservations(now, batchSize);
+            } catch (RuntimeException e) {
+                log.error("Expired reservation sweep failed after {} reservations", released, e);
+                break;
+            }
+            if (i == 0 && batch.oldestExpiresAt() != null) {
+                lag = Duration.between(batch.oldestExpiresAt(), now).toMillis();
+            }
+            batchSizes.record(batch.released());
+            expiredReservations.increment(batch.released());
+            released += batch.released();
+            if (batch.released() < batchSize) {
+                break;
+            }
+        }
+
+        lagMillis.set(lag);
+        if (released > 0) {
+            log.info("Released {} expired reservations", released);
+        }
+    }
+}
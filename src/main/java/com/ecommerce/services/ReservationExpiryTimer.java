@@ -0,0 +1,147 @@
+package com.ecommerce.services;
+
+import com.ecommerce.events.StockReservationsClosedEvent;
+import com.ecommerce.events.StockReservationsCreatedEvent;
+import com.ecommerce.repositories.StockReservationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Releases each stock reservation as soon as it expires instead of waiting for the next sweep.
+ *
+ * Committed reservations get a timer in a DelayQueue keyed by expiresAt; confirming or releasing them
+ * cancels the timer. Due reservations are released in batches through
+ * {@link StockService#releaseExpiredReservations(java.util.Collection, LocalDateTime)}, which re-checks
+ * the row, so a timer firing on several nodes or racing a confirmation is harmless.
+ * Timers are rebuilt from the ACTIVE rows on startup; {@link ReservationExpirySweeper} stays as a safety net.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ecommerce.stock.reservation.timer.enabled", havingValue = "true", matchIfMissing = true)
+public class ReservationExpiryTimer {
+
+    private final StockService stockService;
+    private final StockReservationRepository stockReservationRepository;
+    private final DelayQueue<ExpiryTimer> queue = new DelayQueue<>();
+    // cancelled timers stay in the queue and are skipped when they fire: cancelling is O(1)
+    private final Map<Long, ExpiryTimer> pending = new ConcurrentHashMap<>();
+
+    @Value("${ecommerce.stock.reservation.timer.batch-size:200}")
+    private int batchSize = 200;
+
+    private volatile Thread worker;
+
+    public ReservationExpiryTimer(StockService stockService,
+                                  StockReservationRepository stockReservationRepository,
+                                  MeterRegistry meterRegistry) {
+        this.stockService = stockService;
+        this.stockReservationRepository = stockReservationRepository;
+        meterRegistry.gaugeMapSize("stock.reservations.timer.pending", Tags.empty(), pending);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        for (Object[] row : stockReservationRepository.findActiveExpiries()) {
+            schedule(((Number) row[0]).longValue(), StockService.toLocalDateTime(row[1]));
+        }
+        log.info("Reservation expiry timer rehydrated {} active reservations", pending.size());
+
+        worker = new Thread(this::run, "reservation-expiry");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationsCreated(StockReservationsCreatedEvent event) {
+        event.expiresAtByReservationId().forEach(this::schedule);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationsClosed(StockReservationsClosedEvent event) {
+        event.reservationIds().forEach(pending::remove);
+    }
+
+    void schedule(Long reservationId, LocalDateTime expiresAt) {
+        ExpiryTimer timer = new ExpiryTimer(reservationId,
+                System.nanoTime() + Duration.between(LocalDateTime.now(), expiresAt).toNanos());
+        pending.put(reservationId, timer);
+        queue.put(timer);
+    }
+
+    /**
+     * Releases the reservations whose timers have fired, without blocking.
+     * @return number of reservations released
+     */
+    int releaseDue() {
+        List<ExpiryTimer> due = new ArrayList<>();
+        queue.drainTo(due, batchSize);
+        return release(due);
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<ExpiryTimer> due = new ArrayList<>();
+                due.add(queue.take());
+                queue.drainTo(due, batchSize - 1);
+                release(due);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                // the sweeper picks these reservations up on its next run
+                log.error("Releasing expired reservations failed", e);
+            }
+        }
+    }
+
+    private int release(List<ExpiryTimer> due) {
+        List<Long> reservationIds = new ArrayList<>(due.size());
+        for (ExpiryTimer timer : due) {
+            if (pending.remove(timer.reservationId, timer)) {
+                reservationIds.add(timer.reservationId);
+            }
+        }
+        if (reservationIds.isEmpty()) {
+            return 0;
+        }
+        return stockService.releaseExpiredReservations(reservationIds, LocalDateTime.now()).released();
+    }
+
+    private record ExpiryTimer(Long reservationId, long deadlineNanos) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadlineNanos, ((ExpiryTimer) other).deadlineNanos);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.ecommerce.services;
+
+import com.ecommerce.exceptions.InsufficientStockException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the short lines of a whole-cart reservation so they can be reported together.
+ */
+class ReservationShortages {
+    private final List<Long> productIds = new ArrayList<>();
+    private final StringBuilder details = new StringBuilder();
+
+    void check(Long productId, int availableQuantity, int requestedQuantity) {
+        if (availableQuantity >= requestedQuantity) {
+            return;
+        }
+        productIds.add(productId);
+        details.append(details.length() == 0 ? "" : "; ")
+                .append("product ").append(productId)
+                .append(" (available: ").append(availableQuantity)
+                .append(", requested: ").append(requestedQuantity).append(")");
+    }
+
+    boolean isEmpty() {
+        return productIds.isEmpty();
+    }
+
+    void throwIfAny() {
+        if (!isEmpty()) {
+            throw new InsufficientStockException("Insufficient stock for " + details, productIds);
+        }
+    }
+}
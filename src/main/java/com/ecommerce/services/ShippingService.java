@@ -3,19 +3,27 @@ package com.ecommerce.services;
 import com.ecommerce.dto.CreateOrderRequest;
 import com.ecommerce.models.*;
 import com.ecommerce.repositories.ShipmentRepository;
+import com.ecommerce.repositories.WarehouseRepository;
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import java.util.logging.Logger;
 
 @Service
 @AllArgsConstructor
 public class ShippingService {
     private static final Logger logger = Logger.getLogger(ShippingService.class.getName());
+    private static final String DEFAULT_WAREHOUSE_ADDRESS =
+            "Main Warehouse, 123 Distribution Center Dr, Warehouse City, WC 12345";
     private final ShipmentRepository shipmentRepository;
+    private final WarehouseRepository warehouseRepository;
 
     /**
      * Updates existing shipment to SHIPPED status when order status changes to SHIPPED
@@ -38,7 +46,7 @@ public class ShippingService {
         shipment.setTrackingNumber(generateTrackingNumber());
         shipment.setProvider(determineShippingProvider(order));
         shipment.setServiceName(determineServiceName(order));
-        shipment.setPickupAddress(getWarehouseAddress());
+        shipment.setPickupAddress(getWarehouseAddress(order));
         shipmentRepository.save(shipment);
         logger.info("Shipment created for order " + order.getOrderNumber() +
                 ", tracking: " + shipment.getTrackingNumber());
@@ -138,10 +146,20 @@ public class ShippingService {
     }
 
     /**
-     * Get warehouse/pickup address
+     * Get warehouse/pickup address: the warehouses the order's stock was allocated from, in shipping order,
+     * or the main warehouse for products not tracked per warehouse
      */
-    private String getWarehouseAddress() {
-        // In production, this could come from configuration or database
-        return "Main Warehouse, 123 Distribution Center Dr, Warehouse City, WC 12345";
+    private String getWarehouseAddress(Order order) {
+        Set<Long> warehouseIds = order.getStockReservations() == null ? Set.of() : order.getStockReservations().stream()
+                .map(StockReservation::getWarehouseId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (warehouseIds.isEmpty()) {
+            return DEFAULT_WAREHOUSE_ADDRESS;
+        }
+        return warehouseRepository.findAllById(warehouseIds).stream()
+                .sorted(Comparator.comparing(Warehouse::getShippingRank).thenComparing(Warehouse::getWarehouseId))
+                .map(Warehouse::getAddress)
+                .collect(Collectors.joining("\n"));
     }
 }
\ No newline at end of file
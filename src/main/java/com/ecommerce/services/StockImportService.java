@@ -0,0 +1,302 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.API.StockReservationEngine.QuantityChange;
+import com.ecommerce.dto.StockImportReport;
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.repositories.ProductRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Bulk restock/adjustment import (supplier deliveries, inventory counts).
+ *
+ * The body is read line by line and applied in batches, so memory does not grow with the file. Each batch
+ * resolves its SKUs with one query and is applied by the engine in one transaction (one multi-row UPDATE
+ * with the jpa engine). Lines of the same product within a batch are merged in file order and succeed or
+ * fail together. A failing line never stops the import: it is listed in the report.
+ *
+ * Fields, as CSV header columns or NDJSON keys: productId or sku, delta (signed, total moves with it) or
+ * quantity (absolute available quantity), and an optional reason. The ledger engine stores the reason on
+ * the product's movement (reasons of merged lines joined); the other engines keep no movement history, so
+ * it is not stored there. Products stocked per warehouse are rejected: their available quantity is the
+ * total of their warehouses, changed through the warehouse quantities.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StockImportService {
+
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    private static final Set<String> COLUMNS = Set.of("productId", "sku", "delta", "quantity", "reason");
+
+    private final StockReservationEngine stockReservationEngine;
+    private final ProductRepository productRepository;
+    private final StockUpdateRetry stockUpdateRetry;
+    private final WarehouseStockService warehouseStockService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+
+    @Value("${ecommerce.stock.import.batch-size:1000}")
+    private int batchSize = 1000;
+
+    public enum Format { CSV, NDJSON }
+
+    public StockImportReport importStock(InputStream body, Format format) throws IOException {
+        ImportProgress progress = new ImportProgress();
+        List<ImportLine> batch = new ArrayList<>(batchSize);
+        Map<String, Integer> csvColumns = null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            long lineNumber = 0;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                lineNumber++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                if (format == Format.CSV && csvColumns == null) {
+                    try {
+                        csvColumns = parseCsvHeader(text);
+                    } catch (IllegalArgumentException e) {
+                        progress.fail(lineNumber, e.getMessage());
+                        break;
+                    }
+                    continue;
+                }
+
+                progress.linesRead++;
+                try {
+                    batch.add(format == Format.CSV
+                            ? parseCsvLine(lineNumber, text, csvColumns)
+                            : parseNdjsonLine(lineNumber, text));
+                } catch (IllegalArgumentException e) {
+                    progress.fail(lineNumber, e.getMessage());
+                    continue;
+                }
+                if (batch.size() == batchSize) {
+                    applyBatch(batch, progress);
+                    batch.clear();
+                }
+            }
+        }
+        applyBatch(batch, progress);
+
+        log.info("Stock import: {} lines read, {} applied, {} failed",
+                progress.linesRead, progress.linesApplied, progress.linesFailed);
+        progress.errors.sort(Comparator.comparingLong(StockImportReport.LineError::line));
+        return new StockImportReport(progress.linesRead, progress.linesApplied, progress.linesFailed,
+                progress.errors, progress.linesFailed > progress.errors.size());
+    }
+
+    private void applyBatch(List<ImportLine> batch, ImportProgress progress) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Set<String> skus = new HashSet<>();
+        batch.stream().filter(line -> line.productId() == null).forEach(line -> skus.add(line.sku()));
+        Map<String, Long> productIdsBySku = new HashMap<>();
+        if (!skus.isEmpty()) {
+            for (Object[] row : productRepository.findIdsBySkus(skus)) {
+                productIdsBySku.put((String) row[0], ((Number) row[1]).longValue());
+            }
+        }
+
+        SortedMap<Long, QuantityChange> changes = new TreeMap<>();
+        Map<Long, List<Long>> lineNumbersByProduct = new HashMap<>();
+        for (ImportLine line : batch) {
+            Long productId = line.productId() != null ? line.productId() : productIdsBySku.get(line.sku());
+            if (productId == null) {
+                progress.fail(line.lineNumber(), "Unknown SKU: " + line.sku());
+                continue;
+            }
+            changes.merge(productId, line.change(), QuantityChange::then);
+            lineNumbersByProduct.computeIfAbsent(productId, id -> new ArrayList<>()).add(line.lineNumber());
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        Set<Long> perWarehouse = new HashSet<>();
+        Set<Long> rejected;
+        try {
+            rejected = stockUpdateRetry.execute("import", null, () -> {
+                perWarehouse.clear();
+                perWarehouse.addAll(warehouseStockService.findTrackedProducts(changes.keySet()));
+                SortedMap<Long, QuantityChange> applicable = new TreeMap<>(changes);
+                applicable.keySet().removeAll(perWarehouse);
+                Set<Long> rejectedProducts = applicable.isEmpty()
+                        ? Set.of()
+                        : stockReservationEngine.applyQuantityChanges(applicable);
+                Set<Long> changedProducts = new HashSet<>(applicable.keySet());
+                changedProducts.removeAll(rejectedProducts);
+                if (!changedProducts.isEmpty()) {
+                    eventPublisher.publishEvent(new StockChangedEvent(changedProducts));
+                }
+                return rejectedProducts;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Stock import batch of {} products failed", changes.size(), e);
+            lineNumbersByProduct.values().forEach(lineNumbers ->
+                    lineNumbers.forEach(lineNumber -> progress.fail(lineNumber, "Batch failed: " + e.getMessage())));
+            return;
+        }
+
+        lineNumbersByProduct.forEach((productId, lineNumbers) -> {
+            if (perWarehouse.contains(productId)) {
+                lineNumbers.forEach(lineNumber -> progress.fail(lineNumber,
+                        "Product " + productId + " is stocked per warehouse: change the quantities of its warehouses"));
+            } else if (rejected.contains(productId)) {
+                lineNumbers.forEach(lineNumber -> progress.fail(lineNumber,
+                        "No stock for product " + productId + " or available quantity would become negative"));
+            } else {
+                progress.linesApplied += lineNumbers.size();
+            }
+        });
+    }
+
+    private static Map<String, Integer> parseCsvHeader(String text) {
+        List<String> names = splitCsv(text);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (!COLUMNS.contains(names.get(i))) {
+                throw new IllegalArgumentException("Unknown column '" + names.get(i) + "', expected " + COLUMNS);
+            }
+            columns.put(names.get(i), i);
+        }
+        if (!columns.containsKey("productId") && !columns.containsKey("sku")) {
+            throw new IllegalArgumentException("Header needs a productId or sku column");
+        }
+        if (!columns.containsKey("delta") && !columns.containsKey("quantity")) {
+            throw new IllegalArgumentException("Header needs a delta or quantity column");
+        }
+        return columns;
+    }
+
+    private static ImportLine parseCsvLine(long lineNumber, String text, Map<String, Integer> columns) {
+        List<String> values = splitCsv(text);
+        return toImportLine(lineNumber, column -> {
+            Integer index = columns.get(column);
+            return index != null && index < values.size() ? values.get(index) : null;
+        });
+    }
+
+    private ImportLine parseNdjsonLine(long lineNumber, String text) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+        }
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return toImportLine(lineNumber, field -> node.hasNonNull(field) ? node.get(field).asText() : null);
+    }
+
+    private static ImportLine toImportLine(long lineNumber, Function<String, String> field) {
+        String productId = emptyToNull(field.apply("productId"));
+        String sku = emptyToNull(field.apply("sku"));
+        String delta = emptyToNull(field.apply("delta"));
+        String quantity = emptyToNull(field.apply("quantity"));
+        String reason = emptyToNull(field.apply("reason"));
+
+        if (productId == null && sku == null) {
+            throw new IllegalArgumentException("productId or sku is required");
+        }
+        if ((delta == null) == (quantity == null)) {
+            throw new IllegalArgumentException("Exactly one of delta and quantity is required");
+        }
+
+        QuantityChange change = delta != null
+                ? new QuantityChange(false, parseInt("delta", delta), reason)
+                : new QuantityChange(true, parseInt("quantity", quantity), reason);
+        if (change.absolute() && change.quantity() < 0) {
+            throw new IllegalArgumentException("quantity must not be negative");
+        }
+        return new ImportLine(lineNumber, productId != null ? parseProductId(productId) : null, sku, change);
+    }
+
+    private static Long parseProductId(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid productId: " + value);
+        }
+    }
+
+    private static int parseInt(String field, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + field + ": " + value);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    /**
+     * Splits one CSV line; fields may be double-quoted, with "" for a quote inside a quoted field.
+     */
+    static List<String> splitCsv(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    private record ImportLine(long lineNumber, Long productId, String sku, QuantityChange change) {
+    }
+
+    private static final class ImportProgress {
+        int linesRead;
+        int linesApplied;
+        int linesFailed;
+        final List<StockImportReport.LineError> errors = new ArrayList<>();
+
+        void fail(long lineNumber, String message) {
+            linesFailed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new StockImportReport.LineError(lineNumber, message));
+            }
+        }
+    }
+}
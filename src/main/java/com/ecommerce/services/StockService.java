@@ -1,18 +1,28 @@
 package com.ecommerce.services;
 
-import com.ecommerce.exceptions.InsufficientStockException;
-import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.events.StockReservationsClosedEvent;
+import com.ecommerce.events.StockReservationsCreatedEvent;
 import com.ecommerce.models.*;
+import com.ecommerce.repositories.StockMovementRepository;
 import com.ecommerce.repositories.StockRepository;
 import com.ecommerce.repositories.StockReservationRepository;
+import com.ecommerce.repositories.WarehouseStockRepositoryCustom.WarehouseQuantity;
+import com.ecommerce.utils.LongIntHashMap;
 import lombok.AllArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.*;
+import java.util.function.IntSupplier;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -20,8 +30,18 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class StockService {
     private static final Logger logger = Logger.getLogger(StockService.class.getName());
+    private static final int EXPIRED_BATCH_SIZE = 500;
+    // keeps each IN list well under the bind parameter limits of the driver
+    static final int AVAILABILITY_CHUNK_SIZE = 1000;
     private final StockReservationRepository stockReservationRepository;
     private final StockRepository stockRepository;
+    private final StockMovementRepository stockMovementRepository;
+    private final StockReservationEngine stockReservationEngine;
+    private final ApplicationEventPublisher eventPublisher;
+    private final HotStockBuckets hotStockBuckets;
+    private final StockUpdateRetry stockUpdateRetry;
+    private final AvailabilityNearCache availabilityNearCache;
+    private final WarehouseStockService warehouseStockService;
 
     @Value("${ecommerce.stock.reservation.expiry.minutes:30}")
     private int stockReservationExpiryMinutes;
@@ -44,45 +64,52 @@ public class StockService {
     }
 
     /**
-     * Reserve stock for entire cart - creates reservations and updates stock
+     * Reserve stock for entire cart - creates reservations and updates stock.
+     * The reservation is all-or-nothing: if a product is short nothing is reserved and the
+     * exception lists every short product. Products tracked per warehouse are allocated to the warehouses
+     * shipping them, a cart line split over several warehouses becoming one reservation per warehouse.
      */
-    @Transactional
     public List<StockReservation> reserveStockForCart(Cart cart) {
+        return stockUpdateRetry.execute("reserve-cart", null, () -> doReserveStockForCart(cart));
+    }
+
+    private List<StockReservation> doReserveStockForCart(Cart cart) {
         logger.info("Reserving stock for cartId=" + cart.getCartId());
 
-        List<StockReservation> reservations = cart.getItems().stream()
-                .map(this::createStockReservation)
-                .collect(Collectors.toList());
+        // Sorted by productId so that concurrent carts acquire row locks in the same order
+        SortedMap<Long, Integer> requestedQuantities = new TreeMap<>();
+        cart.getItems().forEach(item ->
+                requestedQuantities.merge(item.getProductId(), item.getQuantity(), Integer::sum));
+
+        stockReservationEngine.reserveAll(requestedQuantities);
+        List<WarehouseQuantity> allocated = warehouseStockService.allocate(requestedQuantities);
+        publishChanged(requestedQuantities.keySet());
 
-        reservations.forEach(reservation -> {
-            reserveStock(reservation.getProductId(), reservation.getQuantity());
+        List<StockReservation> reservations = createStockReservations(cart, allocated);
+
+        List<StockReservation> savedReservations = stockReservationRepository.saveAll(reservations);
+
+        Map<Long, LocalDateTime> expiresAtByReservationId = new HashMap<>();
+        savedReservations.forEach(reservation -> {
+            if (reservation.getReservationId() != null) {
+                expiresAtByReservationId.put(reservation.getReservationId(), reservation.getExpiresAt());
+            }
         });
+        eventPublisher.publishEvent(new StockReservationsCreatedEvent(expiresAtByReservationId));
 
-        return stockReservationRepository.saveAll(reservations);
+        return savedReservations;
     }
 
     /**
-     * Reserve a quantity of a product's stock during checkout to prevent overselling
+     * Reserve a quantity of a product's stock during checkout to prevent overselling.
+     * The availability check and the decrement are a single atomic operation of the engine, so two
+     * concurrent checkouts can never both take the last units.
      */
-    @Transactional
     public void reserveStock(Long productId, Integer quantity) {
-        Stock stock = stockRepository.findByProduct_ProductId(productId)
-                //this should NOT happen
-                .orElseThrow(() -> new StockNotFound("Stock not found for product: " + productId));
-
-        if (stock.getAvailableQuantity() < quantity) {
-            throw new InsufficientStockException(
-                    "Insufficient stock for product " + productId +
-                            ". Available: " + stock.getAvailableQuantity() +
-                            ", Requested: " + quantity
-            );
-        }
-
-        // Move quantity from available to reserved
-        stock.setAvailableQuantity(stock.getAvailableQuantity() - quantity);
-        stock.setReservedQuantity(stock.getReservedQuantity() + quantity);
-
-        stockRepository.save(stock);
+        stockUpdateRetry.run("reserve", productId, () -> {
+            stockReservationEngine.reserve(productId, quantity);
+            publishChanged(Set.of(productId));
+        });
 
         logger.info("Reserved " + quantity + " units for product " + productId);
     }
@@ -90,131 +117,419 @@ public class StockService {
     /**
      * Release individual reservation (used internally)
      */
-    @Transactional
     public void releaseReservation(Long productId, Integer quantity) {
-        Stock stock = stockRepository.findByProduct_ProductId(productId)
-                .orElseThrow(() -> new RuntimeException("Stock not found for product: " + productId));
-
-        // Move quantity from reserved back to available
-        stock.setAvailableQuantity(stock.getAvailableQuantity() + quantity);
-        stock.setReservedQuantity(Math.max(0, stock.getReservedQuantity() - quantity));
-
-        stockRepository.save(stock);
+        if (!stockUpdateRetry.execute("release", productId, () -> {
+            boolean released = stockReservationEngine.release(productId, quantity);
+            if (released) {
+                publishChanged(Set.of(productId));
+            }
+            return released;
+        })) {
+            logger.warning("Cannot release " + quantity + " units for product " + productId +
+                    ": fewer units are reserved");
+            return;
+        }
 
         logger.info("Released " + quantity + " units for product " + productId);
     }
 
     /**
-     * Confirm reservations after successful payment - converts reserved to sold
+     * Confirm reservations after successful payment - converts reserved to sold.
+     * The reservations still ACTIVE are locked and marked CONFIRMED with one statement each, and stock is
+     * confirmed with one statement for all their products. A reservation already released (expired) is
+     * left as is: its units may have been reserved by another cart since. So is a reservation whose product
+     * holds fewer reserved units than requested: it stays ACTIVE, so its status keeps matching the stock
+     * counters, and is released when it expires.
      */
-    @Transactional
     public void confirmReservations(List<StockReservation> stockReservations) {
-        stockReservations.forEach(reservation -> {
-            Stock stock = stockRepository.findByProduct_ProductId(reservation.getProductId())
-                    .orElseThrow(() -> new RuntimeException("Stock not found for product: " + reservation.getProductId()));
-
-            // Move from reserved to sold (reduce total quantity, keep available same)
-            stock.setReservedQuantity(stock.getReservedQuantity() - reservation.getQuantity());
-            stock.setTotalQuantity(stock.getTotalQuantity() - reservation.getQuantity());
+        int confirmed = stockUpdateRetry.execute("confirm", null, () -> doConfirmReservations(stockReservations));
+        logger.info("Confirmed " + confirmed + " of " + stockReservations.size() + " stock reservations");
+    }
 
-            stockRepository.save(stock);
+    private int doConfirmReservations(List<StockReservation> stockReservations) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> rows = lockActive(stockReservations);
+        if (rows.isEmpty()) {
+            return 0;
+        }
 
-            // Update reservation status
-            reservation.setStatus(ReservationStatus.CONFIRMED);
-            reservation.setConfirmedAt(LocalDateTime.now());
+        // Move from reserved to sold (reduce total quantity, keep available same)
+        Set<Long> notConfirmed = stockReservationEngine.confirmAll(quantitiesByProduct(rows));
+        List<Long> reservationIds = new ArrayList<>(rows.size());
+        rows.forEach(row -> {
+            if (!notConfirmed.contains(((Number) row[1]).longValue())) {
+                reservationIds.add(((Number) row[0]).longValue());
+            }
         });
+        if (!notConfirmed.isEmpty()) {
+            logger.warning("Cannot confirm reserved units of products " + notConfirmed
+                    + ": fewer units are reserved, their reservations are left ACTIVE");
+        }
+        if (reservationIds.isEmpty()) {
+            return 0;
+        }
+        stockReservationRepository.markConfirmed(reservationIds, now);
 
-        stockReservationRepository.saveAll(stockReservations);
-        logger.info("Confirmed " + stockReservations.size() + " stock reservations");
+        stockReservationRepository.syncClosedStatus(withIds(stockReservations, reservationIds),
+                ReservationStatus.CONFIRMED, now);
+        eventPublisher.publishEvent(new StockReservationsClosedEvent(reservationIds));
+        return reservationIds.size();
     }
 
     /**
-     * Release multiple reservations (for cancellations/failures)
+     * Release multiple reservations (for cancellations/failures).
+     * Only reservations still ACTIVE in the database are released, so a retried attempt or a reservation
+     * expired meanwhile is never released twice.
      */
-    @Transactional
     public void releaseReservations(List<StockReservation> stockReservations) {
-        stockReservations.forEach(reservation -> {
-            if (reservation.getStatus() == ReservationStatus.ACTIVE) {
-                releaseReservation(reservation.getProductId(), reservation.getQuantity());
-                reservation.setStatus(ReservationStatus.RELEASED);
-                reservation.setReleasedAt(LocalDateTime.now());
-            }
-        });
-        stockReservationRepository.saveAll(stockReservations);
+        stockUpdateRetry.run("release-reservations", null, () -> doReleaseReservations(stockReservations));
+    }
+
+    private void doReleaseReservations(List<StockReservation> stockReservations) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> rows = lockActive(stockReservations);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        List<Long> reservationIds = releaseLocked(rows, now);
+        stockReservationRepository.syncClosedStatus(withIds(stockReservations, reservationIds),
+                ReservationStatus.RELEASED, now);
     }
     /**
      * Bulk release reservations (same as above, for compatibility)
      */
-    @Transactional
     public void releaseStockReservations(List<StockReservation> reservations) {
         releaseReservations(reservations);
     }
 
     /**
-     * Create a stock reservation record for a cart item
+     * Create the stock reservation records of a cart: one per item, or one per warehouse when the
+     * item's units come from several warehouses.
+     * @param allocated units allocated per (product, warehouse), in productId order
+     */
+    private List<StockReservation> createStockReservations(Cart cart, List<WarehouseQuantity> allocated) {
+        Map<Long, Deque<WarehouseQuantity>> allocatedByProduct = new HashMap<>();
+        allocated.forEach(line ->
+                allocatedByProduct.computeIfAbsent(line.productId(), id -> new ArrayDeque<>()).add(line));
+
+        List<StockReservation> reservations = new ArrayList<>(cart.getItems().size());
+        for (CartItem cartItem : cart.getItems()) {
+            Deque<WarehouseQuantity> lines = allocatedByProduct.get(cartItem.getProductId());
+            int left = cartItem.getQuantity();
+            while (lines != null && left > 0 && !lines.isEmpty()) {
+                WarehouseQuantity line = lines.poll();
+                int taken = Math.min(left, line.quantity());
+                reservations.add(createStockReservation(cartItem.getProductId(), taken, line.warehouseId()));
+                if (taken < line.quantity()) {
+                    lines.push(new WarehouseQuantity(line.productId(), line.warehouseId(), line.quantity() - taken));
+                }
+                left -= taken;
+            }
+            if (left > 0) {
+                reservations.add(createStockReservation(cartItem.getProductId(), left, null));
+            }
+        }
+        return reservations;
+    }
+
+    /**
+     * Create a stock reservation record
      */
-    private StockReservation createStockReservation(CartItem cartItem) {
+    private StockReservation createStockReservation(Long productId, int quantity, Long warehouseId) {
         return StockReservation.builder()
-                .productId(cartItem.getProductId())
-                .quantity(cartItem.getQuantity())
+                .productId(productId)
+                .quantity(quantity)
+                .warehouseId(warehouseId)
                 .status(ReservationStatus.ACTIVE)
                 .expiresAt(LocalDateTime.now().plusMinutes(stockReservationExpiryMinutes))
                 .build();
     }
 
     /**
-     * Clean up expired reservations and restore stock
-     * Should be called periodically by a scheduled task
+     * Clean up expired reservations and restore stock.
+     * Runs periodically through {@link ReservationExpirySweeper}; this variant drains everything in one transaction.
      */
-    @Transactional
     public void cleanupExpiredReservations() {
+        stockUpdateRetry.run("cleanup-expired", null, this::doCleanupExpiredReservations);
+    }
+
+    private void doCleanupExpiredReservations() {
         LocalDateTime now = LocalDateTime.now();
-        // Utilisation d'une approche plus simple pour récupérer les réservations expirées
-        List<StockReservation> expiredReservations = stockReservationRepository
-                .findAll().stream()
-                .filter(reservation ->
-                        reservation.getStatus() == ReservationStatus.ACTIVE &&
-                                reservation.getExpiresAt() != null &&
-                                reservation.getExpiresAt().isBefore(now))
+        int released = 0;
+        ExpiredBatch batch;
+        do {
+            batch = releaseExpiredReservations(now, EXPIRED_BATCH_SIZE);
+            released += batch.released();
+        } while (batch.released() == EXPIRED_BATCH_SIZE);
+
+        if (released > 0) {
+            logger.info("Cleaned up " + released + " expired reservations");
+        }
+    }
+
+    /**
+     * Release one bounded batch of reservations that expired before {@code now}.
+     * Rows locked by another sweeper are skipped, the batch is marked RELEASED with a single update and
+     * stock is given back with one release per product instead of one per reservation.
+     */
+    public ExpiredBatch releaseExpiredReservations(LocalDateTime now, int batchSize) {
+        return stockUpdateRetry.execute("release-expired", null, () ->
+                releaseLockedExpired(stockReservationRepository.lockExpiredActive(now, batchSize), now));
+    }
+
+    /**
+     * Release the given reservations if they are still ACTIVE and expired at {@code now}.
+     * Used by {@link ReservationExpiryTimer} when their timers fire.
+     */
+    public ExpiredBatch releaseExpiredReservations(Collection<Long> reservationIds, LocalDateTime now) {
+        return stockUpdateRetry.execute("release-expired", null, () ->
+                releaseLockedExpired(stockReservationRepository.lockExpiredActiveByIds(reservationIds, now), now));
+    }
+
+    /**
+     * @param rows {@code [reservationId, productId, quantity, expiresAt, warehouseId]} of locked reservations,
+     *             oldest first
+     */
+    private ExpiredBatch releaseLockedExpired(List<Object[]> rows, LocalDateTime now) {
+        if (rows.isEmpty()) {
+            return ExpiredBatch.EMPTY;
+        }
+
+        releaseLocked(rows, now);
+        return new ExpiredBatch(rows.size(), toLocalDateTime(rows.get(0)[3]));
+    }
+
+    /**
+     * Marks locked reservations RELEASED with one statement and gives their stock back with one statement
+     * for all their products, and one for the warehouses they were allocated from.
+     * @param rows {@code [reservationId, productId, quantity, expiresAt, warehouseId]} of locked ACTIVE reservations
+     * @return the released reservation ids
+     */
+    private List<Long> releaseLocked(List<Object[]> rows, LocalDateTime now) {
+        List<Long> reservationIds = reservationIds(rows);
+        SortedMap<Long, Integer> releasedQuantities = quantitiesByProduct(rows);
+
+        stockReservationRepository.markReleased(reservationIds, now);
+        Set<Long> notReleased = stockReservationEngine.releaseAll(releasedQuantities);
+        if (!notReleased.isEmpty()) {
+            logger.warning("Cannot release reserved units of products " + notReleased + ": fewer units are reserved");
+        }
+        Set<Long> releasedProducts = new HashSet<>(releasedQuantities.keySet());
+        releasedProducts.removeAll(notReleased);
+        if (!releasedProducts.isEmpty()) {
+            publishChanged(releasedProducts);
+        }
+        warehouseStockService.release(warehouseQuantities(rows));
+        eventPublisher.publishEvent(new StockReservationsClosedEvent(reservationIds));
+        return reservationIds;
+    }
+
+    /**
+     * Write-locks those of the given reservations that are still ACTIVE, without loading them.
+     */
+    private List<Object[]> lockActive(List<StockReservation> stockReservations) {
+        List<Long> ids = stockReservations.stream()
+                .map(StockReservation::getReservationId)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
+        return ids.isEmpty() ? List.of() : stockReservationRepository.lockActiveByIds(ids);
+    }
+
+    private static List<Long> reservationIds(List<Object[]> rows) {
+        List<Long> reservationIds = new ArrayList<>(rows.size());
+        rows.forEach(row -> reservationIds.add(((Number) row[0]).longValue()));
+        return reservationIds;
+    }
 
-        if (!expiredReservations.isEmpty()) {
-            logger.info("Cleaning up " + expiredReservations.size() + " expired reservations");
-            releaseReservations(expiredReservations);
+    /**
+     * Quantities summed per product, sorted by productId so that concurrent transactions lock stock
+     * rows in the same order.
+     */
+    private static SortedMap<Long, Integer> quantitiesByProduct(List<Object[]> rows) {
+        SortedMap<Long, Integer> quantities = new TreeMap<>();
+        rows.forEach(row ->
+                quantities.merge(((Number) row[1]).longValue(), ((Number) row[2]).intValue(), Integer::sum));
+        return quantities;
+    }
+
+    /**
+     * Quantities summed per (product, warehouse) of the reservations allocated to a warehouse, in
+     * (productId, warehouseId) order.
+     */
+    private static List<WarehouseQuantity> warehouseQuantities(List<Object[]> rows) {
+        SortedMap<Long, SortedMap<Long, Integer>> quantities = new TreeMap<>();
+        for (Object[] row : rows) {
+            if (row.length > 4 && row[4] != null) {
+                quantities.computeIfAbsent(((Number) row[1]).longValue(), id -> new TreeMap<>())
+                        .merge(((Number) row[4]).longValue(), ((Number) row[2]).intValue(), Integer::sum);
+            }
         }
+        List<WarehouseQuantity> lines = new ArrayList<>();
+        quantities.forEach((productId, byWarehouse) -> byWarehouse.forEach((warehouseId, quantity) ->
+                lines.add(new WarehouseQuantity(productId, warehouseId, quantity))));
+        return lines;
+    }
+
+    private static List<StockReservation> withIds(List<StockReservation> stockReservations, List<Long> reservationIds) {
+        Set<Long> ids = new HashSet<>(reservationIds);
+        return stockReservations.stream()
+                .filter(reservation -> ids.contains(reservation.getReservationId()))
+                .collect(Collectors.toList());
     }
 
     /**
-     * Check if enough stock is available before allowing reservation
+     * Delivered after commit; drops the near-cache entries of these products on every node.
+     */
+    private void publishChanged(Set<Long> productIds) {
+        eventPublisher.publishEvent(new StockChangedEvent(Set.copyOf(productIds)));
+    }
+
+    static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    /**
+     * Outcome of one expiry batch; {@code oldestExpiresAt} is null when nothing had expired.
+     */
+    public record ExpiredBatch(int released, LocalDateTime oldestExpiresAt) {
+        static final ExpiredBatch EMPTY = new ExpiredBatch(0, null);
+    }
+
+    /**
+     * Check if enough stock is available before allowing reservation.
+     * Served from the near-cache: advisory only, the reservation itself re-checks against the engine.
      */
     public boolean isStockAvailable(Long productId, Integer quantity) {
-        return stockRepository.findByProduct_ProductId(productId)
-                .map(stock -> stock.getAvailableQuantity() >= quantity)
-                .orElse(false);
+        Integer available = availabilityNearCache.get(productId, stockReservationEngine::getAvailableQuantity);
+        return available != null && available >= quantity;
     }
 
     /**
      * Get available stock quantity for a product
      */
     public Integer getAvailableStock(Product product) {
-        return stockRepository.findByProduct_ProductId(product.getProductId())
-                .map(Stock::getAvailableQuantity)
-                .orElse(0);
+        Integer available = availabilityNearCache.get(product.getProductId(), stockReservationEngine::getAvailableQuantity);
+        return available != null ? available : 0;
+    }
+
+    /**
+     * Get available stock quantities of many products, from the near-cache and one query per chunk of
+     * the product ids it misses
+     * @return productId -> available quantity, products without stock are absent
+     */
+    public LongIntHashMap getAvailableStock(Collection<Long> productIds) {
+        List<Long> distinctIds = productIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        LongIntHashMap available = new LongIntHashMap(distinctIds.size());
+        for (int from = 0; from < distinctIds.size(); from += AVAILABILITY_CHUNK_SIZE) {
+            available.putAll(availabilityNearCache.getAll(
+                    distinctIds.subList(from, Math.min(from + AVAILABILITY_CHUNK_SIZE, distinctIds.size())),
+                    stockReservationEngine::getAvailableQuantities));
+        }
+        return available;
     }
 
     /**
      * Get stock information for a product
      */
     public Stock getStockForProduct(Product product) {
-        return stockRepository.findByProduct_ProductId(product.getProductId())
-                .orElse(null);
+        return hotStockBuckets.withBuckets(stockReservationEngine.currentStock(
+                stockRepository.findByProduct_ProductId(product.getProductId()).orElse(null)));
+    }
+
+    /**
+     * Split the counters of a hot product over several rows so concurrent reservations stop queueing on one
+     * stock row (1 bucket turns hot mode off)
+     */
+    public void shardStock(Long productId, int bucketCount) {
+        hotStockBuckets.shard(productId, bucketCount);
     }
 
     /**
-     * Update stock information (used by INVENTORY_MANAGER for stock adjustments)
+     * Stock movement history of a product, newest first (recorded by the ledger engine)
+     */
+    public Page<StockMovement> getStockMovements(Long productId, Pageable pageable) {
+        return stockMovementRepository.findByProductIdOrderByMovementIdDesc(productId, pageable);
+    }
+
+    /**
+     * Update stock information (used by INVENTORY_MANAGER for stock adjustments).
+     * Not retried: if the stock changed since it was read, the versioned save fails with a conflict
+     * and the caller has to read it again.
      */
     @Transactional
     public Stock updateStock(Stock stock) {
-        return stockRepository.save(stock);
+        Stock saved = stockRepository.save(stock);
+        publishChanged(Set.of(saved.getProduct().getProductId()));
+        return saved;
+    }
+
+    /**
+     * Add delivered units to the stock of a product (used by INVENTORY_MANAGER after a supplier delivery).
+     * A product stocked per warehouse is restocked through the warehouse receiving the units.
+     */
+    public void restockProduct(Long productId, Integer quantity) {
+        restockProduct(productId, quantity, null);
+    }
+
+    /**
+     * Add delivered units to the stock of a product; with a warehouse, the units are added to that warehouse
+     * and the available quantity follows the total of the product's warehouses.
+     */
+    public void restockProduct(Long productId, Integer quantity, Long warehouseId) {
+        stockUpdateRetry.run("restock", productId, () -> {
+            if (warehouseId != null) {
+                followWarehouses(productId, () -> warehouseStockService.addQuantity(productId, warehouseId, quantity));
+            } else {
+                requireNotStockedPerWarehouse(productId);
+                stockReservationEngine.restock(productId, quantity);
+            }
+            publishChanged(Set.of(productId));
+        });
+        logger.info("Restocked " + quantity + " units for product " + productId);
+    }
+
+    /**
+     * Set the available quantity of a product after an inventory count; total moves by the same difference.
+     * A product stocked per warehouse is counted per warehouse instead.
+     */
+    public void adjustAvailableStock(Long productId, Integer newAvailableQuantity) {
+        stockUpdateRetry.run("adjust", productId, () -> {
+            requireNotStockedPerWarehouse(productId);
+            stockReservationEngine.adjustAvailable(productId, newAvailableQuantity);
+            publishChanged(Set.of(productId));
+        });
+        logger.info("Adjusted available stock of product " + productId + " to " + newAvailableQuantity);
+    }
+
+    /**
+     * Set the units of a product held by a warehouse (inventory count); the available quantity of the product
+     * becomes the total of its warehouses, in the same transaction
+     */
+    public void setWarehouseQuantity(Long productId, Long warehouseId, int quantity) {
+        stockUpdateRetry.run("warehouse", productId, () -> {
+            followWarehouses(productId, () -> warehouseStockService.setQuantity(productId, warehouseId, quantity));
+            publishChanged(Set.of(productId));
+        });
+        logger.info("Set " + quantity + " units of product " + productId + " in warehouse " + warehouseId);
+    }
+
+    /**
+     * Sets the available quantity of a product to the total of its warehouses returned by {@code change}.
+     * The stock row is locked first, then the warehouse rows, in the order a reservation takes them.
+     */
+    private void followWarehouses(Long productId, IntSupplier change) {
+        stockRepository.lockAvailableQuantities(List.of(productId));
+        stockReservationEngine.adjustAvailable(productId, change.getAsInt());
+    }
+
+    private void requireNotStockedPerWarehouse(Long productId) {
+        if (!warehouseStockService.findTrackedProducts(List.of(productId)).isEmpty()) {
+            throw new IllegalArgumentException("Product " + productId +
+                    " is stocked per warehouse: change the quantities of its warehouses");
+        }
     }
-}
\ No newline at end of file
+}
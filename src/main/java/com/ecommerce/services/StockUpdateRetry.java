@@ -0,0 +1,109 @@
+package com.ecommerce.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Runs a stock mutation in a transaction and retries it when it loses a concurrent update
+ * (optimistic version conflict, deadlock, lock timeout), with bounded attempts and jittered backoff.
+ *
+ * A retry needs a fresh transaction, so only the outermost call retries. Called inside a transaction
+ * (a checkout, or another stock mutation), the mutation joins it and a conflict goes up to whoever opened
+ * it: stock changes never commit ahead of the caller, and one request never holds two connections. The
+ * checkout retries at its own boundary ({@link CheckoutService#createOrderForUser}).
+ *
+ * Metrics, tagged with operation and product so hot SKUs stand out:
+ * - stock.update.conflicts / stock.update.retries / stock.update.giveups (counters)
+ * - stock.update.attempts (histogram of attempts per successful mutation, tagged with operation)
+ */
+@Slf4j
+@Component
+public class StockUpdateRetry {
+
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ecommerce.stock.retry.max-attempts:4}")
+    private int maxAttempts = 4;
+
+    @Value("${ecommerce.stock.retry.initial-backoff-ms:10}")
+    private long initialBackoffMs = 10;
+
+    @Value("${ecommerce.stock.retry.max-backoff-ms:200}")
+    private long maxBackoffMs = 200;
+
+    public StockUpdateRetry(PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param productId product whose stock is mutated, null when the mutation spans several products
+     */
+    public <T> T execute(String operation, Long productId, Supplier<T> mutation) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return mutation.get();
+        }
+
+        String product = productId != null ? productId.toString() : "multiple";
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = transactionTemplate.execute(status -> mutation.get());
+                DistributionSummary.builder("stock.update.attempts")
+                        .tag("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(attempt);
+                return result;
+            } catch (ConcurrencyFailureException e) {
+                counter("stock.update.conflicts", operation, product).increment();
+                if (attempt >= maxAttempts) {
+                    counter("stock.update.giveups", operation, product).increment();
+                    log.warn("Giving up {} on product {} after {} conflicting attempts", operation, product, attempt);
+                    throw e;
+                }
+                counter("stock.update.retries", operation, product).increment();
+                log.debug("Retrying {} on product {} after conflict: {}", operation, product, e.getMessage());
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    public void run(String operation, Long productId, Runnable mutation) {
+        execute(operation, productId, () -> {
+            mutation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Full jitter: a random pause between 0 and an exponentially growing, capped ceiling.
+     */
+    private void backoff(int attempt, ConcurrencyFailureException conflict) {
+        long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+
+    private Counter counter(String name, String operation, String product) {
+        return Counter.builder(name)
+                .tag("operation", operation)
+                .tag("product", product)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,38 @@
+package com.ecommerce.services;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs code once the current transaction is over, for engines whose state lives outside the database.
+ */
+final class TransactionCallbacks {
+
+    private TransactionCallbacks() {
+    }
+
+    /**
+     * Runs {@code afterCommit} once the current transaction commits, {@code afterRollback} if it rolls back.
+     * Without an active transaction {@code afterCommit} runs immediately.
+     */
+    static void onCompletion(Runnable afterCommit, Runnable afterRollback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            afterCommit.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    afterRollback.run();
+                } else {
+                    afterCommit.run();
+                }
+            }
+        });
+    }
+
+    static void onRollback(Runnable afterRollback) {
+        onCompletion(() -> { }, afterRollback);
+    }
+}
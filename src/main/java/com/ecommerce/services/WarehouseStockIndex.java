@@ -0,0 +1,280 @@
+package com.ecommerce.services;
+
+import com.ecommerce.models.Warehouse;
+import com.ecommerce.repositories.WarehouseStockRepositoryCustom.WarehouseQuantity;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the warehouse stock, keyed by product, and the allocation of a cart over it.
+ *
+ * Each product maps to an immutable entry listing the warehouses holding it in shipping order; updates
+ * replace the entry, so allocations read a consistent entry per product without locking. The database
+ * stays the authority: an allocation only picks warehouses, the guarded UPDATE decides.
+ */
+final class WarehouseStockIndex {
+
+    private final Map<Long, ProductStock> products = new ConcurrentHashMap<>();
+    // warehouseId -> shipping order of the active warehouses; inactive warehouses are absent
+    private volatile Map<Long, Integer> warehouseOrder = Map.of();
+
+    /**
+     * Replaces the whole index.
+     * @param rows {@code [productId, warehouseId, quantity]}
+     * @param warehouses active warehouses, in shipping order
+     */
+    void replaceAll(List<Warehouse> warehouses, List<Object[]> rows) {
+        setWarehouses(warehouses);
+
+        Map<Long, List<Object[]>> rowsByProduct = new HashMap<>();
+        rows.forEach(row -> rowsByProduct.computeIfAbsent(((Number) row[0]).longValue(), id -> new ArrayList<>()).add(row));
+        rowsByProduct.forEach((productId, productRows) -> products.put(productId, toProductStock(productRows)));
+        products.keySet().retainAll(rowsByProduct.keySet());
+    }
+
+    /**
+     * Replaces the active warehouses, leaving the quantities as they are.
+     * @param warehouses active warehouses, in shipping order
+     */
+    void setWarehouses(List<Warehouse> warehouses) {
+        Map<Long, Integer> order = new HashMap<>();
+        for (Warehouse warehouse : warehouses) {
+            order.put(warehouse.getWarehouseId(), order.size());
+        }
+        warehouseOrder = Map.copyOf(order);
+    }
+
+    /**
+     * Replaces the entries of some products; those without rows are no longer tracked.
+     * @param rows {@code [productId, warehouseId, quantity]} of these products
+     */
+    void replace(Collection<Long> productIds, List<Object[]> rows) {
+        Map<Long, List<Object[]>> rowsByProduct = new HashMap<>();
+        rows.forEach(row -> rowsByProduct.computeIfAbsent(((Number) row[0]).longValue(), id -> new ArrayList<>()).add(row));
+        for (Long productId : productIds) {
+            List<Object[]> productRows = rowsByProduct.get(productId);
+            if (productRows == null) {
+                products.remove(productId);
+            } else {
+                products.put(productId, toProductStock(productRows));
+            }
+        }
+    }
+
+    /**
+     * Adds {@code sign * quantity} of every line to its warehouse.
+     */
+    void add(Collection<WarehouseQuantity> lines, int sign) {
+        for (WarehouseQuantity line : lines) {
+            products.computeIfPresent(line.productId(), (productId, stock) -> stock.plus(line.warehouseId(), sign * line.quantity()));
+        }
+    }
+
+    boolean tracks(long productId) {
+        return products.containsKey(productId);
+    }
+
+    /**
+     * Picks the warehouses shipping each tracked product, minimising the number of warehouses used:
+     * - the first warehouse in shipping order that holds every line ships the whole cart;
+     * - otherwise warehouses are chosen greedily, each time the one holding the most remaining lines in full;
+     * - a line no single warehouse holds is split, over the warehouses already chosen first.
+     *
+     * Products not tracked per warehouse are left out of the allocation.
+     */
+    Allocation allocate(SortedMap<Long, Integer> quantitiesByProduct) {
+        List<Long> productIds = new ArrayList<>(quantitiesByProduct.size());
+        List<ProductStock> stocks = new ArrayList<>(quantitiesByProduct.size());
+        for (Long productId : quantitiesByProduct.keySet()) {
+            ProductStock stock = products.get(productId);
+            if (stock != null) {
+                productIds.add(productId);
+                stocks.add(stock);
+            }
+        }
+        int lineCount = productIds.size();
+        if (lineCount == 0) {
+            return Allocation.EMPTY;
+        }
+
+        // candidate warehouses in shipping order, and held[line][candidate]
+        Map<Long, Integer> order = warehouseOrder;
+        long[] candidates = candidates(stocks, order);
+        int candidateCount = candidates.length;
+        int[][] held = new int[lineCount][candidateCount];
+        int[] needed = new int[lineCount];
+        for (int line = 0; line < lineCount; line++) {
+            needed[line] = quantitiesByProduct.get(productIds.get(line));
+            ProductStock stock = stocks.get(line);
+            for (int i = 0; i < stock.warehouseIds.length; i++) {
+                int candidate = Arrays.binarySearch(candidates, 0, candidateCount, stock.warehouseIds[i]);
+                if (candidate >= 0) {
+                    held[line][candidate] = stock.quantities[i];
+                }
+            }
+        }
+        int[] candidateOrder = shippingOrder(candidates, order);
+
+        int[] assigned = new int[lineCount];
+        Arrays.fill(assigned, -1);
+        boolean[] chosen = new boolean[candidateCount];
+        int remaining = lineCount;
+
+        while (remaining > 0) {
+            int best = -1;
+            int bestCovered = 0;
+            for (int candidate : candidateOrder) {
+                if (chosen[candidate]) {
+                    continue;
+                }
+                int covered = 0;
+                for (int line = 0; line < lineCount; line++) {
+                    if (assigned[line] < 0 && held[line][candidate] >= needed[line]) {
+                        covered++;
+                    }
+                }
+                if (covered > bestCovered) {
+                    best = candidate;
+                    bestCovered = covered;
+                    if (covered == remaining) {
+                        break;
+                    }
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            chosen[best] = true;
+            for (int line = 0; line < lineCount; line++) {
+                if (assigned[line] < 0 && held[line][best] >= needed[line]) {
+                    assigned[line] = best;
+                    remaining--;
+                }
+            }
+        }
+
+        List<WarehouseQuantity> lines = new ArrayList<>(lineCount + 2);
+        List<Long> shortProducts = new ArrayList<>();
+        for (int line = 0; line < lineCount; line++) {
+            long productId = productIds.get(line);
+            if (assigned[line] >= 0) {
+                lines.add(new WarehouseQuantity(productId, candidates[assigned[line]], needed[line]));
+            } else if (!split(productId, needed[line], held[line], candidates, candidateOrder, chosen, lines)) {
+                shortProducts.add(productId);
+            }
+        }
+
+        int shipments = 0;
+        for (boolean used : chosen) {
+            shipments += used ? 1 : 0;
+        }
+        lines.sort(Comparator.comparingLong(WarehouseQuantity::productId).thenComparingLong(WarehouseQuantity::warehouseId));
+        return new Allocation(lines, shortProducts, shipments);
+    }
+
+    /**
+     * Spreads one line over the warehouses already chosen, then over the others in shipping order.
+     * @return false, leaving {@code lines} untouched, if the warehouses together hold too few units
+     */
+    private static boolean split(long productId, int needed, int[] held, long[] candidates, int[] candidateOrder,
+                                 boolean[] chosen, List<WarehouseQuantity> lines) {
+        long total = 0;
+        for (int quantity : held) {
+            total += quantity;
+        }
+        if (total < needed) {
+            return false;
+        }
+
+        int left = needed;
+        for (int pass = 0; pass < 2 && left > 0; pass++) {
+            for (int candidate : candidateOrder) {
+                if (left == 0) {
+                    break;
+                }
+                if (chosen[candidate] != (pass == 0) || held[candidate] == 0) {
+                    continue;
+                }
+                int take = Math.min(left, held[candidate]);
+                lines.add(new WarehouseQuantity(productId, candidates[candidate], take));
+                chosen[candidate] = true;
+                left -= take;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorted ids of the active warehouses holding at least one unit of one of the products.
+     */
+    private static long[] candidates(List<ProductStock> stocks, Map<Long, Integer> order) {
+        long[] ids = new long[16];
+        int count = 0;
+        for (ProductStock stock : stocks) {
+            for (int i = 0; i < stock.warehouseIds.length; i++) {
+                if (stock.quantities[i] > 0 && order.containsKey(stock.warehouseIds[i])) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = stock.warehouseIds[i];
+                }
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    /**
+     * Candidate indexes sorted by the shipping order of their warehouses.
+     */
+    private static int[] shippingOrder(long[] candidates, Map<Long, Integer> order) {
+        Integer[] indexes = new Integer[candidates.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, Comparator.comparingInt(i -> order.get(candidates[i])));
+        int[] sorted = new int[indexes.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = indexes[i];
+        }
+        return sorted;
+    }
+
+    private static ProductStock toProductStock(List<Object[]> rows) {
+        long[] warehouseIds = new long[rows.size()];
+        int[] quantities = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            warehouseIds[i] = ((Number) rows.get(i)[1]).longValue();
+            quantities[i] = ((Number) rows.get(i)[2]).intValue();
+        }
+        return new ProductStock(warehouseIds, quantities);
+    }
+
+    /**
+     * @param lines units to take per (product, warehouse), in (productId, warehouseId) order
+     * @param shortProducts tracked products the warehouses cannot cover, even together
+     * @param shipments number of warehouses shipping the cart
+     */
+    record Allocation(List<WarehouseQuantity> lines, List<Long> shortProducts, int shipments) {
+        static final Allocation EMPTY = new Allocation(List.of(), List.of(), 0);
+    }
+
+    private record ProductStock(long[] warehouseIds, int[] quantities) {
+        ProductStock plus(long warehouseId, int delta) {
+            int[] updated = quantities.clone();
+            for (int i = 0; i < warehouseIds.length; i++) {
+                if (warehouseIds[i] == warehouseId) {
+                    updated[i] = Math.max(0, updated[i] + delta);
+                }
+            }
+            return new ProductStock(warehouseIds, updated);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.ecommerce.services;
+
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.ResourceNotFoundException;
+import com.ecommerce.models.Warehouse;
+import com.ecommerce.repositories.WarehouseRepository;
+import com.ecommerce.repositories.WarehouseStockRepository;
+import com.ecommerce.repositories.WarehouseStockRepositoryCustom.WarehouseQuantity;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Stock per (product, warehouse) and the choice of the warehouses shipping a cart.
+ *
+ * The available quantity of a product with warehouse rows is the total of its warehouses: every write of
+ * these rows returns the new total, for the caller to set in the same transaction (see
+ * {@link StockService#setWarehouseQuantity}).
+ *
+ * Allocation runs on an in-memory {@link WarehouseStockIndex} and is then applied with one guarded UPDATE.
+ * The index is loaded once, then kept up to date from the stock change events: changes made here update it
+ * directly, products changed on another instance are read again. It is also reloaded, for the products
+ * concerned, whenever the database disagrees with it (a change event was missed, or another instance
+ * allocated the units first): the guarded UPDATE then fails the attempt with a concurrency failure so
+ * {@link StockUpdateRetry} runs the reservation again on fresh quantities. Only the list of active
+ * warehouses is refreshed periodically.
+ *
+ * Metrics:
+ * - stock.warehouse.allocation: time spent choosing the warehouses of a cart (in memory)
+ * - stock.warehouse.shipments: warehouses shipping each allocated cart
+ */
+@Slf4j
+@Service
+public class WarehouseStockService {
+
+    private final WarehouseRepository warehouseRepository;
+    private final WarehouseStockRepository warehouseStockRepository;
+    private final WarehouseStockIndex index = new WarehouseStockIndex();
+    private final Timer allocationTimer;
+    private final DistributionSummary shipments;
+    private volatile boolean loaded;
+
+    public WarehouseStockService(WarehouseRepository warehouseRepository,
+                                 WarehouseStockRepository warehouseStockRepository,
+                                 MeterRegistry meterRegistry) {
+        this.warehouseRepository = warehouseRepository;
+        this.warehouseStockRepository = warehouseStockRepository;
+        this.allocationTimer = Timer.builder("stock.warehouse.allocation")
+                .description("Time spent choosing the warehouses of a cart")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.shipments = DistributionSummary.builder("stock.warehouse.shipments")
+                .description("Warehouses shipping each allocated cart")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Takes the units of a cart out of the warehouses chosen to ship them.
+     * Must run in the reservation transaction; the index is restored if it rolls back.
+     *
+     * @return units taken per (product, warehouse), in (productId, warehouseId) order; products not tracked
+     * per warehouse are absent
+     */
+    public List<WarehouseQuantity> allocate(SortedMap<Long, Integer> quantitiesByProduct) {
+        ensureLoaded();
+        WarehouseStockIndex.Allocation allocation = allocationTimer.record(() -> index.allocate(quantitiesByProduct));
+        if (!allocation.shortProducts().isEmpty()) {
+            // the index may be behind: check these products against the database once
+            reload(allocation.shortProducts());
+            allocation = allocationTimer.record(() -> index.allocate(quantitiesByProduct));
+            if (!allocation.shortProducts().isEmpty()) {
+                throw new InsufficientStockException(
+                        "No warehouse holds enough units of products " + allocation.shortProducts(),
+                        allocation.shortProducts());
+            }
+        }
+
+        List<WarehouseQuantity> lines = allocation.lines();
+        if (lines.isEmpty()) {
+            return lines;
+        }
+        if (warehouseStockRepository.takeQuantities(lines) < lines.size()) {
+            Set<Long> productIds = new TreeSet<>();
+            lines.forEach(line -> productIds.add(line.productId()));
+            reload(productIds);
+            throw new OptimisticLockingFailureException("Warehouse stock of products " + productIds +
+                    " changed during allocation");
+        }
+
+        index.add(lines, -1);
+        TransactionCallbacks.onRollback(() -> index.add(lines, 1));
+        shipments.record(allocation.shipments());
+        return lines;
+    }
+
+    /**
+     * Gives released units back to the warehouses they were allocated from.
+     */
+    public void release(Collection<WarehouseQuantity> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        warehouseStockRepository.returnQuantities(lines);
+        index.add(lines, 1);
+        TransactionCallbacks.onRollback(() -> index.add(lines, -1));
+    }
+
+    public List<Warehouse> getWarehouses() {
+        return warehouseRepository.findAll();
+    }
+
+    public Warehouse createWarehouse(Warehouse warehouse) {
+        if (warehouseRepository.existsByCode(warehouse.getCode())) {
+            throw new IllegalArgumentException("Warehouse code already exists: " + warehouse.getCode());
+        }
+        Warehouse saved = warehouseRepository.save(warehouse);
+        refreshWarehouses();
+        return saved;
+    }
+
+    /**
+     * Sets the unallocated units of a product held by a warehouse (inventory count).
+     * Must run in the transaction that sets the available quantity of the product to the returned total.
+     *
+     * @return units of the product held by all its warehouses
+     */
+    public int setQuantity(Long productId, Long warehouseId, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity must not be negative");
+        }
+        return changeQuantity(productId, warehouseId, held -> quantity);
+    }
+
+    /**
+     * Adds delivered units to a warehouse; same contract as {@link #setQuantity}.
+     */
+    public int addQuantity(Long productId, Long warehouseId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        return changeQuantity(productId, warehouseId, held -> held + quantity);
+    }
+
+    /**
+     * @return the products among these stocked per warehouse: their available quantity only changes
+     * through their warehouses
+     */
+    public Set<Long> findTrackedProducts(Collection<Long> productIds) {
+        return productIds.isEmpty() ? Set.of() : warehouseStockRepository.findTrackedProductIds(productIds);
+    }
+
+    /**
+     * Products changed on another instance are read again; the changes made here already updated the index.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        if (!event.remote() || !loaded) {
+            return;
+        }
+        try {
+            reload(event.productIds());
+        } catch (RuntimeException e) {
+            // a stale entry is caught by the guarded UPDATE
+            log.warn("Could not reload warehouse stock of {} products", event.productIds().size(), e);
+        }
+    }
+
+    /**
+     * Reloads the active warehouses and their shipping order; quantities follow the change events.
+     */
+    @Scheduled(fixedDelayString = "${ecommerce.stock.warehouses.refresh-interval-ms:60000}")
+    public void refreshWarehouses() {
+        if (loaded) {
+            index.setWarehouses(warehouseRepository.findByActiveTrueOrderByShippingRankAscWarehouseIdAsc());
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    index.replaceAll(warehouseRepository.findByActiveTrueOrderByShippingRankAscWarehouseIdAsc(),
+                            warehouseStockRepository.findAllQuantities());
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Locks the rows of the product so the total is not read across a concurrent allocation, then writes
+     * the warehouse's new quantity.
+     */
+    private int changeQuantity(Long productId, Long warehouseId, IntUnaryOperator quantity) {
+        if (!warehouseRepository.existsById(warehouseId)) {
+            throw new ResourceNotFoundException("Warehouse not found: " + warehouseId);
+        }
+        int held = 0;
+        int others = 0;
+        for (Object[] row : warehouseStockRepository.lockQuantities(productId)) {
+            if (((Number) row[0]).longValue() == warehouseId) {
+                held = ((Number) row[1]).intValue();
+            } else {
+                others += ((Number) row[1]).intValue();
+            }
+        }
+        int updated = quantity.applyAsInt(held);
+        warehouseStockRepository.upsertQuantity(productId, warehouseId, updated);
+        TransactionCallbacks.onCompletion(() -> reload(List.of(productId)), () -> { });
+        return others + updated;
+    }
+
+    private void reload(Collection<Long> productIds) {
+        index.replace(productIds, warehouseStockRepository.findQuantities(productIds));
+    }
+}
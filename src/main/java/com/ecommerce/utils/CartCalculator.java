@@ -1,11 +1,74 @@
 package com.ecommerce.utils;
 
 import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.models.Product;
 import org.springframework.stereotype.Component;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Cart totals: totalItems is the number of units, totalAmount their price.
+ *
+ * Amounts are added up in minor units (cents), a unit price being rounded half-up to the cent once,
+ * so totals are exact whatever the number of mutations. Mutations move the totals by the line's delta
+ * ({@link #addUnits}) instead of rescanning the cart; {@link #updateTotals} is the full recomputation.
+ */
 @Component
 public class CartCalculator {
+
+    /**
+     * Price a unit of the product is sold at: its discount price while a valid discount is on
+     */
+    public double unitPrice(Product product) {
+        Double price = product.getPrice();
+        Double discountPrice = product.getDiscountPrice();
+        if (product.isWithDiscount() && discountPrice != null && discountPrice >= 0
+                && (price == null || discountPrice < price)) {
+            return discountPrice;
+        }
+        return price != null ? price : 0.0;
+    }
+
+    /**
+     * Moves the totals by {@code quantity} units at {@code unitPrice} (negative to take units off).
+     * Call it with the change just applied to the items.
+     */
+    public void addUnits(Cart cart, double unitPrice, int quantity) {
+        cart.updateTotals(cart.getTotalItems() + quantity,
+                fromMinorUnits(toMinorUnits(cart.getTotalAmount()) + toMinorUnits(unitPrice) * quantity));
+    }
+
+    /**
+     * Recomputes the totals of a cart loaded without them: missing, or left at zero by rows written
+     * before totals were maintained. Call it before changing the items.
+     */
+    public void ensureTotals(Cart cart) {
+        if (cart.getTotalItems() == null || cart.getTotalAmount() == null
+                || cart.getTotalItems() == 0 && !cart.getItems().isEmpty()) {
+            updateTotals(cart);
+        }
+    }
+
+    /**
+     * Full recomputation from the items
+     */
     public void updateTotals(Cart cart) {
-        
+        int totalItems = 0;
+        long totalMinor = 0;
+        for (CartItem item : cart.getItems()) {
+            totalItems += item.getQuantity();
+            totalMinor += toMinorUnits(item.getPrice()) * item.getQuantity();
+        }
+        cart.updateTotals(totalItems, fromMinorUnits(totalMinor));
+    }
+
+    public static long toMinorUnits(double amount) {
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static double fromMinorUnits(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, 2).doubleValue();
     }
 }
@@ -0,0 +1,145 @@
+package com.ecommerce.utils;
+
+/**
+ * Open-addressing map from long keys to int values, without boxing.
+ * Used for per-product quantities looked up in bulk (productId -> available quantity).
+ * Not thread-safe.
+ */
+public class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int resizeAt;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * @return the value of the key, or {@code defaultValue} when the key is absent
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        int slot = slot(key);
+        return used[slot] ? values[slot] : defaultValue;
+    }
+
+    public void put(long key, int value) {
+        int slot = slot(key);
+        values[slot] = value;
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            if (++size > resizeAt) {
+                rehash(keys.length << 1);
+            }
+        }
+    }
+
+    public void putAll(LongIntHashMap other) {
+        other.forEach(this::put);
+    }
+
+    public void forEach(Entry consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Entry {
+        void accept(long key, int value);
+    }
+
+    /**
+     * @return the slot holding the key, or the free slot where it would be inserted
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> builder.append(builder.length() > 1 ? ", " : "").append(key).append('=').append(value));
+        return builder.append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LongIntHashMap other) || other.size != size) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && (!other.containsKey(keys[i]) || other.getOrDefault(keys[i], 0) != values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                hash += Long.hashCode(keys[i]) ^ values[i];
+            }
+        }
+        return hash;
+    }
+}
@@ -30,4 +30,39 @@ public class StockValidator {
         }
 
     }
+
+    /**
+     * Checks one product against quantities read through the stock engine (a hot product's buckets included)
+     * @param availableQuantities productId -> available quantity
+     * @throws StockNotFound if the product has no stock
+     * @throws InsufficientStockException if stock is insufficient
+     */
+    public void validateAvailableQuantity(LongIntHashMap availableQuantities, long productId, int requestedQuantity) {
+        if (!availableQuantities.containsKey(productId)) {
+            throw new StockNotFound("Stock not found for product: " + productId);
+        }
+        int available = availableQuantities.getOrDefault(productId, 0);
+        if (available < requestedQuantity) {
+            logger.warn("Insufficient stock: productId={}, available={}, requested={}",
+                    productId, available, requestedQuantity);
+            throw new InsufficientStockException(
+                    String.format("Insufficient stock. Available: %d, Requested: %d",
+                            available, requestedQuantity));
+        }
+    }
+
+    /**
+     * Checks a whole cart batch against quantities read in one lookup
+     * @param availableQuantities productId -> available quantity
+     * @param requestedQuantities productId -> quantity the cart line would hold, 0 for a removed line (not checked)
+     * @throws StockNotFound if a requested product has no stock
+     * @throws InsufficientStockException if stock is insufficient for a product
+     */
+    public void validateAvailableQuantities(LongIntHashMap availableQuantities, LongIntHashMap requestedQuantities) {
+        requestedQuantities.forEach((productId, requestedQuantity) -> {
+            if (requestedQuantity > 0) {
+                validateAvailableQuantity(availableQuantities, productId, requestedQuantity);
+            }
+        });
+    }
 }
@@ -0,0 +1,107 @@
+-- Mise à niveau du schéma de production (ddl-auto: validate) : tables, colonnes, séquences et index ajoutés
+-- aux entités. Idempotent, exécuté au démarrage par spring.sql.init avant la validation Hibernate
+-- (voir application-prod.yml), en une seule transaction.
+
+-- Moteur de stock : verrou optimiste, journal des mouvements, compartiments des produits chauds
+ALTER TABLE stock ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE stock ADD COLUMN IF NOT EXISTS last_movement_id bigint NOT NULL DEFAULT 0;
+
+CREATE SEQUENCE IF NOT EXISTS stock_movement_seq START WITH 1 INCREMENT BY 1;
+CREATE TABLE IF NOT EXISTS stock_movements (
+    movement_id bigint NOT NULL,
+    product_id bigint NOT NULL,
+    type varchar(255) NOT NULL CHECK (type IN ('RESERVE','RELEASE','CONFIRM','RESTOCK','ADJUST')),
+    available_delta integer NOT NULL,
+    reserved_delta integer NOT NULL,
+    total_delta integer NOT NULL,
+    created_at timestamp(6),
+    PRIMARY KEY (movement_id)
+);
+CREATE INDEX IF NOT EXISTS idx_movement_product ON stock_movements (product_id, movement_id);
+-- Motif d'un mouvement manuel (import de stock)
+ALTER TABLE stock_movements ADD COLUMN IF NOT EXISTS reason varchar(255);
+
+CREATE TABLE IF NOT EXISTS stock_buckets (
+    bucket_id bigserial NOT NULL,
+    product_id bigint NOT NULL,
+    bucket_no integer NOT NULL,
+    available_quantity integer NOT NULL,
+    reserved_quantity integer NOT NULL,
+    confirmed_quantity integer NOT NULL,
+    PRIMARY KEY (bucket_id),
+    CONSTRAINT idx_bucket_product UNIQUE (product_id, bucket_no)
+);
+
+-- Entrepôts
+CREATE TABLE IF NOT EXISTS warehouses (
+    warehouse_id bigserial NOT NULL,
+    code varchar(255) NOT NULL,
+    name varchar(255) NOT NULL,
+    address text NOT NULL,
+    shipping_rank integer NOT NULL,
+    active boolean NOT NULL,
+    PRIMARY KEY (warehouse_id),
+    CONSTRAINT idx_warehouse_code UNIQUE (code)
+);
+CREATE TABLE IF NOT EXISTS warehouse_stock (
+    warehouse_stock_id bigserial NOT NULL,
+    product_id bigint NOT NULL,
+    warehouse_id bigint NOT NULL,
+    quantity integer NOT NULL,
+    PRIMARY KEY (warehouse_stock_id),
+    CONSTRAINT idx_warehouse_stock_product UNIQUE (product_id, warehouse_id)
+);
+ALTER TABLE stock_reservations ADD COLUMN IF NOT EXISTS warehouse_id bigint;
+
+-- Réapprovisionnement
+CREATE TABLE IF NOT EXISTS replenishment_runs (
+    run_id bigserial NOT NULL,
+    started_at timestamp(6) NOT NULL,
+    sales_through timestamp(6) NOT NULL,
+    finished_at timestamp(6),
+    products_analyzed integer,
+    suggestions_created integer,
+    PRIMARY KEY (run_id)
+);
+CREATE INDEX IF NOT EXISTS idx_replenishment_run_sales_through ON replenishment_runs (sales_through);
+
+CREATE SEQUENCE IF NOT EXISTS replenishment_suggestion_seq START WITH 1 INCREMENT BY 50;
+CREATE TABLE IF NOT EXISTS replenishment_suggestions (
+    suggestion_id bigint NOT NULL,
+    run_id bigint NOT NULL,
+    product_id bigint NOT NULL,
+    available_quantity integer NOT NULL,
+    reorder_point integer NOT NULL,
+    sales_velocity float(53) NOT NULL,
+    suggested_quantity integer NOT NULL,
+    created_at timestamp(6),
+    PRIMARY KEY (suggestion_id)
+);
+CREATE INDEX IF NOT EXISTS idx_suggestion_product ON replenishment_suggestions (product_id);
+
+CREATE TABLE IF NOT EXISTS product_sales_velocity (
+    product_id bigint NOT NULL,
+    decayed_units float(53) NOT NULL,
+    decayed_at timestamp(6) NOT NULL,
+    PRIMARY KEY (product_id)
+);
+
+-- Ventes confirmées déjà cumulées dans product_sales_velocity. À l'ajout de la colonne, les confirmations
+-- antérieures à la dernière exécution du réapprovisionnement sont marquées comptées, une seule fois.
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_schema = current_schema()
+                     AND table_name = 'stock_reservations' AND column_name = 'sales_counted') THEN
+        ALTER TABLE stock_reservations ADD COLUMN sales_counted boolean NOT NULL DEFAULT false;
+        UPDATE stock_reservations SET sales_counted = true
+        WHERE status = 'CONFIRMED'
+          AND confirmed_at <= (SELECT max(sales_through) FROM replenishment_runs);
+    END IF;
+END $$;
+DROP INDEX IF EXISTS idx_reservation_confirmed;
+CREATE INDEX IF NOT EXISTS idx_reservation_sales_counted ON stock_reservations (sales_counted, status);
+
+-- Paniers : fusion du panier invité à la connexion, purge des paniers invités expirés
+CREATE INDEX IF NOT EXISTS idx_cart_guest_cart_id ON carts (guest_cart_id);
+CREATE INDEX IF NOT EXISTS idx_cart_expires_at ON carts (expires_at);
@@ -0,0 +1,59 @@
+package com.ecommerce.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartTest {
+
+    @Test
+    void index_followsAddRemoveAndClear() {
+        Cart cart = Cart.builder().build();
+        for (long productId = 1; productId <= 500; productId++) {
+            cart.addItem(line(productId, 1));
+        }
+
+        assertTrue(cart.containsProduct(250L));
+        assertEquals(250L, cart.findItem(250L).orElseThrow().getProductId());
+
+        CartItem removed = cart.removeItem(250L);
+        assertEquals(250L, removed.getProductId());
+        assertFalse(cart.containsProduct(250L));
+        assertEquals(499, cart.getItems().size());
+        assertNull(cart.removeItem(250L));
+
+        cart.clearItems();
+        assertFalse(cart.containsProduct(1L));
+        assertTrue(cart.getItems().isEmpty());
+    }
+
+    @Test
+    void removeItem_removesThatLineOnly_evenWhenNoLineHasAnId() {
+        Cart cart = Cart.builder().build();
+        cart.addItem(line(1L, 1));
+        cart.addItem(line(2L, 2));
+
+        cart.removeItem(2L);
+
+        assertEquals(List.of(1L), cart.getItems().stream().map(CartItem::getProductId).toList());
+    }
+
+    @Test
+    void index_isRebuiltWhenTheListIsReplaced() {
+        Cart cart = Cart.builder().build();
+        cart.addItem(line(1L, 1));
+
+        List<CartItem> loaded = new ArrayList<>(List.of(line(7L, 3)));
+        cart.setItems(loaded);
+
+        assertFalse(cart.containsProduct(1L));
+        assertEquals(3, cart.findItem(7L).orElseThrow().getQuantity());
+    }
+
+    private static CartItem line(Long productId, int quantity) {
+        return CartItem.builder().productId(productId).quantity(quantity).price(1.0).build();
+    }
+}
@@ -0,0 +1,97 @@
+package com.ecommerce.services;
+
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AvailabilityNearCacheTest {
+
+    private StringRedisTemplate redisTemplate;
+    private ApplicationEventPublisher eventPublisher;
+    private AvailabilityNearCache cache;
+
+    @BeforeEach
+    void setup() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        cache = new AvailabilityNearCache(redisTemplate, mock(RedisMessageListenerContainer.class), eventPublisher,
+                new SimpleMeterRegistry(), true, 1000, 60000, true);
+    }
+
+    @Test
+    void getAll_loadsOnlyMisses_andServesThemFromCacheAfterwards() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(1L, productId -> 5);
+
+        LongIntHashMap first = cache.getAll(List.of(1L, 2L, 3L), misses -> {
+            loads.incrementAndGet();
+            assertEquals(List.of(2L, 3L), misses);
+            LongIntHashMap loaded = new LongIntHashMap();
+            loaded.put(2L, 7);
+            return loaded;
+        });
+        LongIntHashMap second = cache.getAll(List.of(1L, 2L), misses -> fail("should be cached: " + misses));
+
+        assertEquals(1, loads.get());
+        assertEquals(5, first.getOrDefault(1L, -1));
+        assertEquals(7, first.getOrDefault(2L, -1));
+        assertFalse(first.containsKey(3L));
+        assertEquals(first.getOrDefault(2L, -1), second.getOrDefault(2L, -1));
+    }
+
+    @Test
+    void get_doesNotCacheValueLoadedWhileStockChanged() {
+        Integer stale = cache.get(1L, productId -> {
+            cache.onStockChanged(new StockChangedEvent(Set.of(1L)));
+            return 10;
+        });
+
+        assertEquals(10, stale);
+        assertEquals(3, cache.get(1L, productId -> 3));
+    }
+
+    @Test
+    void onStockChanged_invalidatesLocally_andBroadcastsProductIds() {
+        cache.get(1L, productId -> 10);
+
+        cache.onStockChanged(new StockChangedEvent(Set.of(1L)));
+
+        assertEquals(4, cache.get(1L, productId -> 4));
+        verify(redisTemplate).convertAndSend(eq(AvailabilityNearCache.CHANNEL), endsWith(":1"));
+    }
+
+    @Test
+    void onMessage_fromAnotherNode_invalidatesEntries() {
+        cache.get(1L, productId -> 10);
+        cache.get(2L, productId -> 20);
+
+        cache.onMessage(new DefaultMessage(AvailabilityNearCache.CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "other-node:1".getBytes(StandardCharsets.UTF_8)), null);
+
+        assertEquals(11, cache.get(1L, productId -> 11));
+        assertEquals(20, cache.get(2L, productId -> 21));
+        verify(eventPublisher).publishEvent(new StockChangedEvent(Set.of(1L), true));
+    }
+
+    @Test
+    void onStockChanged_remote_isNotBroadcastAgain() {
+        cache.onStockChanged(new StockChangedEvent(Set.of(1L), true));
+
+        verify(redisTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+}
@@ -0,0 +1,134 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore.CartKey;
+import com.ecommerce.dto.CartSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class CartCacheTest {
+
+    private static final CartKey USER = CartKey.user(7L);
+
+    private StringRedisTemplate redisTemplate;
+    private ValueOperations<String, String> valueOperations;
+    private SimpleMeterRegistry meterRegistry;
+    private CartCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new CartCache(redisTemplate, mock(RedisMessageListenerContainer.class),
+                new ObjectMapper().findAndRegisterModules(), meterRegistry, true, 1000, 60000, 300);
+    }
+
+    @Test
+    void get_loadsOnce_writesL2UnderCurrentVersion_thenServesFromL1() {
+        when(valueOperations.get("cart:version:user:7")).thenReturn("3");
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(5, cache.get("count", USER, Integer.class, () -> 5 + loads.getAndIncrement()));
+        assertEquals(5, cache.get("count", USER, Integer.class, () -> 5 + loads.getAndIncrement()));
+
+        assertEquals(1, loads.get());
+        verify(valueOperations).set("cart:cache:count:user:7:3", "5", Duration.ofSeconds(300));
+        assertEquals(1.0, requests("count", "miss"));
+        assertEquals(1.0, requests("count", "l1"));
+    }
+
+    @Test
+    void get_onL1Miss_readsL2WithoutLoading() {
+        when(valueOperations.get("cart:cache:summary:user:7:0"))
+                .thenReturn("{\"userId\":7,\"items\":[],\"totalItems\":2,\"lastUpdatedAt\":\"17-10-2026 10:00:00\"}");
+
+        CartSummary summary = cache.get("summary", USER, CartSummary.class,
+                () -> fail("should be read from L2"));
+
+        assertEquals(7L, summary.userId());
+        assertEquals(2, summary.totalItems());
+        assertEquals(1.0, requests("summary", "l2"));
+    }
+
+    @Test
+    void invalidate_dropsLocalEntry_bumpsVersion_andBroadcastsCartKey() {
+        cache.get("count", USER, Integer.class, () -> 5);
+
+        cache.invalidate(USER);
+
+        assertEquals(6, cache.get("count", USER, Integer.class, () -> 6));
+        verify(valueOperations).increment("cart:version:user:7");
+        verify(redisTemplate).convertAndSend(eq(CartCache.CHANNEL), endsWith(":user:7"));
+    }
+
+    @Test
+    void get_doesNotKeepValueLoadedWhileCartChanged() {
+        Integer stale = cache.get("count", USER, Integer.class, () -> {
+            cache.invalidate(USER);
+            return 5;
+        });
+
+        assertEquals(5, stale);
+        assertEquals(6, cache.get("count", USER, Integer.class, () -> 6));
+    }
+
+    @Test
+    void get_keepsValueLoadedWhileAnotherCartChanged() {
+        cache.get("count", USER, Integer.class, () -> {
+            cache.invalidate(CartKey.guest("g1"));
+            return 5;
+        });
+
+        assertEquals(5, cache.get("count", USER, Integer.class, () -> fail("should be served from L1")));
+    }
+
+    @Test
+    void onMessage_fromAnotherNode_invalidatesThatCartOnly() {
+        cache.get("count", USER, Integer.class, () -> 5);
+        cache.get("count", CartKey.guest("g1"), Integer.class, () -> 1);
+
+        cache.onMessage(new DefaultMessage(CartCache.CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "other-node:user:7".getBytes(StandardCharsets.UTF_8)), null);
+
+        assertEquals(6, cache.get("count", USER, Integer.class, () -> 6));
+        assertEquals(1, cache.get("count", CartKey.guest("g1"), Integer.class, () -> 2));
+    }
+
+    @Test
+    void get_whenRedisIsDown_stillServesFromStore() {
+        when(valueOperations.get(anyString())).thenThrow(new RedisConnectionFailureException("connection refused"));
+
+        assertEquals(5, cache.get("count", USER, Integer.class, () -> 5));
+        verify(valueOperations, never()).set(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    void get_whenL2EntryIsUnreadable_loadsFromStore() {
+        when(valueOperations.get("cart:cache:count:user:7:0")).thenReturn("not json");
+
+        assertEquals(5, cache.get("count", USER, Integer.class, () -> 5));
+        assertEquals(1.0, requests("count", "miss"));
+    }
+
+    private double requests(String cacheName, String result) {
+        return meterRegistry.get("cart.cache.requests").tag("cache", cacheName).tag("result", result)
+                .counter().count();
+    }
+}
@@ -0,0 +1,145 @@
+package com.ecommerce.services;
+
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.models.Product;
+import com.ecommerce.models.Stock;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.repositories.ProductRepository;
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.StockValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Statements sent by the cart reads and the guest cart merge: constant, whatever the number of lines.
+ */
+public class CartServiceQueryCountTest extends PostgresContainerTest {
+
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private StockRepository stockRepository;
+    @Autowired
+    private StockBucketRepository stockBucketRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private CartService cartService;
+
+    @BeforeEach
+    void setup() {
+        JpaStockReservationEngine engine = new JpaStockReservationEngine(stockRepository,
+                new HotStockBuckets(stockRepository, stockBucketRepository, transactionManager));
+        // availability as the stock service reads it, without its near-cache
+        StockService stockService = mock(StockService.class);
+        when(stockService.getAvailableStock(anyCollection()))
+                .thenAnswer(invocation -> engine.getAvailableQuantities(invocation.<Collection<Long>>getArgument(0)));
+        cartService = new CartService(productRepository,
+                new StockValidator(), new CartCalculator(), stockService,
+                new JpaCartStore(cartRepository, new CartCalculator()),
+                new CartCache(mock(StringRedisTemplate.class), mock(RedisMessageListenerContainer.class),
+                        new ObjectMapper(), new SimpleMeterRegistry(), false, 1000, 30000, 300));
+    }
+
+    @Test
+    void getUserCartSummary_issuesTheSameStatementsForOneItemAndTwentyItems() {
+        List<Long> productIds = products(20);
+        userCart(1L, 7L, productIds.subList(0, 1));
+        userCart(2L, 8L, productIds);
+
+        long singleItem = statementCount(() -> cartService.getUserCartSummary(7L));
+        long twentyItems = statementCount(() -> cartService.getUserCartSummary(8L));
+
+        assertEquals(singleItem, twentyItems);
+        // the cart with its lines, the product summaries, the available quantities
+        assertEquals(3, twentyItems);
+    }
+
+    @Test
+    void mergeGuestCart_issuesTheSameStatementsForOneLineAndTwentyLines() {
+        List<Long> productIds = products(20);
+        userCart(1L, 7L, productIds.subList(0, 1));
+        guestCart(2L, "g1", productIds.subList(0, 1));
+        userCart(3L, 8L, productIds);
+        guestCart(4L, "g2", productIds);
+
+        long singleLine = statementCount(() -> cartService.mergeGuestCart("g1", 7L));
+        long twentyLines = statementCount(() -> cartService.mergeGuestCart("g2", 8L));
+
+        assertEquals(singleLine, twentyLines);
+        assertEquals(2, cartRepository.findByUserId(8L).orElseThrow().findItem(productIds.get(19))
+                .orElseThrow().getQuantity());
+        assertFalse(cartRepository.existsByGuestCartId("g2"));
+    }
+
+    @Test
+    void mergeGuestCart_secondMergeOfTheSameGuestCart_addsNothing() {
+        List<Long> productIds = products(2);
+        userCart(1L, 7L, productIds);
+        guestCart(2L, "g1", productIds);
+
+        cartService.mergeGuestCart("g1", 7L);
+        cartService.mergeGuestCart("g1", 7L);
+        entityManager.flush();
+        entityManager.clear();
+
+        Cart merged = cartRepository.findByUserId(7L).orElseThrow();
+        assertEquals(4, merged.getTotalItems());
+        assertEquals(2, merged.findItem(productIds.get(0)).orElseThrow().getQuantity());
+    }
+
+    /**
+     * Products with 100 units available each.
+     */
+    private List<Long> products(int count) {
+        List<Long> productIds = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            Product product = Product.builder().name("Product " + i).brand("Brand").price(10.0).build();
+            product.setStock(Stock.builder()
+                    .product(product)
+                    .totalQuantity(100)
+                    .availableQuantity(100)
+                    .build());
+            productIds.add(entityManager.persist(product).getProductId());
+        }
+        return productIds;
+    }
+
+    private Cart userCart(Long cartId, Long userId, List<Long> productIds) {
+        return entityManager.persist(cart(Cart.builder().cartId(cartId).userId(userId), productIds));
+    }
+
+    private Cart guestCart(Long cartId, String guestCartId, List<Long> productIds) {
+        return entityManager.persist(cart(Cart.builder().cartId(cartId).guestCartId(guestCartId)
+                .isTemporary(true).expiresAt(LocalDateTime.now().plusDays(1)), productIds));
+    }
+
+    private static Cart cart(Cart.CartBuilder builder, List<Long> productIds) {
+        Cart cart = builder.lastUpdatedAt(LocalDateTime.now()).createdAt(LocalDateTime.now()).build();
+        for (Long productId : productIds) {
+            cart.addItem(CartItem.builder().productId(productId).quantity(1).price(10.0).build());
+        }
+        new CartCalculator().updateTotals(cart);
+        return cart;
+    }
+}
@@ -0,0 +1,254 @@
+package com.ecommerce.services;
+
+import com.ecommerce.dto.CartBatchRequest;
+import com.ecommerce.dto.CartItemDto;
+import com.ecommerce.dto.CartItemSummary;
+import com.ecommerce.dto.CartSummary;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.StockNotFound;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.models.Product;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.repositories.ProductRepository;
+import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.LongIntHashMap;
+import com.ecommerce.utils.StockValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class CartServiceTest {
+
+    private CartRepository cartRepository;
+    private ProductRepository productRepository;
+    private StockService stockService;
+    private CartService cartService;
+
+    @BeforeEach
+    void setup() {
+        cartRepository = mock(CartRepository.class);
+        productRepository = mock(ProductRepository.class);
+        stockService = mock(StockService.class);
+        cartService = new CartService(productRepository,
+                new StockValidator(), new CartCalculator(), stockService,
+                new JpaCartStore(cartRepository, new CartCalculator()),
+                new CartCache(mock(StringRedisTemplate.class), mock(RedisMessageListenerContainer.class),
+                        new ObjectMapper(), new SimpleMeterRegistry(), false, 1000, 30000, 300));
+
+        // every product exists and has 3 units available, except product 2 which is gone
+        when(productRepository.findSummaries(anyCollection())).thenAnswer(invocation -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (Long productId : invocation.<Collection<Long>>getArgument(0)) {
+                if (productId != 2L) {
+                    rows.add(new Object[]{productId, "Product " + productId, "Brand"});
+                }
+            }
+            return rows;
+        });
+        when(stockService.getAvailableStock(anyCollection())).thenAnswer(invocation -> {
+            LongIntHashMap available = new LongIntHashMap();
+            for (Long productId : invocation.<Collection<Long>>getArgument(0)) {
+                available.put(productId, 3);
+            }
+            return available;
+        });
+    }
+
+    @Test
+    void getUserCartSummary_fillsItemsFromOneProductQuery_andMarksMissingOrShortItems() {
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart(7L, 3)));
+
+        CartSummary summary = cartService.getUserCartSummary(7L);
+
+        List<CartItemSummary> items = summary.items();
+        assertEquals(3, items.size());
+        assertEquals("Product 1", items.get(0).productName());
+        assertTrue(items.get(0).isAvailable());
+        assertEquals(CartItemSummary.unavailable(2L), items.get(1));
+        // 3 units wanted, 3 available
+        assertTrue(items.get(2).isAvailable());
+        verify(productRepository, never()).findById(any());
+    }
+
+    @Test
+    void getUserCartSummary_ofEmptyCart_skipsProductQuery() {
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart(7L, 0)));
+
+        assertTrue(cartService.getUserCartSummary(7L).items().isEmpty());
+        verify(productRepository, never()).findSummaries(any());
+    }
+
+    @Test
+    void addItemToUserCart_checksQuantityAgainstTheStockEngine_notTheStockRow() {
+        Cart cart = cart(7L, 1);
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart));
+        when(productRepository.findById(1L)).thenReturn(Optional.of(Product.builder().productId(1L).price(10.0).build()));
+
+        // 1 unit in the cart + 2, 3 available across the product's buckets
+        cartService.addItemToUserCart(7L, new CartItemDto(1L, 2));
+        assertEquals(3, cart.findItem(1L).orElseThrow().getQuantity());
+
+        assertThrows(InsufficientStockException.class, () -> cartService.addItemToUserCart(7L, new CartItemDto(1L, 1)));
+        assertEquals(3, cart.findItem(1L).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void updateUserCartItemQuantity_ofProductWithoutStock_throwsStockNotFound() {
+        when(stockService.getAvailableStock(List.of(9L))).thenReturn(new LongIntHashMap());
+
+        assertThrows(StockNotFound.class, () -> cartService.updateUserCartItemQuantity(7L, 9L, 1));
+        verify(cartRepository, never()).save(any());
+    }
+
+    @Test
+    void applyUserCartOperations_appliesWholeBatch_withOneProductQueryOneStockQueryAndOneSave() {
+        Cart cart = cart(7L, 3);
+        new CartCalculator().updateTotals(cart);
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart));
+        List<CartBatchRequest.Operation> operations = new ArrayList<>();
+        for (long productId = 10; productId < 30; productId++) {
+            operations.add(new CartBatchRequest.Operation(CartBatchRequest.Type.ADD, productId, 2));
+        }
+        operations.add(new CartBatchRequest.Operation(CartBatchRequest.Type.UPDATE, 1L, 4));
+        operations.add(new CartBatchRequest.Operation(CartBatchRequest.Type.REMOVE, 2L, null));
+        operations.add(new CartBatchRequest.Operation(CartBatchRequest.Type.ADD, 10L, 1));
+        when(productRepository.findAllById(anyCollection())).thenAnswer(invocation -> {
+            List<Product> products = new ArrayList<>();
+            for (Long productId : invocation.<Collection<Long>>getArgument(0)) {
+                products.add(Product.builder().productId(productId).price(5.0).build());
+            }
+            return products;
+        });
+        when(stockService.getAvailableStock(anyCollection())).thenAnswer(invocation -> {
+            LongIntHashMap available = new LongIntHashMap();
+            for (Long productId : invocation.<Collection<Long>>getArgument(0)) {
+                available.put(productId, 10);
+            }
+            return available;
+        });
+
+        cartService.applyUserCartOperations(7L, operations);
+
+        verify(productRepository, times(1)).findAllById(anyCollection());
+        verify(stockService, times(1)).getAvailableStock(anyCollection());
+        verify(cartRepository, times(1)).findByUserId(7L);
+        verify(cartRepository, times(1)).save(cart);
+        verify(productRepository, never()).findById(any());
+        assertEquals(3, cart.findItem(10L).orElseThrow().getQuantity());
+        assertEquals(4, cart.findItem(1L).orElseThrow().getQuantity());
+        assertFalse(cart.containsProduct(2L));
+        // 4 + 3 units of the existing lines, 20 x 2 + 1 added
+        assertEquals(48, cart.getTotalItems());
+        assertEquals(70.0 + 41 * 5.0, cart.getTotalAmount());
+    }
+
+    @Test
+    void applyUserCartOperations_whenOneLineExceedsStock_changesNothing() {
+        Cart cart = cart(7L, 1);
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart));
+        when(productRepository.findAllById(anyCollection()))
+                .thenReturn(List.of(Product.builder().productId(5L).price(5.0).build()));
+        when(stockService.getAvailableStock(anyCollection())).thenReturn(available(5L, 10, 1L, 2));
+
+        assertThrows(InsufficientStockException.class, () -> cartService.applyUserCartOperations(7L, List.of(
+                new CartBatchRequest.Operation(CartBatchRequest.Type.ADD, 5L, 1),
+                new CartBatchRequest.Operation(CartBatchRequest.Type.UPDATE, 1L, 3))));
+
+        verify(cartRepository, never()).save(any());
+        assertFalse(cart.containsProduct(5L));
+        assertEquals(1, cart.findItem(1L).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void mergeGuestCart_addsUpQuantities_capsToStock_andDeletesGuestCartOnce() {
+        Cart userCart = cart(7L, 2);
+        new CartCalculator().updateTotals(userCart);
+        Cart guestCart = guestCart(3);
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(userCart));
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.of(guestCart));
+        // product 2: 2 in the user cart + 1 from the guest cart, only 2 available
+        when(stockService.getAvailableStock(anyCollection())).thenReturn(available(1L, 10, 2L, 2, 3L, 10));
+        when(cartRepository.deleteGuestCart("g1")).thenReturn(1);
+
+        cartService.mergeGuestCart("g1", 7L);
+
+        assertEquals(2, userCart.findItem(1L).orElseThrow().getQuantity());
+        assertEquals(2, userCart.findItem(2L).orElseThrow().getQuantity());
+        assertEquals(1, userCart.findItem(3L).orElseThrow().getQuantity());
+        assertEquals(5, userCart.getTotalItems());
+        verify(cartRepository, times(1)).save(userCart);
+        verify(cartRepository, times(1)).deleteGuestCart("g1");
+        verify(stockService, times(1)).getAvailableStock(anyCollection());
+    }
+
+    @Test
+    void mergeGuestCart_whenAConcurrentLoginDeletedTheGuestCart_leavesUserCartAlone() {
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.of(guestCart(3)));
+        when(cartRepository.deleteGuestCart("g1")).thenReturn(0);
+
+        cartService.mergeGuestCart("g1", 7L);
+
+        verify(cartRepository, never()).findByUserId(any());
+        verify(cartRepository, never()).save(any());
+        verify(stockService, never()).getAvailableStock(anyCollection());
+    }
+
+    @Test
+    void mergeGuestCart_withoutGuestCart_changesNothing() {
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.empty());
+
+        cartService.mergeGuestCart("g1", 7L);
+
+        verify(cartRepository, never()).save(any());
+        verify(cartRepository, never()).deleteGuestCart(any());
+    }
+
+    private static LongIntHashMap available(long... productIdsAndQuantities) {
+        LongIntHashMap available = new LongIntHashMap();
+        for (int i = 0; i < productIdsAndQuantities.length; i += 2) {
+            available.put(productIdsAndQuantities[i], (int) productIdsAndQuantities[i + 1]);
+        }
+        return available;
+    }
+
+    private static Cart guestCart(int itemCount) {
+        Cart cart = Cart.builder().cartId(2L).guestCartId("g1").lastUpdatedAt(LocalDateTime.now()).build();
+        for (long productId = 1; productId <= itemCount; productId++) {
+            cart.addItem(CartItem.builder().productId(productId).quantity(1).price(10.0).build());
+        }
+        new CartCalculator().updateTotals(cart);
+        return cart;
+    }
+
+    private static Cart cart(Long userId, int itemCount) {
+        Cart cart = Cart.builder()
+                .cartId(1L)
+                .userId(userId)
+                .totalItems(itemCount)
+                .totalAmount(10.0 * itemCount)
+                .lastUpdatedAt(LocalDateTime.now())
+                .build();
+        for (long productId = 1; productId <= itemCount; productId++) {
+            cart.addItem(CartItem.builder()
+                    .productId(productId)
+                    .quantity((int) productId)
+                    .price(10.0)
+                    .build());
+        }
+        return cart;
+    }
+}
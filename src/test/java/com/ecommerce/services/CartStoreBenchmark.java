@@ -0,0 +1,91 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore;
+import com.ecommerce.API.CartStore.CartKey;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ecommerce.services.InMemoryStockReservationEngineBenchmark.opsPerSecond;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Add-to-cart operations per second, redis cart store against the jpa cart store, on Redis and Postgres.
+ * Kept out of the unit suite: {@code gradle benchmark}. Nothing is rolled back, the test deletes its rows.
+ */
+@Tag("benchmark")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class CartStoreBenchmark extends PostgresContainerTest {
+
+    private static final int THREADS = 8;
+    private static final int PRODUCTS_PER_CART = 20;
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void cleanup() {
+        cartRepository.deleteAll();
+    }
+
+    /**
+     * Each thread fills the cart of its own user, cycling over a few products, as CartService.addItemToUserCart
+     * calls the store (no surrounding transaction). The redis store seeds each cart once from the database,
+     * then only touches Redis; the jpa store reads and writes the cart rows on every call.
+     */
+    @Test
+    void addItem_redisStoreOutrunsJpaStore() throws Exception {
+        double jpaRate = addItemsPerSecond(new JpaCartStore(cartRepository, new CartCalculator()), 1, 200);
+
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        double redisRate;
+        try {
+            redisRate = addItemsPerSecond(new RedisCartStore(new StringRedisTemplate(connectionFactory),
+                    cartRepository, new CartCalculator(), transactionManager), 1_000, 2_000);
+        } finally {
+            connectionFactory.destroy();
+        }
+
+        assertTrue(redisRate > jpaRate,
+                String.format("redis %.0f additions/s, jpa %.0f additions/s", redisRate, jpaRate));
+    }
+
+    /**
+     * @param firstUserId users of this run are numbered from here, one per thread (warm-up included)
+     */
+    private static double addItemsPerSecond(CartStore store, long firstUserId, int opsPerThread) throws Exception {
+        AtomicLong nextUserId = new AtomicLong(firstUserId);
+        ThreadLocal<CartKey> cart = ThreadLocal.withInitial(() -> CartKey.user(nextUserId.getAndIncrement()));
+        ThreadLocal<AtomicInteger> added = ThreadLocal.withInitial(AtomicInteger::new);
+        return opsPerSecond(THREADS, opsPerThread, () -> {
+            long productId = added.get().getAndIncrement() % PRODUCTS_PER_CART + 1;
+            store.addItem(cart.get(), CartItem.builder().productId(productId).quantity(1).price(10.0).build(),
+                    null, quantity -> { });
+        });
+    }
+}
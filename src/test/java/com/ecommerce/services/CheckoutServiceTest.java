@@ -4,8 +4,11 @@ import com.ecommerce.dto.CreateOrderRequest;
 import com.ecommerce.dto.PaymentRequest;
 import com.ecommerce.exceptions.OrderNotFound;
 import com.ecommerce.models.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -39,7 +42,8 @@ class CheckoutServiceTest {
 
         checkoutService = new CheckoutService(
                 orderService, cartService, stockService,
-                paymentService, shippingService, notificationService);
+                paymentService, shippingService, notificationService,
+                new StockUpdateRetry(mock(PlatformTransactionManager.class), new SimpleMeterRegistry()));
     }
 
     @Test
@@ -110,7 +114,7 @@ class CheckoutServiceTest {
     }
 
     @Test
-    void createOrderFromCart_onException_releasesReservations() {
+    void createOrderFromCart_onException_leavesReservationsToTheTransactionRollback() {
         // Arrange
         Cart cart = new Cart();
         List<StockReservation> reservations = List.of(new StockReservation());
@@ -130,8 +134,29 @@ class CheckoutServiceTest {
         assertThrows(RuntimeException.class,
                 () -> checkoutService.createOrderFromCart(cart, request, 10L, null, null));
 
-        // Verify rollback
-        verify(stockService).releaseReservations(reservations);
+        // les réservations ont été faites dans la transaction de la commande, annulée avec elle
+        verify(stockService, never()).releaseReservations(any());
+    }
+
+    @Test
+    void createOrderForUser_onStockConflict_replaysTheWholeCheckout() {
+        Cart cart = new Cart();
+        cart.setTotalAmount(100.0);
+        CartItem item = new CartItem();
+        item.setProductId(1L);
+        item.setQuantity(2);
+        item.setPrice(50.0);
+        cart.addItem(item);
+        when(cartService.getCartForUser(10L)).thenReturn(cart);
+        when(stockService.reserveStockForCart(cart)).thenThrow(new ObjectOptimisticLockingFailureException("Stock", 1L));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> checkoutService.createOrderForUser(10L,
+                CreateOrderRequest.builder().shippingAddress("Ship").billingAddress("Bill").build()));
+
+        // 4 tentatives, chacune relit le panier
+        verify(cartService, times(4)).getCartForUser(10L);
+        verify(stockService, times(4)).reserveStockForCart(cart);
+        verify(orderService, never()).createOrder(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any());
     }
 
     @Test
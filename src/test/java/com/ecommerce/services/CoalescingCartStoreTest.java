@@ -0,0 +1,150 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore.CartKey;
+import com.ecommerce.exceptions.CartChangesLostException;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class CoalescingCartStoreTest {
+
+    private static final CartKey USER = CartKey.user(7L);
+
+    private CartRepository cartRepository;
+    private Cart persisted;
+    private SimpleMeterRegistry meterRegistry;
+    private CoalescingCartStore store;
+
+    @BeforeEach
+    void setup() {
+        cartRepository = mock(CartRepository.class);
+        persisted = Cart.builder().cartId(1L).userId(7L).totalItems(0).totalAmount(0.0)
+                .lastUpdatedAt(LocalDateTime.now()).build();
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(persisted));
+        when(cartRepository.save(any(Cart.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        meterRegistry = new SimpleMeterRegistry();
+        store = new CoalescingCartStore(cartRepository, new CartCalculator(), mock(PlatformTransactionManager.class),
+                meterRegistry, new MockEnvironment());
+    }
+
+    @Test
+    void burstOfMutations_isSavedOncePerWindow() {
+        store.addItem(USER, line(3L, 1), null, quantity -> { });
+        for (int quantity = 2; quantity <= 100; quantity++) {
+            store.updateQuantity(USER, 3L, quantity);
+        }
+        verify(cartRepository, never()).save(any());
+
+        store.flush();
+        store.flush();
+
+        verify(cartRepository, times(1)).save(persisted);
+        verify(cartRepository, times(1)).findByUserId(7L);
+        assertEquals(100, persisted.getItems().get(0).getQuantity());
+        assertEquals(1000.0, persisted.getTotalAmount());
+        assertEquals(100.0, meterRegistry.get("cart.store.coalesced.mutations").counter().count());
+        assertEquals(1.0, meterRegistry.get("cart.store.flushes").counter().count());
+    }
+
+    @Test
+    void find_seesUnflushedWrites_asACopy() {
+        store.addItem(USER, line(3L, 2), null, quantity -> { });
+
+        Cart read = store.find(USER).orElseThrow();
+        store.updateQuantity(USER, 3L, 5);
+
+        assertEquals(2, read.getItems().get(0).getQuantity());
+        assertEquals(5, store.find(USER).orElseThrow().findItem(3L).orElseThrow().getQuantity());
+        assertEquals(5, store.find(USER).orElseThrow().getTotalItems());
+        verify(cartRepository, never()).save(any());
+    }
+
+    @Test
+    void persist_flushesPendingWrites_thenReadsTheDatabase() {
+        store.addItem(USER, line(3L, 2), null, quantity -> { });
+
+        Cart cart = store.persist(USER).orElseThrow();
+
+        verify(cartRepository).save(persisted);
+        assertSame(persisted, cart);
+        assertEquals(2, cart.getTotalItems());
+    }
+
+    @Test
+    void failedFlush_keepsCartDirty_andRetriesOnNextWindow() {
+        store.addItem(USER, line(3L, 2), null, quantity -> { });
+        when(cartRepository.save(any(Cart.class)))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        store.flush();
+        store.flush();
+
+        verify(cartRepository, times(2)).save(persisted);
+        assertEquals(1.0, meterRegistry.get("cart.store.flushes").counter().count());
+    }
+
+    @Test
+    void flushFailingEveryWindow_dropsTheCartAfterMaxFailures_reportsItOnce_thenReadsFallBackToDatabase() {
+        ReflectionTestUtils.setField(store, "maxFlushFailures", 3);
+        store.addItem(USER, line(3L, 2), null, quantity -> { });
+        when(cartRepository.save(any(Cart.class))).thenThrow(new IllegalStateException("database down"));
+
+        for (int i = 0; i < 5; i++) {
+            store.flush();
+        }
+
+        verify(cartRepository, times(3)).save(any(Cart.class));
+        assertEquals(1.0, meterRegistry.get("cart.store.flush.dropped").counter().count());
+        assertEquals(0.0, meterRegistry.get("cart.store.flushes").counter().count());
+        CartChangesLostException lost = assertThrows(CartChangesLostException.class, () -> store.find(USER));
+        assertTrue(lost.getMessage().startsWith("1 recent changes"));
+        store.find(USER);
+        verify(cartRepository, times(2)).findByUserId(7L);
+    }
+
+    @Test
+    void checkRouting_inProdProfile_refusesToStartWithoutStickySessions() {
+        MockEnvironment prod = new MockEnvironment();
+        prod.setActiveProfiles("prod");
+        CoalescingCartStore prodStore = new CoalescingCartStore(cartRepository, new CartCalculator(),
+                mock(PlatformTransactionManager.class), meterRegistry, prod);
+
+        assertThrows(IllegalStateException.class, prodStore::checkRouting);
+
+        ReflectionTestUtils.setField(prodStore, "stickySessions", true);
+        assertDoesNotThrow(prodStore::checkRouting);
+    }
+
+    @Test
+    void newCart_isInsertedByTheFirstFlush() {
+        CartKey guest = CartKey.guest("g1");
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.empty());
+
+        store.addItem(guest, line(3L, 1), "session", quantity -> { });
+        assertTrue(store.exists(guest));
+        verify(cartRepository, never()).save(any());
+
+        store.flush();
+
+        verify(cartRepository).save(argThat(cart -> "g1".equals(cart.getGuestCartId()) && cart.getTotalItems() == 1));
+    }
+
+    private static CartItem line(Long productId, int quantity) {
+        return CartItem.builder().productId(productId).quantity(quantity).price(10.0).build();
+    }
+}
@@ -0,0 +1,66 @@
+package com.ecommerce.services;
+
+import com.ecommerce.repositories.CartRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class GuestCartPurgerTest {
+
+    private CartRepository cartRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private GuestCartPurger purger;
+
+    @BeforeEach
+    void setup() {
+        cartRepository = mock(CartRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        purger = new GuestCartPurger(cartRepository, mock(PlatformTransactionManager.class), meterRegistry);
+        ReflectionTestUtils.setField(purger, "batchSize", 100);
+        ReflectionTestUtils.setField(purger, "maxBatchesPerRun", 5);
+    }
+
+    @Test
+    void purge_deletesChunksUntilOneComesBackShort_andRecordsMetrics() {
+        when(cartRepository.deleteExpiredGuestCarts(any(LocalDateTime.class), eq(100))).thenReturn(100, 100, 42);
+
+        purger.purge();
+
+        verify(cartRepository, times(3)).deleteExpiredGuestCarts(any(LocalDateTime.class), eq(100));
+        assertEquals(242.0, meterRegistry.get("cart.guest.purged").counter().count());
+        assertEquals(1, meterRegistry.get("cart.guest.purge.duration").timer().count());
+        assertTrue(meterRegistry.get("cart.guest.purge.duration").timer().totalTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    void purge_stopsAtMaxChunksPerRun() {
+        when(cartRepository.deleteExpiredGuestCarts(any(LocalDateTime.class), anyInt())).thenReturn(100);
+
+        purger.purge();
+
+        verify(cartRepository, times(5)).deleteExpiredGuestCarts(any(LocalDateTime.class), anyInt());
+        assertEquals(500.0, meterRegistry.get("cart.guest.purged").counter().count());
+    }
+
+    @Test
+    void purge_whenAChunkFails_keepsWhatWasPurgedAndStops() {
+        when(cartRepository.deleteExpiredGuestCarts(any(LocalDateTime.class), anyInt()))
+                .thenReturn(100)
+                .thenThrow(new IllegalStateException("database down"));
+
+        purger.purge();
+
+        verify(cartRepository, times(2)).deleteExpiredGuestCarts(any(LocalDateTime.class), anyInt());
+        assertEquals(100.0, meterRegistry.get("cart.guest.purged").counter().count());
+        assertEquals(1, meterRegistry.get("cart.guest.purge.duration").timer().count());
+    }
+}
@@ -0,0 +1,71 @@
+package com.ecommerce.services;
+
+import com.ecommerce.repositories.ProductRepository;
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.ecommerce.services.InMemoryStockReservationEngineBenchmark.hotProduct;
+import static com.ecommerce.services.InMemoryStockReservationEngineBenchmark.opsPerSecond;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reservations per second on one hot product split over 1, 2, 4 and 8 buckets, jpa engine on Postgres.
+ * Kept out of the unit suite: {@code gradle benchmark}. Nothing is rolled back, the test deletes its rows.
+ */
+@Tag("benchmark")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class HotStockBucketsBenchmark extends PostgresContainerTest {
+
+    private static final int THREADS = 8;
+    private static final int[] BUCKET_COUNTS = {1, 2, 4, 8};
+
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private StockRepository stockRepository;
+    @Autowired
+    private StockBucketRepository stockBucketRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void cleanup() {
+        stockBucketRepository.deleteAll();
+        productRepository.deleteAll();
+    }
+
+    /**
+     * Each operation reserves one unit and releases it in its own transaction, as a checkout would. With one
+     * bucket every transaction queues on the stock row; with 8 the threads mostly land on different rows.
+     */
+    @Test
+    void reserve_hotProduct_scalesWithBucketCount() throws Exception {
+        HotStockBuckets buckets = new HotStockBuckets(stockRepository, stockBucketRepository, transactionManager);
+        JpaStockReservationEngine engine = new JpaStockReservationEngine(stockRepository, buckets);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        Map<Integer, Double> rates = new LinkedHashMap<>();
+        for (int bucketCount : BUCKET_COUNTS) {
+            Long productId = hotProduct(productRepository, 1_000_000);
+            buckets.shard(productId, bucketCount);
+            rates.put(bucketCount, opsPerSecond(THREADS, 200, () -> transactionTemplate.executeWithoutResult(status -> {
+                engine.reserve(productId, 1);
+                engine.release(productId, 1);
+            })));
+            assertEquals(1_000_000, engine.getAvailableQuantity(productId).intValue());
+        }
+
+        assertTrue(rates.get(8) > rates.get(1), "reservations/s by bucket count: " + rates);
+    }
+}
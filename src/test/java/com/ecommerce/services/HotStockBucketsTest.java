@@ -0,0 +1,86 @@
+package com.ecommerce.services;
+
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class HotStockBucketsTest {
+
+    private StockRepository stockRepository;
+    private StockBucketRepository stockBucketRepository;
+    private HotStockBuckets hotStockBuckets;
+
+    @BeforeEach
+    void setup() {
+        stockRepository = mock(StockRepository.class);
+        stockBucketRepository = mock(StockBucketRepository.class);
+        hotStockBuckets = new HotStockBuckets(stockRepository, stockBucketRepository, mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void reserve_whenOneBucketHoldsEnough_neverTouchesStockRow() {
+        when(stockBucketRepository.moveInFreeBucket(5L, true, 2, -2, 2, 0)).thenReturn(1);
+
+        assertTrue(hotStockBuckets.reserve(5L, 2));
+
+        verify(stockBucketRepository, never()).lockBuckets(anyLong());
+        verifyNoInteractions(stockRepository);
+    }
+
+    @Test
+    void reserve_whenNoSingleBucketHoldsEnough_spreadsOverBuckets() {
+        when(stockBucketRepository.lockBuckets(5L)).thenReturn(buckets(
+                new Object[]{1L, 3, 0, 0},
+                new Object[]{2L, 4, 0, 0}));
+
+        assertTrue(hotStockBuckets.reserve(5L, 6));
+
+        verify(stockBucketRepository).moveBucket(1L, -3, 3, 0);
+        verify(stockBucketRepository).moveBucket(2L, -3, 3, 0);
+        verify(stockRepository, never()).reserveQuantity(anyLong(), anyInt());
+    }
+
+    @Test
+    void reserve_whenBucketsAndStockRowAreShort_movesNothing() {
+        when(stockBucketRepository.lockBuckets(5L)).thenReturn(buckets(
+                new Object[]{1L, 3, 0, 0},
+                new Object[]{2L, 4, 0, 0}));
+        when(stockRepository.reserveQuantity(5L, 3)).thenReturn(0);
+
+        assertFalse(hotStockBuckets.reserve(5L, 10));
+
+        verify(stockBucketRepository, never()).moveBucket(anyLong(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void rebalance_spreadsAvailableEvenly_andFoldsConfirmedUnitsIntoTotal() {
+        when(stockBucketRepository.findShardedProductIds()).thenReturn(List.of(5L));
+        when(stockBucketRepository.lockBuckets(5L)).thenReturn(buckets(
+                new Object[]{1L, 0, 1, 3},
+                new Object[]{2L, 5, 0, 0}));
+        List<Object[]> stockRow = new ArrayList<>();
+        stockRow.add(new Object[]{5L, 2});
+        when(stockRepository.lockAvailableQuantities(List.of(5L))).thenReturn(stockRow);
+
+        hotStockBuckets.rebalance();
+
+        verify(stockBucketRepository).resetBucket(1L, 4);
+        verify(stockBucketRepository).resetBucket(2L, 3);
+        verify(stockRepository).applyDeltas(List.of(new QuantityDelta(5L, -3, -2, 0)));
+        assertTrue(hotStockBuckets.isHot(5L));
+    }
+
+    private static List<Object[]> buckets(Object[]... rows) {
+        return new ArrayList<>(List.of(rows));
+    }
+}
@@ -0,0 +1,119 @@
+package com.ecommerce.services;
+
+import com.ecommerce.models.Product;
+import com.ecommerce.models.Stock;
+import com.ecommerce.repositories.ProductRepository;
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reservations per second on one hot product, in-memory engine against the jpa engine, on Postgres.
+ * Kept out of the unit suite: {@code gradle benchmark}. Nothing is rolled back, the test deletes its rows.
+ */
+@Tag("benchmark")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class InMemoryStockReservationEngineBenchmark extends PostgresContainerTest {
+
+    private static final int THREADS = 8;
+
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private StockRepository stockRepository;
+    @Autowired
+    private StockBucketRepository stockBucketRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void cleanup() {
+        stockBucketRepository.deleteAll();
+        productRepository.deleteAll();
+    }
+
+    /**
+     * Each operation reserves one unit and releases it, so the stock never runs out. The jpa engine runs
+     * each one in its own transaction, as a checkout would; the in-memory engine needs none.
+     */
+    @Test
+    void reserve_hotProduct_inMemoryEngineOutrunsJpaEngineTenfold() throws Exception {
+        Long productId = hotProduct(productRepository, 1_000_000);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        JpaStockReservationEngine jpa = new JpaStockReservationEngine(stockRepository,
+                new HotStockBuckets(stockRepository, stockBucketRepository, transactionManager));
+        double jpaRate = opsPerSecond(THREADS, 200, () -> transactionTemplate.executeWithoutResult(status -> {
+            jpa.reserve(productId, 1);
+            jpa.release(productId, 1);
+        }));
+
+        InMemoryStockReservationEngine memory = new InMemoryStockReservationEngine(stockRepository, transactionManager);
+        memory.load();
+        double memoryRate = opsPerSecond(THREADS, 200_000, () -> {
+            memory.reserve(productId, 1);
+            memory.release(productId, 1);
+        });
+        memory.flush();
+
+        assertTrue(memoryRate > 10 * jpaRate,
+                String.format("in-memory %.0f reservations/s, jpa %.0f reservations/s", memoryRate, jpaRate));
+        assertEquals(1_000_000, stockRepository.findByProduct_ProductId(productId).orElseThrow().getAvailableQuantity());
+    }
+
+    /**
+     * Runs {@code operation} {@code opsPerThread} times on each of {@code threads} threads started together.
+     */
+    static double opsPerSecond(int threads, int opsPerThread, Runnable operation) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // warm-up
+            for (int i = 0; i < Math.min(opsPerThread, 100); i++) {
+                operation.run();
+            }
+            List<Future<?>> runs = new ArrayList<>(threads);
+            long started = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                runs.add(pool.submit(() -> {
+                    for (int i = 0; i < opsPerThread; i++) {
+                        operation.run();
+                    }
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+            return threads * (double) opsPerThread * 1e9 / (System.nanoTime() - started);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A product with {@code available} units, committed.
+     */
+    static Long hotProduct(ProductRepository productRepository, int available) {
+        Product product = Product.builder().name("Hot product").brand("Brand").price(10.0).build();
+        product.setStock(Stock.builder()
+                .product(product)
+                .totalQuantity(available)
+                .availableQuantity(available)
+                .build());
+        return productRepository.save(product).getProductId();
+    }
+}
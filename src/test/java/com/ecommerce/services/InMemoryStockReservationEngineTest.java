@@ -0,0 +1,102 @@
+package com.ecommerce.services;
+
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class InMemoryStockReservationEngineTest {
+
+    private StockRepository stockRepository;
+    private InMemoryStockReservationEngine engine;
+
+    @BeforeEach
+    void setup() {
+        stockRepository = mock(StockRepository.class);
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, 1000, 0});
+        rows.add(new Object[]{2L, 1, 0});
+        when(stockRepository.findAllQuantities()).thenReturn(rows);
+
+        engine = new InMemoryStockReservationEngine(stockRepository, mock(PlatformTransactionManager.class));
+        engine.load();
+    }
+
+    @Test
+    void load_recoversCountersFromActiveReservations_beforeLoadingThem() {
+        verify(stockRepository).reconcileWithActiveReservations();
+        assertEquals(1000, engine.getAvailableQuantity(1L));
+        assertEquals(1, engine.getAvailableQuantity(2L));
+    }
+
+    @Test
+    void reserve_underContention_neverOversells() throws InterruptedException {
+        AtomicInteger succeeded = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1500; i++) {
+            pool.submit(() -> {
+                try {
+                    engine.reserve(1L, 1);
+                    succeeded.incrementAndGet();
+                } catch (InsufficientStockException ignored) {
+                    // expected once the stock is exhausted
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1000, succeeded.get());
+        assertEquals(0, engine.getAvailableQuantity(1L));
+    }
+
+    @Test
+    void reserveAll_whenOneLineIsShort_reservesNothing() {
+        SortedMap<Long, Integer> lines = new TreeMap<>(Map.of(1L, 3, 2L, 2));
+
+        InsufficientStockException ex = assertThrows(InsufficientStockException.class, () -> engine.reserveAll(lines));
+
+        assertEquals(List.of(2L), ex.getProductIds());
+        assertEquals(1000, engine.getAvailableQuantity(1L));
+        assertEquals(1, engine.getAvailableQuantity(2L));
+    }
+
+    @Test
+    void flush_writesNetDeltasOfAllProductsInOneStatement() {
+        engine.reserve(1L, 5);
+        engine.reserve(1L, 2);
+        engine.release(1L, 1);
+        engine.reserve(2L, 1);
+
+        engine.flush();
+
+        verify(stockRepository).applyDeltas(argThat(deltas -> new HashSet<>(deltas).equals(Set.of(
+                new QuantityDelta(1L, 0, -6, 6),
+                new QuantityDelta(2L, 0, -1, 1)))));
+
+        engine.flush();
+        verify(stockRepository, times(1)).applyDeltas(any());
+    }
+
+    @Test
+    void confirm_writesTotalThrough_withoutWaitingForFlush() {
+        engine.reserve(1L, 4);
+
+        assertTrue(engine.confirm(1L, 4));
+
+        verify(stockRepository).applyDeltas(List.of(new QuantityDelta(1L, -4, 0, -4)));
+        assertFalse(engine.confirm(1L, 1));
+    }
+}
@@ -0,0 +1,117 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore.CartKey;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class JpaCartStoreTest {
+
+    private static final CartKey USER = CartKey.user(7L);
+
+    /**
+     * Property: after any sequence of add / quantity change / remove / clear, the totals moved line by
+     * line equal a full recomputation from the items. 200 random sequences of 300 mutations each.
+     */
+    @Test
+    void randomMutations_keepIncrementalTotalsEqualToFullRecomputation() {
+        CartCalculator calculator = new CartCalculator();
+        Random random = new Random(7);
+
+        for (int run = 0; run < 200; run++) {
+            Cart cart = Cart.builder().cartId(1L).userId(7L).totalItems(0).totalAmount(0.0)
+                    .lastUpdatedAt(LocalDateTime.now()).build();
+            CartRepository cartRepository = mock(CartRepository.class);
+            when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart));
+            JpaCartStore store = new JpaCartStore(cartRepository, calculator);
+
+            for (int step = 0; step < 300; step++) {
+                long productId = 1 + random.nextInt(40);
+                int operation = random.nextInt(20);
+                if (operation < 10) {
+                    store.addItem(USER, CartItem.builder()
+                            .productId(productId)
+                            .quantity(1 + random.nextInt(5))
+                            // prices with cents, some that doubles cannot represent exactly
+                            .price(random.nextInt(100_000) / 100.0)
+                            .build(), null, quantity -> { });
+                } else if (operation < 15) {
+                    store.updateQuantity(USER, productId, 1 + random.nextInt(50));
+                } else if (operation < 19) {
+                    store.removeItem(USER, productId);
+                } else {
+                    store.clear(USER);
+                }
+
+                Integer incrementalItems = cart.getTotalItems();
+                Double incrementalAmount = cart.getTotalAmount();
+                Cart recomputed = Cart.builder().items(cart.getItems()).build();
+                calculator.updateTotals(recomputed);
+                assertEquals(recomputed.getTotalItems(), incrementalItems, "run " + run + ", step " + step);
+                assertEquals(recomputed.getTotalAmount(), incrementalAmount, "run " + run + ", step " + step);
+            }
+        }
+    }
+
+    @Test
+    void updateQuantity_movesTotalsByTheLineDeltaOnly() {
+        Cart cart = Cart.builder().cartId(1L).userId(7L).totalItems(2).totalAmount(19.98)
+                .lastUpdatedAt(LocalDateTime.now()).build();
+        cart.addItem(CartItem.builder().productId(3L).quantity(2).price(9.99).build());
+        CartRepository cartRepository = mock(CartRepository.class);
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(cart));
+
+        assertTrue(new JpaCartStore(cartRepository, new CartCalculator()).updateQuantity(USER, 3L, 5));
+
+        assertEquals(5, cart.getTotalItems());
+        assertEquals(49.95, cart.getTotalAmount());
+        verify(cartRepository).save(cart);
+    }
+
+    @Test
+    void guestCartChange_pushesExpiryBack_userCartHasNone() {
+        Cart guest = Cart.builder().cartId(2L).guestCartId("g1").totalItems(0).totalAmount(0.0)
+                .lastUpdatedAt(LocalDateTime.now()).expiresAt(LocalDateTime.now().plusMinutes(1)).build();
+        Cart user = Cart.builder().cartId(1L).userId(7L).totalItems(0).totalAmount(0.0)
+                .lastUpdatedAt(LocalDateTime.now()).build();
+        CartRepository cartRepository = mock(CartRepository.class);
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.of(guest));
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(user));
+        JpaCartStore store = new JpaCartStore(cartRepository, new CartCalculator());
+
+        store.addItem(CartKey.guest("g1"), CartItem.builder().productId(3L).quantity(1).price(1.0).build(),
+                null, quantity -> { });
+        store.addItem(USER, CartItem.builder().productId(3L).quantity(1).price(1.0).build(), null, quantity -> { });
+
+        // default ttl: 7 days
+        assertTrue(guest.getExpiresAt().isAfter(LocalDateTime.now().plusDays(6)));
+        assertNull(user.getExpiresAt());
+    }
+
+    @Test
+    void expiredGuestCart_notPurgedYet_readsAsEmpty() {
+        Cart guest = Cart.builder().cartId(2L).guestCartId("g1").totalItems(2).totalAmount(2.0)
+                .lastUpdatedAt(LocalDateTime.now().minusDays(8)).expiresAt(LocalDateTime.now().minusDays(1)).build();
+        guest.addItem(CartItem.builder().productId(3L).quantity(2).price(1.0).build());
+        CartRepository cartRepository = mock(CartRepository.class);
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.of(guest));
+
+        Cart read = new JpaCartStore(cartRepository, new CartCalculator()).find(CartKey.guest("g1")).orElseThrow();
+
+        assertTrue(read.isEmpty());
+        assertEquals(0, read.getTotalItems());
+        // the loaded entity keeps its lines: clearing them would delete the rows on flush
+        assertNotSame(guest, read);
+        assertEquals(1, guest.getItems().size());
+        verify(cartRepository, never()).save(any());
+    }
+}
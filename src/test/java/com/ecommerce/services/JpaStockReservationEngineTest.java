@@ -0,0 +1,68 @@
+package com.ecommerce.services;
+
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class JpaStockReservationEngineTest {
+
+    private StockRepository stockRepository;
+    private StockBucketRepository stockBucketRepository;
+    private HotStockBuckets hotStockBuckets;
+    private JpaStockReservationEngine engine;
+
+    @BeforeEach
+    void setup() {
+        stockRepository = mock(StockRepository.class);
+        stockBucketRepository = mock(StockBucketRepository.class);
+        hotStockBuckets = new HotStockBuckets(stockRepository, stockBucketRepository, mock(PlatformTransactionManager.class));
+        engine = new JpaStockReservationEngine(stockRepository, hotStockBuckets);
+        ReflectionTestUtils.setField(hotStockBuckets, "hotProductIds", Set.of(5L));
+
+        when(stockRepository.lockAvailableQuantities(anyCollection())).thenAnswer(inv -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (Object productId : inv.<Collection<?>>getArgument(0)) {
+                rows.add(new Object[]{productId, 10});
+            }
+            return rows;
+        });
+    }
+
+    @Test
+    void reserveAll_takesLocksInProductOrder_aroundHotProduct_andUpdatesColdRowsOnce() {
+        when(stockBucketRepository.moveInFreeBucket(eq(5L), anyBoolean(), anyInt(), anyInt(), anyInt(), anyInt()))
+                .thenReturn(1);
+        when(stockRepository.reserveQuantities(any())).thenReturn(3);
+
+        engine.reserveAll(new TreeMap<>(Map.of(9L, 1, 5L, 2, 3L, 1, 4L, 1)));
+
+        InOrder order = inOrder(stockRepository, stockBucketRepository);
+        order.verify(stockRepository).lockAvailableQuantities(argThat(ids -> List.copyOf(ids).equals(List.of(3L, 4L))));
+        order.verify(stockBucketRepository).moveInFreeBucket(5L, true, 2, -2, 2, 0);
+        order.verify(stockRepository).lockAvailableQuantities(argThat(ids -> List.copyOf(ids).equals(List.of(9L))));
+        order.verify(stockRepository).reserveQuantities(new TreeMap<>(Map.of(3L, 1, 4L, 1, 9L, 1)));
+    }
+
+    @Test
+    void reserveAll_whenColdRowWasShardedByAnotherNode_failsWithRetryableConflict() {
+        when(stockBucketRepository.existsByProductId(3L)).thenReturn(true);
+
+        assertThrows(CannotAcquireLockException.class,
+                () -> engine.reserveAll(new TreeMap<>(Map.of(3L, 11))));
+
+        assertTrue(hotStockBuckets.isHot(3L));
+        verify(stockBucketRepository, never()).lockBuckets(anyLong());
+        verify(stockRepository, never()).reserveQuantities(any());
+    }
+}
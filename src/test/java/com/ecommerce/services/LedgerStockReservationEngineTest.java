@@ -0,0 +1,105 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.models.Product;
+import com.ecommerce.models.Stock;
+import com.ecommerce.models.StockMovement;
+import com.ecommerce.models.StockMovementType;
+import com.ecommerce.repositories.StockMovementRepository;
+import com.ecommerce.repositories.StockRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LedgerStockReservationEngineTest {
+
+    private StockRepository stockRepository;
+    private StockMovementRepository stockMovementRepository;
+    private LedgerStockReservationEngine engine;
+
+    @BeforeEach
+    void setup() {
+        stockRepository = mock(StockRepository.class);
+        stockMovementRepository = mock(StockMovementRepository.class);
+        engine = new LedgerStockReservationEngine(stockRepository, stockMovementRepository,
+                mock(PlatformTransactionManager.class));
+
+        List<Object[]> locked = new ArrayList<>();
+        locked.add(new Object[]{1L, 0});
+        when(stockRepository.lockAvailableQuantities(anyCollection())).thenReturn(locked);
+        // snapshot plus tail: 10 available, 4 reserved for product 1, 1 available for product 2
+        List<Object[]> current = new ArrayList<>();
+        current.add(new Object[]{1L, 10L, 4L, 14L});
+        current.add(new Object[]{2L, 1L, 0L, 1L});
+        when(stockMovementRepository.findCurrentQuantities(anyCollection())).thenReturn(current);
+    }
+
+    @Test
+    void reserveAll_appendsOneMovementPerProduct_withoutUpdatingStockRows() {
+        engine.reserveAll(new TreeMap<>(Map.of(1L, 3, 2L, 1)));
+
+        verify(stockMovementRepository).saveAll(argThat((List<StockMovement> movements) -> movements.size() == 2
+                && movements.get(0).getProductId() == 1L
+                && movements.get(0).getType() == StockMovementType.RESERVE
+                && movements.get(0).getAvailableDelta() == -3
+                && movements.get(0).getReservedDelta() == 3
+                && movements.get(0).getTotalDelta() == 0));
+        verify(stockRepository, never()).reserveQuantities(any());
+    }
+
+    @Test
+    void reserveAll_whenTailMakesProductShort_appendsNothing() {
+        InsufficientStockException ex = assertThrows(InsufficientStockException.class,
+                () -> engine.reserveAll(new TreeMap<>(Map.of(1L, 3, 2L, 2))));
+
+        assertEquals(List.of(2L), ex.getProductIds());
+        verify(stockMovementRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    void release_whenFewerUnitsReserved_appendsNothing() {
+        assertFalse(engine.release(1L, 5));
+        assertTrue(engine.release(1L, 4));
+
+        verify(stockMovementRepository, times(1)).save(any(StockMovement.class));
+    }
+
+    @Test
+    void applyQuantityChanges_appendsOneMovementPerProduct_withItsReason() {
+        Set<Long> rejected = engine.applyQuantityChanges(new TreeMap<>(Map.of(
+                1L, new StockReservationEngine.QuantityChange(true, 15, "recount"),
+                2L, new StockReservationEngine.QuantityChange(false, -2, "damaged"),
+                3L, new StockReservationEngine.QuantityChange(false, 5, "delivery"))));
+
+        // product 2 has 1 unit, product 3 has no stock
+        assertEquals(Set.of(2L, 3L), rejected);
+        verify(stockMovementRepository).saveAll(argThat((List<StockMovement> movements) -> movements.size() == 1
+                && movements.get(0).getProductId() == 1L
+                && movements.get(0).getType() == StockMovementType.ADJUST
+                && movements.get(0).getAvailableDelta() == 5
+                && movements.get(0).getTotalDelta() == 5
+                && "recount".equals(movements.get(0).getReason())));
+        verify(stockRepository, never()).applyDeltas(any());
+    }
+
+    @Test
+    void currentStock_addsTailToSnapshot_withoutTouchingTheRow() {
+        Product product = new Product();
+        product.setProductId(1L);
+        Stock snapshot = Stock.builder().product(product).totalQuantity(12).availableQuantity(12).reservedQuantity(0).build();
+
+        Stock current = engine.currentStock(snapshot);
+
+        assertEquals(14, current.getTotalQuantity());
+        assertEquals(10, current.getAvailableQuantity());
+        assertEquals(4, current.getReservedQuantity());
+        assertEquals(12, snapshot.getAvailableQuantity());
+    }
+}
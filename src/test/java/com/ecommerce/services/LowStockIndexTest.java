@@ -0,0 +1,154 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.dto.LowStockEntry;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LowStockIndexTest {
+
+    private StockRepository stockRepository;
+    private StockReservationEngine stockReservationEngine;
+    private SimpleMeterRegistry meterRegistry;
+    private LowStockIndex lowStockIndex;
+
+    @BeforeEach
+    void setup() {
+        stockRepository = mock(StockRepository.class);
+        stockReservationEngine = mock(StockReservationEngine.class);
+        meterRegistry = new SimpleMeterRegistry();
+        lowStockIndex = new LowStockIndex(stockRepository, stockReservationEngine, meterRegistry);
+
+        List<Object[]> thresholds = new ArrayList<>();
+        thresholds.add(new Object[]{1L, 10});
+        thresholds.add(new Object[]{2L, 10});
+        thresholds.add(new Object[]{3L, 10});
+        when(stockRepository.findLowStockThresholds(anyCollection())).thenReturn(thresholds);
+    }
+
+    @Test
+    void rebuild_listsLowProducts_mostCriticalFirst_usingEngineQuantities() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, 8, 10});
+        rows.add(new Object[]{2L, 3, 10});
+        when(stockRepository.findLowStockRows()).thenReturn(rows);
+        // product 1 was restocked in the engine but the row was not flushed yet
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenReturn(quantities(1L, 12, 2L, 3));
+
+        lowStockIndex.rebuildNow();
+
+        Page<LowStockEntry> page = lowStockIndex.getLowStock(PageRequest.of(0, 10));
+        assertEquals(List.of(new LowStockEntry(2L, 3, 10)), page.getContent());
+        assertEquals(1, page.getTotalElements());
+        assertEquals(1.0, meterRegistry.get("stock.low.products").gauge().value());
+    }
+
+    @Test
+    void rebuild_runsOnTheRefreshWorker() {
+        AtomicReference<String> thread = new AtomicReference<>();
+        when(stockRepository.findLowStockRows()).thenAnswer(inv -> {
+            thread.set(Thread.currentThread().getName());
+            return List.of();
+        });
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenReturn(quantities());
+
+        lowStockIndex.rebuild();
+
+        verify(stockRepository, timeout(1000)).findLowStockRows();
+        assertEquals("low-stock-index", thread.get());
+    }
+
+    @Test
+    void refresh_doesNotWaitForSlowSubscriber() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch slowClient = new CountDownLatch(1);
+        SseEmitter slow = new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                sending.countDown();
+                try {
+                    slowClient.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        subscribers().add(slow);
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenReturn(quantities(1L, 5));
+        lowStockIndex.refresh(List.of(1L));
+        assertTrue(sending.await(1, TimeUnit.SECONDS));
+
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenReturn(quantities(1L, 4, 2L, 3));
+        lowStockIndex.refresh(List.of(1L, 2L));
+
+        assertEquals(List.of(new LowStockEntry(2L, 3, 10), new LowStockEntry(1L, 4, 10)),
+                lowStockIndex.getLowStock(PageRequest.of(0, 10)).getContent());
+        slowClient.countDown();
+    }
+
+    @Test
+    void refresh_updatesOnlyChangedProducts_andKeepsOrder() {
+        when(stockReservationEngine.getAvailableQuantities(anyCollection()))
+                .thenReturn(quantities(1L, 5, 2L, 9, 3L, 50));
+        lowStockIndex.refresh(Set.of(1L, 2L, 3L));
+
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenReturn(quantities(2L, 1, 1L, 20));
+        lowStockIndex.refresh(List.of(2L, 1L));
+
+        assertEquals(List.of(new LowStockEntry(2L, 1, 10)),
+                lowStockIndex.getLowStock(PageRequest.of(0, 10)).getContent());
+    }
+
+    @Test
+    void getLowStock_paginates() {
+        when(stockReservationEngine.getAvailableQuantities(anyCollection()))
+                .thenReturn(quantities(1L, 5, 2L, 0, 3L, 7));
+        lowStockIndex.refresh(List.of(1L, 2L, 3L));
+
+        Page<LowStockEntry> second = lowStockIndex.getLowStock(PageRequest.of(1, 2));
+
+        assertEquals(List.of(new LowStockEntry(3L, 7, 10)), second.getContent());
+        assertEquals(3, second.getTotalElements());
+    }
+
+    @Test
+    void refresh_dropsProductsWithoutStockRow() {
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenReturn(quantities(4L, 0));
+
+        lowStockIndex.refresh(List.of(4L));
+
+        assertTrue(lowStockIndex.getLowStock(PageRequest.of(0, 10)).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SseEmitter> subscribers() {
+        return (List<SseEmitter>) ReflectionTestUtils.getField(lowStockIndex, "subscribers");
+    }
+
+    private static LongIntHashMap quantities(long... productIdQuantityPairs) {
+        LongIntHashMap quantities = new LongIntHashMap();
+        for (int i = 0; i < productIdQuantityPairs.length; i += 2) {
+            quantities.put(productIdQuantityPairs[i], (int) productIdQuantityPairs[i + 1]);
+        }
+        return quantities;
+    }
+}
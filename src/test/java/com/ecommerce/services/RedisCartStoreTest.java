@@ -0,0 +1,278 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.CartStore.CartKey;
+import com.ecommerce.API.CartStore.LineChange;
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.repositories.CartRepository;
+import com.ecommerce.utils.CartCalculator;
+import com.ecommerce.utils.LongIntHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RedisCartStoreTest extends RedisContainerTest {
+
+    private static final String USER_CART = "cart:user:7";
+
+    private CartRepository cartRepository;
+    private RedisCartStore store;
+
+    @BeforeEach
+    void setup() {
+        cartRepository = mock(CartRepository.class);
+        store = new RedisCartStore(redisTemplate, cartRepository, new CartCalculator(),
+                mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void addItem_createsTheHash_thenMovesLineAndTotals_keepingFirstPrice_withoutTouchingDatabase() {
+        AtomicInteger checked = new AtomicInteger();
+
+        store.addItem(CartKey.user(7L), line(3L, 3), null, checked::set);
+        assertEquals(3, checked.get());
+        store.addItem(CartKey.user(7L), CartItem.builder().productId(3L).quantity(2).price(20.0).build(),
+                null, checked::set);
+
+        assertEquals(5, checked.get());
+        assertFields(USER_CART, Map.of("q:3", "5", "p:3", "1000", "items", "5", "amount", "5000"));
+        verify(cartRepository, never()).save(any());
+    }
+
+    @Test
+    void addItem_whenCheckFails_changesNothing() {
+        hash(USER_CART, "updated", LocalDateTime.now().toString(), "items", "2", "amount", "2000",
+                "q:3", "2", "p:3", "1000");
+
+        assertThrows(InsufficientStockException.class, () -> store.addItem(CartKey.user(7L), line(3L, 3), null,
+                quantity -> {
+                    throw new InsufficientStockException("Insufficient stock");
+                }));
+
+        assertFields(USER_CART, Map.of("q:3", "2", "items", "2", "amount", "2000"));
+    }
+
+    @Test
+    void addItem_whenGuestCartIsMissing_seedsItFromDatabase_withGuestTtl() {
+        Cart snapshot = Cart.builder().cartId(4L).guestCartId("g1").lastUpdatedAt(LocalDateTime.now()).build();
+        snapshot.addItem(line(3L, 1));
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.of(snapshot));
+        AtomicInteger checked = new AtomicInteger();
+
+        store.addItem(CartKey.guest("g1"), line(3L, 1), "session", checked::set);
+
+        assertEquals(2, checked.get());
+        assertFields("cart:guest:g1", Map.of("id", "4", "q:3", "2", "items", "2", "amount", "2000"));
+        assertTtl("cart:guest:g1", 604800);
+    }
+
+    @Test
+    void userCart_expiresAfterUserTtl_pushedBackByEachMutation() {
+        store.addItem(CartKey.user(7L), line(3L, 1), null, quantity -> { });
+        redisTemplate.expire(USER_CART, Duration.ofSeconds(10));
+
+        store.updateQuantity(CartKey.user(7L), 3L, 2);
+
+        assertTtl(USER_CART, 2592000);
+    }
+
+    @Test
+    void find_expiredGuestSnapshot_seedsAnEmptyCart_andLeavesTheRowsAlone() {
+        Cart snapshot = Cart.builder().cartId(4L).guestCartId("g1").lastUpdatedAt(LocalDateTime.now().minusDays(8))
+                .expiresAt(LocalDateTime.now().minusDays(1)).build();
+        snapshot.addItem(line(3L, 2));
+        when(cartRepository.findByGuestCartId("g1")).thenReturn(Optional.of(snapshot));
+
+        Cart read = store.find(CartKey.guest("g1")).orElseThrow();
+
+        assertTrue(read.isEmpty());
+        assertEquals(1, snapshot.getItems().size());
+        assertFields("cart:guest:g1", Map.of("id", "4", "items", "0", "amount", "0"));
+        assertFalse(redisTemplate.opsForHash().hasKey("cart:guest:g1", "q:3"));
+    }
+
+    @Test
+    void seed_doesNotOverwriteHashCreatedByAnotherNode() {
+        hash(USER_CART, "items", "1", "q:3", "1");
+
+        redisTemplate.execute(RedisCartStore.SEED, List.of(USER_CART), "0", "items", "9", "q:3", "9");
+
+        assertFields(USER_CART, Map.of("items", "1", "q:3", "1"));
+        assertEquals(-1L, redisTemplate.getExpire(USER_CART));
+    }
+
+    @Test
+    void updateQuantity_movesTotalsByTheLineDelta_andZeroRemovesTheLine() {
+        hash(USER_CART, "updated", LocalDateTime.now().toString(), "items", "3", "amount", "2500",
+                "q:3", "2", "p:3", "1000", "i:3", "img-3", "q:9", "1", "p:9", "500", "i:9", "img-9");
+
+        assertTrue(store.updateQuantity(CartKey.user(7L), 3L, 5));
+        assertTrue(store.removeItem(CartKey.user(7L), 9L));
+        assertFalse(store.updateQuantity(CartKey.user(7L), 4L, 1));
+
+        assertFields(USER_CART, Map.of("q:3", "5", "items", "5", "amount", "5000"));
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "q:9"));
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "p:9"));
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "i:9"));
+    }
+
+    @Test
+    void updateQuantity_whenCartExistsNowhere_throws() {
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.empty());
+
+        assertThrows(IllegalArgumentException.class, () -> store.updateQuantity(CartKey.user(7L), 3L, 2));
+        assertFalse(redisTemplate.hasKey(USER_CART));
+    }
+
+    @Test
+    void clear_dropsEveryLine_andKeepsTheCart() {
+        hash(USER_CART, "id", "4", "updated", LocalDateTime.now().toString(), "items", "3", "amount", "2500",
+                "q:3", "2", "p:3", "1000", "i:3", "img-3", "q:9", "1", "p:9", "500");
+
+        assertTrue(store.clear(CartKey.user(7L)));
+
+        Map<Object, Object> hash = redisTemplate.opsForHash().entries(USER_CART);
+        assertEquals(Set.of("id", "updated", "items", "amount"), hash.keySet());
+        assertFields(USER_CART, Map.of("id", "4", "items", "0", "amount", "0"));
+        assertTtl(USER_CART, 2592000);
+    }
+
+    @Test
+    void clear_whenCartExistsNowhere_returnsFalse() {
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.empty());
+
+        assertFalse(store.clear(CartKey.user(7L)));
+        assertFalse(redisTemplate.hasKey(USER_CART));
+    }
+
+    @Test
+    void find_buildsCartFromHash_inProductOrder() {
+        hash(USER_CART, "updated", LocalDateTime.now().toString(), "items", "3", "amount", "2500",
+                "q:9", "1", "p:9", "500", "q:3", "2", "p:3", "1000", "i:3", "img-3");
+
+        Cart cart = store.find(CartKey.user(7L)).orElseThrow();
+
+        assertEquals(List.of(3L, 9L), cart.getItems().stream().map(CartItem::getProductId).toList());
+        assertEquals(2, cart.getItems().get(0).getQuantity());
+        assertEquals("img-3", cart.getItems().get(0).getImageId());
+        assertEquals(10.0, cart.getItems().get(0).getPrice());
+        assertEquals(3, cart.getTotalItems());
+        assertEquals(25.0, cart.getTotalAmount());
+        assertEquals(7L, cart.getUserId());
+        verifyNoInteractions(cartRepository);
+    }
+
+    @Test
+    void applyAll_checksResultingQuantities_thenAppliesTheBatchInOrder() {
+        hash(USER_CART, "updated", LocalDateTime.now().toString(), "items", "2", "amount", "2000",
+                "q:3", "2", "p:3", "1000");
+        List<LongIntHashMap> checked = new ArrayList<>();
+
+        store.applyAll(CartKey.user(7L), List.of(LineChange.add(line(3L, 1)), LineChange.add(line(4L, 2)),
+                LineChange.set(3L, 0)), null, checked::add);
+
+        assertEquals(0, checked.get(0).getOrDefault(3L, -1));
+        assertEquals(2, checked.get(0).getOrDefault(4L, -1));
+        assertFields(USER_CART, Map.of("q:4", "2", "p:4", "1000", "items", "2", "amount", "2000"));
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "q:3"));
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "p:3"));
+        verifyNoInteractions(cartRepository);
+    }
+
+    @Test
+    void apply_skipsSetOnProductWithNoLine() {
+        hash(USER_CART, "items", "2", "amount", "2000", "q:3", "2", "p:3", "1000");
+
+        redisTemplate.execute(RedisCartStore.APPLY, List.of(USER_CART), "now", "0",
+                "s", "8", "5", "1000", "",
+                "s", "3", "1", "1000", "");
+
+        assertFields(USER_CART, Map.of("q:3", "1", "items", "1", "amount", "1000", "updated", "now"));
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "q:8"));
+    }
+
+    @Test
+    void scripts_whenHashDoesNotExist_returnMinusOne_andCreateNothing() {
+        assertEquals(-1L, redisTemplate.execute(RedisCartStore.ADD, List.of(USER_CART), "3", "1", "1000", "", "now", "0"));
+        assertEquals(-1L, redisTemplate.execute(RedisCartStore.SET_QUANTITY, List.of(USER_CART), "3", "1", "now", "0"));
+        assertEquals(-1L, redisTemplate.execute(RedisCartStore.CLEAR, List.of(USER_CART), "now", "0"));
+        assertEquals(-1L, redisTemplate.execute(RedisCartStore.APPLY, List.of(USER_CART), "now", "0",
+                "a", "3", "1", "1000", ""));
+
+        assertFalse(redisTemplate.hasKey(USER_CART));
+    }
+
+    @Test
+    void applyAll_settingAProductNotInCart_writesNothing() {
+        hash(USER_CART, "updated", LocalDateTime.now().toString(), "items", "0", "amount", "0");
+
+        assertThrows(IllegalArgumentException.class, () -> store.applyAll(CartKey.user(7L),
+                List.of(LineChange.set(3L, 2)), null, quantities -> { }));
+
+        assertFalse(redisTemplate.opsForHash().hasKey(USER_CART, "q:3"));
+    }
+
+    /**
+     * Database writes of a burst of adds to one cart: the jpa store saves the whole cart on every add,
+     * the redis store writes it once, when the snapshot runs.
+     */
+    @Test
+    void hundredAdds_writeTheCartOncePerSnapshot_whereJpaStoreSavesItEveryTime() {
+        Cart persisted = Cart.builder().cartId(1L).userId(7L).lastUpdatedAt(LocalDateTime.now()).build();
+        when(cartRepository.findByUserId(7L)).thenReturn(Optional.of(persisted));
+        JpaCartStore jpaStore = new JpaCartStore(cartRepository, new CartCalculator());
+        for (int i = 0; i < 100; i++) {
+            jpaStore.addItem(CartKey.user(7L), line(3L, 1), null, quantity -> { });
+        }
+        verify(cartRepository, times(100)).save(persisted);
+
+        clearInvocations(cartRepository);
+        for (int i = 0; i < 100; i++) {
+            store.addItem(CartKey.user(7L), line(3L, 1), null, quantity -> { });
+        }
+        verify(cartRepository, never()).save(any());
+
+        store.snapshot();
+
+        verify(cartRepository, times(1)).save(persisted);
+        assertEquals(200, persisted.getItems().get(0).getQuantity());
+        assertEquals(2000.0, persisted.getTotalAmount());
+    }
+
+    private void hash(String key, String... fieldsAndValues) {
+        Map<String, String> hash = new LinkedHashMap<>();
+        for (int i = 0; i < fieldsAndValues.length; i += 2) {
+            hash.put(fieldsAndValues[i], fieldsAndValues[i + 1]);
+        }
+        redisTemplate.opsForHash().putAll(key, hash);
+    }
+
+    private void assertFields(String key, Map<String, String> expected) {
+        expected.forEach((field, value) ->
+                assertEquals(value, redisTemplate.opsForHash().get(key, field), field));
+    }
+
+    private void assertTtl(String key, long ttlSeconds) {
+        Long expire = redisTemplate.getExpire(key);
+        assertNotNull(expire);
+        assertTrue(expire > ttlSeconds - 10 && expire <= ttlSeconds, "ttl " + expire);
+    }
+
+    private static CartItem line(Long productId, int quantity) {
+        return CartItem.builder()
+                .productId(productId)
+                .quantity(quantity)
+                .price(10.0)
+                .build();
+    }
+}
@@ -0,0 +1,154 @@
+package com.ecommerce.services;
+
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.models.Product;
+import com.ecommerce.models.Stock;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantityDelta;
+import com.ecommerce.repositories.StockRepositoryCustom.QuantitySnapshot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RedisStockReservationEngineTest extends RedisContainerTest {
+
+    private StockRepository stockRepository;
+    private RedisStockReservationEngine engine;
+
+    @BeforeEach
+    void setup() {
+        stockRepository = mock(StockRepository.class);
+        engine = new RedisStockReservationEngine(redisTemplate, stockRepository, mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void reserveAll_reservesEveryLine_andMarksThemDirty() {
+        hash(3L, 10, 0);
+        hash(9L, 5, 1);
+
+        engine.reserveAll(new TreeMap<>(Map.of(9L, 5, 3L, 2)));
+
+        assertCounters(3L, 8, 2);
+        assertCounters(9L, 0, 6);
+        assertEquals(Set.of("{stock}:3", "{stock}:9"), redisTemplate.opsForSet().members(RedisStockReservationEngine.DIRTY_KEY));
+        verifyNoInteractions(stockRepository);
+    }
+
+    @Test
+    void reserveAll_whenOneLineIsShort_reportsThatProduct_andChangesNothing() {
+        hash(3L, 10, 0);
+        hash(9L, 4, 0);
+
+        InsufficientStockException ex = assertThrows(InsufficientStockException.class,
+                () -> engine.reserveAll(new TreeMap<>(Map.of(3L, 2, 9L, 5))));
+
+        assertEquals(List.of(9L), ex.getProductIds());
+        assertCounters(3L, 10, 0);
+        assertCounters(9L, 4, 0);
+        assertFalse(redisTemplate.hasKey(RedisStockReservationEngine.DIRTY_KEY));
+    }
+
+    @Test
+    void reserveAll_whenHashIsMissing_seedsItFromDatabaseAndRetries() {
+        when(stockRepository.findByProduct_ProductId(3L)).thenReturn(Optional.of(stock(3L, 10, 4)));
+
+        engine.reserveAll(new TreeMap<>(Map.of(3L, 2)));
+
+        assertCounters(3L, 8, 6);
+    }
+
+    @Test
+    void seed_doesNotOverwriteHashCreatedByAnotherNode() {
+        hash(3L, 1, 0);
+
+        redisTemplate.execute(RedisStockReservationEngine.SEED, List.of("{stock}:3"), "10", "4");
+
+        assertCounters(3L, 1, 0);
+    }
+
+    @Test
+    void confirm_movesReservedOut_andWritesTotalThroughToDatabase() {
+        hash(3L, 2, 4);
+
+        assertTrue(engine.confirm(3L, 4));
+
+        assertCounters(3L, 2, 0);
+        verify(stockRepository).applyDeltas(List.of(new QuantityDelta(3L, -4, 0, -4)));
+    }
+
+    @Test
+    void release_whenNotEnoughReserved_returnsFalse_andChangesNothing() {
+        hash(3L, 2, 3);
+
+        assertFalse(engine.release(3L, 4));
+
+        assertCounters(3L, 2, 3);
+    }
+
+    @Test
+    void adjustAvailable_writesDifferenceThroughToDatabase() {
+        hash(3L, 7, 1);
+
+        engine.adjustAvailable(3L, 10);
+
+        assertCounters(3L, 10, 1);
+        verify(stockRepository).applyDeltas(List.of(new QuantityDelta(3L, 3, 3, 0)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reconcile_copiesOnlyDirtyProducts_andDrainsDirtySet() {
+        hash(3L, 10, 0);
+        hash(9L, 5, 0);
+        engine.reserveAll(new TreeMap<>(Map.of(3L, 2)));
+        when(stockRepository.overwriteQuantities(anyCollection())).thenReturn(1);
+
+        engine.reconcile();
+        engine.reconcile();
+
+        ArgumentCaptor<Collection<QuantitySnapshot>> snapshots = ArgumentCaptor.forClass(Collection.class);
+        verify(stockRepository, times(1)).overwriteQuantities(snapshots.capture());
+        assertEquals(List.of(new QuantitySnapshot(3L, 8, 2)), List.copyOf(snapshots.getValue()));
+        verify(stockRepository, never()).findAllQuantities();
+    }
+
+    @Test
+    void reconcile_whenUpdateFails_keepsProductsDirty() {
+        hash(3L, 10, 0);
+        engine.reserveAll(new TreeMap<>(Map.of(3L, 2)));
+        when(stockRepository.overwriteQuantities(anyCollection())).thenThrow(new IllegalStateException("db down"));
+
+        assertThrows(IllegalStateException.class, () -> engine.reconcile());
+
+        assertEquals(Set.of("{stock}:3"), redisTemplate.opsForSet().members(RedisStockReservationEngine.DIRTY_KEY));
+    }
+
+    private void hash(Long productId, int available, int reserved) {
+        redisTemplate.opsForHash().putAll(RedisStockReservationEngine.key(productId),
+                Map.of("available", String.valueOf(available), "reserved", String.valueOf(reserved)));
+    }
+
+    private void assertCounters(Long productId, int available, int reserved) {
+        List<Object> values = redisTemplate.opsForHash().multiGet(RedisStockReservationEngine.key(productId),
+                List.of("available", "reserved"));
+        assertEquals(List.of(String.valueOf(available), String.valueOf(reserved)), values);
+    }
+
+    private Stock stock(Long productId, int available, int reserved) {
+        Product product = new Product();
+        product.setProductId(productId);
+        Stock stock = new Stock();
+        stock.setProduct(product);
+        stock.setAvailableQuantity(available);
+        stock.setReservedQuantity(reserved);
+        stock.setTotalQuantity(available + reserved);
+        return stock;
+    }
+}
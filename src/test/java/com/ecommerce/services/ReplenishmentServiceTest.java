@@ -0,0 +1,179 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.models.ReplenishmentRun;
+import com.ecommerce.models.ReplenishmentSuggestion;
+import com.ecommerce.repositories.ProductSalesVelocityRepository;
+import com.ecommerce.repositories.ReplenishmentRunRepository;
+import com.ecommerce.repositories.ReplenishmentSuggestionRepository;
+import com.ecommerce.repositories.StockRepository;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ReplenishmentServiceTest {
+
+    private static final int PRODUCTS = 5000;
+
+    private ProductSalesVelocityRepository salesVelocityRepository;
+    private ReplenishmentRunRepository runRepository;
+    private ReplenishmentSuggestionRepository suggestionRepository;
+    private StockRepository stockRepository;
+    private StockReservationEngine stockReservationEngine;
+    private Connection lockConnection;
+    private PreparedStatement tryLock;
+    private PreparedStatement unlock;
+    private ResultSet lockResult;
+    private ReplenishmentService replenishmentService;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        salesVelocityRepository = mock(ProductSalesVelocityRepository.class);
+        runRepository = mock(ReplenishmentRunRepository.class);
+        suggestionRepository = mock(ReplenishmentSuggestionRepository.class);
+        stockRepository = mock(StockRepository.class);
+        stockReservationEngine = mock(StockReservationEngine.class);
+        DataSource dataSource = mock(DataSource.class);
+        lockConnection = mock(Connection.class);
+        tryLock = mock(PreparedStatement.class);
+        unlock = mock(PreparedStatement.class);
+        lockResult = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(lockConnection);
+        when(lockConnection.prepareStatement("SELECT pg_try_advisory_lock(?)")).thenReturn(tryLock);
+        when(lockConnection.prepareStatement("SELECT pg_advisory_unlock(?)")).thenReturn(unlock);
+        when(tryLock.executeQuery()).thenReturn(lockResult);
+        when(unlock.executeQuery()).thenReturn(mock(ResultSet.class));
+        when(lockResult.next()).thenReturn(true);
+        replenishmentService = new ReplenishmentService(salesVelocityRepository, runRepository, suggestionRepository,
+                stockRepository, stockReservationEngine, mock(PlatformTransactionManager.class),
+                dataSource, new SimpleMeterRegistry(), 3);
+
+        when(runRepository.save(any())).thenAnswer(invocation -> {
+            ReplenishmentRun run = invocation.getArgument(0);
+            if (run.getRunId() == null) {
+                run.setRunId(42L);
+            }
+            return run;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        replenishmentService.stop();
+    }
+
+    @Test
+    void dailyVelocity_isTheDecayedCountOverTheTimeConstant_andHalvesEveryHalfLife() {
+        LocalDateTime now = LocalDateTime.of(2024, 1, 1, 0, 0);
+        // 7-day half-life: time constant 7 / ln 2 days
+        double velocity = replenishmentService.dailyVelocity(100, now, now);
+        double weekLater = replenishmentService.dailyVelocity(100, now, now.plusDays(7));
+
+        assertEquals(100 / (7 / Math.log(2)), velocity, 1e-9);
+        assertEquals(velocity / 2, weekLater, 1e-9);
+    }
+
+    @Test
+    void suggest_ordersUpToCoverWhenAtOrBelowReorderPoint() {
+        // 2 units/day: reorder point 2 * (7 + 3) = 20, target 2 * (7 + 3 + 14) = 48
+        ReplenishmentSuggestion suggestion = replenishmentService.suggest(1L, 7L, 20, 2.0);
+
+        assertEquals(20, suggestion.getReorderPoint());
+        assertEquals(28, suggestion.getSuggestedQuantity());
+        assertNull(replenishmentService.suggest(1L, 7L, 21, 2.0));
+        assertNull(replenishmentService.suggest(1L, 7L, 0, 0));
+    }
+
+    @Test
+    void replenish_foldsNewSales_andAnalyzesEveryProductOnce_underTheRunLock() throws SQLException {
+        when(lockResult.getBoolean(1)).thenReturn(true);
+        List<Object[]> range = new ArrayList<>();
+        range.add(new Object[]{1L, (long) PRODUCTS});
+        when(stockRepository.findProductIdRange()).thenReturn(range);
+        // every even product sells 0.95 unit/day
+        when(salesVelocityRepository.findVelocityPage(anyLong(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(0);
+            long upTo = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            List<Object[]> page = new ArrayList<>();
+            for (long productId = after + 1; productId <= upTo && page.size() < limit; productId++) {
+                page.add(productId % 2 == 0
+                        ? new Object[]{productId, 0.95 * 7 / Math.log(2), LocalDateTime.now()}
+                        : new Object[]{productId, null, null});
+            }
+            return page;
+        });
+        when(stockReservationEngine.getAvailableQuantities(anyCollection())).thenAnswer(invocation -> {
+            LongIntHashMap available = new LongIntHashMap();
+            for (Long productId : invocation.<Collection<Long>>getArgument(0)) {
+                available.put(productId, 5);
+            }
+            return available;
+        });
+
+        ReplenishmentRun run = replenishmentService.replenish().orElseThrow();
+
+        verify(salesVelocityRepository).accumulateConfirmedSales(eq(run.getSalesThrough()), anyDouble());
+        assertEquals(PRODUCTS, run.getProductsAnalyzed());
+        assertEquals(PRODUCTS / 2, run.getSuggestionsCreated());
+        assertNotNull(run.getFinishedAt());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ReplenishmentSuggestion>> saved = ArgumentCaptor.forClass(List.class);
+        verify(suggestionRepository).saveAll(saved.capture());
+        List<ReplenishmentSuggestion> suggestions = new ArrayList<>(saved.getValue());
+        suggestions.sort(Comparator.comparing(ReplenishmentSuggestion::getProductId));
+        assertEquals(2L, suggestions.get(0).getProductId());
+        // reorder point ceil(0.95 * 10) = 10, target ceil(0.95 * 24) = 23
+        assertEquals(10, suggestions.get(0).getReorderPoint());
+        assertEquals(18, suggestions.get(0).getSuggestedQuantity());
+        assertEquals(PRODUCTS / 2, suggestions.stream().map(ReplenishmentSuggestion::getProductId).distinct().count());
+        // the suggestions of other runs are deleted before the lock is given back
+        InOrder order = inOrder(suggestionRepository, unlock, lockConnection);
+        order.verify(suggestionRepository).deleteOtherRuns(42L);
+        order.verify(unlock).executeQuery();
+        order.verify(lockConnection).close();
+    }
+
+    @Test
+    void replenish_skipsWhenAnotherRunHoldsTheLock() throws SQLException {
+        when(lockResult.getBoolean(1)).thenReturn(false);
+
+        assertTrue(replenishmentService.replenish().isEmpty());
+        verifyNoInteractions(salesVelocityRepository, suggestionRepository);
+        verify(unlock, never()).executeQuery();
+        verify(lockConnection).close();
+    }
+
+    @Test
+    void replenish_whenRunFails_releasesTheLock() throws SQLException {
+        when(lockResult.getBoolean(1)).thenReturn(true);
+        when(stockRepository.findProductIdRange()).thenThrow(new IllegalStateException("db down"));
+
+        assertThrows(IllegalStateException.class, () -> replenishmentService.replenish());
+
+        verify(unlock).executeQuery();
+        verify(lockConnection).close();
+        verify(suggestionRepository, never()).deleteOtherRuns(anyLong());
+    }
+}
@@ -0,0 +1,54 @@
+package com.ecommerce.services;
+
+import com.ecommerce.events.StockReservationsClosedEvent;
+import com.ecommerce.events.StockReservationsCreatedEvent;
+import com.ecommerce.repositories.StockReservationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ReservationExpiryTimerTest {
+
+    private StockService stockService;
+    private ReservationExpiryTimer timer;
+
+    @BeforeEach
+    void setup() {
+        stockService = mock(StockService.class);
+        when(stockService.releaseExpiredReservations(anyCollection(), any(LocalDateTime.class)))
+                .thenAnswer(inv -> new StockService.ExpiredBatch(inv.<List<Long>>getArgument(0).size(), null));
+        timer = new ReservationExpiryTimer(stockService, mock(StockReservationRepository.class), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void releaseDue_releasesOnlyExpiredReservations() {
+        LocalDateTime now = LocalDateTime.now();
+        timer.onReservationsCreated(new StockReservationsCreatedEvent(Map.of(
+                1L, now.minusSeconds(1),
+                2L, now.plusMinutes(30))));
+
+        assertEquals(1, timer.releaseDue());
+
+        verify(stockService).releaseExpiredReservations(eq(List.of(1L)), any(LocalDateTime.class));
+        assertEquals(0, timer.releaseDue());
+    }
+
+    @Test
+    void releaseDue_skipsReservationsClosedBeforeExpiry() {
+        LocalDateTime expired = LocalDateTime.now().minusSeconds(1);
+        timer.onReservationsCreated(new StockReservationsCreatedEvent(Map.of(1L, expired, 2L, expired)));
+        timer.onReservationsClosed(new StockReservationsClosedEvent(List.of(1L)));
+
+        timer.releaseDue();
+
+        verify(stockService).releaseExpiredReservations(eq(List.of(2L)), any(LocalDateTime.class));
+    }
+}
@@ -0,0 +1,61 @@
+package com.ecommerce.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The production upgrade script, run as spring.sql.init runs it, on a schema missing what it adds.
+ */
+public class SchemaUpgradeScriptTest extends PostgresContainerTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setup() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Test
+    void upgrade_addsMissingColumnsAndIndexes_andCanRunAgain() {
+        jdbcTemplate.execute("DROP INDEX idx_cart_guest_cart_id");
+        jdbcTemplate.execute("DROP INDEX idx_cart_expires_at");
+        jdbcTemplate.execute("ALTER TABLE stock_reservations DROP COLUMN sales_counted");
+        jdbcTemplate.execute("DROP TABLE warehouse_stock");
+        jdbcTemplate.execute("ALTER TABLE stock_movements DROP COLUMN reason");
+
+        upgrade();
+        upgrade();
+
+        assertEquals(List.of("idx_cart_expires_at", "idx_cart_guest_cart_id"), jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'carts' AND indexname LIKE 'idx_cart_%' " +
+                        "ORDER BY indexname", String.class));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_indexes WHERE indexname = 'idx_reservation_sales_counted'", Integer.class));
+        assertEquals("false", jdbcTemplate.queryForObject(
+                "SELECT column_default FROM information_schema.columns " +
+                        "WHERE table_name = 'stock_reservations' AND column_name = 'sales_counted'", String.class));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT count(*) FROM warehouse_stock", Integer.class));
+        assertEquals(255, jdbcTemplate.queryForObject(
+                "SELECT character_maximum_length FROM information_schema.columns " +
+                        "WHERE table_name = 'stock_movements' AND column_name = 'reason'", Integer.class));
+    }
+
+    private void upgrade() {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(new ClassPathResource("db/schema-upgrade.sql"));
+        populator.setSeparator(ScriptUtils.EOF_STATEMENT_SEPARATOR);
+        populator.execute(dataSource);
+    }
+}
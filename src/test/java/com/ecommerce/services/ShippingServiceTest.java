@@ -2,6 +2,7 @@ package com.ecommerce.services;
 
 import com.ecommerce.models.*;
 import com.ecommerce.repositories.ShipmentRepository;
+import com.ecommerce.repositories.WarehouseRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -19,7 +20,7 @@ public class ShippingServiceTest {
     @BeforeEach
     void setup() {
         shipmentRepository = mock(ShipmentRepository.class);
-        shippingService = new ShippingService(shipmentRepository);
+        shippingService = new ShippingService(shipmentRepository, mock(WarehouseRepository.class));
         when(shipmentRepository.save(any(Shipment.class))).thenAnswer(inv -> inv.getArgument(0));
     }
 
@@ -0,0 +1,125 @@
+package com.ecommerce.services;
+
+import com.ecommerce.API.StockReservationEngine;
+import com.ecommerce.API.StockReservationEngine.QuantityChange;
+import com.ecommerce.dto.StockImportReport;
+import com.ecommerce.events.StockChangedEvent;
+import com.ecommerce.repositories.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class StockImportServiceTest {
+
+    private StockReservationEngine stockReservationEngine;
+    private ProductRepository productRepository;
+    private ApplicationEventPublisher eventPublisher;
+    private WarehouseStockService warehouseStockService;
+
+    private StockImportService stockImportService;
+
+    @BeforeEach
+    void setup() {
+        stockReservationEngine = mock(StockReservationEngine.class);
+        productRepository = mock(ProductRepository.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        warehouseStockService = mock(WarehouseStockService.class);
+        stockImportService = new StockImportService(stockReservationEngine, productRepository,
+                new StockUpdateRetry(mock(PlatformTransactionManager.class), new SimpleMeterRegistry()),
+                warehouseStockService, eventPublisher, new ObjectMapper());
+
+        when(stockReservationEngine.applyQuantityChanges(any())).thenReturn(Set.of());
+    }
+
+    @Test
+    void importStock_csv_mergesLinesPerProduct_andResolvesSkusInOneQuery() throws Exception {
+        List<Object[]> skuRows = new ArrayList<>();
+        skuRows.add(new Object[]{"SKU-7", 7L});
+        when(productRepository.findIdsBySkus(anyCollection())).thenReturn(skuRows);
+
+        StockImportReport report = stockImportService.importStock(body("""
+                productId,sku,delta,quantity,reason
+                1,,5,,"delivery, pallet 1"
+                ,SKU-7,,20,inventory
+                1,,,10,recount
+                1,,-2,,damaged
+                """), StockImportService.Format.CSV);
+
+        assertEquals(4, report.linesRead());
+        assertEquals(4, report.linesApplied());
+        assertEquals(0, report.linesFailed());
+        verify(productRepository, times(1)).findIdsBySkus(Set.of("SKU-7"));
+        verify(stockReservationEngine).applyQuantityChanges(new TreeMap<>(Map.of(
+                // the recount overrides the delivery; reasons of the lines applied after it are kept
+                1L, new QuantityChange(true, 8, "recount; damaged"),
+                7L, new QuantityChange(true, 20, "inventory"))));
+        verify(eventPublisher).publishEvent(new StockChangedEvent(Set.of(1L, 7L)));
+    }
+
+    @Test
+    void importStock_ndjson_reportsInvalidAndRejectedLines_andAppliesTheOthers() throws Exception {
+        when(productRepository.findIdsBySkus(anyCollection())).thenReturn(List.of());
+        when(stockReservationEngine.applyQuantityChanges(any())).thenReturn(Set.of(2L));
+
+        StockImportReport report = stockImportService.importStock(body("""
+                {"productId": 1, "delta": 3, "reason": "delivery"}
+                {"productId": 2, "delta": -50}
+                {"sku": "UNKNOWN", "quantity": 4}
+                {"productId": 3, "delta": 1, "quantity": 2}
+                not json
+                """), StockImportService.Format.NDJSON);
+
+        assertEquals(5, report.linesRead());
+        assertEquals(1, report.linesApplied());
+        assertEquals(4, report.linesFailed());
+        assertEquals(List.of(2L, 3L, 4L, 5L), report.errors().stream().map(StockImportReport.LineError::line).toList());
+        assertFalse(report.errorsTruncated());
+        verify(eventPublisher).publishEvent(new StockChangedEvent(Set.of(1L)));
+    }
+
+    @Test
+    void importStock_rejectsProductsStockedPerWarehouse_andAppliesTheOthers() throws Exception {
+        when(warehouseStockService.findTrackedProducts(anyCollection())).thenReturn(Set.of(2L));
+
+        StockImportReport report = stockImportService.importStock(body("""
+                productId,delta
+                1,3
+                2,5
+                """), StockImportService.Format.CSV);
+
+        assertEquals(1, report.linesApplied());
+        assertEquals(List.of(3L), report.errors().stream().map(StockImportReport.LineError::line).toList());
+        verify(stockReservationEngine).applyQuantityChanges(new TreeMap<>(Map.of(1L, new QuantityChange(false, 3))));
+        verify(eventPublisher).publishEvent(new StockChangedEvent(Set.of(1L)));
+    }
+
+    @Test
+    void importStock_csvWithoutQuantityColumn_failsOnHeader() throws Exception {
+        StockImportReport report = stockImportService.importStock(body("productId,reason\n1,x\n"),
+                StockImportService.Format.CSV);
+
+        assertEquals(0, report.linesApplied());
+        assertEquals(1, report.errors().get(0).line());
+        verify(stockReservationEngine, never()).applyQuantityChanges(any());
+    }
+
+    @Test
+    void splitCsv_handlesQuotedFields() {
+        assertEquals(List.of("1", "", "say \"hi\", twice"), StockImportService.splitCsv("1,,\"say \"\"hi\"\", twice\""));
+    }
+
+    private static ByteArrayInputStream body(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,15 +1,32 @@
 package com.ecommerce.services;
 
+import com.ecommerce.exceptions.InsufficientStockException;
+import com.ecommerce.exceptions.StockNotFound;
 import com.ecommerce.models.*;
+import com.ecommerce.repositories.StockBucketRepository;
+import com.ecommerce.repositories.StockMovementRepository;
 import com.ecommerce.repositories.StockRepository;
 import com.ecommerce.repositories.StockReservationRepository;
+import com.ecommerce.repositories.WarehouseStockRepositoryCustom.WarehouseQuantity;
+import com.ecommerce.utils.LongIntHashMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -19,6 +36,7 @@ public class StockServiceTest {
 
     private StockReservationRepository stockReservationRepository;
     private StockRepository stockRepository;
+    private WarehouseStockService warehouseStockService;
 
     private StockService stockService;
 
@@ -26,7 +44,15 @@ public class StockServiceTest {
     void setup() {
         stockReservationRepository = mock(StockReservationRepository.class);
         stockRepository = mock(StockRepository.class);
-        stockService = new StockService(stockReservationRepository, stockRepository);
+        warehouseStockService = mock(WarehouseStockService.class);
+        HotStockBuckets hotStockBuckets = new HotStockBuckets(stockRepository, mock(StockBucketRepository.class),
+                mock(PlatformTransactionManager.class));
+        stockService = new StockService(stockReservationRepository, stockRepository, mock(StockMovementRepository.class),
+                new JpaStockReservationEngine(stockRepository, hotStockBuckets), mock(ApplicationEventPublisher.class),
+                hotStockBuckets, new StockUpdateRetry(mock(PlatformTransactionManager.class), new SimpleMeterRegistry()),
+                new AvailabilityNearCache(mock(StringRedisTemplate.class), mock(RedisMessageListenerContainer.class),
+                        mock(ApplicationEventPublisher.class), new SimpleMeterRegistry(), true, 1000, 2000, true),
+                warehouseStockService);
 
         when(stockReservationRepository.saveAll(anyList())).thenAnswer(inv -> inv.getArgument(0));
         when(stockRepository.save(any(Stock.class))).thenAnswer(inv -> inv.getArgument(0));
@@ -41,74 +67,270 @@ public class StockServiceTest {
         item1.setPrice(10.0);
         cart.addItem(item1);
 
-        Stock stock1 = Stock.builder()
-                .product(new Product())
-                .totalQuantity(100)
-                .availableQuantity(100)
-                .reservedQuantity(0)
-                .build();
-        when(stockRepository.findByProduct_ProductId(1L)).thenReturn(Optional.of(stock1));
+        List<Object[]> lockedRows = new ArrayList<>();
+        lockedRows.add(new Object[]{1L, 100});
+        when(stockRepository.lockAvailableQuantities(anyCollection())).thenReturn(lockedRows);
+        when(stockRepository.reserveQuantities(any())).thenReturn(1);
 
         List<StockReservation> reservations = stockService.reserveStockForCart(cart);
 
         assertEquals(1, reservations.size());
-        verify(stockRepository, times(1)).save(any(Stock.class));
+        verify(stockRepository, times(1)).reserveQuantities(new TreeMap<>(Map.of(1L, 2)));
+        verify(stockRepository, never()).findByProduct_ProductId(anyLong());
+        verify(stockRepository, never()).save(any(Stock.class));
         verify(stockReservationRepository, times(1)).saveAll(anyList());
-        assertEquals(98, stock1.getAvailableQuantity());
-        assertEquals(2, stock1.getReservedQuantity());
     }
 
     @Test
-    void confirmReservations_movesReservedToSold_and_updatesReservations() {
-        StockReservation res = new StockReservation();
-        res.setProductId(1L);
-        res.setQuantity(3);
-        res.setStatus(ReservationStatus.ACTIVE);
-        List<StockReservation> list = new ArrayList<>();
-        list.add(res);
+    void reserveStockForCart_locksInProductOrder_andMergesDuplicateLines() {
+        Cart cart = new Cart();
+        cart.addItem(CartItem.builder().productId(9L).quantity(1).price(5.0).build());
+        cart.addItem(CartItem.builder().productId(3L).quantity(2).price(5.0).build());
+        cart.addItem(CartItem.builder().productId(9L).quantity(4).price(5.0).build());
+
+        List<Object[]> lockedRows = new ArrayList<>();
+        lockedRows.add(new Object[]{3L, 10});
+        lockedRows.add(new Object[]{9L, 10});
+        when(stockRepository.lockAvailableQuantities(anyCollection())).thenReturn(lockedRows);
+        when(stockRepository.reserveQuantities(any())).thenReturn(2);
+
+        stockService.reserveStockForCart(cart);
+
+        verify(stockRepository).lockAvailableQuantities(argThat(ids -> List.copyOf(ids).equals(List.of(3L, 9L))));
+        verify(stockRepository).reserveQuantities(new TreeMap<>(Map.of(3L, 2, 9L, 5)));
+    }
+
+    @Test
+    void reserveStockForCart_whenSomeLinesShort_reservesNothing_andReportsEveryShortProduct() {
+        Cart cart = new Cart();
+        cart.addItem(CartItem.builder().productId(1L).quantity(2).price(5.0).build());
+        cart.addItem(CartItem.builder().productId(2L).quantity(5).price(5.0).build());
+        cart.addItem(CartItem.builder().productId(3L).quantity(1).price(5.0).build());
+
+        List<Object[]> lockedRows = new ArrayList<>();
+        lockedRows.add(new Object[]{1L, 10});
+        lockedRows.add(new Object[]{2L, 4});
+        when(stockRepository.lockAvailableQuantities(anyCollection())).thenReturn(lockedRows);
+
+        InsufficientStockException ex = assertThrows(InsufficientStockException.class,
+                () -> stockService.reserveStockForCart(cart));
+
+        assertEquals(List.of(2L, 3L), ex.getProductIds());
+        verify(stockRepository, never()).reserveQuantities(any());
+        verify(stockReservationRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    void reserveStockForCart_createsOneReservationPerAllocatedWarehouse() {
+        Cart cart = new Cart();
+        cart.addItem(CartItem.builder().productId(1L).quantity(5).price(5.0).build());
+        cart.addItem(CartItem.builder().productId(2L).quantity(1).price(5.0).build());
 
+        List<Object[]> lockedRows = new ArrayList<>();
+        lockedRows.add(new Object[]{1L, 10});
+        lockedRows.add(new Object[]{2L, 10});
+        when(stockRepository.lockAvailableQuantities(anyCollection())).thenReturn(lockedRows);
+        when(stockRepository.reserveQuantities(any())).thenReturn(2);
+        // product 2 is not tracked per warehouse
+        when(warehouseStockService.allocate(any())).thenReturn(List.of(
+                new WarehouseQuantity(1L, 3L, 2), new WarehouseQuantity(1L, 4L, 3)));
+
+        List<StockReservation> reservations = stockService.reserveStockForCart(cart);
+
+        assertEquals(3, reservations.size());
+        assertEquals(List.of(1L, 1L, 2L), reservations.stream().map(StockReservation::getProductId).toList());
+        assertEquals(List.of(2, 3, 1), reservations.stream().map(StockReservation::getQuantity).toList());
+        assertEquals(Arrays.asList(3L, 4L, null), reservations.stream().map(StockReservation::getWarehouseId).toList());
+        verify(warehouseStockService).allocate(new TreeMap<>(Map.of(1L, 5, 2L, 1)));
+    }
+
+    @Test
+    void reserveStock_whenNotEnoughAvailable_throwsInsufficientStock() {
         Stock stock = Stock.builder()
                 .product(new Product())
-                .totalQuantity(50)
-                .availableQuantity(40)
-                .reservedQuantity(10)
+                .totalQuantity(10)
+                .availableQuantity(1)
+                .reservedQuantity(9)
                 .build();
+        when(stockRepository.reserveQuantity(1L, 2)).thenReturn(0);
         when(stockRepository.findByProduct_ProductId(1L)).thenReturn(Optional.of(stock));
 
+        assertThrows(InsufficientStockException.class, () -> stockService.reserveStock(1L, 2));
+    }
+
+    @Test
+    void reserveStock_whenStockMissing_throwsStockNotFound() {
+        when(stockRepository.reserveQuantity(1L, 2)).thenReturn(0);
+        when(stockRepository.findByProduct_ProductId(1L)).thenReturn(Optional.empty());
+
+        assertThrows(StockNotFound.class, () -> stockService.reserveStock(1L, 2));
+    }
+
+    @Test
+    void confirmReservations_movesReservedToSold_withOneStatementPerTable() {
+        StockReservation res1 = StockReservation.builder().reservationId(5L).productId(1L).quantity(3).build();
+        StockReservation res2 = StockReservation.builder().reservationId(6L).productId(1L).quantity(2).build();
+        StockReservation expired = StockReservation.builder().reservationId(7L).productId(4L).quantity(1).build();
+        List<StockReservation> list = List.of(res1, res2, expired);
+
+        List<Object[]> activeRows = new ArrayList<>();
+        activeRows.add(new Object[]{5L, 1L, 3});
+        activeRows.add(new Object[]{6L, 1L, 2});
+        when(stockReservationRepository.lockActiveByIds(List.of(5L, 6L, 7L))).thenReturn(activeRows);
+        List<Object[]> stockRows = new ArrayList<>();
+        stockRows.add(new Object[]{1L, 5});
+        when(stockRepository.lockReservedQuantities(anyCollection())).thenReturn(stockRows);
+        when(stockRepository.confirmQuantities(any())).thenReturn(1);
+
         stockService.confirmReservations(list);
 
-        assertEquals(7, stock.getReservedQuantity());
-        assertEquals(47, stock.getTotalQuantity());
-        assertEquals(ReservationStatus.CONFIRMED, res.getStatus());
-        assertNotNull(res.getConfirmedAt());
-        verify(stockReservationRepository).saveAll(list);
-        verify(stockRepository).save(stock);
+        verify(stockReservationRepository).markConfirmed(eq(List.of(5L, 6L)), any(LocalDateTime.class));
+        verify(stockRepository).confirmQuantities(new TreeMap<>(Map.of(1L, 5)));
+        verify(stockReservationRepository).syncClosedStatus(eq(List.of(res1, res2)),
+                eq(ReservationStatus.CONFIRMED), any(LocalDateTime.class));
+        verify(stockRepository, never()).confirmQuantity(anyLong(), anyInt());
+        verify(stockReservationRepository, never()).saveAll(anyList());
+        verify(stockRepository, never()).save(any(Stock.class));
+    }
+
+    @Test
+    void confirmReservations_whenProductIsShortOfReservedUnits_leavesItsReservationsActive() {
+        StockReservation res1 = StockReservation.builder().reservationId(5L).productId(1L).quantity(3).build();
+        StockReservation res2 = StockReservation.builder().reservationId(6L).productId(2L).quantity(2).build();
+
+        List<Object[]> activeRows = new ArrayList<>();
+        activeRows.add(new Object[]{5L, 1L, 3});
+        activeRows.add(new Object[]{6L, 2L, 2});
+        when(stockReservationRepository.lockActiveByIds(List.of(5L, 6L))).thenReturn(activeRows);
+        // product 2 only has 1 reserved unit left
+        List<Object[]> stockRows = new ArrayList<>();
+        stockRows.add(new Object[]{1L, 3});
+        stockRows.add(new Object[]{2L, 1});
+        when(stockRepository.lockReservedQuantities(anyCollection())).thenReturn(stockRows);
+        when(stockRepository.confirmQuantities(any())).thenReturn(1);
+
+        stockService.confirmReservations(List.of(res1, res2));
+
+        verify(stockRepository).confirmQuantities(new TreeMap<>(Map.of(1L, 3)));
+        verify(stockReservationRepository).markConfirmed(eq(List.of(5L)), any(LocalDateTime.class));
+        verify(stockReservationRepository).syncClosedStatus(eq(List.of(res1)),
+                eq(ReservationStatus.CONFIRMED), any(LocalDateTime.class));
     }
 
     @Test
     void releaseReservations_whenActive_releasesStock_and_updatesStatus() {
-        StockReservation res = new StockReservation();
-        res.setProductId(2L);
-        res.setQuantity(4);
-        res.setStatus(ReservationStatus.ACTIVE);
+        StockReservation res = StockReservation.builder().reservationId(8L).productId(2L).quantity(4).build();
         List<StockReservation> list = List.of(res);
 
-        Stock stock = Stock.builder()
-                .product(new Product())
-                .totalQuantity(30)
-                .availableQuantity(10)
-                .reservedQuantity(8)
-                .build();
-        when(stockRepository.findByProduct_ProductId(2L)).thenReturn(Optional.of(stock));
+        List<Object[]> activeRows = new ArrayList<>();
+        activeRows.add(new Object[]{8L, 2L, 4});
+        when(stockReservationRepository.lockActiveByIds(List.of(8L))).thenReturn(activeRows);
+        List<Object[]> stockRows = new ArrayList<>();
+        stockRows.add(new Object[]{2L, 4});
+        when(stockRepository.lockReservedQuantities(anyCollection())).thenReturn(stockRows);
+        when(stockRepository.releaseQuantities(any())).thenReturn(1);
 
         stockService.releaseReservations(list);
 
-        assertEquals(14, stock.getAvailableQuantity());
-        assertEquals(4, stock.getReservedQuantity());
-        assertEquals(ReservationStatus.RELEASED, res.getStatus());
-        assertNotNull(res.getReleasedAt());
-        verify(stockReservationRepository).saveAll(list);
-        verify(stockRepository).save(stock);
+        verify(stockReservationRepository).markReleased(eq(List.of(8L)), any(LocalDateTime.class));
+        verify(stockRepository).releaseQuantities(new TreeMap<>(Map.of(2L, 4)));
+        verify(stockReservationRepository).syncClosedStatus(eq(List.of(res)),
+                eq(ReservationStatus.RELEASED), any(LocalDateTime.class));
+        verify(stockReservationRepository, never()).saveAll(anyList());
+        verify(stockRepository, never()).save(any(Stock.class));
     }
-}
 
+    @Test
+    void releaseReservations_whenNoneActive_changesNothing() {
+        StockReservation res = StockReservation.builder().reservationId(8L).productId(2L).quantity(4)
+                .status(ReservationStatus.RELEASED).build();
+        when(stockReservationRepository.lockActiveByIds(List.of(8L))).thenReturn(List.of());
+
+        stockService.releaseReservations(List.of(res));
+
+        verify(stockReservationRepository, never()).markReleased(anyCollection(), any());
+        verify(stockRepository, never()).releaseQuantities(any());
+    }
+
+    @Test
+    void releaseExpiredReservations_marksBatchReleased_andReleasesOncePerProduct() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime oldest = now.minusMinutes(5);
+        List<Object[]> expiredRows = new ArrayList<>();
+        expiredRows.add(new Object[]{10L, 2L, 1, oldest, 7L});
+        expiredRows.add(new Object[]{11L, 1L, 3, now.minusMinutes(2), null});
+        expiredRows.add(new Object[]{12L, 2L, 4, now.minusMinutes(1), 7L});
+        when(stockReservationRepository.lockExpiredActive(now, 100)).thenReturn(expiredRows);
+        List<Object[]> stockRows = new ArrayList<>();
+        stockRows.add(new Object[]{1L, 3});
+        stockRows.add(new Object[]{2L, 5});
+        when(stockRepository.lockReservedQuantities(anyCollection())).thenReturn(stockRows);
+        when(stockRepository.releaseQuantities(any())).thenReturn(2);
+
+        StockService.ExpiredBatch batch = stockService.releaseExpiredReservations(now, 100);
+
+        assertEquals(3, batch.released());
+        assertEquals(oldest, batch.oldestExpiresAt());
+        verify(stockReservationRepository).markReleased(List.of(10L, 11L, 12L), now);
+        verify(stockRepository).releaseQuantities(new TreeMap<>(Map.of(1L, 3, 2L, 5)));
+        verify(warehouseStockService).release(List.of(new WarehouseQuantity(2L, 7L, 5)));
+        verify(stockRepository, never()).releaseQuantity(anyLong(), anyInt());
+        verify(stockReservationRepository, never()).findAll();
+    }
+
+    @Test
+    void getAvailableStock_readsChunksWithOneQueryEach_andSkipsProductsWithoutStock() {
+        List<Long> productIds = new ArrayList<>();
+        for (long id = 1; id <= StockService.AVAILABILITY_CHUNK_SIZE + 2; id++) {
+            productIds.add(id);
+        }
+        productIds.add(1L);
+        when(stockRepository.findAvailableQuantities(anyCollection())).thenAnswer(inv -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (Object id : inv.<Collection<?>>getArgument(0)) {
+                if (!id.equals(2L)) {
+                    rows.add(new Object[]{id, ((Long) id).intValue() * 10});
+                }
+            }
+            return rows;
+        });
+
+        LongIntHashMap available = stockService.getAvailableStock(productIds);
+
+        assertEquals(StockService.AVAILABILITY_CHUNK_SIZE + 1, available.size());
+        assertEquals(10, available.getOrDefault(1L, -1));
+        assertFalse(available.containsKey(2L));
+        assertEquals((StockService.AVAILABILITY_CHUNK_SIZE + 2) * 10,
+                available.getOrDefault(StockService.AVAILABILITY_CHUNK_SIZE + 2, -1));
+        verify(stockRepository, times(2)).findAvailableQuantities(anyCollection());
+        verify(stockRepository, never()).findByProduct_ProductId(anyLong());
+    }
+
+    @Test
+    void setWarehouseQuantity_setsAvailableToWarehouseTotal_afterLockingTheStockRow() {
+        when(warehouseStockService.setQuantity(3L, 7L, 4)).thenReturn(9);
+        when(stockRepository.adjustAvailableQuantity(3L, 9)).thenReturn(1);
+
+        stockService.setWarehouseQuantity(3L, 7L, 4);
+
+        InOrder order = inOrder(stockRepository, warehouseStockService);
+        order.verify(stockRepository).lockAvailableQuantities(List.of(3L));
+        order.verify(warehouseStockService).setQuantity(3L, 7L, 4);
+        order.verify(stockRepository).adjustAvailableQuantity(3L, 9);
+    }
+
+    @Test
+    void restockAndAdjust_ofProductStockedPerWarehouse_goThroughItsWarehouses() {
+        when(warehouseStockService.findTrackedProducts(List.of(3L))).thenReturn(Set.of(3L));
+        when(warehouseStockService.addQuantity(3L, 7L, 5)).thenReturn(12);
+        when(stockRepository.adjustAvailableQuantity(3L, 12)).thenReturn(1);
+
+        assertThrows(IllegalArgumentException.class, () -> stockService.restockProduct(3L, 5));
+        assertThrows(IllegalArgumentException.class, () -> stockService.adjustAvailableStock(3L, 5));
+        stockService.restockProduct(3L, 5, 7L);
+
+        verify(stockRepository, never()).restockQuantity(anyLong(), anyInt());
+        verify(stockRepository).adjustAvailableQuantity(3L, 12);
+        verify(stockRepository, times(1)).adjustAvailableQuantity(anyLong(), anyInt());
+    }
+}
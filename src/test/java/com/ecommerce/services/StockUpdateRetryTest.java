@@ -0,0 +1,144 @@
+package com.ecommerce.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StockUpdateRetryTest {
+
+    private CountingTransactionManager transactionManager;
+    private SimpleMeterRegistry meterRegistry;
+    private StockUpdateRetry stockUpdateRetry;
+
+    @BeforeEach
+    void setup() {
+        transactionManager = new CountingTransactionManager();
+        meterRegistry = new SimpleMeterRegistry();
+        stockUpdateRetry = new StockUpdateRetry(transactionManager, meterRegistry);
+    }
+
+    @Test
+    void execute_retriesConflicts_andRecordsThemPerProduct() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = stockUpdateRetry.execute("restock", 7L, () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new ObjectOptimisticLockingFailureException("Stock", 7L);
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+        assertEquals(2, meterRegistry.get("stock.update.conflicts").tag("product", "7").counter().count());
+        assertEquals(2, meterRegistry.get("stock.update.retries").tag("operation", "restock").counter().count());
+        assertEquals(3, meterRegistry.get("stock.update.attempts").summary().max());
+    }
+
+    @Test
+    void execute_givesUpAfterMaxAttempts() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> stockUpdateRetry.run("adjust", 7L, () -> {
+            calls.incrementAndGet();
+            throw new ObjectOptimisticLockingFailureException("Stock", 7L);
+        }));
+
+        assertEquals(4, calls.get());
+        assertEquals(1, meterRegistry.get("stock.update.giveups").tag("product", "7").counter().count());
+    }
+
+    @Test
+    void execute_doesNotRetryOtherFailures() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> stockUpdateRetry.run("adjust", 7L, () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void execute_retriesEachAttemptInNewTransaction() {
+        AtomicInteger calls = new AtomicInteger();
+
+        stockUpdateRetry.run("release", 7L, () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new ObjectOptimisticLockingFailureException("Stock", 7L);
+            }
+        });
+
+        assertEquals(3, transactionManager.begun);
+        assertEquals(2, transactionManager.rolledBack);
+        assertEquals(1, transactionManager.committed);
+    }
+
+    @Test
+    void execute_insideCallerTransaction_joinsIt_andLeavesConflictsToTheCaller() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                        stockUpdateRetry.run("confirm", null, () -> {
+                            calls.incrementAndGet();
+                            throw new ObjectOptimisticLockingFailureException("Stock", 7L);
+                        })));
+
+        assertEquals(1, calls.get());
+        assertEquals(1, transactionManager.begun);
+        assertEquals(1, transactionManager.rolledBack);
+        assertEquals(0, transactionManager.committed);
+    }
+
+    @Test
+    void execute_calledByAnotherMutation_joinsItsAttempt() {
+        AtomicInteger calls = new AtomicInteger();
+
+        stockUpdateRetry.run("cleanup-expired", null, () ->
+                stockUpdateRetry.run("release", 7L, calls::incrementAndGet));
+
+        assertEquals(1, calls.get());
+        assertEquals(1, transactionManager.begun);
+    }
+
+    /**
+     * Counts transactions; marks them active on the thread as a real transaction manager does.
+     */
+    static class CountingTransactionManager extends AbstractPlatformTransactionManager {
+
+        int begun;
+        int committed;
+        int rolledBack;
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            begun++;
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            committed++;
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+            rolledBack++;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ecommerce.services;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.ecommerce.services.WarehouseStockIndexTest.index;
+import static com.ecommerce.services.WarehouseStockIndexTest.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Wall-clock benchmark of the allocation, kept out of the unit suite: {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+public class WarehouseStockIndexBenchmark {
+
+    /**
+     * 50 warehouses, 20k products each stocked in 1 to 10 random warehouses, carts of 1 to 10 lines.
+     * Typical carts must be allocated in well under a millisecond.
+     */
+    @Test
+    void allocate_fiftyWarehouses_typicalCartUnderOneMillisecond() {
+        Random random = new Random(42);
+        int warehouseCount = 50;
+        int productCount = 20_000;
+        List<Long> warehouseIds = new ArrayList<>();
+        for (long id = 1; id <= warehouseCount; id++) {
+            warehouseIds.add(id);
+        }
+        List<Object[]> rows = new ArrayList<>();
+        for (long productId = 1; productId <= productCount; productId++) {
+            List<Long> shuffled = new ArrayList<>(warehouseIds);
+            Collections.shuffle(shuffled, random);
+            for (long warehouseId : shuffled.subList(0, 1 + random.nextInt(10))) {
+                rows.add(row(productId, warehouseId, random.nextInt(20)));
+            }
+        }
+        WarehouseStockIndex index = index(warehouseIds, rows);
+
+        List<SortedMap<Long, Integer>> carts = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            SortedMap<Long, Integer> cart = new TreeMap<>();
+            int lines = 1 + random.nextInt(10);
+            while (cart.size() < lines) {
+                cart.put(1L + random.nextInt(productCount), 1 + random.nextInt(3));
+            }
+            carts.add(cart);
+        }
+
+        for (int warmup = 0; warmup < 5; warmup++) {
+            carts.forEach(index::allocate);
+        }
+        long[] nanos = new long[carts.size()];
+        for (int i = 0; i < carts.size(); i++) {
+            long started = System.nanoTime();
+            index.allocate(carts.get(i));
+            nanos[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(nanos);
+        long median = nanos[nanos.length / 2];
+        long p99 = nanos[nanos.length * 99 / 100];
+
+        assertTrue(median < 1_000_000, "median allocation " + median + " ns, p99 " + p99 + " ns");
+    }
+}
@@ -0,0 +1,95 @@
+package com.ecommerce.services;
+
+import com.ecommerce.models.Warehouse;
+import com.ecommerce.repositories.WarehouseStockRepositoryCustom.WarehouseQuantity;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseStockIndexTest {
+
+    @Test
+    void allocate_prefersOneWarehouseHoldingTheWholeCart_inShippingOrder() {
+        WarehouseStockIndex index = index(List.of(30L, 10L, 20L), rows(
+                row(1, 10, 5), row(2, 10, 0),
+                row(1, 20, 5), row(2, 20, 5),
+                row(1, 30, 5), row(2, 30, 5)));
+
+        WarehouseStockIndex.Allocation allocation = index.allocate(cart(1, 2, 2, 1));
+
+        assertEquals(1, allocation.shipments());
+        assertEquals(List.of(new WarehouseQuantity(1, 30, 2), new WarehouseQuantity(2, 30, 1)), allocation.lines());
+    }
+
+    @Test
+    void allocate_withoutSingleWarehouse_picksFewestWarehouses_andSplitsOverChosenOnesFirst() {
+        // warehouse 20 holds products 1 and 2, 10 holds 3; product 4 needs units of both 20 and 30
+        WarehouseStockIndex index = index(List.of(10L, 20L, 30L), rows(
+                row(1, 10, 1), row(3, 10, 9),
+                row(1, 20, 4), row(2, 20, 4), row(4, 20, 2),
+                row(2, 30, 9), row(4, 30, 9)));
+
+        WarehouseStockIndex.Allocation allocation = index.allocate(cart(1, 3, 2, 3, 3, 1, 4, 5));
+
+        assertEquals(3, allocation.shipments());
+        assertEquals(List.of(
+                new WarehouseQuantity(1, 20, 3),
+                new WarehouseQuantity(2, 20, 3),
+                new WarehouseQuantity(3, 10, 1),
+                new WarehouseQuantity(4, 30, 5)), allocation.lines());
+        assertTrue(allocation.shortProducts().isEmpty());
+    }
+
+    @Test
+    void allocate_splitsLineNoWarehouseHolds_andReportsShortProducts_andSkipsUntrackedOnes() {
+        WarehouseStockIndex index = index(List.of(10L, 20L), rows(
+                row(1, 10, 3), row(1, 20, 4),
+                row(2, 10, 1), row(2, 20, 1)));
+
+        WarehouseStockIndex.Allocation allocation = index.allocate(cart(1, 6, 2, 5, 99, 1));
+
+        assertEquals(List.of(new WarehouseQuantity(1, 10, 3), new WarehouseQuantity(1, 20, 3)), allocation.lines());
+        assertEquals(List.of(2L), allocation.shortProducts());
+        assertFalse(index.tracks(99));
+    }
+
+    @Test
+    void add_updatesQuantities_andReplaceDropsProductsWithoutRows() {
+        WarehouseStockIndex index = index(List.of(10L), rows(row(1, 10, 2), row(2, 10, 2)));
+
+        index.add(List.of(new WarehouseQuantity(1, 10, 2)), -1);
+        assertEquals(List.of(1L), index.allocate(cart(1, 1)).shortProducts());
+
+        index.replace(List.of(1L, 2L), rows(row(1, 10, 7)));
+        assertTrue(index.allocate(cart(1, 7)).shortProducts().isEmpty());
+        assertFalse(index.tracks(2));
+    }
+
+    static WarehouseStockIndex index(List<Long> warehouseIdsInShippingOrder, List<Object[]> rows) {
+        List<Warehouse> warehouses = new ArrayList<>();
+        for (Long warehouseId : warehouseIdsInShippingOrder) {
+            warehouses.add(Warehouse.builder().warehouseId(warehouseId).build());
+        }
+        WarehouseStockIndex index = new WarehouseStockIndex();
+        index.replaceAll(warehouses, rows);
+        return index;
+    }
+
+    static Object[] row(long productId, long warehouseId, int quantity) {
+        return new Object[]{productId, warehouseId, quantity};
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return new ArrayList<>(Arrays.asList(rows));
+    }
+
+    private static SortedMap<Long, Integer> cart(long... productIdQuantityPairs) {
+        SortedMap<Long, Integer> cart = new TreeMap<>();
+        for (int i = 0; i < productIdQuantityPairs.length; i += 2) {
+            cart.put(productIdQuantityPairs[i], (int) productIdQuantityPairs[i + 1]);
+        }
+        return cart;
+    }
+}
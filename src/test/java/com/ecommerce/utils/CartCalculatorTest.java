@@ -0,0 +1,52 @@
+package com.ecommerce.utils;
+
+import com.ecommerce.models.Cart;
+import com.ecommerce.models.CartItem;
+import com.ecommerce.models.Product;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartCalculatorTest {
+
+    private final CartCalculator calculator = new CartCalculator();
+
+    @Test
+    void unitPrice_usesDiscountPriceOnlyWhileAValidDiscountIsOn() {
+        assertEquals(8.5, calculator.unitPrice(product(10.0, true, 8.5)));
+        assertEquals(10.0, calculator.unitPrice(product(10.0, false, 8.5)));
+        assertEquals(10.0, calculator.unitPrice(product(10.0, true, null)));
+        // a discount price above the regular price is ignored
+        assertEquals(10.0, calculator.unitPrice(product(10.0, true, 12.0)));
+    }
+
+    @Test
+    void addUnits_addsExactMinorUnits_whereDoublesDrift() {
+        Cart cart = Cart.builder().totalItems(0).totalAmount(0.0).build();
+
+        for (int i = 0; i < 10; i++) {
+            calculator.addUnits(cart, 0.1, 1);
+        }
+
+        assertEquals(10, cart.getTotalItems());
+        assertEquals(1.0, cart.getTotalAmount());
+    }
+
+    @Test
+    void ensureTotals_recomputesOnlyTotalsNeverMaintained() {
+        Cart cart = Cart.builder().totalItems(0).totalAmount(0.0).build();
+        cart.addItem(CartItem.builder().productId(1L).quantity(3).price(2.25).build());
+
+        calculator.ensureTotals(cart);
+        assertEquals(3, cart.getTotalItems());
+        assertEquals(6.75, cart.getTotalAmount());
+
+        cart.updateTotals(5, 9.0);
+        calculator.ensureTotals(cart);
+        assertEquals(5, cart.getTotalItems());
+    }
+
+    private static Product product(Double price, boolean withDiscount, Double discountPrice) {
+        return Product.builder().price(price).withDiscount(withDiscount).discountPrice(discountPrice).build();
+    }
+}
@@ -0,0 +1,117 @@
+package com.ecommerce.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongIntHashMapTest {
+
+    @Test
+    void put_pastInitialCapacity_resizesAndKeepsEveryEntry() {
+        LongIntHashMap map = new LongIntHashMap(2);
+
+        for (long key = 0; key < 10_000; key++) {
+            map.put(key * 31, (int) key);
+        }
+
+        assertEquals(10_000, map.size());
+        for (long key = 0; key < 10_000; key++) {
+            assertEquals((int) key, map.getOrDefault(key * 31, -1));
+        }
+    }
+
+    @Test
+    void put_existingKey_overwritesWithoutGrowing() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        map.put(7L, 1);
+        map.put(7L, 2);
+
+        assertEquals(1, map.size());
+        assertEquals(2, map.getOrDefault(7L, -1));
+    }
+
+    @Test
+    void collidingKeys_areProbedPastEachOther_acrossResize() {
+        // three keys hashing to the same slot of an 8-slot table
+        List<Long> keys = collidingKeys(8, 3);
+        LongIntHashMap map = new LongIntHashMap(4);
+
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), i + 1);
+        }
+        map.put(keys.get(1), 20);
+        for (long key = 1_000; key < 1_010; key++) {
+            map.put(key, 0);
+        }
+
+        assertEquals(13, map.size());
+        assertEquals(1, map.getOrDefault(keys.get(0), -1));
+        assertEquals(20, map.getOrDefault(keys.get(1), -1));
+        assertEquals(3, map.getOrDefault(keys.get(2), -1));
+    }
+
+    @Test
+    void missingKey_isNotContained_andReadsAsDefault_whilePresentZeroIsContained() {
+        LongIntHashMap map = new LongIntHashMap();
+        // 0 is also the value of every empty key slot
+        assertFalse(map.containsKey(0L));
+        assertEquals(-1, map.getOrDefault(0L, -1));
+
+        map.put(5L, 0);
+
+        assertTrue(map.containsKey(5L));
+        assertEquals(0, map.getOrDefault(5L, -1));
+        assertFalse(map.containsKey(6L));
+        assertEquals(-1, map.getOrDefault(6L, -1));
+        assertEquals(0, map.getOrDefault(6L, 0));
+    }
+
+    @Test
+    void forEach_visitsEveryEntryOnce_includingNegativeAndExtremeKeys() {
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = Map.of(0L, 1, -3L, 2, Long.MIN_VALUE, 3, Long.MAX_VALUE, 4, 42L, 5);
+        expected.forEach(map::put);
+
+        Map<Long, Integer> visited = new HashMap<>();
+        map.forEach((key, value) -> assertNull(visited.put(key, value), "visited twice: " + key));
+
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void equals_ignoresCapacityAndInsertionOrder() {
+        LongIntHashMap small = new LongIntHashMap(1);
+        small.put(1L, 10);
+        small.put(2L, 20);
+        LongIntHashMap large = new LongIntHashMap(100);
+        large.put(2L, 20);
+        large.put(1L, 10);
+
+        assertEquals(small, large);
+        assertEquals(small.hashCode(), large.hashCode());
+        large.put(3L, 30);
+        assertNotEquals(small, large);
+    }
+
+    /**
+     * Keys landing on the same home slot of a table of {@code capacity} slots (same hash as the map).
+     */
+    private static List<Long> collidingKeys(int capacity, int count) {
+        Map<Integer, List<Long>> bySlot = new HashMap<>();
+        for (long key = 1; ; key++) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h ^ (h >>> 32)) & (capacity - 1);
+            List<Long> keys = bySlot.computeIfAbsent(slot, s -> new ArrayList<>());
+            keys.add(key);
+            if (keys.size() == count) {
+                return keys;
+            }
+        }
+    }
+}